@@ -0,0 +1,67 @@
+package com.bencullivan.blizzard.json;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building an org.json tree of a request body with binding the body straight to a class with JsonReader.
+ * Run with: ./gradlew jmh
+ * @author Ben Cullivan (2020)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonReaderBenchmark {
+
+    public static class Item {
+        public String sku;
+        public int quantity;
+        public double price;
+    }
+
+    public static class Order {
+        public String id;
+        public String customer;
+        public List<Item> items;
+        public boolean gift;
+    }
+
+    /**
+     * A typical POST body: an order with a few items.
+     */
+    @State(Scope.Benchmark)
+    public static class Body {
+        public String text;
+        public byte[] bytes;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            StringBuilder json = new StringBuilder("{\"id\": \"ord-1042\", \"customer\": \"ann@example.com\", ");
+            json.append("\"items\": [");
+            for (int i = 0; i < 8; i++) {
+                json.append(i == 0 ? "" : ", ").append("{\"sku\": \"SKU-").append(i)
+                        .append("\", \"quantity\": ").append(i + 1).append(", \"price\": ").append(i).append(".99}");
+            }
+            text = json.append("], \"gift\": false}").toString();
+            bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public Object orgJsonTree(Body body) {
+        // what processBody() used to do for every JSON body (decode it to a String, then build a tree)
+        return new JSONObject(new String(body.bytes, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public Order jsonReaderBinding(Body body) throws IOException {
+        return new JsonReader(body.bytes, 0, body.bytes.length).read(Order.class);
+    }
+}
@@ -0,0 +1,118 @@
+package com.bencullivan.blizzard.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the queues that BlizzardStore can hand out.
+ * Run with: ./gradlew jmh
+ * @author Ben Cullivan (2020)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+
+    private static final Integer ELEMENT = 1;  // the element passed through the queues
+    private static final int CAPACITY = 2048;  // the capacity of every queue (the default event queue size)
+
+    /**
+     * A queue with one producer thread and one consumer thread. (e.g. the accepted channel queue)
+     */
+    @State(Scope.Group)
+    public static class SingleProducer {
+        @Param({"ARRAY_BLOCKING", "MPMC_RING", "SPSC_RING"})
+        public String queue;
+        public BlockingQueue<Integer> q;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            q = create(queue);
+        }
+    }
+
+    /**
+     * A queue with several producer and consumer threads. (e.g. the event queue)
+     */
+    @State(Scope.Group)
+    public static class MultiProducer {
+        @Param({"ARRAY_BLOCKING", "MPMC_RING"})
+        public String queue;
+        public BlockingQueue<Integer> q;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            q = create(queue);
+        }
+    }
+
+    /**
+     * The batch that each consumer thread drains into.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        public final ArrayList<Integer> elements = new ArrayList<>(8);
+    }
+
+    /**
+     * @param queue The name of the queue.
+     * @return A new queue.
+     */
+    private static BlockingQueue<Integer> create(String queue) {
+        return switch (queue) {
+            case "ARRAY_BLOCKING" -> new ArrayBlockingQueue<>(CAPACITY);
+            case "MPMC_RING" -> new MpmcRingBuffer<>(CAPACITY);
+            default -> new SpscRingBuffer<>(CAPACITY);
+        };
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public boolean spscOffer(SingleProducer state) {
+        return state.q.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("spsc")
+    @GroupThreads(1)
+    public Integer spscPoll(SingleProducer state) {
+        return state.q.poll();
+    }
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(4)
+    public boolean mpmcOffer(MultiProducer state) {
+        return state.q.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("mpmc")
+    @GroupThreads(4)
+    public Integer mpmcPoll(MultiProducer state) {
+        return state.q.poll();
+    }
+
+    @Benchmark
+    @Group("mpmcBatch")
+    @GroupThreads(4)
+    public boolean mpmcBatchOffer(MultiProducer state) {
+        return state.q.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("mpmcBatch")
+    @GroupThreads(4)
+    public int mpmcBatchDrain(MultiProducer state, Batch batch) {
+        int count = state.q.drainTo(batch.elements, 8);
+        batch.elements.clear();
+        return count;
+    }
+}
@@ -0,0 +1,64 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.events.BodyMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how quickly a Router with 1000 routes matches request paths.
+ * Run with: ./gradlew jmh
+ * @author Ben Cullivan (2020)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    private static final int RESOURCES = 250;  // each resource has four routes, so there are 1000 in total
+
+    /**
+     * A frozen router holding the routes of every resource, and the array that the url parameters are matched into.
+     */
+    @State(Scope.Thread)
+    public static class Routes {
+        public Router router;
+        public int[] params;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            router = new Router();
+            for (int i = 0; i < RESOURCES; i++) {
+                String resource = "/api/v1/resource" + i;
+                router.insert(resource, (req, res) -> {}, BodyMode.BUFFERED);
+                router.insert(resource + "/:id", (req, res) -> {}, BodyMode.BUFFERED);
+                router.insert(resource + "/:id/items/:itemId", (req, res) -> {}, BodyMode.BUFFERED);
+                router.insert(resource + "/:id/files/*path", (req, res) -> {}, BodyMode.BUFFERED);
+            }
+            router.freeze();
+            params = new int[2*router.getMaxParams()];
+        }
+    }
+
+    @Benchmark
+    public Route matchStatic(Routes state) {
+        return state.router.match("/api/v1/resource187", state.params);
+    }
+
+    @Benchmark
+    public Route matchParams(Routes state) {
+        return state.router.match("/api/v1/resource187/42/items/7", state.params);
+    }
+
+    @Benchmark
+    public Route matchWildcard(Routes state) {
+        return state.router.match("/api/v1/resource187/42/files/docs/readme.txt", state.params);
+    }
+
+    @Benchmark
+    public Route matchMissing(Routes state) {
+        return state.router.match("/api/v1/resource187/42/unknown", state.params);
+    }
+}
@@ -1,12 +1,28 @@
 package com.bencullivan.blizzard;
 
+import com.bencullivan.blizzard.eventloop.BlizzardAcceptor;
 import com.bencullivan.blizzard.eventloop.BlizzardEventLoop;
 import com.bencullivan.blizzard.eventloop.BlizzardListener;
+import com.bencullivan.blizzard.eventloop.BlizzardBackpressure;
+import com.bencullivan.blizzard.eventloop.LoadBalancing;
+import com.bencullivan.blizzard.eventloop.OverloadPolicy;
+import com.bencullivan.blizzard.eventloop.OverloadStats;
+import com.bencullivan.blizzard.eventloop.SelectMode;
+import com.bencullivan.blizzard.events.BodyMode;
 import com.bencullivan.blizzard.events.RouteCallback;
+import com.bencullivan.blizzard.http.BodyCodec;
 import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.BufferPool;
+import com.bencullivan.blizzard.util.CachePolicy;
+import com.bencullivan.blizzard.util.QueueType;
+import com.bencullivan.blizzard.util.RequestExecutor;
+import com.bencullivan.blizzard.util.ResponseCache;
+import com.bencullivan.blizzard.util.SingleFlight;
+import com.bencullivan.blizzard.util.StaticDirectory;
 
 import java.io.IOException;
 import java.nio.channels.Selector;
+import java.util.concurrent.ExecutorService;
 
 /**
  * This is where all the magic happens.
@@ -19,6 +35,22 @@ public class BlizzardServer {
     private final int PROCESSOR_COUNT;
     private final int HB_SIZE;
     private final BlizzardStore store;
+    private int eventLoopCount;  // the number of event loops that will handle reading and writing
+    private LoadBalancing loadBalancing;  // how new connections are spread across the event loops
+    private SelectMode selectMode;  // whether the event loops spin or park when they have nothing to do
+    private long selectTimeout;  // the longest time (in ms) that a parked event loop will wait before checking for work
+    private int preallocatedBuffers;  // the number of read buffers that are allocated when the server starts
+    private int maxPooledBuffers;  // the maximum number of idle read buffers that are kept for reuse
+    private boolean directBuffers;  // whether read buffers are allocated outside of the java heap
+    private boolean bufferPoolStats;  // whether the buffer pool counts its hits and misses
+    private BufferPool bufferPool;  // the pool of read buffers (created by listen())
+    private OverloadPolicy overloadPolicy;  // what happens to a request when the event queue is full
+    private int spillQueueSize;  // the size of each event loop's spill queue (SPILL only)
+    private final OverloadStats overloadStats;  // counts how often the overload policy was applied
+    private ExecutorService requestExecutor;  // runs the route callbacks (null if the processor pool does)
+    private int maxConcurrentRequests;  // the cap on requests in flight on the request executor
+    private long idleTimeout;  // the time (in ms) after which an idle connection is closed (0 if never)
+    private int maxRequestsPerConnection;  // the number of requests after which a connection is closed (0 if never)
 
     public BlizzardServer() {
         this(20, 2000, 2000,
@@ -30,7 +62,7 @@ public class BlizzardServer {
      * @param acceptedChannelQueueSize The size of the queue that will hold newly accepted SocketChannels.
      * @param eventQueueSize The size of the queue that will hold events that need to be processed.
      * @param requestQueueSize The size of the queue that will hold requests that need to be processed.
-     * @param hbSize The size of the header buffer of a BlizzardMessage.
+     * @param hbSize The size of the buffers that BlizzardMessages are read into.
      */
     public BlizzardServer(int processorCount, int acceptedChannelQueueSize, int eventQueueSize, int requestQueueSize,
                           int hbSize) {
@@ -38,6 +70,242 @@ public class BlizzardServer {
         PROCESSOR_COUNT = processorCount;
         store = new BlizzardStore(acceptedChannelQueueSize, eventQueueSize, requestQueueSize);
         HB_SIZE = hbSize;
+        eventLoopCount = 1;
+        loadBalancing = LoadBalancing.ROUND_ROBIN;
+        selectMode = SelectMode.BLOCKING;
+        selectTimeout = 100;
+        preallocatedBuffers = 128;
+        maxPooledBuffers = 2048;
+        directBuffers = true;
+        bufferPoolStats = false;
+        overloadPolicy = OverloadPolicy.PAUSE_READS;
+        spillQueueSize = 1000;
+        overloadStats = new OverloadStats();
+        requestExecutor = null;
+        maxConcurrentRequests = 10000;
+        idleTimeout = 60000;
+        maxRequestsPerConnection = 1000;
+    }
+
+    /**
+     * Sets the number of event loops that will be started by listen(). Each event loop runs on its own thread with its
+     * own Selector, so reading and writing can scale with the number of cores.
+     * (This must be called before listen().)
+     * @param eventLoopCount The number of event loops.
+     */
+    public void setEventLoopCount(int eventLoopCount) {
+        if (eventLoopCount < 1) throw new IllegalArgumentException("There must be at least one event loop.");
+        this.eventLoopCount = eventLoopCount;
+    }
+
+    /**
+     * Sets how newly accepted connections are spread across the event loops. (This must be called before listen().)
+     * @param loadBalancing The load balancing strategy.
+     */
+    public void setLoadBalancing(LoadBalancing loadBalancing) {
+        this.loadBalancing = loadBalancing;
+    }
+
+    /**
+     * Sets whether the event loops busy spin with selectNow() or park in select(timeout) when they have nothing to do.
+     * BLOCKING (the default) keeps an idle server from using any CPU. (This must be called before listen().)
+     * @param selectMode The select mode.
+     */
+    public void setSelectMode(SelectMode selectMode) {
+        this.selectMode = selectMode;
+    }
+
+    /**
+     * Sets the longest time that a parked event loop will wait before checking for work on its own. Event loops are
+     * woken up as soon as they are handed work, so this only bounds how long a missed wakeup can delay a response.
+     * (This must be called before listen().)
+     * @param selectTimeout The timeout in milliseconds.
+     */
+    public void setSelectTimeout(long selectTimeout) {
+        if (selectTimeout < 1) throw new IllegalArgumentException("The select timeout must be at least 1 ms.");
+        this.selectTimeout = selectTimeout;
+    }
+
+    /**
+     * Sets the limits of the pool of buffers that SocketChannels are read into. (This must be called before listen().)
+     * @param preallocatedBuffers The number of buffers that are allocated when the server starts.
+     * @param maxPooledBuffers The maximum number of idle buffers that are kept for reuse. Once there are this many
+     *                         idle buffers, returned buffers are left to the garbage collector.
+     */
+    public void setBufferPoolSize(int preallocatedBuffers, int maxPooledBuffers) {
+        if (preallocatedBuffers < 0 || maxPooledBuffers < 1)
+            throw new IllegalArgumentException("Invalid buffer pool size.");
+        this.preallocatedBuffers = preallocatedBuffers;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Sets whether the pooled read buffers are direct buffers (the default) or heap buffers.
+     * (This must be called before listen().)
+     * @param directBuffers Whether the buffers are direct.
+     */
+    public void setDirectBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+    }
+
+    /**
+     * Sets whether the buffer pool counts its hits, misses and discards. (This must be called before listen().)
+     * @param bufferPoolStats Whether the counters are enabled.
+     */
+    public void setBufferPoolStats(boolean bufferPoolStats) {
+        this.bufferPoolStats = bufferPoolStats;
+    }
+
+    /**
+     * Sets the kind of queues that are used to hand connections, events and requests between threads. RING_BUFFER (the
+     * default) uses lock-free ring buffers; ARRAY_BLOCKING uses ArrayBlockingQueues. (This must be called before
+     * listen().)
+     * @param queueType The kind of queues.
+     */
+    public void setQueueType(QueueType queueType) {
+        store.setQueueType(queueType);
+    }
+
+    /**
+     * Sets what happens to a request when the event queue is full. PAUSE_READS (the default) stops reading from the
+     * sockets until the processor pool catches up, SHED answers the request with a 503 and SPILL holds it in a bounded
+     * spill queue (see setSpillQueueSize). (This must be called before listen().)
+     * @param overloadPolicy The overload policy.
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+
+    /**
+     * Sets how many requests each event loop can hold in its spill queue when the policy is SPILL. Requests that do not
+     * fit are answered with a 503. (This must be called before listen().)
+     * @param spillQueueSize The size of the spill queue.
+     */
+    public void setSpillQueueSize(int spillQueueSize) {
+        if (spillQueueSize < 0) throw new IllegalArgumentException("The spill queue size cannot be negative.");
+        this.spillQueueSize = spillQueueSize;
+    }
+
+    /**
+     * Runs the route callbacks on the given ExecutorService instead of the processor pool. Parsing stays on the
+     * processor pool, so callbacks that block (e.g. on JDBC calls) no longer starve the server of parsing threads.
+     * (This must be called before listen().)
+     * @param requestExecutor The ExecutorService, or null to run the callbacks on the processor pool (the default).
+     */
+    public void setRequestExecutor(ExecutorService requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+    /**
+     * Runs every route callback on its own virtual thread. (This must be called before listen().)
+     * @throws UnsupportedOperationException If this JVM does not support virtual threads (Java 21 or later).
+     */
+    public void useVirtualThreads() {
+        requestExecutor = RequestExecutor.newVirtualThreadExecutor();
+    }
+
+    /**
+     * Sets the maximum number of requests that can be running (or waiting to run) on the request executor at once.
+     * Requests beyond this are handled by the overload policy. (This must be called before listen().)
+     * @param maxConcurrentRequests The maximum number of requests in flight.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) throw new IllegalArgumentException("At least one request must be allowed.");
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Sets how long a connection can stay idle before it is closed. A connection is idle while none of its requests
+     * are waiting for responses. (This must be called before listen().)
+     * @param idleTimeout The timeout in milliseconds, or 0 to never close idle connections. (The default is 60000.)
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 0) throw new IllegalArgumentException("The idle timeout cannot be negative.");
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Sets the number of requests that are answered on one connection before it is closed. The response to the last
+     * request tells the client that the connection is being closed. (This must be called before listen().)
+     * @param maxRequestsPerConnection The number of requests, or 0 for no limit. (The default is 1000.)
+     */
+    public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        if (maxRequestsPerConnection < 0) {
+            throw new IllegalArgumentException("The maximum number of requests cannot be negative.");
+        }
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    /**
+     * Sets the size from which text, JSON and other compressible response bodies are compressed (with gzip or deflate,
+     * whichever the client's Accept-Encoding header prefers). Compressing small bodies costs more time than it saves.
+     * @param compressionThreshold The smallest body (in bytes) that is compressed, or -1 to disable compression. (The
+     *                             default is 1024.)
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < -1) throw new IllegalArgumentException("The compression threshold must be >= -1.");
+        store.setCompressionThreshold(compressionThreshold);
+    }
+
+    /**
+     * Sets the largest request body that is accepted. Requests that announce a larger body are answered with a 413
+     * before any of the body is read, and the connection is closed. (This must be called before listen().)
+     * @param maxBodySize The largest body in bytes. (The default is 16 MB.)
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        if (maxBodySize < 0) throw new IllegalArgumentException("The max body size cannot be negative.");
+        store.setMaxBodySize(maxBodySize);
+    }
+
+    /**
+     * Sets the size above which a request body is written to a temporary file as it arrives instead of being kept in
+     * memory. Routes registered with BodyMode.STREAMED can read such a body without loading it onto the heap. (This
+     * must be called before listen().)
+     * @param bodySpillThreshold The size in bytes. (The default is 1 MB.)
+     */
+    public void setBodySpillThreshold(int bodySpillThreshold) {
+        if (bodySpillThreshold < 0) throw new IllegalArgumentException("The spill threshold cannot be negative.");
+        store.setBodySpillThreshold(bodySpillThreshold);
+    }
+
+    /**
+     * Sets the most bytes of responses that are kept for the GET routes registered with a CachePolicy. Once the cache
+     * is full, the least recently used responses are evicted. (This must be called before listen().)
+     * @param maxSize The size in bytes, or 0 to disable the cache. (The default is 64 MB.)
+     */
+    public void setResponseCacheSize(long maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("The response cache size cannot be negative.");
+        store.setResponseCacheSize(maxSize);
+    }
+
+    /**
+     * @return The cache of the responses of the GET routes registered with a CachePolicy (with its hit, miss and
+     * eviction counts).
+     */
+    public ResponseCache getResponseCache() {
+        return store.getResponseCache();
+    }
+
+    /**
+     * @return The flights of identical requests to the single-flight GET routes (with the number of requests that
+     * shared a response).
+     */
+    public SingleFlight getSingleFlight() {
+        return store.getSingleFlight();
+    }
+
+    /**
+     * @return The counters that record how often the event loops applied backpressure.
+     */
+    public OverloadStats getOverloadStats() {
+        return overloadStats;
+    }
+
+    /**
+     * @return The pool of buffers that SocketChannels are read into, or null if listen() has not been called yet.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
     }
 
     /**
@@ -46,7 +314,18 @@ public class BlizzardServer {
      * @param callback The callback that will be executed when an HTTP request hits this route.
      */
     public void post(String path, RouteCallback callback) {
-        store.insertPostRoute(path.split("/"), callback);
+        store.insertPostRoute(path, callback);
+    }
+
+    /**
+     * Registers a POST route that receives request bodies in the given way.
+     * e.g. post("/upload", callback, BodyMode.STREAMED) lets the callback read the raw body with req.getBodyStream().
+     * @param path The route path.
+     * @param callback The callback that will be executed when an HTTP request hits this route.
+     * @param bodyMode How the route receives request bodies.
+     */
+    public void post(String path, RouteCallback callback, BodyMode bodyMode) {
+        store.insertPostRoute(path, callback, bodyMode);
     }
 
     /**
@@ -55,7 +334,22 @@ public class BlizzardServer {
      * @param callback The callback that will be executed when an HTTP request hits this route.
      */
     public void get(String path, RouteCallback callback) {
-        store.insertGetRoute(path.split("/"), callback);
+        store.insertGetRoute(path, callback);
+    }
+
+    /**
+     * Registers a GET route whose responses are cached, so that the callback is only called once per cache key while
+     * the response stays fresh.
+     * e.g. get("/products", callback, CachePolicy.ttl(5, TimeUnit.MINUTES)) answers every request for "/products" with
+     * the same response for five minutes, straight from the event loop. With CachePolicy.singleFlight() (or
+     * withSingleFlight()), the identical requests that arrive while the callback is running share its response instead
+     * of each calling it.
+     * @param path The route path.
+     * @param callback The callback that will be executed when an HTTP request hits this route.
+     * @param cachePolicy How the responses of the route are cached and shared.
+     */
+    public void get(String path, RouteCallback callback, CachePolicy cachePolicy) {
+        store.insertGetRoute(path, callback, cachePolicy);
     }
 
     /**
@@ -64,7 +358,17 @@ public class BlizzardServer {
      * @param callback The callback that will be executed when an HTTP request hits this route.
      */
     public void put(String path, RouteCallback callback) {
-        store.insertPutRoute(path.split("/"), callback);
+        store.insertPutRoute(path, callback);
+    }
+
+    /**
+     * Registers a PUT route that receives request bodies in the given way.
+     * @param path The route path.
+     * @param callback The callback that will be executed when an HTTP request hits this route.
+     * @param bodyMode How the route receives request bodies.
+     */
+    public void put(String path, RouteCallback callback, BodyMode bodyMode) {
+        store.insertPutRoute(path, callback, bodyMode);
     }
 
     /**
@@ -73,7 +377,17 @@ public class BlizzardServer {
      * @param callback The callback that will be executed when an HTTP request hits this route.
      */
     public void patch(String path, RouteCallback callback) {
-        store.insertPatchRoute(path.split("/"), callback);
+        store.insertPatchRoute(path, callback);
+    }
+
+    /**
+     * Registers a PATCH route that receives request bodies in the given way.
+     * @param path The route path.
+     * @param callback The callback that will be executed when an HTTP request hits this route.
+     * @param bodyMode How the route receives request bodies.
+     */
+    public void patch(String path, RouteCallback callback, BodyMode bodyMode) {
+        store.insertPatchRoute(path, callback, bodyMode);
     }
 
     /**
@@ -82,48 +396,105 @@ public class BlizzardServer {
      * @param callback The callback that will be executed when an HTTP request hits this route.
      */
     public void delete(String path, RouteCallback callback) {
-        store.insertDeleteRoute(path.split("/"), callback);
+        store.insertDeleteRoute(path, callback);
     }
 
     /**
-     * Starts the event loop and listens on the specified port.
-     * @param port The port to listen on.
+     * Serves the files of a directory to GET requests under a url prefix that do not match a route. Files of up to
+     * 1 MB are cached in memory (up to 64 MB in total) and are removed from the cache as soon as they change on disk.
+     * e.g. staticDir("/assets", "public") serves "public/css/app.css" at "/assets/css/app.css".
+     * @param prefix The url prefix.
+     * @param directory The path of the directory.
      */
-    public void listen(int port) {
-        // create the listener that will listen for incoming socket connections on a separate thread
-        BlizzardListener listener = new BlizzardListener(port, store);
+    public void staticDir(String prefix, String directory) {
+        staticDir(prefix, directory, 64 * 1024 * 1024, 1024 * 1024);
+    }
 
-        // create the reader selector that will select channels that can be read from
-        // and the write selector that will select channels that can be written to
-        Selector readerSelector;
-        Selector writeSelector;
+    /**
+     * Serves the files of a directory to GET requests under a url prefix that do not match a route.
+     * @param prefix The url prefix.
+     * @param directory The path of the directory.
+     * @param maxCacheSize The most bytes of file content kept in memory. (0 disables the cache.)
+     * @param maxCachedFileSize Files larger than this (in bytes) are streamed from disk instead of being cached.
+     */
+    public void staticDir(String prefix, String directory, long maxCacheSize, long maxCachedFileSize) {
         try {
-            readerSelector = Selector.open();
-            writeSelector = Selector.open();
+            store.addStaticDirectory(new StaticDirectory(prefix, directory, maxCacheSize, maxCachedFileSize));
         } catch (IOException e) {
-            System.out.println("There was an error listening on port " + port);
-            return;
+            System.out.println("Unable to serve the directory " + directory + ":");
+            e.printStackTrace();
         }
+    }
 
-        // create the event loop that will handle message reading, writing, and processing on the main thread
-        BlizzardEventLoop eventLoop = new BlizzardEventLoop(readerSelector, writeSelector, store,
-                PROCESSOR_COUNT, HB_SIZE);
+    /**
+     * Adds a codec that req.getBody(Class) can decode request bodies with. Codecs are tried in the order they were
+     * added, and JSON bodies are decoded by the built-in JSON codec if no added codec accepts them. (This must be
+     * called before listen().)
+     * @param codec The codec.
+     */
+    public void addBodyCodec(BodyCodec codec) {
+        store.addBodyCodec(codec);
+    }
+
+    /**
+     * Starts the event loops and listens on the specified port.
+     * @param port The port to listen on.
+     */
+    public void listen(int port) {
+        // no routes can be added once the routers are shared by the processor threads
+        store.freezeRoutes();
+
+        // create the pool of buffers that is shared by all of the event loops
+        bufferPool = new BufferPool(HB_SIZE, preallocatedBuffers, maxPooledBuffers, directBuffers, bufferPoolStats);
 
-        // create the processor pool
-        eventLoop.createProcessorPool();
+        // route callbacks run on the request executor if there is one and on the processor pool otherwise
+        RequestExecutor executor = requestExecutor == null ? null :
+                new RequestExecutor(requestExecutor, maxConcurrentRequests);
+
+        BlizzardEventLoop[] eventLoops = new BlizzardEventLoop[eventLoopCount];
+        BlizzardAcceptor[] acceptors = new BlizzardAcceptor[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            // create the selector that will select channels that can be read from or written to
+            Selector selector;
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                System.out.println("There was an error listening on port " + port);
+                return;
+            }
+
+            // create the event loop that will handle message reading, writing, and processing for its connections
+            BlizzardBackpressure backpressure = new BlizzardBackpressure(store, overloadPolicy, spillQueueSize,
+                    overloadStats, executor);
+            eventLoops[i] = new BlizzardEventLoop(selector, store, PROCESSOR_COUNT, bufferPool, backpressure,
+                    selectMode, selectTimeout, idleTimeout, maxRequestsPerConnection);
+            acceptors[i] = eventLoops[i].getAcceptor();
+        }
+
+        // create the listener that will listen for incoming socket connections on a separate thread
+        // and spread them across the event loops
+        BlizzardListener listener = new BlizzardListener(port, acceptors, loadBalancing);
+
+        // create the processor pool (which is shared by all of the event loops)
+        eventLoops[0].createProcessorPool();
 
         // start the listener on a separate Thread
         new Thread(listener).start();
 
+        // start every event loop except the first on its own Thread
+        for (int i = 1; i < eventLoopCount; i++) {
+            new Thread(eventLoops[i]::start, "blizzard-event-loop-" + i).start();
+        }
+
         // inform the user that the server is now open to connections
         System.out.println("Ready for connections on port " + port);
 
-        // start the event loop on the main thread
-        eventLoop.start();
+        // start the first event loop on the main thread
+        eventLoops[0].start();
     }
 
     /**
-     * Starts the event loop and listens on the default port.
+     * Starts the event loops and listens on the default port.
      */
     public void listen() {
         listen(DEFAULT_PORT);
@@ -4,64 +4,161 @@ import com.bencullivan.blizzard.http.BlizzardAttachment;
 import com.bencullivan.blizzard.http.BlizzardMessage;
 import com.bencullivan.blizzard.http.BlizzardOutgoingMessage;
 import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.BufferPool;
 
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Registers newly accepted SocketChannels with the read Selector.
+ * Registers newly accepted SocketChannels with the Selector of a single event loop and closes them again.
  * @author BenCullivan (2020)
  */
 public class BlizzardAcceptor {
 
-    private final Selector readSelector;  // the read Selector
-    private final Selector writeSelector;  // the write Selector
-    private final ArrayBlockingQueue<SocketChannel> acceptedChannels;  // the newly selected SocketChannels
-    private final int PROCESSOR_COUNT;  // the number of processor threads
-    private final int HB_SIZE;  // the size of the header buffer in a BlizzardMessage
+    private final Selector selector;  // the Selector of this acceptor's event loop
+    private final ConcurrentLinkedQueue<SelectionKey> writeInterestQueue;  // the keys that want to be written to
+    private final BlockingQueue<SocketChannel> acceptedChannels;  // the SocketChannels handed to this event loop
+    private final AtomicInteger connectionCount;  // the number of connections that have been handed to this event loop
+    private final BufferPool bufferPool;  // the pool that BlizzardMessages borrow the buffers they read into from
+    private final ArrayList<SocketChannel> batch;  // the SocketChannels taken from the queue in one operation
+    private final IdleTimer idleTimer;  // closes the connections of this event loop that have been idle for too long
+    private final int MAX_REQUESTS;  // the maximum number of requests read from one connection (0 if unlimited)
+    private final long MAX_BODY_SIZE;  // the largest request body (in bytes) that is accepted
+    private final int BODY_SPILL_THRESHOLD;  // request bodies larger than this are written to a temporary file
 
     /**
-     * @param readSelector The Selector that chooses which channels are ready to be read from.
-     * @param writeSelector The Selector that chooses which channels are ready to be written to.
+     * @param selector The Selector that chooses which channels are ready to be read from or written to.
+     * @param writeInterestQueue The queue that the processor pool uses to hand keys that have responses waiting to
+     *                           be written back to the event loop.
      * @param store The BlizzardStore containing the concurrent queues.
-     * @param processorCount The number of processor threads.
-     * @param hbSize The size of the header buffer in a BlizzardMessage.
+     * @param bufferPool The pool that BlizzardMessages borrow the buffers they read into from.
+     * @param idleTimer The timer that closes the connections of this event loop that have been idle for too long.
+     * @param maxRequests The maximum number of requests that are read from one connection before it is closed. (0 if
+     *                    there is no limit.)
      */
-    public BlizzardAcceptor(Selector readSelector, Selector writeSelector, BlizzardStore store,
-                            int processorCount, int hbSize) {
-        this.readSelector = readSelector;
-        this.writeSelector = writeSelector;
-        acceptedChannels = store.getAcceptedChannelQueue();
-        PROCESSOR_COUNT = processorCount;
-        HB_SIZE = hbSize;
+    public BlizzardAcceptor(Selector selector, ConcurrentLinkedQueue<SelectionKey> writeInterestQueue,
+                            BlizzardStore store, BufferPool bufferPool, IdleTimer idleTimer, int maxRequests) {
+        this.selector = selector;
+        this.writeInterestQueue = writeInterestQueue;
+        acceptedChannels = store.newAcceptedChannelQueue();
+        connectionCount = new AtomicInteger();
+        this.bufferPool = bufferPool;
+        batch = new ArrayList<>(8);
+        this.idleTimer = idleTimer;
+        MAX_REQUESTS = maxRequests;
+        MAX_BODY_SIZE = store.getMaxBodySize();
+        BODY_SPILL_THRESHOLD = store.getBodySpillThreshold();
     }
 
     /**
-     * Registers up to eight SocketChannels with the read Selector.
+     * Chooses the acceptor that a newly accepted SocketChannel should be handed to.
+     * @param acceptors The acceptors of all of the event loops.
+     * @param loadBalancing The strategy used to spread connections across the event loops.
+     * @param turn The number of connections that have been accepted so far. (Used for round robin.)
+     * @return The chosen acceptor.
+     */
+    public static BlizzardAcceptor choose(BlizzardAcceptor[] acceptors, LoadBalancing loadBalancing, long turn) {
+        if (loadBalancing == LoadBalancing.ROUND_ROBIN) return acceptors[(int) (turn % acceptors.length)];
+        // find the event loop that is currently handling the fewest connections
+        BlizzardAcceptor least = acceptors[0];
+        for (int i = 1; i < acceptors.length; i++) {
+            if (acceptors[i].getConnectionCount() < least.getConnectionCount()) least = acceptors[i];
+        }
+        return least;
+    }
+
+    /**
+     * Hands a newly accepted SocketChannel to this acceptor so that it will be registered with this acceptor's event
+     * loop. This is called from the listener thread.
+     * @param channel The newly accepted SocketChannel.
+     * @throws InterruptedException If the thread is interrupted while waiting for space in the queue.
+     */
+    public void queueChannel(SocketChannel channel) throws InterruptedException {
+        acceptedChannels.put(channel);
+        connectionCount.incrementAndGet();
+        // wake the event loop in case it is parked in select()
+        selector.wakeup();
+    }
+
+    /**
+     * Records that one of this event loop's connections has been closed.
+     */
+    public void connectionClosed() {
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * Closes one of this event loop's SocketChannels so that it is no longer selected and returns its buffers to the
+     * pool. This is called from the event loop.
+     * @param key The key of the SocketChannel.
+     */
+    public void close(SelectionKey key) {
+        if (!key.isValid()) return;
+        key.cancel();
+        BlizzardAttachment attachment = (BlizzardAttachment) key.attachment();
+        attachment.getMessage().releaseBuffers();
+        attachment.getOutMessage().close();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        connectionClosed();
+    }
+
+    /**
+     * @return Whether there are SocketChannels waiting to be registered with this event loop.
+     */
+    public boolean hasQueuedChannels() {
+        return !acceptedChannels.isEmpty();
+    }
+
+    /**
+     * @return The number of connections that have been handed to this acceptor's event loop.
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Registers up to eight SocketChannels with the Selector. The channels are taken from the queue in a single
+     * operation.
      */
     public void accept() {
         // accept a max of eight connections in one iteration of the event loop
-        int it = 8;
-        SocketChannel channel = acceptedChannels.poll();
-        while (channel != null) {
+        if (acceptedChannels.drainTo(batch, 8) == 0) return;
+        for (SocketChannel channel: batch) {
+            BlizzardMessage message = null;
             try {
                 channel.configureBlocking(false);
                 BlizzardAttachment attachment = new BlizzardAttachment();
                 attachment.setChannel(channel);
-                attachment.setWriteSelector(writeSelector);
-                attachment.setMessage(new BlizzardMessage(attachment, HB_SIZE, PROCESSOR_COUNT));
+                attachment.setWriteInterestQueue(writeInterestQueue);
+                message = new BlizzardMessage(attachment, bufferPool, MAX_REQUESTS);
+                message.setBodyLimits(MAX_BODY_SIZE, BODY_SPILL_THRESHOLD);
+                attachment.setMessage(message);
                 attachment.setOutMessage(new BlizzardOutgoingMessage(attachment));
-                channel.register(readSelector, SelectionKey.OP_READ, attachment);
+                attachment.setKey(channel.register(selector, SelectionKey.OP_READ, attachment));
+                idleTimer.add(attachment);
             } catch (IOException e) {
                 System.out.println("Unable to configure nonblocking channel:");
                 e.printStackTrace();
-                return;
+                // the connection was counted when it was queued, so it has to be closed and uncounted here
+                if (message != null) message.releaseBuffers();
+                try {
+                    channel.close();
+                } catch (IOException closeException) {
+                    closeException.printStackTrace();
+                }
+                connectionClosed();
             }
-            if (it-- <= 0) return;
-            channel = acceptedChannels.poll();
         }
+        batch.clear();
     }
 }
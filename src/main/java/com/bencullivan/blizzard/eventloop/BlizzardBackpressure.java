@@ -0,0 +1,168 @@
+package com.bencullivan.blizzard.eventloop;
+
+import com.bencullivan.blizzard.events.Event;
+import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.BlizzardResponse;
+import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.RequestExecutor;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands the events of a single event loop to the processor pool (or the request executor) and applies the server's
+ * OverloadPolicy when the event queue is full. Every method is called from the event loop thread, so nothing here
+ * blocks and nothing here needs to be thread safe. (Only the OverloadStats are shared.)
+ * @author Ben Cullivan (2020)
+ */
+public class BlizzardBackpressure {
+
+    private final OverloadPolicy POLICY;  // what happens to a request that does not fit in the event queue
+    private final int SPILL_QUEUE_SIZE;  // the maximum number of events held in the spill queue
+    private final BlockingQueue<Event> eventQueue;  // the queue of events to be executed by the processor pool
+    private final RequestExecutor requestExecutor;  // runs the request events (null if the processor pool does)
+    private final ArrayDeque<Event> heldMessages;  // parse events that did not fit in the event queue
+    private final ArrayDeque<Event> heldRequests;  // request events that did not fit (PAUSE_READS)
+    private final ArrayDeque<Event> spillQueue;  // request events that did not fit in the event queue (SPILL)
+    private final ArrayList<SelectionKey> pausedKeys;  // the keys whose read interest was removed
+    private final OverloadStats stats;  // the counters shared by all the event loops
+    private boolean paused;  // whether the event loop has stopped reading
+
+    /**
+     * @param store The BlizzardStore containing the event queue.
+     * @param policy What happens to a request that does not fit in the event queue.
+     * @param spillQueueSize The maximum number of request events that are held in the spill queue. (SPILL only)
+     * @param stats The counters shared by all the event loops.
+     * @param requestExecutor Runs the request events, or null if they are run by the processor pool.
+     */
+    public BlizzardBackpressure(BlizzardStore store, OverloadPolicy policy, int spillQueueSize, OverloadStats stats,
+                                RequestExecutor requestExecutor) {
+        POLICY = policy;
+        SPILL_QUEUE_SIZE = spillQueueSize;
+        eventQueue = store.getEventQueue();
+        this.requestExecutor = requestExecutor;
+        heldMessages = new ArrayDeque<>();
+        heldRequests = new ArrayDeque<>();
+        spillQueue = new ArrayDeque<>();
+        pausedKeys = new ArrayList<>();
+        this.stats = stats;
+    }
+
+    /**
+     * Hands an event that parses input to the processor pool. These events can never be dropped, so if there is no
+     * room the event is held and the event loop stops reading.
+     * @param event The event.
+     */
+    public void submitMessage(Event event) {
+        if (eventQueue.offer(event)) return;
+        hold(heldMessages, event);
+    }
+
+    /**
+     * Hands an event that processes a request to the processor pool, applying the overload policy if there is no room.
+     * @param event The event.
+     * @param request The request that the event processes.
+     * @return Whether the event will be executed. (False if the request was answered with a 503 instead.)
+     */
+    public boolean submitRequest(Event event, BlizzardRequest request) {
+        // spilled events go first so that they are not starved by newer ones
+        if (spillQueue.isEmpty() && offerRequest(event)) return true;
+        switch (POLICY) {
+            case PAUSE_READS -> hold(heldRequests, event);
+            case SHED -> {
+                shed(request);
+                return false;
+            }
+            case SPILL -> {
+                if (spillQueue.size() >= SPILL_QUEUE_SIZE) {
+                    shed(request);
+                    return false;
+                }
+                spillQueue.offer(event);
+                stats.eventSpilled();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param event A request event.
+     * @return Whether there was room for the event in the event queue (or the request executor).
+     */
+    private boolean offerRequest(Event event) {
+        return requestExecutor == null ? eventQueue.offer(event) : requestExecutor.offer(event);
+    }
+
+    /**
+     * Holds an event until there is room for it and stops the event loop from reading in the meantime.
+     * @param held The events of the same kind that are already being held.
+     * @param event The event.
+     */
+    private void hold(ArrayDeque<Event> held, Event event) {
+        held.offer(event);
+        stats.eventBacklogged();
+        if (!paused) {
+            paused = true;
+            stats.readPaused();
+        }
+    }
+
+    /**
+     * Answers a request with a 503 Service Unavailable response without involving the processor pool.
+     * @param request The request.
+     */
+    void shed(BlizzardRequest request) {
+        stats.requestShed();
+        request.getAttachment().getOutMessage().addResponse(
+                BlizzardResponse.serviceUnavailable(request.isKeepAlive()), request.getSequence());
+    }
+
+    /**
+     * Moves as many held events as possible into the event queue and resumes reading once there are none left.
+     * This is called once per iteration of the event loop.
+     */
+    public void flush() {
+        while (!heldMessages.isEmpty() && eventQueue.offer(heldMessages.peek())) heldMessages.poll();
+        while (!heldRequests.isEmpty() && offerRequest(heldRequests.peek())) heldRequests.poll();
+        while (!spillQueue.isEmpty() && offerRequest(spillQueue.peek())) spillQueue.poll();
+        if (paused && heldMessages.isEmpty() && heldRequests.isEmpty()) resume();
+    }
+
+    /**
+     * Removes OP_READ from the interest set of a key that became readable while reading is paused, so that the
+     * Selector does not keep selecting it.
+     * @param key The key.
+     */
+    public void pause(SelectionKey key) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        pausedKeys.add(key);
+        stats.keyPaused();
+    }
+
+    /**
+     * Adds OP_READ back to the interest sets of the keys that were paused.
+     */
+    private void resume() {
+        paused = false;
+        for (SelectionKey key: pausedKeys) {
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+        pausedKeys.clear();
+    }
+
+    /**
+     * @return Whether the event loop has stopped reading because the event queue is full.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return Whether there are events waiting for room in the event queue.
+     */
+    public boolean hasHeldEvents() {
+        return !heldMessages.isEmpty() || !heldRequests.isEmpty() || !spillQueue.isEmpty();
+    }
+}
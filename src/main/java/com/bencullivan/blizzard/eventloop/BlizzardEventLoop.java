@@ -1,11 +1,17 @@
 package com.bencullivan.blizzard.eventloop;
 
 import com.bencullivan.blizzard.events.Event;
+import com.bencullivan.blizzard.http.BlizzardRequest;
 import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.BufferPool;
 import com.bencullivan.blizzard.util.Processor;
 
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Handles SocketChannel registration, reading, processing and writing.
@@ -13,28 +19,57 @@ import java.util.concurrent.ArrayBlockingQueue;
  */
 public class BlizzardEventLoop {
 
+    private final Selector selector;  // selects the SocketChannels that can be read from or written to
+    private final ConcurrentLinkedQueue<SelectionKey> writeInterestQueue;  // keys handed back by the processor pool
+    // because they have responses waiting to be written
     private final BlizzardAcceptor acceptor;
     private final BlizzardReader reader;
     private final BlizzardProcessor processor;
     private final BlizzardWriter writer;
-    private final ArrayBlockingQueue<Event> eventQueue;  // the queue of events to be executed by the processor pool
+    private final BlizzardBackpressure backpressure;  // hands events to the processor pool and handles overload
+    private final IdleTimer idleTimer;  // closes the connections that have been idle for too long
+    private final BlockingQueue<Event> eventQueue;  // the queue of events to be executed by the processor pool
+    private final BlockingQueue<BlizzardRequest> requestQueue;  // the queue of requests waiting to be processed
     private final int PROCESSOR_COUNT; // the number of processor threads
+    private final SelectMode SELECT_MODE;  // whether this event loop spins or parks when it has nothing to do
+    private final long SELECT_TIMEOUT;  // the longest time (in ms) that this event loop will park for
 
     /**
-     * @param readSelector The Selector that selects which SocketChannels are able to be read from.
-     * @param writeSelector The Selector that selects which SocketChannels are able to be written to.
+     * @param selector The Selector that selects which SocketChannels are able to be read from or written to.
      * @param store The BlizzardStore that stores all of the queues.
      * @param processorCount The number of processor threads.
-     * @param hbSize The size of the header buffer in a BlizzardMessage.
+     * @param bufferPool The pool that BlizzardMessages borrow the buffers they read into from.
+     * @param backpressure Hands this event loop's events to the processor pool and handles overload.
+     * @param selectMode Whether this event loop spins or parks in select(timeout) when it has nothing to do.
+     * @param selectTimeout The longest time (in ms) that this event loop will park for when it is in BLOCKING mode.
+     * @param idleTimeout The time (in ms) after which an idle connection is closed. (0 if idle connections are never
+     *                    closed.)
+     * @param maxRequests The maximum number of requests that are read from one connection before it is closed. (0 if
+     *                    there is no limit.)
      */
-    public BlizzardEventLoop(Selector readSelector, Selector writeSelector, BlizzardStore store,
-                             int processorCount, int hbSize) {
-        acceptor = new BlizzardAcceptor(readSelector, writeSelector, store, processorCount, hbSize);
-        reader = new BlizzardReader(readSelector, store);
-        processor = new BlizzardProcessor(store);
-        writer = new BlizzardWriter(writeSelector);
+    public BlizzardEventLoop(Selector selector, BlizzardStore store, int processorCount, BufferPool bufferPool,
+                             BlizzardBackpressure backpressure, SelectMode selectMode, long selectTimeout,
+                             long idleTimeout, int maxRequests) {
+        this.selector = selector;
+        writeInterestQueue = new ConcurrentLinkedQueue<>();
+        idleTimer = new IdleTimer(idleTimeout);
+        acceptor = new BlizzardAcceptor(selector, writeInterestQueue, store, bufferPool, idleTimer, maxRequests);
+        this.backpressure = backpressure;
+        reader = new BlizzardReader(store, acceptor, backpressure, idleTimer);
+        processor = new BlizzardProcessor(store, backpressure);
+        writer = new BlizzardWriter(acceptor, idleTimer);
         eventQueue = store.getEventQueue();
+        requestQueue = store.getRequestQueue();
         PROCESSOR_COUNT = processorCount;
+        SELECT_MODE = selectMode;
+        SELECT_TIMEOUT = selectTimeout;
+    }
+
+    /**
+     * @return The acceptor that registers new SocketChannels with this event loop.
+     */
+    public BlizzardAcceptor getAcceptor() {
+        return acceptor;
     }
 
     /**
@@ -52,10 +87,67 @@ public class BlizzardEventLoop {
     public void start() {
         //noinspection InfiniteLoopStatement
         while (true) {
+            idleTimer.advance(acceptor);
             acceptor.accept();
-            reader.read();
+            updateWriteInterest();
+            backpressure.flush();
+            select(selectTimeout());
             processor.process();
-            writer.write();
         }
     }
+
+    /**
+     * Adds OP_WRITE to the interest sets of the keys that the processor pool has handed back to this event loop.
+     */
+    private void updateWriteInterest() {
+        SelectionKey key = writeInterestQueue.poll();
+        while (key != null) {
+            if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            key = writeInterestQueue.poll();
+        }
+    }
+
+    /**
+     * Selects the SocketChannels that are ready and reads from or writes to each of them.
+     * @param timeout The longest time (in ms) to wait for a SocketChannel to become ready. If this is 0 the event loop
+     *                does not wait at all.
+     */
+    private void select(long timeout) {
+        try {
+            if ((timeout > 0 ? selector.select(timeout) : selector.selectNow()) == 0) return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        // find out which registered channels can be read from or written to
+        Set<SelectionKey> keys = selector.selectedKeys();
+
+        for (SelectionKey key: keys) {
+            if (key.isValid() && key.isReadable()) {
+                // while the event queue is full, stop reading instead of piling up more work
+                if (backpressure.isPaused()) backpressure.pause(key);
+                else reader.read(key);
+            }
+            if (key.isValid() && key.isWritable()) writer.write(key);
+        }
+
+        // the keys have been handled, so they should not be selected again until they are ready again
+        keys.clear();
+    }
+
+    /**
+     * Determines how long this event loop can park in select(). It parks until one of its SocketChannels becomes ready
+     * or it is woken up if it has nothing else to do. (The listener, the processor pool and BlizzardOutgoingMessage
+     * wake the Selector when they hand this event loop more work.) While it is holding events because the event queue
+     * is full, it only parks for a millisecond at a time because the processor pool does not wake it when room frees
+     * up.
+     * @return The timeout (in ms) of the next select, or 0 if the event loop should not wait at all.
+     */
+    private long selectTimeout() {
+        if (SELECT_MODE == SelectMode.BUSY_SPIN) return 0;
+        if (backpressure.hasHeldEvents()) return 1;
+        if (acceptor.hasQueuedChannels() || !requestQueue.isEmpty() || !writeInterestQueue.isEmpty()) return 0;
+        return SELECT_TIMEOUT;
+    }
 }
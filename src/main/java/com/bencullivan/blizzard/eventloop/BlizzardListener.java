@@ -1,13 +1,10 @@
 package com.bencullivan.blizzard.eventloop;
 
-import com.bencullivan.blizzard.util.BlizzardStore;
-
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ArrayBlockingQueue;
 
 /**
  * Handles accepting new connections on a port specified by the user
@@ -16,17 +13,21 @@ import java.util.concurrent.ArrayBlockingQueue;
 public class BlizzardListener implements Runnable {
 
     private final int PORT;
-    private final ArrayBlockingQueue<SocketChannel> acceptedChannels;
+    private final BlizzardAcceptor[] acceptors;  // the acceptors of the event loops
+    private final LoadBalancing loadBalancing;  // how new connections are spread across the event loops
+    private long acceptedCount;  // the number of connections that have been accepted
     private ServerSocketChannel serverSocketChannel;
 
     /**
      * Constructs a new instance of BlizzardListener
      * @param port - the post on which to listen for new connections
-     * @param store - the BlizzardStore where non-local data is stored
+     * @param acceptors - the acceptors of the event loops that new connections will be handed to
+     * @param loadBalancing - the strategy used to spread new connections across the event loops
      */
-    public BlizzardListener(int port, BlizzardStore store) {
+    public BlizzardListener(int port, BlizzardAcceptor[] acceptors, LoadBalancing loadBalancing) {
         PORT = port;
-        acceptedChannels = store.getAcceptedChannelQueue();
+        this.acceptors = acceptors;
+        this.loadBalancing = loadBalancing;
     }
 
     /**
@@ -56,8 +57,8 @@ public class BlizzardListener implements Runnable {
                 // attempt to accept a new connection
                 SocketChannel channel = serverSocketChannel.accept();
                 if (channel == null) continue;
-                // queue the connection
-                acceptedChannels.put(channel);
+                // hand the connection to one of the event loops
+                BlizzardAcceptor.choose(acceptors, loadBalancing, acceptedCount++).queueChannel(channel);
             } catch (IOException e) {
                 if (e instanceof ClosedChannelException) {
                     // if the channel was closed, attempt to open a new channel
@@ -1,54 +1,106 @@
 package com.bencullivan.blizzard.eventloop;
 
-import com.bencullivan.blizzard.events.Event;
 import com.bencullivan.blizzard.events.ProcessRequestEvent;
 import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.BlizzardResponse;
+import com.bencullivan.blizzard.http.CachedResponse;
 import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.CachePolicy;
+import com.bencullivan.blizzard.util.ResponseCache;
+import com.bencullivan.blizzard.util.Route;
+import com.bencullivan.blizzard.util.Router;
+import com.bencullivan.blizzard.util.SingleFlight;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Hands BlizzardRequests to the processor pool for processing.
+ * A GET request to a route with a cache policy is first looked up in the response cache, and if its response is
+ * there it is answered straight away, on the event loop. A request to a single-flight route that is identical to a
+ * request that is already being processed joins its flight instead of being handed to the processor pool.
  * @author Ben Cullivan
  */
 public class BlizzardProcessor {
 
     private final BlizzardStore store;
-    private final ArrayBlockingQueue<Event> eventQueue;
-    private final ArrayBlockingQueue<BlizzardRequest> requestQueue;
+    private final BlockingQueue<BlizzardRequest> requestQueue;
+    private final BlizzardBackpressure backpressure;  // hands the events to the processor pool
+    private final ArrayList<BlizzardRequest> batch;  // the requests taken from the request queue in one operation
+    private final ResponseCache responseCache;  // the cached responses of the GET routes that have a cache policy
+    private final SingleFlight singleFlight;  // the flights of the requests to the single-flight routes
+    private final Router getRouter;  // matches GET requests to their routes
+    private final int compressionThreshold;  // bodies smaller than this are not compressed (-1 if never)
+    private int[] params;  // the bounds of the url parameters of the last route that was looked up
 
     /**
      * @param store The BlizzardStore that stores the queues.
+     * @param backpressure Hands the events of this processor's event loop to the processor pool.
      */
-    public BlizzardProcessor(BlizzardStore store) {
+    public BlizzardProcessor(BlizzardStore store, BlizzardBackpressure backpressure) {
         this.store = store;
-        eventQueue = store.getEventQueue();
         requestQueue = store.getRequestQueue();
+        this.backpressure = backpressure;
+        batch = new ArrayList<>(8);
+        responseCache = store.getResponseCache();
+        singleFlight = store.getSingleFlight();
+        getRouter = store.getRouter("GET");
+        compressionThreshold = store.getCompressionThreshold();
     }
 
     /**
-     * Sends a maximum of eight requests for processing.
+     * Sends a maximum of eight requests for processing. The requests are taken from the request queue in a single
+     * operation. (The request queue is drained even while the event loop is paused: the processor threads block
+     * until there is room in it, so leaving it full would stop them from taking the events that end the pause.)
      */
     public void process() {
-        int it = 8;
-        BlizzardRequest request = requestQueue.poll();
-        while (request != null) {
-            // attempt to insert the event into the event queue
-            Event requestEvent = new ProcessRequestEvent(request, store);
-            if (!eventQueue.offer(requestEvent)) {
-                // if the event can't be inserted immediately start a thread that will block until it is
-                // possible to do so
-                new Thread(() -> {
-                    try {
-                        eventQueue.put(requestEvent);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }).start();
-                return;
+        if (requestQueue.drainTo(batch, 8) == 0) return;
+        for (BlizzardRequest request: batch) {
+            CachePolicy policy = store.hasCachedRoutes() ? cachePolicyOf(request) : null;
+            if (policy == null) {
+                backpressure.submitRequest(new ProcessRequestEvent(request, store), request);
+                continue;
+            }
+            String key = ResponseCache.keyOf(request, policy, compressionThreshold);
+            if (policy.getTtl() > 0 && serveFromCache(request, key)) continue;
+            if (!policy.isSingleFlight() || !request.isSingleFlight()) {
+                backpressure.submitRequest(new ProcessRequestEvent(request, store), request);
+                continue;
+            }
+            SingleFlight.Flight flight = singleFlight.join(key, request);
+            // an identical request is already being processed, and this one will be answered along with it
+            if (flight == null) continue;
+            if (!backpressure.submitRequest(new ProcessRequestEvent(request, store, flight), request)) {
+                // the leader was answered with a 503, and so are the requests that joined its flight in the meantime
+                for (BlizzardRequest waiter: flight.land()) backpressure.shed(waiter);
             }
-            if (it-- <= 0) return;
-            request = requestQueue.poll();
         }
+        batch.clear();
+    }
+
+    /**
+     * @param request A request.
+     * @return The cache policy of the route of the request, or null if it is not a GET request to a route with one.
+     */
+    private CachePolicy cachePolicyOf(BlizzardRequest request) {
+        if (request.isBadRequest() || !request.getMethod().equals("GET")) return null;
+        if (params == null) params = new int[2*getRouter.getMaxParams()];
+        Route route = getRouter.match(request.getPath(), params);
+        return route == null ? null : route.getCachePolicy();
+    }
+
+    /**
+     * Answers a request with a cached response if the response to it has been cached.
+     * @param request The request.
+     * @param key The key of the request.
+     * @return Whether the request was answered.
+     */
+    private boolean serveFromCache(BlizzardRequest request, String key) {
+        CachedResponse cached = responseCache.get(key);
+        if (cached == null) return false;
+        request.releaseBody();
+        request.getAttachment().getOutMessage().addResponse(BlizzardResponse.fromCached(cached),
+                request.getSequence());
+        return true;
     }
 }
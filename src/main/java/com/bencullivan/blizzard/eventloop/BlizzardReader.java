@@ -1,70 +1,94 @@
 package com.bencullivan.blizzard.eventloop;
 
-import com.bencullivan.blizzard.events.Event;
 import com.bencullivan.blizzard.events.ProcessMessageEvent;
 import com.bencullivan.blizzard.http.BlizzardAttachment;
 import com.bencullivan.blizzard.http.BlizzardRequest;
 import com.bencullivan.blizzard.http.BlizzardMessage;
-import com.bencullivan.blizzard.http.exceptions.BadRequest;
 import com.bencullivan.blizzard.util.BlizzardStore;
 
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Reads data from SocketChannels into BlizzardMessages and then sends the BlizzardMessages to be processed.
+ * A connection stops being read from while too many of its pipelined requests are waiting for their responses, and once
+ * its last request has been read.
  * @author Ben Cullivan (2020)
  */
 public class BlizzardReader{
 
-    private final Selector selector;
-    private final ArrayBlockingQueue<Event> eventQueue;
-    private final ArrayBlockingQueue<BlizzardRequest> requestQueue;
+    static final int MAX_UNANSWERED = 32;  // the number of unanswered requests at which a connection stops being read
+
+    private final BlizzardBackpressure backpressure;  // hands the events to the processor pool
+    private final BlockingQueue<BlizzardRequest> requestQueue;
+    private final BlizzardAcceptor acceptor;  // the acceptor that keeps track of this event loop's connections
+    private final IdleTimer idleTimer;  // records when each connection was last used
 
     /**
-     * @param selector The selector that selects which SocketChannels can be read from.
      * @param store The BlizzardStore that stores all the queues.
+     * @param acceptor The acceptor of this reader's event loop.
+     * @param backpressure Hands the events of this reader's event loop to the processor pool.
+     * @param idleTimer The idle timer of this reader's event loop.
      */
-    public BlizzardReader(Selector selector, BlizzardStore store) {
-        this.selector = selector;
-        this.eventQueue = store.getEventQueue();
+    public BlizzardReader(BlizzardStore store, BlizzardAcceptor acceptor, BlizzardBackpressure backpressure,
+                          IdleTimer idleTimer) {
+        this.backpressure = backpressure;
         this.requestQueue = store.getRequestQueue();
+        this.acceptor = acceptor;
+        this.idleTimer = idleTimer;
     }
 
     /**
-     * Reads data from SocketChannels into the buffers of their corresponding BlizzardMessages.
+     * Reads data from a SocketChannel that is ready to be read from into the buffer of its BlizzardMessage.
+     * @param key The selected key of the SocketChannel.
      */
-    public void read() {
+    public void read(SelectionKey key) {
+        // get the message of this key
+        BlizzardAttachment attachment = (BlizzardAttachment) key.attachment();
+        BlizzardMessage message = attachment.getMessage();
+        if (message.isClosing() || attachment.getUnansweredCount() >= MAX_UNANSWERED) {
+            // the writer resumes reading once enough responses have been sent (unless the connection is closing)
+            attachment.setReadPaused(true);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            return;
+        }
         try {
-            if (selector.selectNow() == 0) return;
+            // read into the message of this key (the message borrows a buffer from the pool if it needs one)
+            int bytesRead = ((SocketChannel) key.channel()).read(message.getCurrent());
+            if (bytesRead == -1) {
+                // the client has closed its end of the connection
+                endOfStream(key, attachment);
+                return;
+            }
+            // if nothing was read, the message keeps its buffer for the next read
+            if (bytesRead == 0) return;
+            attachment.setLastActivity(idleTimer.now());
+            // hand the buffer to the processor pool
+            message.queueCurrent();
+            // a processor thread that is already processing this message will pick the buffer up before it releases
+            // the message, so an event is only needed if the message is idle
+            if (!message.isProcessing()) backpressure.submitMessage(new ProcessMessageEvent(message, requestQueue));
         } catch (IOException e) {
-            e.printStackTrace();
-            return;
+            // the connection is broken, so none of its responses could be sent anyway
+            System.out.println("IOException caught in read()");
+            acceptor.close(key);
         }
+    }
 
-        // find out which registered channels can be read from
-        Set<SelectionKey> keys = selector.selectedKeys();
-
-        for (SelectionKey key: keys) {
-            // get the message of this key
-            BlizzardMessage message = ((BlizzardAttachment) key.attachment()).getMessage();
-            try {
-                // read into the message of this key
-                ((SocketChannel) key.channel()).read(message.getCurrent());
-                // add a process message event to be executed by the thread pool
-                eventQueue.offer(new ProcessMessageEvent(message, requestQueue));
-            } catch (IOException e) {
-                System.out.println("IOException caught in read()");
-                // add a bad request to the request queue with the status of server error
-                BlizzardRequest failed = new BlizzardRequest((BlizzardAttachment) key.attachment());
-                failed.setBadRequest(true);
-                failed.setBadRequestType(BadRequest.SERVER_ERROR);
-                requestQueue.offer(failed);
-            }
+    /**
+     * Handles a client closing its end of the connection. The client may still be waiting for the responses to the
+     * requests it has sent, so the SocketChannel is only closed once they have been written.
+     * @param key The key of the SocketChannel.
+     * @param attachment The attachment of the SocketChannel.
+     */
+    private void endOfStream(SelectionKey key, BlizzardAttachment attachment) {
+        if (!attachment.hasPendingRequests()) {
+            acceptor.close(key);
+            return;
         }
+        attachment.setInputClosed(true);
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
     }
 }
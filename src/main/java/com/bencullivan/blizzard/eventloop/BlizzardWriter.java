@@ -6,50 +6,75 @@ import com.bencullivan.blizzard.http.BlizzardOutgoingMessage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Set;
 
 /**
  * Handles writing http responses to channels that are available to be written to.
+ * A channel is closed once its last response has been written: either a response that does not keep the connection
+ * alive, or the final response after the client has closed its end of the connection.
+ * The ready responses of a channel are written together with one gathering write, so pipelined responses do not each
+ * cost a system call.
  * @author Ben Cullivan (2020)
  */
 public class BlizzardWriter {
 
-    private final Selector selector;
+    private static final int MAX_GATHERED_BUFFERS = 64;  // the most buffers written at once (two per response)
+
+    private final BlizzardAcceptor acceptor;  // the acceptor that keeps track of this event loop's connections
+    private final IdleTimer idleTimer;  // records when each connection was last used
+    private final ByteBuffer[] buffers;  // the header and body buffers gathered into one write (reused for every write)
 
     /**
-     * @param selector The selector that selects which SocketChannels are ready to be written to.
+     * @param acceptor The acceptor of this writer's event loop.
+     * @param idleTimer The idle timer of this writer's event loop.
      */
-    public BlizzardWriter(Selector selector) {
-        this.selector = selector;
+    public BlizzardWriter(BlizzardAcceptor acceptor, IdleTimer idleTimer) {
+        this.acceptor = acceptor;
+        this.idleTimer = idleTimer;
+        buffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
     }
 
     /**
-     * Writes bytes from http responses into their corresponding SocketChannels.
+     * Writes bytes from the ready http responses of a SocketChannel that is ready to be written to. Once the channel
+     * has no responses left to send, it stops being interested in writing.
+     * @param key The selected key of the SocketChannel.
      */
-    public void write() {
-        try {
-            if (selector.selectNow() == 0) return;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        }
-
-        // find out which registered channels can be written to
-        Set<SelectionKey> keys = selector.selectedKeys();
-
-        for (SelectionKey key: keys) {
-            // get the outgoing message of this key
-            BlizzardOutgoingMessage outMessage = ((BlizzardAttachment) key.attachment()).getOutMessage();
-            ByteBuffer output = outMessage.getCurrent();
-            if (output == null) continue;
+    public void write(SelectionKey key) {
+        // get the outgoing message of this key
+        BlizzardAttachment attachment = (BlizzardAttachment) key.attachment();
+        BlizzardOutgoingMessage outMessage = attachment.getOutMessage();
+        if (outMessage.hasResponses()) {
             try {
-                // write to the channel
-                outMessage.updateRemaining(((SocketChannel) key.channel()).write(output));
+                // write as many of the responses to the channel as it will take
+                boolean last = outMessage.write((SocketChannel) key.channel(), buffers);
+                attachment.setLastActivity(idleTimer.now());
+                if (last || (attachment.isInputClosed() && !attachment.hasPendingRequests())) {
+                    acceptor.close(key);
+                    return;
+                }
             } catch (IOException e) {
+                // the client is gone, so the rest of the responses cannot be sent
                 e.printStackTrace();
+                acceptor.close(key);
+                return;
             }
+            resumeReading(key, attachment);
+            if (outMessage.canWrite()) return;
         }
+        // there is nothing left to write, so stop selecting this channel for writing
+        // (unless a response was added while the interest was being given up)
+        if (!outMessage.stopWriting()) key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Resumes reading from a SocketChannel that was paused because too many of its requests were unanswered.
+     * @param key The key of the SocketChannel.
+     * @param attachment The attachment of the SocketChannel.
+     */
+    private void resumeReading(SelectionKey key, BlizzardAttachment attachment) {
+        if (!attachment.isReadPaused() || attachment.isInputClosed() || attachment.getMessage().isClosing()) return;
+        if (attachment.getUnansweredCount() >= BlizzardReader.MAX_UNANSWERED) return;
+        attachment.setReadPaused(false);
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
     }
 }
@@ -0,0 +1,116 @@
+package com.bencullivan.blizzard.eventloop;
+
+import com.bencullivan.blizzard.http.BlizzardAttachment;
+
+import java.util.ArrayList;
+
+/**
+ * Closes the connections of a single event loop once they have been idle for too long.
+ * The connections are kept in a hashed timer wheel: a ring of slots that each cover one tick (1/32 of the idle
+ * timeout). A connection is placed in the slot of the time at which it would expire if it stayed idle, and being used
+ * in the meantime only updates its last activity time. When the wheel reaches the slot, each connection in it is
+ * either closed or, if it has been used since it was scheduled, moved to the slot of its new expiry time. This makes
+ * recording activity free and expiring a connection O(1), no matter how many connections there are.
+ * A connection counts as idle while it has no requests waiting for responses, so a slow route callback does not get
+ * its connection closed, but a client that stops halfway through a request does.
+ * This class is only ever used by its event loop's thread.
+ * @author Ben Cullivan (2020)
+ */
+public class IdleTimer {
+
+    private static final int SLOT_COUNT = 64;  // the number of slots in the wheel (a power of two)
+    private static final int TICKS_PER_TIMEOUT = 32;  // the number of slots that the idle timeout spans
+
+    private final long TIMEOUT;  // the time (in ms) after which an idle connection is closed (0 if never)
+    private final long TICK;  // the time (in ms) covered by one slot
+    private final ArrayList<ArrayList<BlizzardAttachment>> slots;  // the connections expiring in each slot
+    private ArrayList<BlizzardAttachment> expiring;  // swapped with a slot's list while the slot is being expired
+    private long tick;  // the last tick that has been expired
+    private long now;  // the time (in ms) at the start of the event loop's current iteration
+
+    /**
+     * @param timeout The time (in ms) after which an idle connection is closed. (0 if idle connections are never
+     *                closed.)
+     */
+    public IdleTimer(long timeout) {
+        if (timeout < 0) throw new IllegalArgumentException("The idle timeout cannot be negative.");
+        TIMEOUT = timeout;
+        TICK = Math.max(1, (timeout + TICKS_PER_TIMEOUT - 1) / TICKS_PER_TIMEOUT);
+        slots = new ArrayList<>(SLOT_COUNT);
+        for (int i = 0; i < SLOT_COUNT; i++) slots.add(new ArrayList<>());
+        expiring = new ArrayList<>();
+        now = System.currentTimeMillis();
+        tick = now / TICK;
+    }
+
+    /**
+     * @return The time (in ms) at the start of the event loop's current iteration. (Used to record activity without
+     * reading the clock for every read and write.)
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Starts timing a newly registered connection.
+     * @param attachment The attachment of the connection.
+     */
+    public void add(BlizzardAttachment attachment) {
+        attachment.setLastActivity(now);
+        if (TIMEOUT > 0) schedule(attachment, now + TIMEOUT);
+    }
+
+    /**
+     * Places a connection in the slot of the time at which it expires.
+     * @param attachment The attachment of the connection.
+     * @param deadline The time (in ms) at which the connection expires if it stays idle.
+     */
+    private void schedule(BlizzardAttachment attachment, long deadline) {
+        // round up, and never place a connection in a slot that has already been expired
+        long deadlineTick = Math.max((deadline + TICK - 1) / TICK, tick + 1);
+        slots.get((int) (deadlineTick & (SLOT_COUNT - 1))).add(attachment);
+    }
+
+    /**
+     * Reads the clock and expires every slot that has been passed since the last call. This is called once per
+     * iteration of the event loop.
+     * @param acceptor The acceptor that closes the connections that have been idle for too long.
+     */
+    public void advance(BlizzardAcceptor acceptor) {
+        now = System.currentTimeMillis();
+        if (TIMEOUT == 0) return;
+        long target = now / TICK;
+        // if the event loop was stalled for a whole turn of the wheel, every slot only needs to be expired once
+        if (target - tick > SLOT_COUNT) tick = target - SLOT_COUNT;
+        while (tick < target) {
+            tick++;
+            int index = (int) (tick & (SLOT_COUNT - 1));
+            if (slots.get(index).isEmpty()) continue;
+            // swap the slot's list out so that connections can be rescheduled while it is being iterated over
+            ArrayList<BlizzardAttachment> slot = slots.set(index, expiring);
+            for (BlizzardAttachment attachment: slot) expire(attachment, acceptor);
+            slot.clear();
+            expiring = slot;
+        }
+    }
+
+    /**
+     * Closes a connection if it has been idle for too long or reschedules it otherwise.
+     * @param attachment The attachment of the connection.
+     * @param acceptor The acceptor that closes the connection.
+     */
+    private void expire(BlizzardAttachment attachment, BlizzardAcceptor acceptor) {
+        // connections that have already been closed are simply dropped
+        if (attachment.getKey() == null || !attachment.getKey().isValid()) return;
+        long deadline = attachment.getLastActivity() + TIMEOUT;
+        if (deadline > now) {
+            // the connection has been used since it was scheduled
+            schedule(attachment, deadline);
+        } else if (attachment.hasPendingRequests()) {
+            // the connection is waiting for responses, so it is not idle
+            schedule(attachment, now + TIMEOUT);
+        } else {
+            acceptor.close(attachment.getKey());
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.bencullivan.blizzard.eventloop;
+
+/**
+ * The strategies that can be used to spread newly accepted connections across the event loops.
+ * @author Ben Cullivan (2020)
+ */
+public enum LoadBalancing {
+    ROUND_ROBIN,
+    LEAST_LOADED
+}
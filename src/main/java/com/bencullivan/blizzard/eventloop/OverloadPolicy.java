@@ -0,0 +1,13 @@
+package com.bencullivan.blizzard.eventloop;
+
+/**
+ * What an event loop does with a request when the event queue is full.
+ * (The events that parse input are never dropped. If one of them does not fit, the event loop always stops reading
+ * until it does.)
+ * @author Ben Cullivan (2020)
+ */
+public enum OverloadPolicy {
+    PAUSE_READS,  // keep the request and stop reading from sockets until the processor pool catches up
+    SHED,  // answer the request immediately with a pre-built 503 Service Unavailable response
+    SPILL  // hold the request in a bounded secondary queue (and shed it if that is full too)
+}
@@ -0,0 +1,80 @@
+package com.bencullivan.blizzard.eventloop;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often the event loops had to apply backpressure because the event queue was full.
+ * One instance is shared by all of a server's event loops.
+ * @author Ben Cullivan (2020)
+ */
+public class OverloadStats {
+
+    private final AtomicLong readPauses;  // the number of times an event loop stopped reading from its sockets
+    private final AtomicLong pausedKeys;  // the number of times a socket's read interest was removed
+    private final AtomicLong backloggedEvents;  // the number of events held by an event loop until there was room
+    private final AtomicLong spilledEvents;  // the number of events held in a spill queue
+    private final AtomicLong shedRequests;  // the number of requests answered with a 503
+
+    public OverloadStats() {
+        readPauses = new AtomicLong();
+        pausedKeys = new AtomicLong();
+        backloggedEvents = new AtomicLong();
+        spilledEvents = new AtomicLong();
+        shedRequests = new AtomicLong();
+    }
+
+    void readPaused() {
+        readPauses.incrementAndGet();
+    }
+
+    void keyPaused() {
+        pausedKeys.incrementAndGet();
+    }
+
+    void eventBacklogged() {
+        backloggedEvents.incrementAndGet();
+    }
+
+    void eventSpilled() {
+        spilledEvents.incrementAndGet();
+    }
+
+    void requestShed() {
+        shedRequests.incrementAndGet();
+    }
+
+    /**
+     * @return The number of times an event loop stopped reading from its sockets because the event queue was full.
+     */
+    public long getReadPauses() {
+        return readPauses.get();
+    }
+
+    /**
+     * @return The number of times a socket's read interest was removed while its event loop was paused.
+     */
+    public long getPausedKeys() {
+        return pausedKeys.get();
+    }
+
+    /**
+     * @return The number of events that an event loop held on to until there was room in the event queue.
+     */
+    public long getBackloggedEvents() {
+        return backloggedEvents.get();
+    }
+
+    /**
+     * @return The number of request events that were held in a spill queue. (SPILL only)
+     */
+    public long getSpilledEvents() {
+        return spilledEvents.get();
+    }
+
+    /**
+     * @return The number of requests that were answered with a 503 Service Unavailable response.
+     */
+    public long getShedRequests() {
+        return shedRequests.get();
+    }
+}
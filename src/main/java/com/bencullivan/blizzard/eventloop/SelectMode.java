@@ -0,0 +1,13 @@
+package com.bencullivan.blizzard.eventloop;
+
+/**
+ * The ways in which an event loop can wait for its SocketChannels to become ready.
+ * BUSY_SPIN polls the Selectors with selectNow() on every iteration, which has the lowest possible latency but keeps
+ * a core busy even when the server is idle. BLOCKING parks the event loop in select(timeout) whenever it has no work
+ * to do, and relies on Selector.wakeup() to be woken when work arrives.
+ * @author Ben Cullivan (2020)
+ */
+public enum SelectMode {
+    BUSY_SPIN,
+    BLOCKING
+}
@@ -0,0 +1,15 @@
+package com.bencullivan.blizzard.events;
+
+/**
+ * The ways in which a route receives the body of a request.
+ * BUFFERED lets the callback read the body decoded: the queries of a form body are added to getQueries(), a JSON body
+ * can be read with getBody(Class) or getBodyJSON(), and any body is available as a String. Nothing is decoded until
+ * the callback asks for it. STREAMED leaves the body as raw bytes, which the callback reads with getBodyStream(),
+ * getBodyChannel() or mapBody(). Large bodies are written to a temporary file as they arrive in either mode, but only
+ * STREAMED routes can read them without loading them onto the heap.
+ * @author Ben Cullivan (2020)
+ */
+public enum BodyMode {
+    BUFFERED,
+    STREAMED
+}
@@ -4,61 +4,69 @@ import com.bencullivan.blizzard.http.BlizzardMessage;
 import com.bencullivan.blizzard.http.BlizzardRequest;
 import com.bencullivan.blizzard.http.exceptions.BadRequestException;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Processes a BlizzardMessage by parsing the bytes that were read into it into a BlizzardRequest.
- * This class's execute() method is always run on a processor thread.
+ * This class's execute() method is always run on a processor thread. The first thread to claim the message drains all
+ * of its queued input, and any other thread executing an event for the same message returns immediately instead of
+ * waiting for its turn.
  * @author Ben Cullivan (2020)
  */
 public class ProcessMessageEvent implements Event {
 
     private final BlizzardMessage message;
-    private final ArrayBlockingQueue<BlizzardRequest> requestQueue;
+    private final BlockingQueue<BlizzardRequest> requestQueue;
 
     /**
      * @param message The message to be processed.
      * @param requestQueue The queue of requests that are ready to be processed.
      */
-    public ProcessMessageEvent(BlizzardMessage message, ArrayBlockingQueue<BlizzardRequest> requestQueue) {
+    public ProcessMessageEvent(BlizzardMessage message, BlockingQueue<BlizzardRequest> requestQueue) {
         this.message = message;
         this.requestQueue = requestQueue;
     }
 
     @Override
     public void execute() {
-        long id = Thread.currentThread().getId();
+        // if another processor thread is already processing the message, it will process the new input as well
+        if (!message.claim()) return;
         try {
-            synchronized (message) {
-                // add the current processor thread to the queue of threads waiting to process this message
-                message.addThread(id);
-                // wait until it is this thread's turn
-                while (message.getCurrentThreadId() != id) {
-                    message.wait();
-                }
-            }
-            // process the message and add the request to the request queue if this thread is done processing
+            do {
+                processInput();
+            } while (message.release());
+        } catch (InterruptedException e) {
+            message.release();
+            System.out.println("Message processing was interrupted.\n" +
+                    "If this is a test, this is good. If not, there is a problem.");
+        }
+    }
+
+    /**
+     * Processes all of the message's queued input and adds each request that is done being read to the request queue.
+     * (A single read may contain several pipelined requests.)
+     * @throws InterruptedException If the thread is interrupted while waiting for space in the request queue.
+     */
+    private void processInput() throws InterruptedException {
+        while (message.hasInput()) {
             try {
-                if (message.isDoneProcessing()) {
-                    // get the request
-                    BlizzardRequest good = message.getRequest();
-                    // reset the message's data
-                    message.restoreInitialValues();
-                    requestQueue.put(good);
-                }
-                message.removeThread();
+                if (!message.isDoneProcessing()) continue;
+                // get the request
+                BlizzardRequest good = message.getRequest();
+                // reset the message's data
+                message.restoreInitialValues();
+                requestQueue.put(good);
+                // wake the event loop so that it hands the request to the processor pool
+                good.getAttachment().wakeup();
             } catch (BadRequestException e) {
                 BlizzardRequest bad = message.getRequest();
                 message.restoreInitialValues();
-                message.removeThread();
                 bad.clear();
                 bad.setBadRequest(true);
                 bad.setBadRequestType(e.getType());
                 requestQueue.put(bad);
+                bad.getAttachment().wakeup();
             }
-        } catch (InterruptedException e) {
-            System.out.println("Message processing was interrupted.\n" +
-                    "If this is a test, this is good. If not, there is a problem.");
         }
     }
 }
@@ -2,92 +2,209 @@ package com.bencullivan.blizzard.events;
 
 import com.bencullivan.blizzard.http.BlizzardRequest;
 import com.bencullivan.blizzard.http.BlizzardResponse;
+import com.bencullivan.blizzard.http.BodyCodec;
+import com.bencullivan.blizzard.http.exceptions.BodyDecodeException;
+import com.bencullivan.blizzard.http.CachedResponse;
 import com.bencullivan.blizzard.util.BlizzardStore;
-import com.bencullivan.blizzard.util.PathNode;
+import com.bencullivan.blizzard.util.CachePolicy;
+import com.bencullivan.blizzard.util.ResponseCache;
+import com.bencullivan.blizzard.util.Route;
+import com.bencullivan.blizzard.util.Router;
+import com.bencullivan.blizzard.util.SingleFlight;
+import com.bencullivan.blizzard.util.StaticDirectory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Processes a request by calling the user-defined callback corresponding to the route of the request.
  * Creates an http response and prepares it to be sent back to the client.
  * This class's execute() method is always run on a processor thread.
+ * The event of a request that leads a flight of identical requests (see SingleFlight) answers the requests that joined
+ * the flight with the same response once it is finished.
  * @author Ben Cullivan (2020)
  */
 public class ProcessRequestEvent implements Event {
 
     private final BlizzardRequest request;
     private final HashMap<Integer, String> reasonPhrases;
-    private final PathNode postRoot;  // the root of the trie that stores the POST callbacks
-    private final PathNode getRoot;  // the root of the trie that stores the GET callbacks
-    private final PathNode putRoot;  // the root of the trie that stores the PUT callbacks
-    private final PathNode patchRoot;  // the root of the trie that stores the PATCH callbacks
-    private final PathNode deleteRoot;  // the root of the trie that stores the DELETE routes
+    private final BlizzardStore store;  // the store that holds the routers
+    private final ArrayList<StaticDirectory> staticDirectories;  // the directories that static files are served from
+    private final int compressionThreshold;  // bodies smaller than this are not compressed (-1 if never)
+    private final List<BodyCodec> bodyCodecs;  // the codecs that request bodies can be decoded with
+    private final ResponseCache responseCache;  // keeps the responses of the routes that have a cache policy
+    private final BlockingQueue<BlizzardRequest> requestQueue;  // the queue of requests waiting to be processed
+    private final SingleFlight.Flight flight;  // the flight that the request leads (null if it does not lead one)
 
     /**
      * @param request The http request.
      * @param store The BlizzardStore that stores the queues and route callbacks.
      */
     public ProcessRequestEvent(BlizzardRequest request, BlizzardStore store) {
+        this(request, store, null);
+    }
+
+    /**
+     * @param request The http request.
+     * @param store The BlizzardStore that stores the queues and route callbacks.
+     * @param flight The flight of identical requests that the request leads (null if it does not lead one).
+     */
+    public ProcessRequestEvent(BlizzardRequest request, BlizzardStore store, SingleFlight.Flight flight) {
         this.request = request;
         reasonPhrases = store.getReasonPhrases();
-        postRoot = store.getPostRoot();
-        getRoot = store.getGetRoot();
-        putRoot = store.getPutRoot();
-        patchRoot = store.getPatchRoot();
-        deleteRoot = store.getDeleteRoot();
+        this.store = store;
+        staticDirectories = store.getStaticDirectories();
+        compressionThreshold = store.getCompressionThreshold();
+        bodyCodecs = store.getBodyCodecs();
+        responseCache = store.getResponseCache();
+        requestQueue = store.getRequestQueue();
+        this.flight = flight;
     }
 
     @Override
     public void execute() {
+        try {
+            respond();
+        } finally {
+            // the body (and its temporary file, if it has one) is only kept until the callback has returned
+            request.releaseBody();
+            // if the response could not be shared (e.g. it was streamed), the flight still has to end
+            if (flight != null) land(null);
+        }
+    }
+
+    /**
+     * Creates the response to the request and hands it to the connection's outgoing message.
+     */
+    private void respond() {
         BlizzardResponse response = new BlizzardResponse(reasonPhrases);
+        // tell the client whether the connection stays open after this response
+        response.setKeepAlive(request.isKeepAlive());
         // if the request is bad, update the response accordingly
         if (request.isBadRequest()) {
             response.sendStatus(switch (request.getBadRequestType()) {
                 case SERVER_ERROR -> 500;
                 case CONTENT_LENGTH_MISSING -> 411;
-                case HEADERS_TOO_LARGE -> 413;
+                case HEADERS_TOO_LARGE, BODY_TOO_LARGE -> 413;
                 default -> 400;
             });
             response.finish();
-            try {
-                request.getAttachment().getOutMessage().getResponses().put(response);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            request.getAttachment().getOutMessage().addResponse(response, request.getSequence());
             return;
         }
         // set the http version
         response.setVersion(request.getVersion());
-        // find the correct root
-        PathNode root = switch(request.getMethod()) {
-            case "POST" -> postRoot;
-            case "GET" -> getRoot;
-            case "PUT" -> putRoot;
-            case "PATCH" -> patchRoot;
-            default -> deleteRoot;
-        };
-        // find the route callback
-        String[] path = request.getUri().split("/");
-        for (int i = 0; i < path.length && root != null; i++) root = root.getChild(path[i]);
-        if (root == null) {
+        // compress the body if the client accepts it
+        if (compressionThreshold >= 0) {
+            response.setCompression(request.getHeader("accept-encoding"), compressionThreshold);
+        }
+        // find the route
+        Router router = store.getRouter(request.getMethod());
+        int[] params = new int[2*router.getMaxParams()];
+        Route route = router.match(request.getPath(), params);
+        if (route == null) {
+            // the request may be for a static file
+            if (request.getMethod().equals("GET")) {
+                for (StaticDirectory directory: staticDirectories) {
+                    if (!directory.serve(request, response)) continue;
+                    response.finish();
+                    request.getAttachment().getOutMessage().addResponse(response, request.getSequence());
+                    return;
+                }
+            }
             // this route does not exist
             response.sendStatus(404);
             response.finish();
-            try {
-                request.getAttachment().getOutMessage().getResponses().put(response);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            request.getAttachment().getOutMessage().addResponse(response, request.getSequence());
             return;
         }
-        // process the route parameter and request body
-        if (root.hasParams()) request.setParameter(path[path.length-1]);
-        request.processBody();
+        // process the route parameters and request body
+        request.setParameters(route.getParamNames(), params);
+        if (route.getBodyMode() == BodyMode.BUFFERED) request.processBody();
+        request.setBodyCodecs(bodyCodecs);
         // call the user-defined callback
-        if (root.getCallback() != null) root.getCallback().call(request, response);
+        response.setOutput(request.getAttachment().getOutMessage(), request.getSequence());
+        try {
+            route.getCallback().call(request, response);
+        } catch (BodyDecodeException e) {
+            // the body could not be decoded into what the callback asked for, so whatever the callback put in the
+            // response is dropped
+            if (response.isStreaming()) {
+                response.stream().abort();
+                return;
+            }
+            request.getAttachment().getOutMessage().addResponse(errorResponse(400), request.getSequence());
+            return;
+        } catch (RuntimeException e) {
+            // the callback failed, so whatever it put in the response is dropped and the request is still answered
+            // (otherwise the responses to the later requests of the connection would wait for it forever)
+            e.printStackTrace();
+            if (response.isStreaming()) {
+                // the head has already been sent, so the connection is closed to end the incomplete body
+                response.stream().abort();
+                return;
+            }
+            request.getAttachment().getOutMessage().addResponse(errorResponse(500), request.getSequence());
+            return;
+        }
+        // a streamed response has already been finished and sent
+        if (response.isStreaming()) return;
         // perform cleanup and convert the response to a bytebuffer
         response.finish();
+        // keep the response for the next requests with the same key (before its body starts being written)
+        CachePolicy policy = route.getCachePolicy();
+        if (policy != null) {
+            CachedResponse cached = response.toCached();
+            if (cached != null && cached.getStatusCode() == 200 && policy.getTtl() > 0) {
+                String key = flight != null ? flight.getKey()
+                        : ResponseCache.keyOf(request, policy, compressionThreshold);
+                responseCache.put(key, cached, policy.getTtl());
+            }
+            // (the flight ends after the response has been cached, so that the requests after it hit the cache)
+            if (flight != null) land(cached);
+        }
         // the response is ready for writing
-        request.getAttachment().getOutMessage().addResponse(response);
+        request.getAttachment().getOutMessage().addResponse(response, request.getSequence());
+    }
+
+    /**
+     * @param code The status code of the response (e.g. 400 or 500).
+     * @return A finished response to the request with the status code and no body.
+     */
+    private BlizzardResponse errorResponse(int code) {
+        BlizzardResponse response = new BlizzardResponse(reasonPhrases);
+        response.setKeepAlive(request.isKeepAlive());
+        response.setVersion(request.getVersion());
+        response.sendStatus(code);
+        response.finish();
+        return response;
+    }
+
+    /**
+     * Ends the flight that the request leads. The requests that joined it are sent the shared response, or, if the
+     * response could not be shared, handed back to the event loops to be processed on their own.
+     * @param shared The finished response to the request (null if it cannot be shared).
+     */
+    private void land(CachedResponse shared) {
+        for (BlizzardRequest waiter: flight.land()) {
+            if (shared != null) {
+                waiter.releaseBody();
+                waiter.getAttachment().getOutMessage().addResponse(BlizzardResponse.fromCached(shared),
+                        waiter.getSequence());
+                continue;
+            }
+            waiter.setSingleFlight(false);
+            if (requestQueue.offer(waiter)) {
+                waiter.getAttachment().wakeup();
+                continue;
+            }
+            // there is no room for the request, so it is treated like a request that arrived while the server is
+            // overloaded
+            waiter.releaseBody();
+            waiter.getAttachment().getOutMessage().addResponse(
+                    BlizzardResponse.serviceUnavailable(waiter.isKeepAlive()), waiter.getSequence());
+        }
     }
 }
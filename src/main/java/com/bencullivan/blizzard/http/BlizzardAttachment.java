@@ -1,18 +1,24 @@
 package com.bencullivan.blizzard.http;
 
-import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Stores the write Selector, BlizzardMessage and BlizzardOutgoingMessage corresponding to a given SocketChannel.
+ * Stores the SelectionKey, BlizzardMessage and BlizzardOutgoingMessage corresponding to a given SocketChannel.
  * @author Ben Cullivan (2020)
  */
 public class BlizzardAttachment {
 
     private SocketChannel channel;
-    private Selector writeSelector;
+    private SelectionKey key;
+    private ConcurrentLinkedQueue<SelectionKey> writeInterestQueue;
     private BlizzardMessage message;
     private BlizzardOutgoingMessage outMessage;
+    private long lastActivity;  // the time (in ms) when the channel was last read from or written to
+    private boolean readPaused;  // whether reading has been paused because too many responses are outstanding
+    private boolean inputClosed;  // whether the client has closed its end of the connection
+    // (the last three fields are only used by the event loop)
 
     /**
      * @return The SocketChannel that this BlizzardAttachment is attached to.
@@ -22,10 +28,28 @@ public class BlizzardAttachment {
     }
 
     /**
-     * @return The Selector that this BlizzardAttachment's SocketChannel should be registered with (for writing).
+     * @return The key that registers this BlizzardAttachment's SocketChannel with its event loop's Selector.
      */
-    public Selector getWriteSelector() {
-        return writeSelector;
+    public SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * Hands this BlizzardAttachment's key to its event loop so that the event loop adds OP_WRITE to the key's interest
+     * set, and wakes the event loop in case it is parked in select(). (Interest ops are only ever changed on the event
+     * loop thread.)
+     */
+    public void requestWrite() {
+        if (key == null) return;
+        writeInterestQueue.offer(key);
+        key.selector().wakeup();
+    }
+
+    /**
+     * Wakes the event loop of this BlizzardAttachment's SocketChannel in case it is parked in select().
+     */
+    public void wakeup() {
+        if (key != null) key.selector().wakeup();
     }
 
     /**
@@ -43,6 +67,66 @@ public class BlizzardAttachment {
         return outMessage;
     }
 
+    /**
+     * @return Whether a request that was read from this BlizzardAttachment's SocketChannel is still being parsed or is
+     * still waiting for its response to be sent.
+     */
+    public boolean hasPendingRequests() {
+        return message.isProcessing() || message.hasInput() || getUnansweredCount() > 0 || outMessage.hasResponses();
+    }
+
+    /**
+     * @return The number of requests that have been read from this BlizzardAttachment's SocketChannel but whose
+     * responses have not been sent yet.
+     */
+    public long getUnansweredCount() {
+        return message.getRequestCount() - outMessage.getSentCount();
+    }
+
+    /**
+     * @return The time (in ms) when this BlizzardAttachment's SocketChannel was last read from or written to.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * @param lastActivity The time (in ms) when this BlizzardAttachment's SocketChannel was last read from or written
+     *                     to.
+     */
+    public void setLastActivity(long lastActivity) {
+        this.lastActivity = lastActivity;
+    }
+
+    /**
+     * @return Whether reading from this BlizzardAttachment's SocketChannel has been paused until more of its responses
+     * have been sent.
+     */
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /**
+     * @param readPaused Whether reading from this BlizzardAttachment's SocketChannel has been paused.
+     */
+    public void setReadPaused(boolean readPaused) {
+        this.readPaused = readPaused;
+    }
+
+    /**
+     * @return Whether the client has closed its end of this BlizzardAttachment's SocketChannel.
+     */
+    public boolean isInputClosed() {
+        return inputClosed;
+    }
+
+    /**
+     * @param inputClosed Whether the client has closed its end of this BlizzardAttachment's SocketChannel.
+     */
+    public void setInputClosed(boolean inputClosed) {
+        this.inputClosed = inputClosed;
+    }
+
     /**
      * @param channel The SocketChannel that this BlizzardAttachment should be attached to.
      */
@@ -51,11 +135,17 @@ public class BlizzardAttachment {
     }
 
     /**
-     * @param writeSelector The Selector that this BlizzardAttachment's SocketChannel should be registered with
-     *                      (for writing).
+     * @param key The key that registers this BlizzardAttachment's SocketChannel with its event loop's Selector.
+     */
+    public void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * @param writeInterestQueue The queue of keys whose interest sets the event loop should add OP_WRITE to.
      */
-    public void setWriteSelector(Selector writeSelector) {
-        this.writeSelector = writeSelector;
+    public void setWriteInterestQueue(ConcurrentLinkedQueue<SelectionKey> writeInterestQueue) {
+        this.writeInterestQueue = writeInterestQueue;
     }
 
     /**
@@ -0,0 +1,217 @@
+package com.bencullivan.blizzard.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Holds the body of a request as it is read.
+ * Small bodies are kept in an array that grows as the body arrives (rather than being allocated up front from the
+ * Content-Length header, which the client controls). Once a body grows past the spill threshold, it is moved to a
+ * temporary file and the rest of it is written straight to the file, so a large upload never sits on the heap. The
+ * file is deleted when the body is closed.
+ * The bytes can be read with an InputStream, a ReadableByteChannel or (for bodies of up to 2 GB) a read-only
+ * ByteBuffer that maps the file into memory.
+ * @author Ben Cullivan (2020)
+ */
+public class BlizzardBody implements Closeable {
+
+    private static final int INITIAL_SIZE = 8192;  // the most bytes allocated before any of them have arrived
+
+    private final int SPILL_THRESHOLD;  // bodies larger than this (in bytes) are moved to a temporary file
+    private byte[] bytes;  // the bytes of the body (null once it has been spilled)
+    private long size;  // the number of bytes in the body
+    private FileChannel file;  // the temporary file holding the body (null unless it has been spilled)
+    private boolean closed;  // whether the body has been discarded
+
+    /**
+     * @param expectedSize The size of the body if it is known, or -1 if it is not.
+     * @param spillThreshold The size (in bytes) above which the body is moved to a temporary file.
+     */
+    BlizzardBody(long expectedSize, int spillThreshold) {
+        SPILL_THRESHOLD = spillThreshold;
+        // a body that is known to be too large for memory is written to a file from its first byte
+        if (expectedSize <= spillThreshold) {
+            bytes = new byte[(int) Math.min(INITIAL_SIZE, expectedSize < 0 ? spillThreshold : expectedSize)];
+        }
+    }
+
+    /**
+     * Creates a body that holds the given bytes.
+     * @param bytes The bytes.
+     */
+    BlizzardBody(byte[] bytes) {
+        SPILL_THRESHOLD = Integer.MAX_VALUE;
+        this.bytes = bytes;
+        size = bytes.length;
+    }
+
+    /**
+     * Appends bytes to the body. (Called by the processor thread that is parsing the request.)
+     * @param buffer The buffer (in reading mode) holding the bytes. Its position is moved past them.
+     * @param count The number of bytes to append.
+     * @throws IOException If the bytes could not be written to the temporary file.
+     */
+    void write(ByteBuffer buffer, int count) throws IOException {
+        if (closed) throw new ClosedChannelException();
+        if (file == null && (bytes == null || size + count > SPILL_THRESHOLD)) spill();
+        if (file == null) {
+            if (size + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Math.max(bytes.length * 2L, size + count),
+                        SPILL_THRESHOLD));
+            }
+            buffer.get(bytes, (int) size, count);
+        } else {
+            ByteBuffer slice = buffer.slice();
+            slice.limit(count);
+            while (slice.hasRemaining()) file.write(slice);
+            buffer.position(buffer.position() + count);
+        }
+        size += count;
+    }
+
+    /**
+     * Moves the body to a temporary file.
+     * @throws IOException If the file could not be created.
+     */
+    private void spill() throws IOException {
+        file = FileChannel.open(Files.createTempFile("blizzard-body-", ".tmp"), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        if (bytes == null) return;
+        // move the bytes that have already been read
+        ByteBuffer written = ByteBuffer.wrap(bytes, 0, (int) size);
+        while (written.hasRemaining()) file.write(written);
+        bytes = null;
+    }
+
+    /**
+     * @return The number of bytes in the body.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return Whether the body is held in a temporary file rather than in memory.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return A stream that reads the body from the start. (Each call returns a stream of its own.)
+     */
+    public InputStream getInputStream() {
+        if (file == null) return new ByteArrayInputStream(bytes, 0, (int) size);
+        return Channels.newInputStream(getChannel());
+    }
+
+    /**
+     * @return A channel that reads the body from the start. (Each call returns a channel of its own.)
+     */
+    public ReadableByteChannel getChannel() {
+        if (file == null) return Channels.newChannel(getInputStream());
+        return new ReadableByteChannel() {
+            private long position;  // the index in the file of the next byte to read
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (!open) throw new ClosedChannelException();
+                if (position >= size) return -1;
+                int limit = dst.limit();
+                if (dst.remaining() > size - position) dst.limit(dst.position() + (int) (size - position));
+                try {
+                    int count = file.read(dst, position);
+                    if (count > 0) position += count;
+                    return count;
+                } finally {
+                    dst.limit(limit);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Gives direct access to the bytes of the body. A spilled body is mapped into memory, so its bytes are not copied
+     * onto the heap. (The buffer must not be used after the body has been closed.)
+     * @return A read-only buffer holding the body.
+     * @throws IOException If the temporary file could not be mapped (or the body is larger than 2 GB).
+     */
+    public ByteBuffer map() throws IOException {
+        if (file == null) return ByteBuffer.wrap(bytes, 0, (int) size).slice().asReadOnlyBuffer();
+        if (size > Integer.MAX_VALUE) throw new IOException("Bodies larger than 2 GB cannot be mapped.");
+        return file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * @return The bytes of the body. (A spilled body is read into memory.)
+     */
+    public byte[] toByteArray() {
+        if (file == null) return size == bytes.length ? bytes : Arrays.copyOf(bytes, (int) size);
+        try {
+            ByteBuffer mapped = map();
+            byte[] array = new byte[mapped.remaining()];
+            mapped.get(array);
+            return array;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return An array whose first size() bytes are the body. (The array of a body that is in memory is returned
+     * without being copied, so it must not be modified.)
+     */
+    byte[] array() {
+        return file == null ? bytes : toByteArray();
+    }
+
+    /**
+     * @return The body decoded as UTF-8. (A spilled body is read into memory.)
+     */
+    public String getText() {
+        if (file == null) return new String(bytes, 0, (int) size, StandardCharsets.UTF_8);
+        return new String(toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Discards the body, deleting its temporary file if it was spilled.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (file == null) {
+            bytes = new byte[0];
+            size = 0;
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.out.println("Unable to delete the temporary file of a request body:");
+            e.printStackTrace();
+        }
+    }
+}
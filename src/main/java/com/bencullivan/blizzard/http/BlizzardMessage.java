@@ -1,49 +1,110 @@
 package com.bencullivan.blizzard.http;
 
 import com.bencullivan.blizzard.http.exceptions.*;
+import com.bencullivan.blizzard.util.BufferPool;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Handles http message storage and processing.
+ * Messages are parsed by an incremental state machine that works directly on the bytes that were read from the
+ * SocketChannel. The parser keeps its place between reads, so a request can be split across any number of buffers,
+ * and the bytes of the request line and headers are only copied once (into a byte array that is handed to the
+ * BlizzardRequest).
+ * The buffers that are read into act as a mailbox: a processor thread claims the message (see claim()) and drains
+ * every queued buffer, so a connection never ties up more than one processor thread and its requests are parsed in
+ * the order they were read.
+ * Every request is numbered in the order it was read, and once a request will be the last one on its connection
+ * (because of its Connection header, its http version or the connection's request limit) the rest of the connection's
+ * input is ignored.
+ * Bodies are copied into a BlizzardBody as they arrive, which grows with the bytes that have actually been read and
+ * moves large bodies to a temporary file. A request whose Content-Length exceeds the max body size is rejected as soon
+ * as its headers have been read.
+ * Bodies sent with "Transfer-Encoding: chunked" are decoded by the same state machine: the chunk sizes are read one
+ * byte at a time (so they can be split across any number of reads), and the chunk data is copied straight from the
+ * read buffers into the body. Trailer fields are added to the request's headers.
  * @author Ben Cullivan (2020)
  */
 public class BlizzardMessage {
 
+    // the states of the parser
+    private static final int REQUEST_LINE = 0;  // the request line is being parsed
+    private static final int HEADERS = 1;  // the header fields are being parsed
+    private static final int BODY = 2;  // the body is being read
+    private static final int CHUNK_SIZE = 3;  // the size line of a chunk is being parsed
+    private static final int CHUNK_DATA = 4;  // the data of a chunk is being read
+    private static final int CHUNK_END = 5;  // the CRLF after the data of a chunk is being read
+    private static final int TRAILERS = 6;  // the trailer fields after the last chunk are being parsed
+    private static final int MAX_CHUNK_LINE = 4096;  // the longest chunk size line (including extensions)
+
     private final BlizzardAttachment attachment;  // the object containing this message and its corresponding
     // outgoing message
     private final int UNKNOWN;  // representing an unknown number
-    private final char[] CRLF;  // carriage return line feed
     private final int MAX_HEADER_SIZE;  // the maximum header size
-    private final int HEADER_BUFFER_SIZE;  // the size of a header buffer
-    private final ArrayBlockingQueue<Long> threadQueue;
+    private final int INITIAL_HEAD_SIZE;  // the initial size of the array that holds the request line and headers
+    private final BufferPool pool;  // the pool that the buffers that are read into are borrowed from
+    private final ConcurrentLinkedQueue<ByteBuffer> readBuffers;  // buffers that have been read into but not yet
+    // processed (in the order that they were read)
+    private final AtomicBoolean processing;  // whether a processor thread has claimed this message
+    private final int MAX_REQUESTS;  // the maximum number of requests read from one connection (0 if unlimited)
+    private long maxBodySize;  // the largest body (in bytes) that is accepted
+    private int spillThreshold;  // bodies larger than this (in bytes) are written to a temporary file
+    private volatile long requestCount;  // the number of requests that have been read (written by the processor
+    // thread that has claimed this message, read by the event loop)
+    private volatile boolean closing;  // whether the last request of the connection has been read
 
     private BlizzardRequest request; // the object containing this http request
-    private ArrayList<String> reqStrings;  // a list of the request Strings that have been received
-    private int[] startIndexes;  // {index in reqStrings, index in the String}
-    private int remainingByteCount; // the number of bytes remaining in the message
-    private int readByteCount;  // the number of bytes that have been read
-
-    private ByteBuffer headerBuffer;  // a buffer that will accept incoming header bytes
-    private ByteBuffer bodyBuffer;  // a buffer that will accept incoming body bytes
+    private int state;  // the current state of the parser
+    private byte[] head;  // the bytes of the request line and headers of this request
+    private int headLength;  // the number of bytes in head
+    private int scanIndex;  // the index in head up to which line endings have been searched for
+    private int lineStart;  // the index in head where the current line starts
+    private long remainingByteCount; // the number of bytes remaining in the message
+    private boolean connectionClose;  // whether the Connection header holds "close"
+    private boolean connectionKeepAlive;  // whether the Connection header holds "keep-alive"
+    private BlizzardBody body;  // the body of this request
+    private long chunkRemaining;  // the size of the current chunk, or the number of its bytes left to read
+    private int chunkLineLength;  // the number of bytes of the current chunk size line (or chunk end) read so far
+    private int chunkDigits;  // the number of hex digits of the current chunk size
+    private boolean chunkExtension;  // whether the rest of the chunk size line is a (skipped) extension
+    private boolean chunkCR;  // whether the chunk size line has reached its CR
+
+    private ByteBuffer current;  // the buffer that is currently being read into (only used by the event loop)
+    private ByteBuffer pending;  // a buffer that still holds bytes of the next (pipelined) request
 
     /**
+     * Creates a message with its own pool of heap buffers.
      * @param attachment The object containing this message and its corresponding outgoing message.
-     * @param headerBufferSize The desired size (in bytes) of the header buffer of this message. (*A smaller header
+     * @param headerBufferSize The desired size (in bytes) of the buffers that this message is read into. (*A smaller
      *                         buffer will incur a lower memory overhead but may result in slower performance.)
-     * @param processorCount The number of processor threads.
      */
-    public BlizzardMessage(BlizzardAttachment attachment, int headerBufferSize, int processorCount) {
+    public BlizzardMessage(BlizzardAttachment attachment, int headerBufferSize) {
+        this(attachment, new BufferPool(headerBufferSize, 0, 1, false, false), 0);
+    }
+
+    /**
+     * @param attachment The object containing this message and its corresponding outgoing message.
+     * @param pool The pool that the buffers that this message is read into are borrowed from.
+     * @param maxRequests The maximum number of requests that are read from the connection before it is closed. (0 if
+     *                    there is no limit.)
+     */
+    public BlizzardMessage(BlizzardAttachment attachment, BufferPool pool, int maxRequests) {
         this.attachment = attachment;
         UNKNOWN = -42069;
-        CRLF = new char[] {'\r', '\n'};
         MAX_HEADER_SIZE = 8192;
-        HEADER_BUFFER_SIZE = headerBufferSize;
-        threadQueue = new ArrayBlockingQueue<>(processorCount+1, true);
+        INITIAL_HEAD_SIZE = 512;
+        this.pool = pool;
+        readBuffers = new ConcurrentLinkedQueue<>();
+        processing = new AtomicBoolean(false);
+        MAX_REQUESTS = maxRequests;
+        maxBodySize = 16 * 1024 * 1024;
+        spillThreshold = 1024 * 1024;
         restoreInitialValues();
     }
 
@@ -52,519 +113,561 @@ public class BlizzardMessage {
      */
     public void restoreInitialValues() {
         request = new BlizzardRequest(attachment);
-        reqStrings = new ArrayList<>();
-        startIndexes = new int[2];
+        state = REQUEST_LINE;
+        head = null;
+        headLength = 0;
+        scanIndex = 0;
+        lineStart = 0;
         remainingByteCount = UNKNOWN;
-        readByteCount = 0;
-        headerBuffer = ByteBuffer.allocate(HEADER_BUFFER_SIZE);
-        bodyBuffer = null;
+        connectionClose = false;
+        connectionKeepAlive = false;
+        body = null;
+        chunkRemaining = 0;
+        resetChunkLine();
     }
 
     /**
-     * Adds the id of the processor thread to the queue of the ids of threads that are trying to
-     * operate on this message.
-     * @param threadId The id of the thread.
-     * @return Whether this thread is at the front of the queue.
+     * Sets the limits on the bodies of the requests that are read into this message.
+     * @param maxBodySize The largest body (in bytes) that is accepted. Larger requests are answered with a 413.
+     * @param spillThreshold The size (in bytes) above which a body is written to a temporary file instead of being
+     *                       kept in memory.
      */
-    public synchronized void addThread(long threadId) {
-        threadQueue.offer(threadId);
+    public void setBodyLimits(long maxBodySize, int spillThreshold) {
+        this.maxBodySize = maxBodySize;
+        this.spillThreshold = spillThreshold;
     }
 
     /**
-     * @return The id of the thread that is permitted to operate on this
+     * Claims this message for the calling processor thread. Only the thread that claims the message may process it.
+     * @return Whether the message was claimed. (False if another processor thread is already processing it.)
      */
-    public synchronized long getCurrentThreadId() {
-        return threadQueue.size() > 0 ? threadQueue.peek() : Long.MIN_VALUE;
+    public boolean claim() {
+        return processing.compareAndSet(false, true);
     }
 
     /**
-     * Removes the current processing thread from the queue of processors and notifies all the processors that are
-     * waiting on this message.
+     * Called by the processor thread that claimed this message when it has processed all of the queued input.
+     * @return Whether the thread should keep processing because more input was queued in the meantime. (If so, the
+     * thread still holds its claim on the message.)
      */
-    public void removeThread() {
-        synchronized (this) {
-            threadQueue.poll();
-            notifyAll();
-        }
+    public boolean release() {
+        processing.set(false);
+        // a buffer may have been queued after the last one was processed but before the claim was released
+        return hasInput() && processing.compareAndSet(false, true);
     }
 
     /**
-     * Processes the bytes that were read into the ByteBuffer that was supplied to the SocketChannel.
-     * @return Whether the message is done being read.
-     * @throws BadRequestException If this request is not in valid http format.
+     * @return Whether a processor thread is currently processing this message.
      */
-    public boolean isDoneProcessing() throws BadRequestException {
-        return headerBuffer == null ? processBody() : processHeader();
+    public boolean isProcessing() {
+        return processing.get();
     }
 
     /**
-     * Provides access to the current ByteBuffer that is available to be read into.
-     * @return The current ByteBuffer.
+     * @return Whether there are bytes waiting to be processed.
      */
-    public ByteBuffer getCurrent() {
-        return headerBuffer == null ? bodyBuffer : headerBuffer;
+    public boolean hasInput() {
+        return pending != null || !readBuffers.isEmpty() || (isDetached() && current != null);
     }
 
     /**
-     * Processes input that was read into the headerBuffer.
-     * @return Whether the message is done being read.
-     * @throws BadRequestException If the header is not in valid http format.
+     * @return Whether this message is not being read into by an event loop. (In that case, the current buffer is
+     * processed directly.)
      */
-    boolean processHeader() throws BadRequestException {
-        // convert the header buffer to reading mode
-        headerBuffer.flip();
+    private boolean isDetached() {
+        return attachment.getKey() == null;
+    }
 
-        // if there are no readable bytes, do nothing
-        if (headerBuffer.limit() - headerBuffer.position() == 0) {
-            headerBuffer.clear();
+    /**
+     * Processes the bytes of the oldest buffer that has been read into and returns the buffer to the pool.
+     * If the buffer holds the end of one request and the start of another, the rest of the buffer is kept and is
+     * processed by the next call.
+     * (If this message is not being read into by an event loop, the current buffer is processed instead.)
+     * @return Whether the message is done being read.
+     * @throws BadRequestException If this request is not in valid http format.
+     */
+    public boolean isDoneProcessing() throws BadRequestException {
+        ByteBuffer buffer = pending;
+        pending = null;
+        if (buffer == null) {
+            buffer = readBuffers.poll();
+            if (buffer == null && isDetached()) {
+                buffer = current;
+                current = null;
+            }
+            if (buffer == null) return false;
+            // convert the buffer to reading mode
+            buffer.flip();
+        }
+        if (closing) {
+            // the connection is closing, so the rest of its input is ignored
+            pool.release(buffer);
             return false;
         }
-
-        // add to the byte count
-        readByteCount += (headerBuffer.limit() - headerBuffer.position());
-
-        // decode the buffer into a String and add it to the ArrayList of Strings
-        reqStrings.add(new String(Arrays.copyOfRange(headerBuffer.array(), headerBuffer.position(),
-                headerBuffer.limit()), StandardCharsets.UTF_8));
-
-        // parse the newly added String
-        boolean done = parseHeader();
-
-        // clear the buffer if the headers are not done being read
-        if (headerBuffer != null) headerBuffer.clear();
-        // if max header size has been exceeded, this is a bad request
-        if (headerBuffer != null && readByteCount > MAX_HEADER_SIZE)
-            throw new HeadersTooLargeException();
-
+        boolean done;
+        try {
+            done = parse(buffer);
+        } catch (BadRequestException e) {
+            pool.release(buffer);
+            // the rest of the input cannot be trusted, so the connection is closed after the error response
+            completeRequest(false);
+            throw e;
+        }
+        if (done) completeRequest(keepAlive());
+        if (done && buffer.hasRemaining()) pending = buffer;
+        else pool.release(buffer);
         return done;
     }
 
     /**
-     * Processes input that was read into the bodyBuffer.
-     * @return Whether the message is done being read.
+     * Numbers the request that has just been read and records whether the connection stays open after it.
+     * @param keepAlive Whether the connection stays open after the response to the request has been sent.
+     */
+    private void completeRequest(boolean keepAlive) {
+        request.setSequence(requestCount);
+        request.setKeepAlive(keepAlive);
+        if (!keepAlive) closing = true;
+        requestCount++;
+    }
+
+    /**
+     * Decides whether the connection stays open after the request that has just been read. HTTP/1.1 connections are
+     * persistent unless the client sends "Connection: close", while HTTP/1.0 connections are only persistent if the
+     * client sends "Connection: keep-alive".
+     * @return Whether the connection stays open after the response to the request has been sent.
      */
-    boolean processBody() throws BadRequestException {
-        // convert the body buffer to reading mode
-        bodyBuffer.flip();
+    private boolean keepAlive() {
+        if (MAX_REQUESTS > 0 && requestCount + 1 >= MAX_REQUESTS) return false;
+        if (connectionClose) return false;
+        if (connectionKeepAlive) return true;
+        return !request.getVersion().equals("HTTP/1.0");
+    }
 
-        // if there are no readable bytes, do nothing
-        if (bodyBuffer.limit() - bodyBuffer.position() == 0) {
-            bodyBuffer.clear();
-            return false;
+    /**
+     * Searches a header value that holds a comma separated list of tokens for a token.
+     * @param start The index in head where the value starts.
+     * @param end The index in head where the value ends (exclusive).
+     * @param token The token to search for. (This must be in lowercase.)
+     * @return Whether the list contains the token (ignoring case).
+     */
+    private boolean hasToken(int start, int end, String token) {
+        int i = start;
+        while (i < end) {
+            // find the bounds of the next token
+            while (i < end && (isSpace(head[i]) || head[i] == ',')) i++;
+            int tokenStart = i;
+            while (i < end && head[i] != ',') i++;
+            int tokenEnd = i;
+            while (tokenEnd > tokenStart && isSpace(head[tokenEnd-1])) tokenEnd--;
+            if (tokenEnd - tokenStart != token.length()) continue;
+            int j = 0;
+            while (j < token.length() && (head[tokenStart+j] | 0x20) == token.charAt(j)) j++;
+            if (j == token.length()) return true;
         }
+        return false;
+    }
 
-        // decode the buffer into a String and add it to the ArrayList of Strings
-        String body = new String(Arrays.copyOfRange(bodyBuffer.array(), bodyBuffer.position(), bodyBuffer.limit()),
-                StandardCharsets.UTF_8);
-        reqStrings.add(body);
+    /**
+     * @return The number of requests that have been read from the connection.
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return Whether the last request of the connection has been read. (Any further input is ignored.)
+     */
+    public boolean isClosing() {
+        return closing;
+    }
 
-        // parse the newly added String
-        boolean done = parseBody(body.getBytes(StandardCharsets.UTF_8).length, body);
+    /**
+     * Provides access to the current ByteBuffer that is available to be read into, borrowing one from the pool if
+     * necessary. This is called by the event loop when the SocketChannel is ready to be read from.
+     * @return The current ByteBuffer.
+     */
+    public ByteBuffer getCurrent() {
+        if (current == null) current = pool.acquire();
+        return current;
+    }
 
-        // make the buffer ready for more reading
-        bodyBuffer.clear();
+    /**
+     * Queues the current ByteBuffer (which has just been read into) to be processed by the processor pool. The next
+     * call to getCurrent() will borrow a new buffer. This is called by the event loop.
+     */
+    public void queueCurrent() {
+        readBuffers.offer(current);
+        current = null;
+    }
 
-        return done;
+    /**
+     * Returns all of the buffers held by this message to the pool. This is called when the SocketChannel is closed.
+     */
+    public void releaseBuffers() {
+        pool.release(current);
+        current = null;
+        ByteBuffer buffer = readBuffers.poll();
+        while (buffer != null) {
+            pool.release(buffer);
+            buffer = readBuffers.poll();
+        }
+        // discard a partly read body (deleting its temporary file) unless a processor thread is still parsing it
+        if (claim()) {
+            if (body != null) body.close();
+            processing.set(false);
+        }
     }
 
     // ---- PARSING ---
 
     /**
-     * Parses the header strings of an http request message.
+     * Parses the readable bytes of a buffer. Parsing stops at the end of the request, so any bytes that belong to the
+     * next request are left in the buffer.
+     * @param buffer The buffer (in reading mode).
+     * @return Whether the message is done being read.
      * @throws BadRequestException If the request is not in valid http format.
      */
-    boolean parseHeader() throws BadRequestException {
-        // if there are no request Strings, there is nothing to parse
-        if (reqStrings.size() == 0) throw new NoMessageException();
-
-        // the current index in the current String
-        int i = 0;
-
-        // parse the request line if it is not done being parsed
-        if (!request.requestLineIsSet()) {
-            startIndexes[0] = reqStrings.size()-1;
-            startIndexes[1] = parseReqLine();
-            i = startIndexes[1];
-        }
-
-        // the starting point in the current String
-        int start = i;
-
-        // get the current String
-        String current = reqStrings.get(reqStrings.size()-1);
-
-        // if the start is at the end of the current String, nothing needs to be done
-        if (startIndexes[0] == reqStrings.size()-1 && startIndexes[1] >= current.length()) return false;
-
-        // edge cases where CRLF is split between Strings
-        if (i == 0 && current.charAt(i) == CRLF[1] && reqStrings.size() > 1) {
-            String prev = reqStrings.get(reqStrings.size()-2);
-            // if this String begins with a \n and the previous three chars were \r\n\r then
-            // this is the beginning of the body
-            boolean preceded = true;
-            int reqStringsIndex = reqStrings.size()-2;
-            int stringIndex = reqStrings.get(reqStringsIndex).length()-1;
-            for (int j = 0; j < 3; j++) {
-                if ((j == 1 && reqStrings.get(reqStringsIndex).charAt(stringIndex) != '\n') ||
-                        ((j == 0 || j == 2) && reqStrings.get(reqStringsIndex).charAt(stringIndex) != '\r')) {
-                    preceded = false;
-                    break;
-                }
-                if (stringIndex > 0) stringIndex--;
-                else if (reqStringsIndex > 0) {
-                    reqStringsIndex--;
-                    stringIndex = reqStrings.get(reqStringsIndex).length()-1;
-                }
-                // if this is the beginning of the message, then there is no request line
-                // (this is defensive and should not happen)
-                else throw new RequestLineException();
-            }
-            if (preceded) {
-                // if the content length is not specified, throw if there is non whitespace
-                if (remainingByteCount == UNKNOWN) {
-                    for (int j = 1; j < current.length(); j++) {
-                        if (!Character.isWhitespace(current.charAt(j)))
-                            throw new ContentLengthMissingException();
-                    }
-                    return true;
-                }
-                else return preBodyParse(current.substring(1));
-            }
-            // if this String begins with a \n\r\n and the past one ended with \r then this is the end of the header
-            // field and the body is directly after
-            else if (current.length() > 2 && prev.length() > 0 && prev.charAt(prev.length()-1) == CRLF[0] &&
-                    current.charAt(1) == CRLF[0] && current.charAt(2) == CRLF[1]) {
-                // we have encountered the end of a header field
-                splitHeader(start, i);
-                // if the content length is not specified, throw if there is non whitespace
-                if (remainingByteCount == UNKNOWN) {
-                    for (int j = 3; j < current.length(); j++) {
-                        if (!Character.isWhitespace(current.charAt(j)))
-                            throw new ContentLengthMissingException();
-                    }
-                    return true;
-                }
-                else return preBodyParse(current.substring(3));
-            }
-            // if this String begins with a \n and the past one ended with \r then this is the end of a header field
-            else if (prev.length() > 0 && prev.charAt(prev.length()-1) == CRLF[0]) {
-                // we have encountered the end of a header field
-                splitHeader(start, i);
-                i += 2;
-                startIndexes[0] = reqStrings.size()-1;
-                startIndexes[1] = i;
-                start = i;
+    boolean parse(ByteBuffer buffer) throws BadRequestException {
+        // the request line may have been set without being parsed
+        if (state == REQUEST_LINE && request.requestLineIsSet()) state = HEADERS;
+        // skip the empty lines that some clients send between pipelined requests
+        if (state == REQUEST_LINE && headLength == 0 && requestCount > 0) {
+            while (buffer.hasRemaining() && (buffer.get(buffer.position()) == '\r' ||
+                    buffer.get(buffer.position()) == '\n')) {
+                buffer.get();
             }
         }
-        // if this string begins with a \r\n and the previous two chars were \r\n, the body has been reached
-        else if (i == 0 && current.charAt(i) == CRLF[0] && reqStrings.size() > 1 &&
-                current.length() > 1 && current.charAt(1) == '\n' && reqStrings.get(reqStrings.size()-2)
-                .charAt(reqStrings.get(reqStrings.size()-2).length()-1) == '\n' && ((reqStrings.get(reqStrings.size()-2)
-                .length() > 1 && reqStrings.get(reqStrings.size()-2).charAt(reqStrings.get(reqStrings.size()-2)
-                .length()-2) == '\r') || (reqStrings.size() > 2 && reqStrings.get(reqStrings.size()-2).length() == 1 &&
-                reqStrings.get(reqStrings.size()-3).charAt(reqStrings.get(reqStrings.size()-3).length()-1) == '\r'))) {
-            // if the content length is not specified, throw if there is non whitespace
-            if (remainingByteCount == UNKNOWN) {
-                for (int j = 2; j < current.length(); j++) {
-                    if (!Character.isWhitespace(current.charAt(j)))
-                        throw new ContentLengthMissingException();
-                }
-                return true;
-            }
-            // the body
-            else return preBodyParse(current.substring(2));
+        while (buffer.hasRemaining()) {
+            if (state == BODY) return parseBody(buffer);
+            if (state >= CHUNK_SIZE && state <= CHUNK_END) parseChunks(buffer);
+            else if (parseHead(buffer)) return true;
         }
+        return false;
+    }
 
-        // loop over the current String, searching for CRLFs
-        while (i < current.length()-1) {
-            // if the next char is the beginning of a CRLF, move forward one place
-            if (current.charAt(i+1) == CRLF[0]) i++;
-
-            // if a CRLF has been found
-            else if (current.charAt(i) == CRLF[0] && current.charAt(i+1) == CRLF[1]) {
-                // if this is the second consecutive CRLF either the body is next or the message is over
-                if (i > 1 && current.charAt(i-2) == CRLF[0] && current.charAt(i-1) == CRLF[1]) {
-                    // if the content length is not known, the buffer is done being read from
-                    if (remainingByteCount == UNKNOWN && i+2 >= current.length()) return true;
-
-                    // if the content length header was not specified but there is a body, this is not a valid request
-                    else if (remainingByteCount == UNKNOWN) {
-                        i += 2;
-                        for (; i < current.length(); i++) {
-                            if (!Character.isWhitespace(current.charAt(i)))
-                                throw new ContentLengthMissingException();
-                        }
-                        return true;
-                    }
-
-                    // allocate the body buffer and parse the body
-                    return preBodyParse(current.substring(i+2));
+    /**
+     * Copies bytes from the buffer into the head array and parses every line that has been completed. (The trailer
+     * fields of a chunked body are parsed the same way.)
+     * @param buffer The buffer (in reading mode).
+     * @return Whether the message is done being read. (This is only the case if it does not have a body, or if the
+     * trailers have ended.)
+     * @throws BadRequestException If the request line or headers are not in valid http format.
+     */
+    private boolean parseHead(ByteBuffer buffer) throws BadRequestException {
+        // make sure there is room in the head array
+        if (head == null) {
+            head = new byte[INITIAL_HEAD_SIZE];
+            request.setHead(head);
+        } else if (headLength == head.length) {
+            if (head.length >= MAX_HEADER_SIZE) throw new HeadersTooLargeException();
+            head = Arrays.copyOf(head, Math.min(head.length * 2, MAX_HEADER_SIZE));
+            request.setHead(head);
+        }
+
+        // copy as many bytes as possible into the head array
+        int count = Math.min(buffer.remaining(), head.length - headLength);
+        buffer.get(head, headLength, count);
+        headLength += count;
+
+        // search the new bytes for the ends of lines
+        for (; scanIndex < headLength; scanIndex++) {
+            if (head[scanIndex] == '\n') {
+                // every line must end with a CRLF
+                if (scanIndex == lineStart || head[scanIndex-1] != '\r') {
+                    if (state != REQUEST_LINE) throw new InvalidHeaderException();
+                    if (scanIndex == 0) throw new IllegalCharException();
+                    throw new RequestLineException();
                 }
-                // if this is not the second consecutive CRLF, split the header and add it to the map of headers
-                else {
-                    splitHeader(start, i);
-                    i += 2;
-                    startIndexes[0] = reqStrings.size()-1;
-                    startIndexes[1] = i;
-                    start = i;
+                int lineEnd = scanIndex - 1;
+                int next = scanIndex + 1;
+                if (state == REQUEST_LINE) {
+                    splitReqLine(lineStart, lineEnd);
+                    state = HEADERS;
+                } else if (lineEnd == lineStart) {
+                    // an empty line marks the end of the headers
+                    // hand the bytes that were copied past it back to the buffer
+                    buffer.position(buffer.position() - (headLength - next));
+                    headLength = next;
+                    return state == TRAILERS || preBodyParse(buffer);
+                } else {
+                    splitHeader(lineStart, lineEnd);
                 }
+                lineStart = next;
+            } else if (scanIndex > lineStart && head[scanIndex-1] == '\r') {
+                // a \r must be followed by a \n
+                if (state != REQUEST_LINE) throw new InvalidHeaderException();
+                throw new IllegalCharException();
             }
-
-            // by default move forward two places
-            else i += 2;
         }
         return false;
     }
 
     /**
-     * Splits the current header into its field and value.
-     * @param start The start index of the header section that is contained in the current String.
-     * @param i The end index of the header section that is contained in the current String.
-     * @throws BadRequestException If the request is not in valid http format.
+     * Splits the request line into its method, uri, and version.
+     * @param start The index in head where the request line starts.
+     * @param end The index in head where the request line ends (exclusive).
+     * @throws BadRequestException If this request is not in valid http format.
      */
-    void splitHeader(int start, int i) throws BadRequestException {
-        // this will hold the entire header field and value
-        StringBuilder header = new StringBuilder();
-
-        // if part of this header is in a prior String
-        if (startIndexes[0] < reqStrings.size()-1) {
-            // the first beginning of the header
-            String beginning = reqStrings.get(startIndexes[0]).substring(startIndexes[1]);
-            header.append(beginning);
-
-            // add the rest of the Strings between the beginning String and the current String to the header
-            for (int j = startIndexes[0]+1; j < reqStrings.size()-1; j++) {
-                header.append(reqStrings.get(j));
-            }
-        }
-
-        if (i <= start) {
-            // remove the last char from the StringBuilder because it is a \r
-            header.deleteCharAt(header.length()-1);
-        } else {
-            // add the part of the current string up to i
-            String beginning = reqStrings.get(reqStrings.size()-1).substring(start, i);
-            header.append(beginning);
-        }
-
-        // find the start of the field and end of the value in the header
-        int fStart = -1;
-        int vEnd = -1;
-        for (int j = 0; j < header.length(); j++) {
-            if (!Character.isSpaceChar(header.charAt(j))) {
-                fStart = j;
-                break;
-            }
-        }
-        for (int j = header.length()-1; j >= 0; j--) {
-            if (!Character.isSpaceChar(header.charAt(j))) {
-                vEnd = j+1;
-                break;
-            }
+    void splitReqLine(int start, int end) throws BadRequestException {
+        // find the (whitespace separated) bounds of the three parts of the request line
+        int[] bounds = new int[6];
+        int parts = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && isSpace(head[i])) i++;
+            if (i == end) break;
+            if (parts == 3) throw new RequestLineException();
+            bounds[2*parts] = i;
+            while (i < end && !isSpace(head[i])) i++;
+            bounds[2*parts+1] = i;
+            parts++;
         }
 
-        // ensure that there is a header field
-        if (fStart >= vEnd || header.charAt(fStart) == ':')
-            throw new InvalidHeaderException();
-
-        // search for the colon in the header
-        int fEnd = header.indexOf(":");
-        int vStart = fEnd+1;
-        while (vStart < header.length() && Character.isWhitespace(header.charAt(vStart))) vStart++;
-
-        // ensure that there is a header field
-        if (fEnd <= fStart) throw new InvalidHeaderException();
-
-        // add the header field and value to the header map
-        String field = header.substring(fStart, fEnd).toLowerCase();
-        String value = vStart >= vEnd ? "" : header.substring(vStart, vEnd);
-        request.setHeader(field, value);
-        // if this was the content length header, set the remaining byte count
-        if (field.equals("content-length")) {
-            try {
-                remainingByteCount = Integer.parseInt(value);
-            } catch (NumberFormatException e) {
-                throw new InvalidHeaderException();
-            }
+        // make sure that there are three distinct parts of the request line
+        // if there are, set the request line
+        if (parts != 3 || bounds[5] - bounds[4] <= 5) throw new RequestLineException();
+        // the query string is only split into queries if the application asks for them
+        for (int q = bounds[2]; q < bounds[3]; q++) {
+            if (head[q] != '?') continue;
+            request.setQueryBounds(q + 1, bounds[3]);
+            break;
         }
+        request.setRequestLine(new String[] {
+                knownToken(bounds[0], bounds[1]),
+                new String(head, bounds[2], bounds[3] - bounds[2], StandardCharsets.UTF_8),
+                knownToken(bounds[4], bounds[5])
+        });
     }
 
     /**
-     * Parses the request line into its method, uri, and version.
-     * @return The current index in the current String.
-     * @throws BadRequestException If this request is not in valid http format.
+     * Returns a constant for the common methods and versions so that they do not need to be decoded.
+     * @param start The index in head where the token starts.
+     * @param end The index in head where the token ends (exclusive).
+     * @return The token.
      */
-    int parseReqLine() throws BadRequestException {
-        // get the current String to parse
-        String current = reqStrings.get(reqStrings.size()-1);
-
-        // check for the edge case where the CRLF is split between this string and the previous String
-        if (reqStrings.size() > 1 && current.charAt(0) == CRLF[1]) {
-            // get the previous String
-            String prev = reqStrings.get(reqStrings.size()-2);
-
-            // if the previous string did not end with \r, then this request line is not in valid http format
-            if (prev.charAt(prev.length()-1) != CRLF[0])
-                throw new IllegalCharException();
-
-            // instantiate the StringBuilder that will hold the String that will be split
-            StringBuilder toSplit = new StringBuilder();
-
-            // trim the last character off of the previous String
-            prev = prev.substring(0, prev.length()-1);
-
-            // append all prior Strings to the StringBuilder
-            for (int i = 0; i < reqStrings.size()-2; i++) {
-                toSplit.append(reqStrings.get(i));
-            }
-            toSplit.append(prev);
-
-            // split and set the request line
-            splitReqLine(toSplit.toString());
-
-            // the entire String has been parsed
-            return 1;
-        }
-        // if the first char is not a \n and te final char of the previous string is a \r
-        // the request line is not in valid http format
-        else if (reqStrings.size() > 1 && reqStrings.get(reqStrings.size()-2)
-                .charAt(reqStrings.get(reqStrings.size()-2).length()-1) == CRLF[0]) {
-            throw new IllegalCharException();
+    private String knownToken(int start, int end) {
+        for (String token: KNOWN_TOKENS) {
+            if (token.length() != end - start) continue;
+            int i = 0;
+            while (i < token.length() && token.charAt(i) == head[start+i]) i++;
+            if (i == token.length()) return token;
         }
-        // if the first char is a \n and this is the first string, the request line is not in valid http request format
-        else if (reqStrings.size() == 1 && reqStrings.get(0).charAt(0) == CRLF[1])
-            throw new IllegalCharException();
-
-        // search for the CRLF
-        int i = 0;
-        while (i < current.length()-1) {
-            // if the next char is the beginning of the CRLF, move forward one place
-            if (current.charAt(i+1) == CRLF[0]) {
-                // if the beginning of the CRLF is followed by a character other than \n
-                // then the request is not in valid http format
-                if (i+2 < current.length() && current.charAt(i+2) != CRLF[1])
-                    throw new IllegalCharException();
-                i++;
-            }
-
-            // if the CRLF has been found, compose and split the request line
-            else if (current.charAt(i) == CRLF[0] && current.charAt(i+1) == CRLF[1]) {
-                // instantiate the StringBuilder that will hold the String that will be split
-                StringBuilder toSplit = new StringBuilder();
-
-                // get the substring up to the CRLF of the current String
-                String curr = current.substring(0, i);
-
-                // append all prior Strings to the StringBuilder
-                for (int j = 0; j < reqStrings.size()-1; j++) {
-                    toSplit.append(reqStrings.get(j));
-                }
+        return new String(head, start, end - start, StandardCharsets.US_ASCII);
+    }
 
-                // append the substring up to the CRLF of the current String
-                toSplit.append(curr);
+    private static final Set<String> BODILESS_METHODS = Set.of("GET", "HEAD", "DELETE", "OPTIONS");
 
-                // split and set the request line
-                splitReqLine(toSplit.toString());
+    private static final String[] KNOWN_TOKENS = {
+            "GET", "POST", "PUT", "PATCH", "DELETE", "HEAD", "OPTIONS", "HTTP/1.1", "HTTP/1.0"
+    };
 
-                // the string up to i+2 has been parsed
-                return i + 2;
-            }
+    /**
+     * Splits a header line into its field and value. Only their bounds are stored (they are decoded if the
+     * application asks for them), except for the well-known headers that decide how the request is read.
+     * @param start The index in head where the header line starts.
+     * @param end The index in head where the header line ends (exclusive).
+     * @throws BadRequestException If the request is not in valid http format.
+     */
+    void splitHeader(int start, int end) throws BadRequestException {
+        // strip leading and trailing whitespace
+        while (start < end && isSpace(head[start])) start++;
+        while (end > start && isSpace(head[end-1])) end--;
 
-            // if the current character is a \n and it is not preceded by a \r, then the request is not
-            // in valid http format
-            else if (i > 0 && current.charAt(i) == CRLF[1] && current.charAt(i-1) != CRLF[0])
-                throw new RequestLineException();
+        // ensure that there is a header field
+        if (start == end || head[start] == ':') throw new InvalidHeaderException();
 
-                // by default move forward two places
-            else i += 2;
+        // search for the colon in the header
+        int colon = start;
+        while (colon < end && head[colon] != ':') colon++;
+        if (colon == end) throw new InvalidHeaderException();
+        int fieldEnd = colon;
+        while (isSpace(head[fieldEnd-1])) fieldEnd--;
+        int valueStart = colon + 1;
+        while (valueStart < end && isSpace(head[valueStart])) valueStart++;
+
+        // add the header to the request (a trailer cannot change how the request is read)
+        int known = request.addHeader(start, fieldEnd, valueStart, end, state == TRAILERS);
+        if (known == BlizzardRequest.CONTENT_LENGTH) {
+            // set the remaining byte count
+            remainingByteCount = parseLength(valueStart, end);
+            request.setContentLength(remainingByteCount);
+        } else if (known == BlizzardRequest.CONNECTION) {
+            connectionClose = hasToken(valueStart, end, "close");
+            connectionKeepAlive = hasToken(valueStart, end, "keep-alive");
         }
-
-        // if the CRLF wasn't found, return the length of the current String
-        return current.length();
     }
 
     /**
-     * Splits the request line into its method, uri, and version.
-     * @param line The request line.
-     * @throws BadRequestException If this request is not in valid http format.
+     * Parses the value of a content-length header.
+     * @param start The index in head where the value starts.
+     * @param end The index in head where the value ends (exclusive).
+     * @return The content length.
+     * @throws BadRequestException If the value is not a non-negative integer or is larger than the max body size.
      */
-    void splitReqLine(String line) throws BadRequestException {
-        // strip any leading or trailing whitespace and then split the request line on whitespace
-        String[] split = line.strip().split("\\s+");
-
-        // make sure that there are three distinct parts of the request String
-        // if there are, set the request line
-        if (split.length  == 3 && split[2].length() > 5) request.setRequestLine(split);
-        else {
-            throw new RequestLineException();
+    private long parseLength(int start, int end) throws BadRequestException {
+        if (start == end) throw new InvalidHeaderException();
+        long length = 0;
+        for (int i = start; i < end; i++) {
+            if (head[i] < '0' || head[i] > '9') throw new InvalidHeaderException();
+            length = length * 10 + (head[i] - '0');
+            // reject the request before any of its body has been read
+            if (length > maxBodySize) throw new BodyTooLargeException();
         }
+        return length;
     }
 
     /**
-     * Allocates the body buffer and frees the header buffer for garbage collection.
-     * @param sub The substring of the current String that contains part of the body.
+     * Called when the end of the headers has been reached. Creates the body if there is one. (Its bytes are only
+     * allocated as they arrive.)
+     * A request without a content length (or chunked transfer coding) has no body, so any bytes after its headers
+     * belong to the next (pipelined) request. This is only assumed for the methods that do not carry a body (GET,
+     * HEAD, DELETE and OPTIONS), so a body that is sent without a content length is still rejected.
+     * @param buffer The buffer (in reading mode) positioned just after the headers.
      * @return Whether the message is done being parsed.
-     * @throws BadRequestException If there is no message.
+     * @throws BadRequestException If there is a body but no content length, or the body's framing is invalid.
      */
-    boolean preBodyParse(String sub) throws BadRequestException {
-        int numBytes = sub.getBytes(StandardCharsets.UTF_8).length;
-        headerBuffer = null;
-        bodyBuffer = (remainingByteCount-numBytes > 0) ? ByteBuffer.allocate(remainingByteCount-numBytes) :
-                ByteBuffer.allocate(1);
-        return parseBody(numBytes, sub);
+    boolean preBodyParse(ByteBuffer buffer) throws BadRequestException {
+        String transferEncoding = request.getWellKnownHeader(BlizzardRequest.TRANSFER_ENCODING);
+        if (transferEncoding != null) {
+            // chunked must be the last coding, since it is the only one that marks the end of the body
+            // (a request that also has a content length could be read differently by a proxy, so it is rejected)
+            String[] codings = transferEncoding.split(",");
+            if (!codings[codings.length-1].trim().equalsIgnoreCase("chunked") || remainingByteCount != UNKNOWN) {
+                throw new InvalidHeaderException();
+            }
+            state = CHUNK_SIZE;
+            body = new BlizzardBody(-1, spillThreshold);
+            request.setBody(body);
+            return false;
+        }
+        if (remainingByteCount == UNKNOWN) {
+            if (BODILESS_METHODS.contains(request.getMethod())) return true;
+            // if the content length is not specified, throw if there is non whitespace
+            while (buffer.hasRemaining()) {
+                if (!Character.isWhitespace(buffer.get())) throw new ContentLengthMissingException();
+            }
+            return true;
+        }
+        state = BODY;
+        body = new BlizzardBody(remainingByteCount, spillThreshold);
+        request.setBody(body);
+        return parseBody(buffer);
     }
 
     /**
-     * Parses an http message body.
-     * @param numBytes The number of bytes in this part of the body.
-     * @param bodySub The substring that composes this part of the body.
+     * Copies the body bytes of a buffer into the body of the request.
+     * @param buffer The buffer (in reading mode).
      * @return Whether this message is done being processed.
-     * @throws BadRequestException If a content length has been specified but there is no body.
+     * @throws BadRequestException If the body could not be written to its temporary file.
      */
-    boolean parseBody(int numBytes, String bodySub) throws BadRequestException {
-        if (reqStrings.size() == 0) throw new NoMessageException();
+    boolean parseBody(ByteBuffer buffer) throws BadRequestException {
+        int count = (int) Math.min(buffer.remaining(), remainingByteCount);
+        writeBody(buffer, count);
 
-        // append this part of the body to the request body
-        request.appendToBody(bodySub);
-
-        // decrement the remaining byte count by the number of body bytes that have been read
         // if all the body bytes have been read, the message is done being read
-        return (remainingByteCount -= numBytes) <= 0;
+        return (remainingByteCount -= count) == 0;
     }
 
     /**
-     * @return The BlizzardRequest that this message is filling with the parsed input bytes.
+     * Decodes the chunks of a chunked body. Each chunk is a line holding its size in hex (optionally followed by
+     * extensions, which are skipped), then that many bytes of data, then a CRLF. A chunk of size 0 ends the body and
+     * is followed by the trailer fields, which are parsed like headers.
+     * Parsing stops once the buffer is empty or the last chunk has been read.
+     * @param buffer The buffer (in reading mode).
+     * @throws BadRequestException If a chunk is not framed correctly or the body exceeds the max body size.
      */
-    public BlizzardRequest getRequest() {
-        return request;
+    private void parseChunks(ByteBuffer buffer) throws BadRequestException {
+        while (buffer.hasRemaining()) {
+            if (state == CHUNK_DATA) {
+                int count = (int) Math.min(buffer.remaining(), chunkRemaining);
+                writeBody(buffer, count);
+                if ((chunkRemaining -= count) == 0) state = CHUNK_END;
+                continue;
+            }
+            byte b = buffer.get();
+            if (state == CHUNK_END) {
+                // the data must be followed by exactly CRLF
+                if (b != (chunkLineLength == 0 ? '\r' : '\n')) throw new InvalidChunkException();
+                if (++chunkLineLength == 2) {
+                    state = CHUNK_SIZE;
+                    resetChunkLine();
+                }
+                continue;
+            }
+            // the byte is part of a chunk size line
+            if (++chunkLineLength > MAX_CHUNK_LINE) throw new InvalidChunkException();
+            if (chunkCR) {
+                if (b != '\n' || chunkDigits == 0) throw new InvalidChunkException();
+                resetChunkLine();
+                if (chunkRemaining > 0) {
+                    state = CHUNK_DATA;
+                    continue;
+                }
+                // the last chunk has been read, so the trailers are parsed from the end of the head
+                state = TRAILERS;
+                lineStart = headLength;
+                scanIndex = headLength;
+                return;
+            }
+            if (b == '\r') {
+                chunkCR = true;
+            } else if (b == ';' || isSpace(b)) {
+                chunkExtension = true;
+            } else if (!chunkExtension) {
+                int digit = Character.digit(b, 16);
+                if (digit < 0 || ++chunkDigits > 15) throw new InvalidChunkException();
+                chunkRemaining = chunkRemaining * 16 + digit;
+                // reject the request before the chunk has been read
+                if (chunkRemaining > maxBodySize - body.size()) throw new BodyTooLargeException();
+            }
+        }
     }
 
     /**
-     * @return The start indices of the current header that is being parsed.
+     * Prepares to read the next chunk size line (or chunk end).
      */
-    int[] getStartIndexes() {
-        return startIndexes;
+    private void resetChunkLine() {
+        chunkLineLength = 0;
+        chunkDigits = 0;
+        chunkExtension = false;
+        chunkCR = false;
     }
 
     /**
-     *
-      * @param reqStrings The Strings that make up the http request.
+     * Copies bytes from a buffer into the body.
+     * @param buffer The buffer (in reading mode).
+     * @param count The number of bytes to copy.
+     * @throws BadRequestException If the body could not be written to its temporary file.
      */
-    void setReqStrings(ArrayList<String> reqStrings) {
-        this.reqStrings = reqStrings;
+    private void writeBody(ByteBuffer buffer, int count) throws BadRequestException {
+        try {
+            body.write(buffer, count);
+        } catch (IOException e) {
+            System.out.println("Unable to store the body of a request:");
+            e.printStackTrace();
+            throw new BadRequestException("The body could not be stored", BadRequest.SERVER_ERROR);
+        }
     }
 
     /**
-     * @param startIndexes The start indices of the current header that is being parsed.
+     * @param b A byte of the request.
+     * @return Whether the byte is whitespace that separates the parts of a line.
      */
-    void setStartIndexes(int[] startIndexes) {
-        this.startIndexes = startIndexes;
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+    }
+
+    /**
+     * @return The BlizzardRequest that this message is filling with the parsed input bytes.
+     */
+    public BlizzardRequest getRequest() {
+        return request;
     }
 
     /**
      * @param remainingByteCount The number of bytes left in the body of the http request.
      */
-    void setRemainingByteCount(int remainingByteCount) {
+    void setRemainingByteCount(long remainingByteCount) {
         this.remainingByteCount = remainingByteCount;
     }
 }
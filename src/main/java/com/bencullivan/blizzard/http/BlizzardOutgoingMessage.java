@@ -1,101 +1,217 @@
 package com.bencullivan.blizzard.http;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.SelectionKey;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * handles writing http responses to their corresponding channels.
+ * The requests of a connection can be processed by several processor threads at once, so their responses may be
+ * finished out of order. Each response is added with the sequence number of its request and is only made ready to be
+ * written once the responses to all of the earlier requests have been made ready, so pipelined requests are always
+ * answered in the order they were sent.
+ * The event loop takes a batch of ready responses at a time and writes their headers and bodies with a single
+ * gathering write, so a burst of pipelined responses costs one system call. (A file body is transferred on its own,
+ * once the headers of its response have been written.) A response whose body is streamed stays at the front of the
+ * batch until its stream is closed, and its chunks are written as they are queued.
  * @author Ben Cullivan (2020)
  */
 public class BlizzardOutgoingMessage {
 
-    private final BlizzardAttachment attachment;  // the object storing the channel and write selector
-    private final ArrayBlockingQueue<BlizzardResponse> responses;  // the queue of responses that are ready to be sent
-    // through this outgoing message's channel
-    private BlizzardResponse current;  // the response that is currently being sent
-    private int remainingBytes;  // the number of bytes remaining in the current response
-    private boolean writeRegistered;
+    private final BlizzardAttachment attachment;  // the object storing the channel and its selection key
+    private final AtomicBoolean writeRequested;  // whether the channel is (or is about to be) interested in writing
+    private ArrayDeque<BlizzardResponse> ready;  // the responses that are ready to be sent, in order (allocated the
+    // first time a response is added, so idle connections do not hold on to one)
+    private HashMap<Long, BlizzardResponse> early;  // responses that were finished before the response to an earlier
+    // request (keyed by sequence number)
+    private long nextSequence;  // the sequence number of the next response to be made ready
+    private ArrayDeque<BlizzardResponse> writing;  // the responses that are being written, in order (only used by the
+    // event loop)
+    private long sentCount;  // the number of responses that have been completely sent (only used by the event loop)
 
     /**
-     * @param attachment The object that stores the socket channel and write selector.
+     * @param attachment The object that stores the socket channel and its selection key.
      */
     public BlizzardOutgoingMessage(BlizzardAttachment attachment) {
         this.attachment = attachment;
-        responses = new ArrayBlockingQueue<>(50);
-        writeRegistered = false;
+        writeRequested = new AtomicBoolean(false);
     }
 
     /**
      * @return Whether this outgoing message has any responses to send.
      */
     public boolean hasResponses() {
-        return current != null || !responses.isEmpty();
+        return (writing != null && !writing.isEmpty()) || hasReady();
     }
 
     /**
-     * @return The queue of responses waiting to be sent through this outgoing message's channel.
+     * @return Whether there are responses that are ready to be sent (not counting the current one).
      */
-    public ArrayBlockingQueue<BlizzardResponse> getResponses() {
-        return responses;
+    private synchronized boolean hasReady() {
+        return ready != null && !ready.isEmpty();
     }
 
     /**
-     * Adds a response to the queue of responses waiting to be written. Registers this channel with the write selector
-     * if it is not already registered. This method is synchronized because it will always be called from the processor
-     * pool.
-     * @param response The response to be added to the queue.
+     * Adds a response to the responses waiting to be written. If the channel is not already interested in writing, its
+     * key is handed to the event loop so that the event loop adds OP_WRITE to the key's interest set.
+     * This method is called from the processor pool (or from the event loop if the response is shed).
+     * @param response The finished response.
+     * @param sequence The sequence number of the request that this response answers.
      */
-    public synchronized void addResponse(BlizzardResponse response) {
-        try {
-            responses.put(response);
-            // register with the selector if non already registered
-            if (!writeRegistered) {
-                try {
-                    attachment.getChannel().register(attachment.getWriteSelector(), SelectionKey.OP_WRITE, attachment);
-                    writeRegistered = true;
-                } catch (ClosedChannelException e) {
-                    e.printStackTrace();
-                }
+    public void addResponse(BlizzardResponse response, long sequence) {
+        synchronized (this) {
+            if (sequence != nextSequence) {
+                // an earlier response has not been finished yet, so this one has to wait for it
+                if (early == null) early = new HashMap<>();
+                early.put(sequence, response);
+                return;
+            }
+            if (ready == null) ready = new ArrayDeque<>();
+            ready.offer(response);
+            nextSequence++;
+            // the responses to later requests may have been waiting for this one
+            while (early != null && !early.isEmpty()) {
+                BlizzardResponse next = early.remove(nextSequence);
+                if (next == null) break;
+                ready.offer(next);
+                nextSequence++;
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
+        requestWrite();
+    }
+
+    /**
+     * Makes sure that the channel is (or is about to be) interested in writing. This is called when a response is
+     * made ready or a chunk is added to a streamed body.
+     */
+    void requestWrite() {
+        // only the thread that flips the flag hands the key to the event loop
+        if (writeRequested.compareAndSet(false, true)) attachment.requestWrite();
+    }
+
+    /**
+     * Called by the event loop when there is nothing left to write to the channel.
+     * @return Whether the channel should remain interested in writing because a response was added in the meantime.
+     */
+    public boolean stopWriting() {
+        writeRequested.set(false);
+        // a response (or chunk) may have been added after the last one was written but before the flag was cleared
+        return canWrite() && writeRequested.compareAndSet(false, true);
     }
 
     /**
-     * @return The response that is currently being sent.
+     * @return Whether there is anything that can be written right now. (False if the first response is a streamed one
+     * that is waiting for its next chunk.) This is only called by the event loop.
      */
-    public ByteBuffer getCurrent() {
-        if (current == null && responses.isEmpty()) {
-            // if there are no responses waiting to be written, unregister this channel with the selector
-            SelectionKey key = attachment.getChannel().keyFor(attachment.getWriteSelector());
-            if (key != null) key.cancel();
-            writeRegistered = false;
-            return null;
+    public boolean canWrite() {
+        BlizzardResponse first = writing == null ? null : writing.peek();
+        if (first == null) return hasReady();
+        BlizzardStream stream = first.getStream();
+        return first.getMessage().hasRemaining() || stream == null || stream.hasChunks() || stream.isAborted();
+    }
+
+    /**
+     * Writes as much of the ready responses as the channel will take. The headers and byte array bodies of the
+     * responses are gathered into one write, up to the first response with a file body (or the last response of the
+     * connection).
+     * @param channel The channel to write to.
+     * @param buffers An array to gather the buffers of the responses into. (Its length limits the number of buffers
+     *                written at once, and it is left full of nulls.)
+     * @return Whether the connection should be closed because the response that was just finished was its last one.
+     * @throws IOException If the responses cannot be written.
+     */
+    public boolean write(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        if (writing == null) writing = new ArrayDeque<>();
+        take(buffers.length / 2);
+        int count = 0;
+        for (BlizzardResponse response: writing) {
+            if (count + 2 > buffers.length) break;
+            ByteBuffer head = response.getMessage();
+            if (head.hasRemaining()) buffers[count++] = head;
+            // the responses after a streamed body have to wait for the end of it
+            if (response.getStream() != null) {
+                count = response.getStream().gather(buffers, count);
+                break;
+            }
+            // a file body is transferred on its own
+            if (response.hasFileBody()) break;
+            ByteBuffer body = response.getBodyBuffer();
+            if (body != null && body.hasRemaining()) buffers[count++] = body;
         }
-        else if (current == null) {
-            current = responses.poll();
-            remainingBytes = current.getMessage().array().length;
+        if (count > 0) {
+            channel.write(buffers, 0, count);
+            Arrays.fill(buffers, 0, count, null);
         }
-        return current.getMessage();
+        // transfer the next part of the first response's file once its headers have been written
+        BlizzardResponse first = writing.peek();
+        if (first != null && first.hasFileBody() && !first.getMessage().hasRemaining() && first.hasBodyRemaining()) {
+            first.writeBody(channel);
+        }
+        return removeSent();
     }
 
     /**
-     * Decrements the amount of bytes that must be read from the current response's buffer. Updates the current response
-     * if the previous one is done being sent.
-     * @param bytesRead The number of bytes read from the current response's buffer.
+     * Moves ready responses to the responses that are being written. No response is taken after the last response of
+     * the connection.
+     * @param max The most responses that are being written at once.
      */
-    public void updateRemaining(int bytesRead) {
-        if ((remainingBytes -= bytesRead) <= 0) {
-            current = responses.poll();
-            if (current == null) {
-                // if there are no responses waiting to be written, unregister this channel with the selector
-                SelectionKey key = attachment.getChannel().keyFor(attachment.getWriteSelector());
-                if (key != null) key.cancel();
-                writeRegistered = false;
-            }
+    private synchronized void take(int max) {
+        while (ready != null && !ready.isEmpty() && writing.size() < max) {
+            if (!writing.isEmpty() && !writing.peekLast().isKeepAlive()) return;
+            writing.offer(ready.poll());
         }
     }
+
+    /**
+     * Removes the responses that have been completely written.
+     * @return Whether one of them was the last response of the connection, or the connection has to be closed because
+     * the body of the first response was abandoned.
+     */
+    private boolean removeSent() {
+        while (!writing.isEmpty()) {
+            BlizzardResponse response = writing.peek();
+            BlizzardStream stream = response.getStream();
+            if (stream != null && stream.isAborted()) return true;
+            if (response.getMessage().hasRemaining()) return false;
+            if (stream == null ? response.hasBodyRemaining() : !stream.drain()) return false;
+            writing.poll();
+            sentCount++;
+            if (!response.isKeepAlive()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases the file that the first response being written is sending, and makes the producers of streamed bodies
+     * stop. This is called when the channel is closed.
+     */
+    public void close() {
+        if (writing != null && !writing.isEmpty()) writing.peek().closeFile();
+        if (writing != null) abortStreams(writing);
+        synchronized (this) {
+            if (ready != null) abortStreams(ready);
+            if (early != null) abortStreams(early.values());
+        }
+    }
+
+    /**
+     * Aborts the streamed bodies of responses.
+     * @param responses The responses.
+     */
+    private static void abortStreams(Iterable<BlizzardResponse> responses) {
+        for (BlizzardResponse response: responses) {
+            if (response.getStream() != null) response.getStream().abort();
+        }
+    }
+
+    /**
+     * @return The number of responses that have been completely sent through this outgoing message's channel.
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
 }
@@ -0,0 +1,149 @@
+package com.bencullivan.blizzard.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The url queries of a request (from the query string of its uri and from a form body), e.g. "?tag=a&tag=b&page=2".
+ * The queries are split in a single pass over their raw bytes, and only the bounds of each key and value are stored
+ * (in one int array), in the order they were received. A key or value is only percent-decoded when it is asked for.
+ * A key can appear more than once: get() returns its first value and getAll() returns every value.
+ * @author Ben Cullivan (2020)
+ */
+public class BlizzardQueries {
+
+    private static final int INITIAL_CAPACITY = 8;  // the number of queries that there is room for at first
+
+    private byte[][] sources;  // the array holding the raw bytes of each query
+    private int[] bounds;  // the start and end index in its source of the key and of the value of each query
+    private String[] keys;  // the keys that have been decoded so far
+    private String[] values;  // the values that have been decoded so far
+    private int count;  // the number of queries
+
+    BlizzardQueries() {
+        sources = new byte[INITIAL_CAPACITY][];
+        bounds = new int[4*INITIAL_CAPACITY];
+        keys = new String[INITIAL_CAPACITY];
+        values = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds the queries of a query string or form body. Empty queries (e.g. in "a=1&&b=2") are skipped, and a query
+     * without an '=' has an empty value.
+     * @param source The array holding the raw bytes of the queries.
+     * @param start The index in the array where the queries start.
+     * @param end The index in the array where the queries end (exclusive).
+     */
+    void parse(byte[] source, int start, int end) {
+        int keyStart = start;
+        int equals = -1;
+        for (int i = start; i <= end; i++) {
+            if (i == end || source[i] == '&') {
+                if (i > keyStart) {
+                    if (equals == -1) add(source, keyStart, i, i, i);
+                    else add(source, keyStart, equals, equals + 1, i);
+                }
+                keyStart = i + 1;
+                equals = -1;
+            } else if (source[i] == '=' && equals == -1) {
+                equals = i;
+            }
+        }
+    }
+
+    /**
+     * Adds a query.
+     * @param source The array holding the raw bytes of the query.
+     * @param keyStart The index in the array where the key starts.
+     * @param keyEnd The index in the array where the key ends (exclusive).
+     * @param valueStart The index in the array where the value starts.
+     * @param valueEnd The index in the array where the value ends (exclusive).
+     */
+    private void add(byte[] source, int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        if (count == sources.length) {
+            sources = Arrays.copyOf(sources, count * 2);
+            bounds = Arrays.copyOf(bounds, 4*count*2);
+            keys = Arrays.copyOf(keys, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        sources[count] = source;
+        bounds[4*count] = keyStart;
+        bounds[4*count+1] = keyEnd;
+        bounds[4*count+2] = valueStart;
+        bounds[4*count+3] = valueEnd;
+        count++;
+    }
+
+    /**
+     * @return The number of queries (counting each value of a repeated key).
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return Whether there are no queries.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @param index The index of a query (in the order they were received).
+     * @return The decoded key of the query.
+     */
+    public String getKey(int index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException(index);
+        if (keys[index] == null) {
+            keys[index] = PercentDecoder.decode(sources[index], bounds[4*index], bounds[4*index+1], true);
+        }
+        return keys[index];
+    }
+
+    /**
+     * @param index The index of a query (in the order they were received).
+     * @return The decoded value of the query.
+     */
+    public String getValue(int index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException(index);
+        if (values[index] == null) {
+            values[index] = PercentDecoder.decode(sources[index], bounds[4*index+2], bounds[4*index+3], true);
+        }
+        return values[index];
+    }
+
+    /**
+     * @param key A key.
+     * @return The first value of the key, or null if there is no query with the key.
+     */
+    public String get(String key) {
+        for (int i = 0; i < count; i++) {
+            if (getKey(i).equals(key)) return getValue(i);
+        }
+        return null;
+    }
+
+    /**
+     * @param key A key.
+     * @return Every value of the key, in the order they were received (empty if there is no query with the key).
+     */
+    public List<String> getAll(String key) {
+        ArrayList<String> all = new ArrayList<>(2);
+        for (int i = 0; i < count; i++) {
+            if (getKey(i).equals(key)) all.add(getValue(i));
+        }
+        return all;
+    }
+
+    /**
+     * @param key A key.
+     * @return Whether there is a query with the key.
+     */
+    public boolean containsKey(String key) {
+        for (int i = 0; i < count; i++) {
+            if (getKey(i).equals(key)) return true;
+        }
+        return false;
+    }
+}
@@ -1,29 +1,71 @@
 package com.bencullivan.blizzard.http;
 
 import com.bencullivan.blizzard.http.exceptions.BadRequest;
+import com.bencullivan.blizzard.http.exceptions.BodyDecodeException;
+import com.bencullivan.blizzard.json.JsonCodec;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Stores all the data associated with an http request.
+ * Headers are stored as offsets into the raw bytes of the request, so a header's name and value are only decoded if
+ * the application asks for it. The well-known headers that the server itself needs (Content-Length, Connection, Host,
+ * Content-Type and Transfer-Encoding) are recognised while the headers are scanned, so they can be found without a
+ * search.
  * @author Ben Cullivan (2020)
  */
 public class BlizzardRequest {
 
+    // the well-known headers (the indices into wellKnown)
+    static final int CONTENT_LENGTH = 0;
+    static final int CONNECTION = 1;
+    static final int HOST = 2;
+    static final int CONTENT_TYPE = 3;
+    static final int TRANSFER_ENCODING = 4;
+    private static final String[] WELL_KNOWN_NAMES = {
+            "content-length", "connection", "host", "content-type", "transfer-encoding"
+    };
+    private static final String FORM_TYPE = "application/x-www-form-urlencoded";
+    private static final List<BodyCodec> DEFAULT_CODECS = List.of(new JsonCodec());
+
     private BlizzardAttachment attachment;  // the object that contains the message and outgoing message that are
     // used for channel reading and writing
     private String DEFAULT_RETURN_VAL = "none";  // returned when a request line field is missing
-    private HashMap<String, String> headers;  // contains all of the header fields mapped to their values
-    private HashMap<String, String> queries;  // contains all of the url queries
+    private byte[] head;  // the raw bytes of the request line and headers
+    private int[] headerBounds;  // the start and end index in head of the name and of the value of each header (in
+    // the order they were received)
+    private String[] headerValues;  // the header values that have been decoded so far
+    private int headerCount;  // the number of headers
+    private final int[] wellKnown;  // the index of the (last) header with each well-known name (-1 if there is none)
+    private long contentLength;  // the value of the Content-Length header (-1 if there is none)
+    private int queryStart;  // the index in head where the query string of the uri starts (-1 if there is none)
+    private int queryEnd;  // the index in head where the query string ends (exclusive)
+    private String path;  // the path of the uri (once it has been asked for)
+    private BlizzardQueries queries;  // the url queries (null until they are asked for)
+    private boolean buffered;  // whether the route receives a decoded body (see BodyMode)
+    private List<BodyCodec> bodyCodecs;  // the codecs that getBody(Class) can decode the body with
     private String[] requestLine;  // contains the three parts of the request line
-    private StringBuffer body;  // contains the body of the message
-    private Object bodyJSON;
-    private String param;  // the route parameters, if there are any
+    private BlizzardBody body;  // contains the body of the message (null if there is none)
+    private String bodyString;  // the decoded body (once it has been asked for)
+    private Object bodyJSON;  // the body parsed as a JSONObject or JSONArray (once it has been asked for)
+    private String[] paramNames;  // the names of the url parameters of the matched route (null if it has none)
+    private int[] paramBounds;  // the start and end index in the uri of each url parameter
     private boolean badRequest;  // whether this http request is a bad request
     private BadRequest badRequestType; // the type of bad request that this is
+    private long sequence;  // the position of this request among the requests of its connection (starting at 0)
+    private boolean keepAlive;  // whether the connection stays open after the response to this request is sent
+    private boolean singleFlight;  // whether this request can share the response to an identical request
 
     /**
      * @param attachment The object containing the BlizzardMessage, and the BlizzardOutgoingMessage corresponding to the
@@ -32,11 +74,14 @@ public class BlizzardRequest {
     public BlizzardRequest(BlizzardAttachment attachment) {
         this.attachment = attachment;
         requestLine = new String[0];
-        headers = new HashMap<>();
-        queries = new HashMap<>();
-        body = new StringBuffer();
+        wellKnown = new int[WELL_KNOWN_NAMES.length];
+        Arrays.fill(wellKnown, -1);
+        contentLength = -1;
+        queryStart = -1;
         badRequest = false;
         badRequestType = null;
+        keepAlive = true;
+        singleFlight = true;
     }
 
     /**
@@ -62,12 +107,35 @@ public class BlizzardRequest {
     }
 
     /**
-     * @return The URI of this request. e.g. "/posts/all"
+     * @return The URI of this request, including its query string. e.g. "/posts/all?page=2"
      */
     public String getUri() {
         return requestLine.length < 2 ? DEFAULT_RETURN_VAL : requestLine[1];
     }
 
+    /**
+     * @return The path of the URI of this request, without its query string. e.g. "/posts/all" (Percent-escapes are
+     * not decoded, so that an encoded '/' cannot change which route the path matches.)
+     */
+    public String getPath() {
+        if (path == null) {
+            String uri = getUri();
+            int query = uri.indexOf('?');
+            path = query == -1 ? uri : uri.substring(0, query);
+        }
+        return path;
+    }
+
+    /**
+     * Sets the bounds of the query string of the URI, which is only split into queries if they are asked for.
+     * @param start The index in the head array where the query string starts (after the '?').
+     * @param end The index in the head array where the query string ends (exclusive).
+     */
+    void setQueryBounds(int start, int end) {
+        queryStart = start;
+        queryEnd = end;
+    }
+
     /**
      * @return The http version of this request. e.g. "HTTP/1.1", "HTTP/2"
      */
@@ -83,21 +151,146 @@ public class BlizzardRequest {
     }
 
     /**
-     * Sets a header for this http request.
-     * @param field The header field.
-     * @param value The header value.
+     * @param head The array that holds the raw bytes of this request's request line and headers.
+     */
+    void setHead(byte[] head) {
+        this.head = head;
+    }
+
+    /**
+     * Adds a header to this http request. Neither the name nor the value is decoded until it is asked for.
+     * @param nameStart The index in the head array where the name starts.
+     * @param nameEnd The index in the head array where the name ends (exclusive).
+     * @param valueStart The index in the head array where the value starts.
+     * @param valueEnd The index in the head array where the value ends (exclusive).
+     * @param trailer Whether the header is a trailer field of a chunked body. (Trailers are never treated as
+     *                well-known headers.)
+     * @return The well-known header that this is (e.g. CONTENT_LENGTH), or -1 if it is not one.
+     */
+    int addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd, boolean trailer) {
+        if (headerBounds == null) {
+            headerBounds = new int[64];
+            headerValues = new String[16];
+        } else if (headerCount == headerValues.length) {
+            headerBounds = Arrays.copyOf(headerBounds, headerCount * 8);
+            headerValues = Arrays.copyOf(headerValues, headerCount * 2);
+        }
+        headerBounds[4*headerCount] = nameStart;
+        headerBounds[4*headerCount+1] = nameEnd;
+        headerBounds[4*headerCount+2] = valueStart;
+        headerBounds[4*headerCount+3] = valueEnd;
+        int known = trailer ? -1 : findWellKnown(headerCount);
+        if (known != -1) wellKnown[known] = headerCount;
+        headerCount++;
+        return known;
+    }
+
+    /**
+     * @param index The index of a header.
+     * @return The well-known header that it is, or -1 if it is not one.
+     */
+    private int findWellKnown(int index) {
+        // the names have different lengths, so at most one of them has to be compared
+        int length = headerBounds[4*index+1] - headerBounds[4*index];
+        for (int known = 0; known < WELL_KNOWN_NAMES.length; known++) {
+            if (WELL_KNOWN_NAMES[known].length() == length) {
+                return nameEquals(index, WELL_KNOWN_NAMES[known]) ? known : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index The index of a header.
+     * @param field A header field.
+     * @return Whether the name of the header is the field (ignoring case).
      */
-    void setHeader(String field, String value) {
-        headers.put(field, value);
+    private boolean nameEquals(int index, String field) {
+        int start = headerBounds[4*index];
+        if (headerBounds[4*index+1] - start != field.length()) return false;
+        for (int i = 0; i < field.length(); i++) {
+            if (toLowerCase(head[start+i]) != toLowerCase(field.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param c An ASCII character.
+     * @return The character in lowercase.
+     */
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
     }
 
     /**
      * Gets the value corresponding to a header field of this request.
-     * @param field The header field. (This must be in lowercase.)
+     * @param field The header field. (Case is ignored.)
      * @return The value of the header field or null if the field has not been set.
      */
     public String getHeader(String field) {
-        return headers.get(field);
+        // search from the end so that a repeated header field returns its last value
+        for (int i = headerCount - 1; i >= 0; i--) {
+            if (nameEquals(i, field)) return getHeaderValue(i);
+        }
+        return null;
+    }
+
+    /**
+     * @param index The index of a header.
+     * @return The value of the header (decoded the first time it is asked for).
+     */
+    private String getHeaderValue(int index) {
+        if (headerValues[index] == null) {
+            int start = headerBounds[4*index+2];
+            headerValues[index] = new String(head, start, headerBounds[4*index+3] - start, StandardCharsets.UTF_8);
+        }
+        return headerValues[index];
+    }
+
+    /**
+     * @param known A well-known header. e.g. HOST
+     * @return The value of the header or null if it has not been set.
+     */
+    String getWellKnownHeader(int known) {
+        return wellKnown[known] == -1 ? null : getHeaderValue(wellKnown[known]);
+    }
+
+    /**
+     * @return The value of the Host header or null if it has not been set.
+     */
+    public String getHost() {
+        return getWellKnownHeader(HOST);
+    }
+
+    /**
+     * @return The value of the Content-Type header or null if it has not been set.
+     */
+    public String getContentType() {
+        return getWellKnownHeader(CONTENT_TYPE);
+    }
+
+    /**
+     * @return The value of the Content-Length header, or -1 if it has not been set.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @param contentLength The value of the Content-Length header.
+     */
+    void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Sets the body of this request, discarding the previous one.
+     * @param body The body of this request (or null if it does not have one).
+     */
+    void setBody(BlizzardBody body) {
+        if (this.body != null && this.body != body) this.body.close();
+        this.body = body;
+        bodyString = null;
     }
 
     /**
@@ -105,45 +298,168 @@ public class BlizzardRequest {
      * @param partialBody The part of the body to append.
      */
     void appendToBody(String partialBody) {
-        body.append(partialBody);
+        byte[] bytes = partialBody.getBytes(StandardCharsets.UTF_8);
+        byte[] current = body == null ? new byte[0] : body.toByteArray();
+        byte[] newBody = Arrays.copyOf(current, current.length + bytes.length);
+        System.arraycopy(bytes, 0, newBody, current.length, bytes.length);
+        setBody(new BlizzardBody(newBody));
     }
 
     /**
-     * @return The body of this request.
+     * @return The body of this request. (A body that was written to a temporary file is read into memory.)
      */
     public String getBody() {
-        return body.toString();
+        if (bodyString == null) bodyString = body == null ? "" : body.getText();
+        return bodyString;
+    }
+
+    /**
+     * @return The size (in bytes) of the body of this request.
+     */
+    public long getBodySize() {
+        return body == null ? 0 : body.size();
     }
 
     /**
-     * Sets the url parameter for this request.
-     * @param parameter The url parameter to be set.
+     * @return A stream that reads the raw bytes of the body from the start.
      */
-    public void setParameter(String parameter) {
-        param = parameter;
+    public InputStream getBodyStream() {
+        return body == null ? InputStream.nullInputStream() : body.getInputStream();
     }
 
     /**
-     * @return The url parameter of this request (if there is one).
+     * @return A channel that reads the raw bytes of the body from the start.
+     */
+    public ReadableByteChannel getBodyChannel() {
+        return body == null ? Channels.newChannel(InputStream.nullInputStream()) : body.getChannel();
+    }
+
+    /**
+     * Gives direct access to the raw bytes of the body. A body that was written to a temporary file is mapped into
+     * memory rather than being copied onto the heap. (The buffer is only valid until the route callback returns.)
+     * @return A read-only buffer holding the body.
+     * @throws IOException If the temporary file could not be mapped.
+     */
+    public ByteBuffer mapBody() throws IOException {
+        return body == null ? ByteBuffer.allocate(0).asReadOnlyBuffer() : body.map();
+    }
+
+    /**
+     * Discards the body of this request, deleting its temporary file if it has one. This is called once the route
+     * callback has returned.
+     */
+    public void releaseBody() {
+        setBody(null);
+    }
+
+    /**
+     * Sets the url parameters for this request. (Called once the route has been matched.)
+     * @param names The names of the url parameters of the matched route, in the order they appear in its path.
+     * @param bounds The start and end index in the uri of each url parameter (see Router.match()).
+     */
+    public void setParameters(String[] names, int[] bounds) {
+        paramNames = names;
+        paramBounds = bounds;
+    }
+
+    /**
+     * @return The last url parameter of this request (or null if there are none).
      */
     public String getParameter() {
-        return param;
+        if (paramNames == null || paramNames.length == 0) return null;
+        return getParameter(paramNames.length - 1);
     }
 
     /**
-     * @return The map of url queries of this request.
+     * @param name The name of a url parameter. e.g. "id" for the route "/posts/:id"
+     * @return The value of the url parameter (or null if the route does not have a parameter with the name).
      */
-    public HashMap<String, String> getQueries() {
+    public String getParameter(String name) {
+        if (paramNames == null) return null;
+        for (int i = 0; i < paramNames.length; i++) {
+            if (paramNames[i].equals(name)) return getParameter(i);
+        }
+        return null;
+    }
+
+    /**
+     * @param index The index of a url parameter.
+     * @return The decoded value of the url parameter.
+     */
+    private String getParameter(int index) {
+        return PercentDecoder.decode(getPath().substring(paramBounds[2*index], paramBounds[2*index+1]), false);
+    }
+
+    /**
+     * Returns the url queries of this request: those of the query string of its URI, followed by those of its body if
+     * it is a form (application/x-www-form-urlencoded) body that has been buffered. The queries are split the first
+     * time this is called, and each key and value is decoded when it is first asked for.
+     * @return The url queries of this request.
+     */
+    public BlizzardQueries getQueries() {
+        if (queries != null) return queries;
+        queries = new BlizzardQueries();
+        if (queryStart != -1 && head != null) {
+            queries.parse(head, queryStart, queryEnd);
+        } else {
+            // the request line was not parsed from raw bytes
+            int query = getUri().indexOf('?');
+            if (query != -1) {
+                byte[] uri = getUri().getBytes(StandardCharsets.UTF_8);
+                queries.parse(uri, getPath().getBytes(StandardCharsets.UTF_8).length + 1, uri.length);
+            }
+        }
+        if (buffered && isFormBody()) queries.parse(body.array(), 0, (int) body.size());
         return queries;
     }
 
     /**
-     * @return The JSONObject of JSONArray of the body.
+     * Parses the body into a JSONObject or JSONArray the first time this is called.
+     * @return The JSONObject or JSONArray of the body, or null if the body does not start with '{' or '['.
+     * @throws BodyDecodeException If the body is not valid JSON.
      */
     public Object getBodyJSON() {
+        if (bodyJSON != null) return bodyJSON;
+        int first = firstByte();
+        try {
+            if (first == '{') bodyJSON = new JSONObject(getBody());
+            else if (first == '[') bodyJSON = new JSONArray(getBody());
+        } catch (JSONException e) {
+            throw new BodyDecodeException("The body is not valid JSON.", e);
+        }
         return bodyJSON;
     }
 
+    /**
+     * Decodes the body into an object of the given type with the first body codec that accepts the request's
+     * Content-Type. JSON bodies are bound straight to the type without building a tree of the JSON, e.g.
+     * req.getBody(Order.class) for a record or class Order. The body is decoded each time this is called.
+     * @param type The type.
+     * @param <T> The type.
+     * @return The decoded body (or null if the request does not have a body).
+     * @throws BodyDecodeException If no codec accepts the Content-Type or the body could not be decoded.
+     */
+    public <T> T getBody(Class<T> type) {
+        if (body == null) return null;
+        String contentType = getContentType();
+        for (BodyCodec codec: bodyCodecs == null ? DEFAULT_CODECS : bodyCodecs) {
+            if (!codec.accepts(contentType)) continue;
+            try {
+                return codec.decode(body, type);
+            } catch (IOException e) {
+                throw new BodyDecodeException("Unable to decode the body: " + e.getMessage(), e);
+            }
+        }
+        throw new BodyDecodeException("There is no body codec for the content type " + contentType + ".", null);
+    }
+
+    /**
+     * @param bodyCodecs The codecs that getBody(Class) can decode the body with, in order of preference.
+     */
+    public void setBodyCodecs(List<BodyCodec> bodyCodecs) {
+        this.bodyCodecs = bodyCodecs;
+    }
+
     /**
      * Sets whether this request is bad.
      * @param badRequest Whether this request is bad.
@@ -174,6 +490,52 @@ public class BlizzardRequest {
         return badRequestType;
     }
 
+    /**
+     * @return The position of this request among the requests of its connection. Responses are written in this order,
+     * even if the requests are processed concurrently.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param sequence The position of this request among the requests of its connection.
+     */
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return Whether the connection stays open after the response to this request has been sent.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @param keepAlive Whether the connection stays open after the response to this request has been sent.
+     */
+    void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return Whether this request can join the flight of an identical request to a single-flight route (see
+     * SingleFlight) instead of being processed on its own.
+     */
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * @param singleFlight Whether this request can join the flight of an identical request. (This is turned off for a
+     *                     request that waited for a response that could not be shared, so that it is processed on its
+     *                     own when it is handed back to the event loop.)
+     */
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
     /**
      * @param attachment The BlizzardAttachment to attach to this BlizzardRequest.
      */
@@ -186,44 +548,48 @@ public class BlizzardRequest {
      */
     public void clear() {
         DEFAULT_RETURN_VAL = null;
-        headers = null;
+        head = null;
+        headerBounds = null;
+        headerValues = null;
+        headerCount = 0;
         requestLine = null;
-        body = null;
+        setBody(null);
+        bodyString = null;
         bodyJSON = null;
+        path = null;
         queries = null;
     }
 
     /**
-     * Either processes queries if there are some or processes JSON if the body is JSON.
+     * Lets the route read a decoded body: a form body adds its queries to getQueries(), and a JSON body can be read
+     * with getBodyJSON() or getBody(Class). Nothing is decoded until the callback asks for it.
      */
     public void processBody() {
-        int i = 0;
-        while (i < body.length() && Character.isWhitespace(body.charAt(i))) i++;
-        if (i == body.length()) return;
-        if ((body.charAt(i) == '{' || body.charAt(i) == '[')) processJSON(i);
-        else processQuery(i);
+        buffered = true;
     }
 
     /**
-     * Adds any url queries to the map of queries.
+     * @return Whether the body holds url queries: it is a form, or has no Content-Type and does not look like JSON.
      */
-    void processQuery(int i) {
-        String[] queries = body.substring(i).split("&");
-        if (queries.length == 1) return;
-        for (String query: queries) {
-            String[] parsed = query.split("=");
-            if (parsed.length != 2) continue;
-            this.queries.put(parsed[0], parsed[1]);
-        }
-        body = new StringBuffer();
+    private boolean isFormBody() {
+        if (body == null) return false;
+        String contentType = getContentType();
+        if (contentType != null) return contentType.regionMatches(true, 0, FORM_TYPE, 0, FORM_TYPE.length());
+        int first = firstByte();
+        return first != -1 && first != '{' && first != '[';
     }
 
     /**
-     * Parses a JSON body into an object that can be accessed by the user.
+     * @return The first byte of the body that is not whitespace, or -1 if there is none.
      */
-    void processJSON(int i) {
-        if (body.charAt(i) == '{') bodyJSON = new JSONObject(body.substring(i));
-        else bodyJSON = new JSONArray(body.substring(i));
-        body = new StringBuffer();
+    private int firstByte() {
+        if (body == null) return -1;
+        try (InputStream in = body.getInputStream()) {
+            int b = in.read();
+            while (b == ' ' || b == '\t' || b == '\r' || b == '\n') b = in.read();
+            return b;
+        } catch (IOException e) {
+            return -1;
+        }
     }
 }
@@ -1,47 +1,244 @@
 package com.bencullivan.blizzard.http;
 
-import com.bencullivan.blizzard.util.FileReader;
-
+import com.bencullivan.blizzard.json.JsonWriter;
+import com.bencullivan.blizzard.util.Compression;
+import com.bencullivan.blizzard.util.HttpDate;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Locale;
-import java.util.TimeZone;
 
 /**
  * Holds the data associated with an http response.
+ * When a response is finished, its status line and headers are encoded into a byte array (see HeaderEncoder) and its
+ * body is kept apart from them. A text body is encoded once, a byte array body is written straight from the array after
+ * the headers (so cached bytes are never copied), and a file body is never loaded into memory: the event loop transfers
+ * the file straight from its FileChannel to the SocketChannel (with sendfile where the operating system supports it).
+ * Alternatively, the body can be streamed as it is produced with stream(), and writeJson() streams large JSON bodies.
+ * Text and byte array bodies of compressible types are compressed with the encoding negotiated from the request's
+ * Accept-Encoding header once they are larger than the server's compression threshold.
  * @author Ben Cullivan (2020)
  */
 public class BlizzardResponse {
 
+    // the bytes of the response that is sent when the server is overloaded (built once and shared)
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n" +
+            "Retry-After: 1\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n").getBytes(StandardCharsets.UTF_8);
+    // the same response for a connection that is closed once it has been sent
+    private static final byte[] SERVICE_UNAVAILABLE_CLOSE = ("HTTP/1.1 503 Service Unavailable\r\n" +
+            "Retry-After: 1\r\n" +
+            "Content-Length: 0\r\n" +
+            "Connection: close\r\n" +
+            "\r\n").getBytes(StandardCharsets.UTF_8);
+
+    private static final long FILE_CHUNK_SIZE = 262144;  // the most bytes of a file body transferred in one write
+    private static final int JSON_STREAM_THRESHOLD = 262144;  // JSON bodies larger than this are streamed
+
     private final HashMap<Integer, String> reasonPhrases;  // http status code reasons
-    private ByteBuffer message;  // this http response (in bytes)
-    private StringBuffer response;  // the String version of this http response
-    private StringBuffer body;  // the String version of the body of this http response
+    private ByteBuffer message;  // the status line and headers of this http response (in bytes)
+    private StringBuilder body;  // the String version of the body of this http response
     private String version;  // the http version of this response
     private int statusCode;  // the status code of this response
     private String reasonPhrase;  // the reason for this response's status
     private String contentType;  // the content-type of the response body
-    private String time;  // the server time
+    private byte[] time;  // the server time (as the ASCII bytes of an http date)
+    private StringBuilder headers;  // the headers set with setHeader() (in http format)
+    private ByteBuffer bodyBytes;  // the byte array body of this response (null if there is none)
+    private boolean keepAlive;  // whether the connection stays open after this response has been sent
+    private Path filePath;  // the file that is sent as the body of this response (null if there is none)
+    private long fileLength;  // the number of bytes in the file body
+    private long filePosition;  // the number of bytes of the file body that have been sent
+    private FileChannel file;  // the open file body (only while it is being sent)
+    private String acceptedEncoding;  // the encoding that the client prefers (null if it only accepts identity)
+    private int compressionThreshold;  // bodies smaller than this are not compressed (-1 if compression is disabled)
+    private String contentEncoding;  // the encoding of the body (null if it is not encoded)
+    private boolean encodingChosen;  // whether the encoding of the body has been set with setContentEncoding()
+    private BlizzardOutgoingMessage outMessage;  // the outgoing message that this response is sent through
+    private long sequence;  // the sequence number of the request that this response answers
+    private BlizzardStream stream;  // the stream that the body is written to (null if the body is not streamed)
 
     /**
      * @param reasonPhrases Map of the reasons corresponding to the various http status codes.
      */
     public BlizzardResponse(HashMap<Integer, String> reasonPhrases) {
         this.reasonPhrases = reasonPhrases;
-        response = new StringBuffer();
-        body = new StringBuffer();
+        body = new StringBuilder();
         version =  "HTTP/1.1";
         statusCode = 404;
         reasonPhrase = reasonPhrases.get(404);
         contentType = "";
-        time = "";
+        keepAlive = true;
+        compressionThreshold = -1;
+    }
+
+    /**
+     * Creates a response that has already been finished.
+     * @param message The bytes of the response.
+     * @param keepAlive Whether the connection stays open after the response has been sent.
+     */
+    private BlizzardResponse(ByteBuffer message, boolean keepAlive) {
+        reasonPhrases = null;
+        this.message = message;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @param keepAlive Whether the connection stays open after the response has been sent.
+     * @return A finished 503 Service Unavailable response. (The bytes are pre-built, so this is cheap enough to be
+     * called from the event loop.)
+     */
+    public static BlizzardResponse serviceUnavailable(boolean keepAlive) {
+        return new BlizzardResponse(ByteBuffer.wrap(keepAlive ? SERVICE_UNAVAILABLE : SERVICE_UNAVAILABLE_CLOSE),
+                keepAlive);
+    }
+
+    /**
+     * Creates a response from the bytes of a response that was kept in a cache. The Date header is set to the current
+     * date, and the body is shared with the cached response. (Nothing is encoded, so this is cheap enough to be called
+     * from the event loop.)
+     * @param cached The cached response.
+     * @return A finished copy of the cached response.
+     */
+    public static BlizzardResponse fromCached(CachedResponse cached) {
+        byte[] time = HttpDate.current();
+        byte[] head = Arrays.copyOf(cached.head, cached.head.length);
+        System.arraycopy(time, 0, head, cached.dateOffset, time.length);
+        BlizzardResponse response = new BlizzardResponse(ByteBuffer.wrap(head), cached.keepAlive);
+        response.statusCode = cached.statusCode;
+        response.time = time;
+        if (cached.body != null) response.bodyBytes = cached.body.duplicate();
+        return response;
+    }
+
+    /**
+     * Keeps the bytes of this response so that it can be sent again without being built again. Only a response with a
+     * text, JSON or byte array body (or without a body) can be kept: a streamed body has already been sent, and a file
+     * could change on disk. This must be called after finish() and before the response is handed to its outgoing
+     * message.
+     * @return The cached response, or null if this response cannot be kept.
+     */
+    public CachedResponse toCached() {
+        if (message == null || stream != null || filePath != null) return null;
+        byte[] head = message.array();
+        // the Date header always follows the status line
+        int dateOffset = 0;
+        while (head[dateOffset] != '\n') dateOffset++;
+        dateOffset += 1 + HeaderEncoder.DATE.length;
+        return new CachedResponse(statusCode, head, dateOffset, bodyBytes == null ? null : bodyBytes.duplicate(),
+                keepAlive);
+    }
+
+    /**
+     * Sets whether the connection stays open after this response has been sent. If it does not, the response tells the
+     * client that the connection is being closed.
+     * @param keepAlive Whether the connection stays open.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return Whether the connection stays open after this response has been sent.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Enables compression of the body of this response.
+     * @param acceptEncoding The value of the request's Accept-Encoding header (may be null).
+     * @param threshold Bodies smaller than this (in bytes) are sent as they are.
+     */
+    public void setCompression(String acceptEncoding, int threshold) {
+        acceptedEncoding = Compression.negotiate(acceptEncoding);
+        compressionThreshold = threshold;
+    }
+
+    /**
+     * @return Whether bodies of this response may be compressed.
+     */
+    public boolean isCompressionEnabled() {
+        return compressionThreshold >= 0;
+    }
+
+    /**
+     * Sets the encoding of a body that has already been encoded (e.g. the contents of a pre-compressed ".gz" file), so
+     * that it is not compressed again. The response varies with the Accept-Encoding header either way.
+     * @param contentEncoding The encoding of the body or null if it is not encoded.
+     * @return This BlizzardResponse.
+     */
+    public BlizzardResponse setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+        encodingChosen = true;
+        return this;
+    }
+
+    /**
+     * Sets where this response is sent, which allows its body to be streamed.
+     * @param outMessage The outgoing message of the connection that the request was received on.
+     * @param sequence The sequence number of the request that this response answers.
+     */
+    public void setOutput(BlizzardOutgoingMessage outMessage, long sequence) {
+        this.outMessage = outMessage;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Starts streaming the body of this response. The status line and headers are sent straight away (so the status
+     * and headers have to be set first), and everything written to the returned stream is sent to the client as it is
+     * produced, with chunked transfer coding. (HTTP/1.0 clients do not understand chunks, so their body is sent as it
+     * is and the connection is closed at the end of it.) Any text that was already added to the body is sent first.
+     * The stream may be written to after the route callback has returned, but it must always be closed.
+     * @return The stream that the body is written to.
+     */
+    public BlizzardStream stream() {
+        if (stream != null) return stream;
+        if (outMessage == null) throw new IllegalStateException("Only the response to a request can be streamed.");
+        boolean chunked = !version.equals("HTTP/1.0");
+        if (!chunked) keepAlive = false;
+        String text = body.toString();
+        body.setLength(0);
+        bodyBytes = null;
+        filePath = null;
+        stream = new BlizzardStream(outMessage, chunked);
+        finish();
+        outMessage.addResponse(this, sequence);
+        try {
+            if (!text.isEmpty()) stream.write(text);
+        } catch (IOException e) {
+            // the connection has already been closed, so the producer's first write will fail as well
+        }
+        return stream;
+    }
+
+    /**
+     * @return Whether the body of this response is being streamed. (If it is, the response has already been finished
+     * and sent.)
+     */
+    public boolean isStreaming() {
+        return stream != null;
+    }
+
+    /**
+     * @return The stream that the body is written to (null if the body is not streamed).
+     */
+    BlizzardStream getStream() {
+        return stream;
     }
 
     /**
@@ -66,6 +263,13 @@ public class BlizzardResponse {
         }
     }
 
+    /**
+     * @return The status code of the response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
     /**
      * Adds the provided text to the response body.
      * @param text The text to send.
@@ -103,15 +307,124 @@ public class BlizzardResponse {
     }
 
     /**
-     * Sends the specified file to the user.
+     * Sends a value as a JSON body: a record, plain object, map, iterable, stream, array, String, number or boolean
+     * (see JsonWriter). The value is encoded straight into UTF-8 bytes, without building a String or a JSON tree.
+     * A body of up to 256 KB is sent with a Content-Length (and is compressed like any other body). A larger body is
+     * streamed with chunked transfer coding while it is being written, so a large result set (e.g. an Iterable over
+     * database rows) never exists in memory as a whole. The headers of a streamed body are sent as soon as it passes
+     * 256 KB, so the status and headers have to be set first. If the body is already being streamed (see stream()),
+     * the JSON is written to the stream, which still has to be closed. (A JSON body replaces any other body.)
+     * @param value The value to send.
+     * @return This BlizzardResponse.
+     * @throws UncheckedIOException If the value cannot be written as JSON or the connection was closed while the body
+     * was streamed.
+     */
+    public BlizzardResponse writeJson(Object value) {
+        try {
+            if (stream != null) {
+                JsonWriter.write(value, stream);
+                return this;
+            }
+            body.setLength(0);
+            bodyBytes = null;
+            filePath = null;
+            contentType = "application/json";
+            JsonBody json = new JsonBody();
+            JsonWriter.write(value, json);
+            json.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    /**
+     * Collects the bytes of a JSON body, and starts streaming the body once it grows past JSON_STREAM_THRESHOLD.
+     */
+    private class JsonBody extends OutputStream {
+        private byte[] bytes;  // the bytes of the body (null until the first bytes are written)
+        private int size;  // the number of bytes in the body
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int length) throws IOException {
+            if (stream == null && size + length > JSON_STREAM_THRESHOLD && outMessage != null) {
+                // the body is too large to hold, so the headers are sent and the bytes so far become the first chunk
+                stream();
+                if (size > 0) stream.write(bytes, 0, size);
+                bytes = null;
+                size = 0;
+            }
+            if (stream != null) {
+                stream.write(b, offset, length);
+                return;
+            }
+            if (bytes == null) {
+                // a body that fits in the writer's buffer is copied out of it exactly once
+                bytes = Arrays.copyOfRange(b, offset, offset + length);
+            } else {
+                if (size + length > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+                }
+                System.arraycopy(b, offset, bytes, size, length);
+            }
+            size += length;
+        }
+
+        /**
+         * Ends the body: a streamed body is closed, and a collected one becomes the body of the response.
+         * @throws IOException If the connection was closed before a streamed body was sent.
+         */
+        private void finish() throws IOException {
+            if (stream != null) stream.close();
+            else if (bytes != null) bodyBytes = ByteBuffer.wrap(bytes, 0, size);
+        }
+    }
+
+    /**
+     * Sends an array of bytes as the body of the response. The array is not copied, so it must not be modified
+     * afterwards. (A byte array body replaces any text body.)
+     * @param bytes The bytes to send.
+     * @param contentType The content type of the bytes.
+     * @return This BlizzardResponse.
+     */
+    public BlizzardResponse sendBytes(byte[] bytes, String contentType) {
+        if (bytes == null) return this;
+        bodyBytes = ByteBuffer.wrap(bytes);
+        this.contentType = contentType;
+        return this;
+    }
+
+    /**
+     * Adds a header to the response.
+     * @param field The header field.
+     * @param value The header value.
+     * @return This BlizzardResponse.
+     */
+    public BlizzardResponse setHeader(String field, String value) {
+        if (headers == null) headers = new StringBuilder();
+        headers.append(field).append(':').append(value).append("\r\n");
+        return this;
+    }
+
+    /**
+     * Sends the specified file to the user. The file is streamed from disk when the response is written, so its size
+     * does not affect memory use. (A file body replaces any other body.)
      * @param filePath The path of the file to be sent.
      * @return This BlizzardResponse.
      */
     public BlizzardResponse sendFile(String filePath) {
         if (filePath == null || filePath.length() == 0) return this;
         try {
-            body.append(new FileReader(filePath).readFile().getFileString());
-            contentType = "text/html; charset=UTF-8";
+            Path path = Paths.get(filePath);
+            if (!Files.isRegularFile(path) || !Files.isReadable(path)) throw new IOException("Cannot read " + filePath);
+            fileLength = Files.size(path);
+            this.filePath = path;
+            contentType = contentTypeOf(path.getFileName().toString());
         } catch (IOException e) {
             System.out.println("Are you sure there is a readable file with that path?");
             e.printStackTrace();
@@ -120,60 +433,200 @@ public class BlizzardResponse {
     }
 
     /**
-     * Sets the current time in http response format.
+     * Sets the content type of the response body. (This overrides the content type set by the send methods.)
+     * @param contentType The content type.
+     * @return This BlizzardResponse.
      */
-    private void setTime() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(
-                "EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("EDT"));
-        time = dateFormat.format(Calendar.getInstance().getTime());
+    public BlizzardResponse setContentType(String contentType) {
+        this.contentType = contentType;
+        return this;
     }
 
     /**
-     * Appends the header line to the response.
+     * Guesses the content type of a file from its extension.
+     * @param fileName The name of the file.
+     * @return The content type.
      */
-    public void composeHeaderLine() {
-        // response line
-        response.append(version).append(' ').append(statusCode).append(' ').append(reasonPhrase).append("\r\n");
-
-    }
-
-    private void addHeader(String field, String value) {
-        response.append(field).append(':').append(value).append("\r\n");
+    public static String contentTypeOf(String fileName) {
+        String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase(Locale.US);
+        return switch (extension) {
+            case "html", "htm" -> "text/html; charset=UTF-8";
+            case "css" -> "text/css; charset=UTF-8";
+            case "js" -> "text/javascript; charset=UTF-8";
+            case "json" -> "application/json";
+            case "txt" -> "text/plain; charset=UTF-8";
+            case "xml" -> "application/xml";
+            case "svg" -> "image/svg+xml";
+            case "png" -> "image/png";
+            case "jpg", "jpeg" -> "image/jpeg";
+            case "gif" -> "image/gif";
+            case "ico" -> "image/x-icon";
+            case "webp" -> "image/webp";
+            case "woff2" -> "font/woff2";
+            case "pdf" -> "application/pdf";
+            default -> "application/octet-stream";
+        };
     }
 
     /**
-     * Performs cleanup before this response is sent to the client.
+     * Performs cleanup before this response is sent to the client. The status line and headers are encoded into the
+     * message, and the body is encoded (and compressed) once.
      */
     public void finish() {
-        setTime();
-        composeHeaderLine();
-        addHeader("Date", time);
+        time = HttpDate.current();
+        if (statusCode == 204 || statusCode == 304) {
+            // these responses never have a body
+            filePath = null;
+            bodyBytes = null;
+            body.setLength(0);
+        } else if (filePath == null && bodyBytes == null && body.length() > 0) {
+            bodyBytes = ByteBuffer.wrap(body.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        compressBody();
+        HeaderEncoder head = new HeaderEncoder()
+                .putStatusLine(version, statusCode, reasonPhrase)
+                .put(HeaderEncoder.DATE).put(time).put(HeaderEncoder.CRLF);
+        // persistent connections are the default in HTTP/1.1 but not in HTTP/1.0
+        if (!keepAlive) head.put(HeaderEncoder.CONNECTION_CLOSE);
+        else if (version.equals("HTTP/1.0")) head.put(HeaderEncoder.CONNECTION_KEEP_ALIVE);
+        if (headers != null) head.put(headers);
+        // the body depends on the Accept-Encoding header, so caches have to keep the encodings apart
+        boolean compressible = compressionThreshold >= 0 && stream == null && Compression.isCompressible(contentType);
+        if (encodingChosen || compressible) {
+            head.put(HeaderEncoder.VARY_ACCEPT_ENCODING);
+        }
         // add the content type and content length headers if necessary
-        if (!contentType.equals("")) {
-            addHeader("Content-Type", contentType);
-            addHeader("Content-Length", String.valueOf(body.toString().getBytes(StandardCharsets.UTF_8).length));
+        // (an empty body still needs a content length, or the client could not tell where the next response starts)
+        if (statusCode != 204 && statusCode != 304) {
+            if (contentType != null && !contentType.isEmpty()) head.putHeader(HeaderEncoder.CONTENT_TYPE, contentType);
+            if (stream != null) {
+                // the length of a streamed body is not known in advance
+                if (!version.equals("HTTP/1.0")) head.put(HeaderEncoder.TRANSFER_ENCODING_CHUNKED);
+            } else if (!hasBody()) {
+                head.put(HeaderEncoder.CONTENT_LENGTH_ZERO);
+            } else {
+                if (contentEncoding != null) head.putHeader(HeaderEncoder.CONTENT_ENCODING, contentEncoding);
+                head.putHeader(HeaderEncoder.CONTENT_LENGTH, getBodyLength());
+            }
         }
-        response.append("\r\n").append(body);
-        message = ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.UTF_8));
+        message = ByteBuffer.wrap(head.put(HeaderEncoder.CRLF).finish());
         // get rid of references to the Strings that are no longer used
-        response = null;
+        headers = null;
         body = null;
         version = null;
         reasonPhrase = null;
     }
 
     /**
-     * @return The ByteBuffer containing the http response to be sent.
+     * @return Whether this response has a byte array or file body.
+     */
+    private boolean hasBody() {
+        return bodyBytes != null || filePath != null;
+    }
+
+    /**
+     * Compresses the (encoded) text or byte array body with the encoding that the client prefers if it is compressible
+     * and at least as large as the compression threshold.
+     */
+    private void compressBody() {
+        if (encodingChosen || acceptedEncoding == null || compressionThreshold < 0 || filePath != null) return;
+        if (statusCode == 204 || statusCode == 304 || !Compression.isCompressible(contentType)) return;
+        if (bodyBytes == null || bodyBytes.remaining() < compressionThreshold) return;
+        byte[] compressed = Compression.compress(bodyBytes.array(), bodyBytes.arrayOffset() + bodyBytes.position(),
+                bodyBytes.remaining(), acceptedEncoding);
+        // bodies that do not get smaller are sent as they are
+        if (compressed == null) return;
+        bodyBytes = ByteBuffer.wrap(compressed);
+        contentEncoding = acceptedEncoding;
+    }
+
+    /**
+     * @return The ByteBuffer containing the status line and headers of the http response to be sent. (The body is
+     * written after it with writeBody().)
      */
     public ByteBuffer getMessage() {
         return message;
     }
 
+    /**
+     * @return The number of bytes in the body of this response.
+     */
+    long getBodyLength() {
+        if (bodyBytes != null) return bodyBytes.limit();
+        return filePath == null ? 0 : fileLength;
+    }
+
+    /**
+     * @return The buffer of the (encoded) text or byte array body of this response, or null if it has none.
+     */
+    ByteBuffer getBodyBuffer() {
+        return bodyBytes;
+    }
+
+    /**
+     * @return Whether the body of this response is a file.
+     */
+    boolean hasFileBody() {
+        return bodyBytes == null && filePath != null;
+    }
+
+    /**
+     * @return Whether this response has a body that has not been completely sent.
+     */
+    boolean hasBodyRemaining() {
+        if (bodyBytes != null) return bodyBytes.hasRemaining();
+        return filePath != null && filePosition < fileLength;
+    }
+
+    /**
+     * Writes the next part of the body to a channel. This is called by the event loop once the status line and
+     * headers have been written.
+     * @param channel The (non-blocking) channel to write to.
+     * @return The number of bytes written. (0 if the channel cannot take any more bytes right now.)
+     * @throws IOException If the body cannot be written.
+     */
+    long writeBody(WritableByteChannel channel) throws IOException {
+        if (bodyBytes != null) return channel.write(bodyBytes);
+        return transferFile(channel);
+    }
+
+    /**
+     * Transfers the next chunk of the file body to a channel. The file is opened the first time this is called and
+     * closed once all of it has been transferred. This is called by the event loop once the encoded bytes have been
+     * written.
+     * @param channel The (non-blocking) channel to transfer the file to.
+     * @return The number of bytes transferred. (0 if the channel cannot take any more bytes right now.)
+     * @throws IOException If the file cannot be read or it has become shorter than its announced content length.
+     */
+    private long transferFile(WritableByteChannel channel) throws IOException {
+        if (file == null) file = FileChannel.open(filePath, StandardOpenOption.READ);
+        long count = file.transferTo(filePosition, Math.min(fileLength - filePosition, FILE_CHUNK_SIZE), channel);
+        if (count == 0 && file.size() <= filePosition) {
+            closeFile();
+            throw new IOException(filePath + " was truncated while it was being sent.");
+        }
+        filePosition += count;
+        if (filePosition == fileLength) closeFile();
+        return count;
+    }
+
+    /**
+     * Closes the file body if it is open. This is called when the connection is closed before it has been sent.
+     */
+    void closeFile() {
+        if (file == null) return;
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file = null;
+    }
+
     /**
      * @return The time when this response was sent (for testing purposes).
      */
     String getTime() {
-        return time;
+        return new String(time, StandardCharsets.US_ASCII);
     }
 }
@@ -0,0 +1,243 @@
+package com.bencullivan.blizzard.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streams the body of a response to the client as it is produced (see BlizzardResponse.stream()).
+ * Bytes written to the stream are buffered and sent as one chunk (with Transfer-Encoding: chunked) whenever the buffer
+ * fills up or flush() is called. Each chunk is queued for the event loop as soon as it is complete, so the client
+ * starts receiving the body before all of it exists. If the client reads more slowly than the body is produced, writing
+ * waits while more than HIGH_WATER_MARK bytes are queued, so a slow client cannot make the server hold the whole body
+ * in memory. The stream must be closed once the body is complete.
+ * Writing is done by a single producer thread (usually the thread that ran the route callback), and the queued chunks
+ * are written by the connection's event loop.
+ * @author Ben Cullivan (2020)
+ */
+public class BlizzardStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8192;  // the most bytes buffered before they are sent as a chunk
+    private static final long HIGH_WATER_MARK = 262144;  // writing waits while this many bytes are queued
+    private static final long LOW_WATER_MARK = 65536;  // waiting writers resume once this few bytes are queued
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final BlizzardOutgoingMessage outMessage;  // the outgoing message of the connection
+    private final boolean CHUNKED;  // whether the body is chunked (HTTP/1.0 bodies end when the connection closes)
+    private final ReentrantLock lock;  // guards the queue (a lock rather than a monitor, so that a virtual thread
+    // waiting for the queue to drain does not pin its carrier thread)
+    private final Condition drained;  // signalled when the queue drops to the low-water mark
+    private final ArrayDeque<ByteBuffer> chunks;  // the chunks waiting to be written, in order
+    private long queuedBytes;  // the number of bytes in the queued chunks
+    private boolean closed;  // whether the body is complete
+    private boolean aborted;  // whether the connection was closed before the body was sent
+    private final byte[] buffer;  // the bytes written since the last chunk (only used by the producer)
+    private int count;  // the number of bytes in the buffer
+
+    /**
+     * @param outMessage The outgoing message of the connection that the body is sent through.
+     * @param chunked Whether the body is sent with chunked transfer coding.
+     */
+    BlizzardStream(BlizzardOutgoingMessage outMessage, boolean chunked) {
+        this.outMessage = outMessage;
+        CHUNKED = chunked;
+        lock = new ReentrantLock();
+        drained = lock.newCondition();
+        chunks = new ArrayDeque<>();
+        buffer = new byte[BUFFER_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == BUFFER_SIZE) flush();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length >= BUFFER_SIZE) {
+            // large writes are sent as chunks of their own rather than being copied into the buffer first
+            flush();
+            queue(bytes, offset, length);
+            return;
+        }
+        if (count + length > BUFFER_SIZE) flush();
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * Writes text encoded as UTF-8.
+     * @param text The text.
+     * @throws IOException If the stream is closed or the connection was closed.
+     */
+    public void write(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Sends the buffered bytes as a chunk.
+     * @throws IOException If the stream is closed or the connection was closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count == 0) return;
+        queue(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Sends the buffered bytes and ends the body.
+     * @throws IOException If the connection was closed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+        } finally {
+            lock.unlock();
+        }
+        flush();
+        lock.lock();
+        try {
+            if (aborted) throw new IOException("The connection was closed before the body was sent.");
+            if (CHUNKED) offer(ByteBuffer.wrap(LAST_CHUNK));
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        outMessage.requestWrite();
+    }
+
+    /**
+     * Queues bytes as a chunk, waiting first if too many bytes are already queued.
+     * @param bytes The array holding the bytes.
+     * @param offset The index of the first byte.
+     * @param length The number of bytes.
+     * @throws IOException If the stream is closed, the connection was closed or the thread was interrupted.
+     */
+    private void queue(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return;
+        // the chunk is framed as it is copied: its size in hex, the bytes, then CRLF
+        byte[] size = CHUNKED ? (Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII)
+                : new byte[0];
+        byte[] chunk = new byte[size.length + length + (CHUNKED ? 2 : 0)];
+        System.arraycopy(size, 0, chunk, 0, size.length);
+        System.arraycopy(bytes, offset, chunk, size.length, length);
+        if (CHUNKED) {
+            chunk[chunk.length - 2] = '\r';
+            chunk[chunk.length - 1] = '\n';
+        }
+        lock.lock();
+        try {
+            while (queuedBytes >= HIGH_WATER_MARK && !aborted && !closed) drained.await();
+            if (closed) throw new IOException("The stream is closed.");
+            if (aborted) throw new IOException("The connection was closed before the body was sent.");
+            offer(ByteBuffer.wrap(chunk));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the client to catch up.");
+        } finally {
+            lock.unlock();
+        }
+        outMessage.requestWrite();
+    }
+
+    /**
+     * Adds a chunk to the queue. (The lock must be held.)
+     * @param chunk The chunk.
+     */
+    private void offer(ByteBuffer chunk) {
+        chunks.offer(chunk);
+        queuedBytes += chunk.remaining();
+    }
+
+    /**
+     * Adds the queued chunks to an array of buffers that are about to be written. (Called by the event loop.)
+     * @param buffers The array.
+     * @param count The number of buffers already in the array.
+     * @return The number of buffers in the array.
+     */
+    int gather(ByteBuffer[] buffers, int count) {
+        lock.lock();
+        try {
+            for (ByteBuffer chunk: chunks) {
+                if (count == buffers.length) break;
+                if (chunk.hasRemaining()) buffers[count++] = chunk;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the chunks that have been written, waking the producer if it is waiting for the queue to drain. (Called
+     * by the event loop.)
+     * @return Whether the whole body has been written.
+     */
+    boolean drain() {
+        lock.lock();
+        try {
+            boolean removed = false;
+            while (!chunks.isEmpty() && !chunks.peek().hasRemaining()) {
+                queuedBytes -= chunks.poll().limit();
+                removed = true;
+            }
+            if (removed && queuedBytes <= LOW_WATER_MARK) drained.signalAll();
+            return closed && chunks.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Whether there are chunks waiting to be written. (Called by the event loop.)
+     */
+    boolean hasChunks() {
+        lock.lock();
+        try {
+            return !chunks.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the queued chunks and makes the producer's next write fail. This is called by the event loop when the
+     * connection was closed, or by the producer when the body cannot be completed (e.g. the route callback threw after
+     * streaming started), in which case the connection is closed so that the client can tell the body is incomplete.
+     */
+    public void abort() {
+        lock.lock();
+        try {
+            if (aborted) return;
+            aborted = true;
+            chunks.clear();
+            queuedBytes = 0;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // the event loop closes the connection the next time it writes to it
+        outMessage.requestWrite();
+    }
+
+    /**
+     * @return Whether the body was abandoned before it was complete. (Called by the event loop.)
+     */
+    boolean isAborted() {
+        lock.lock();
+        try {
+            return aborted;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.bencullivan.blizzard.http;
+
+import java.io.IOException;
+
+/**
+ * Decodes request bodies of some content types into Java objects (see BlizzardRequest.getBody(Class)).
+ * Codecs are registered with BlizzardServer.addBodyCodec(). The first codec that accepts the Content-Type of a request
+ * decodes its body, and a JSON codec is always registered last.
+ * A codec is shared by all of the processor threads, so it must be thread-safe.
+ * @author Ben Cullivan (2020)
+ */
+public interface BodyCodec {
+
+    /**
+     * @param contentType The Content-Type of a request (or null if it does not have one). e.g. "application/json"
+     * @return Whether this codec decodes bodies of the content type.
+     */
+    boolean accepts(String contentType);
+
+    /**
+     * @param body The body. (Its bytes can be read with getInputStream(), getChannel() or map().)
+     * @param type The type to decode the body into.
+     * @param <T> The type.
+     * @return The decoded body.
+     * @throws IOException If the body could not be decoded into the type.
+     */
+    <T> T decode(BlizzardBody body, Class<T> type) throws IOException;
+}
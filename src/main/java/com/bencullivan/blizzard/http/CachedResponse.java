@@ -0,0 +1,48 @@
+package com.bencullivan.blizzard.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The bytes of a finished response, kept so that the same response can be sent again without calling the route
+ * callback or encoding anything (see BlizzardResponse.toCached() and BlizzardResponse.fromCached()).
+ * The status line and headers are kept as they were encoded, apart from the Date header, which is overwritten with
+ * the current date whenever the response is sent. The body is shared by every copy of the response that is sent.
+ * @author Ben Cullivan (2020)
+ */
+public final class CachedResponse {
+
+    final int statusCode;  // the status code of the response
+    final byte[] head;  // the status line and headers (never modified, so they are copied before the date is set)
+    final int dateOffset;  // the index in the head where the value of the Date header starts
+    final ByteBuffer body;  // the body (null if there is none), which is only ever sent through duplicates
+    final boolean keepAlive;  // whether the connection stays open after the response has been sent
+
+    /**
+     * @param statusCode The status code of the response.
+     * @param head The status line and headers of the response.
+     * @param dateOffset The index in the head where the value of the Date header starts.
+     * @param body The body of the response (null if there is none).
+     * @param keepAlive Whether the connection stays open after the response has been sent.
+     */
+    CachedResponse(int statusCode, byte[] head, int dateOffset, ByteBuffer body, boolean keepAlive) {
+        this.statusCode = statusCode;
+        this.head = head;
+        this.dateOffset = dateOffset;
+        this.body = body;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return The status code of the response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The number of bytes of the response (the head and the body).
+     */
+    public int getSize() {
+        return head.length + (body == null ? 0 : body.remaining());
+    }
+}
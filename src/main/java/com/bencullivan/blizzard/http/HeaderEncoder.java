@@ -0,0 +1,174 @@
+package com.bencullivan.blizzard.http;
+
+import com.bencullivan.blizzard.util.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Encodes the status line and headers of a response straight into bytes.
+ * The bytes are written into a buffer borrowed from a pool, and the status lines and header names that almost every
+ * response uses are encoded once and copied in, so encoding the head of a response only allocates its final array.
+ * @author Ben Cullivan (2020)
+ */
+class HeaderEncoder {
+
+    static final byte[] CRLF = ascii("\r\n");
+    static final byte[] DATE = ascii("Date:");
+    static final byte[] CONTENT_TYPE = ascii("Content-Type:");
+    static final byte[] CONTENT_LENGTH = ascii("Content-Length:");
+    static final byte[] CONTENT_ENCODING = ascii("Content-Encoding:");
+    static final byte[] CONNECTION_CLOSE = ascii("Connection:close\r\n");
+    static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection:keep-alive\r\n");
+    static final byte[] VARY_ACCEPT_ENCODING = ascii("Vary:Accept-Encoding\r\n");
+    static final byte[] CONTENT_LENGTH_ZERO = ascii("Content-Length:0\r\n");
+    static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding:chunked\r\n");
+
+    private static final BufferPool buffers = new BufferPool(1024, 0, 64, false, false);  // the buffers that heads
+    // are encoded into (heads that do not fit are moved to a larger buffer)
+    // the encoded HTTP/1.1 status lines, indexed by status code (filled in as they are used)
+    private static final AtomicReferenceArray<StatusLine> statusLines = new AtomicReferenceArray<>(600);
+
+    private ByteBuffer buffer;  // the buffer that the head is being encoded into
+    private byte[] array;  // the array backing the buffer
+    private int position;  // the index in the array of the next byte
+
+    /**
+     * An encoded status line and the reason phrase that it was encoded with.
+     */
+    private static class StatusLine {
+        private final String reasonPhrase;
+        private final byte[] bytes;
+
+        private StatusLine(String reasonPhrase, byte[] bytes) {
+            this.reasonPhrase = reasonPhrase;
+            this.bytes = bytes;
+        }
+    }
+
+    HeaderEncoder() {
+        buffer = buffers.acquire();
+        array = buffer.array();
+        position = buffer.arrayOffset();
+    }
+
+    /**
+     * Appends the status line of a response.
+     * @param version The http version of the response.
+     * @param statusCode The status code of the response.
+     * @param reasonPhrase The reason phrase of the response.
+     * @return This HeaderEncoder.
+     */
+    HeaderEncoder putStatusLine(String version, int statusCode, String reasonPhrase) {
+        boolean cacheable = version.equals("HTTP/1.1") && statusCode >= 0 && statusCode < statusLines.length();
+        if (cacheable) {
+            StatusLine line = statusLines.get(statusCode);
+            if (line != null && line.reasonPhrase.equals(reasonPhrase)) return put(line.bytes);
+        }
+        byte[] bytes = (version + ' ' + statusCode + ' ' + reasonPhrase + "\r\n").getBytes(StandardCharsets.UTF_8);
+        if (cacheable) statusLines.set(statusCode, new StatusLine(reasonPhrase, bytes));
+        return put(bytes);
+    }
+
+    /**
+     * Appends a header.
+     * @param name The encoded header name (including the colon).
+     * @param value The header value.
+     * @return This HeaderEncoder.
+     */
+    HeaderEncoder putHeader(byte[] name, CharSequence value) {
+        return put(name).put(value).put(CRLF);
+    }
+
+    /**
+     * Appends a header whose value is a number.
+     * @param name The encoded header name (including the colon).
+     * @param value The header value.
+     * @return This HeaderEncoder.
+     */
+    HeaderEncoder putHeader(byte[] name, long value) {
+        put(name);
+        ensureRemaining(20);
+        if (value == 0) {
+            array[position++] = '0';
+        } else {
+            // write the digits backwards, then reverse them
+            int start = position;
+            for (; value > 0; value /= 10) array[position++] = (byte) ('0' + value % 10);
+            for (int i = start, j = position - 1; i < j; i++, j--) {
+                byte digit = array[i];
+                array[i] = array[j];
+                array[j] = digit;
+            }
+        }
+        return put(CRLF);
+    }
+
+    /**
+     * Appends bytes.
+     * @param bytes The bytes.
+     * @return This HeaderEncoder.
+     */
+    HeaderEncoder put(byte[] bytes) {
+        ensureRemaining(bytes.length);
+        System.arraycopy(bytes, 0, array, position, bytes.length);
+        position += bytes.length;
+        return this;
+    }
+
+    /**
+     * Appends characters. ASCII characters (all that headers should contain) are copied one at a time, anything else
+     * is encoded as UTF-8.
+     * @param chars The characters.
+     * @return This HeaderEncoder.
+     */
+    HeaderEncoder put(CharSequence chars) {
+        int length = chars.length();
+        ensureRemaining(length);
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            if (c >= 0x80) return put(chars.subSequence(i, length).toString().getBytes(StandardCharsets.UTF_8));
+            array[position++] = (byte) c;
+        }
+        return this;
+    }
+
+    /**
+     * Makes sure that a number of bytes can be appended, moving the head to a larger buffer if they cannot.
+     * @param count The number of bytes.
+     */
+    private void ensureRemaining(int count) {
+        int offset = buffer.arrayOffset();
+        if (position + count <= offset + buffer.capacity()) return;
+        int used = position - offset;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, used + count));
+        System.arraycopy(array, offset, larger.array(), 0, used);
+        buffers.release(buffer);
+        buffer = larger;
+        array = larger.array();
+        position = used;
+    }
+
+    /**
+     * Copies the encoded head into an array of its exact size and returns the buffer to the pool. The encoder must not
+     * be used afterwards.
+     * @return The encoded head.
+     */
+    byte[] finish() {
+        byte[] head = Arrays.copyOfRange(array, buffer.arrayOffset(), position);
+        buffers.release(buffer);
+        buffer = null;
+        array = null;
+        return head;
+    }
+
+    /**
+     * @param text ASCII text.
+     * @return The bytes of the text.
+     */
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
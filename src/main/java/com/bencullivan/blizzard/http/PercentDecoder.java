@@ -0,0 +1,73 @@
+package com.bencullivan.blizzard.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes percent-encoded (and, in queries and form bodies, '+'-encoded) text, e.g. "caf%C3%A9+au+lait".
+ * Text without any escapes is decoded straight from its bytes, so only text that contains escapes is copied. An
+ * escape that is not followed by two hex digits is kept as it is rather than rejecting the request.
+ * @author Ben Cullivan (2020)
+ */
+final class PercentDecoder {
+
+    private PercentDecoder() {}
+
+    /**
+     * @param source The array holding the encoded text (as UTF-8).
+     * @param start The index in the array where the text starts.
+     * @param end The index in the array where the text ends (exclusive).
+     * @param plusIsSpace Whether a '+' stands for a space (in queries and form bodies, but not in paths).
+     * @return The decoded text.
+     */
+    static String decode(byte[] source, int start, int end, boolean plusIsSpace) {
+        int i = start;
+        while (i < end && source[i] != '%' && (source[i] != '+' || !plusIsSpace)) i++;
+        if (i == end) return new String(source, start, end - start, StandardCharsets.UTF_8);
+        // the escapes are decoded into a copy (which is never longer than the encoded text)
+        byte[] decoded = new byte[end - start];
+        int length = i - start;
+        System.arraycopy(source, start, decoded, 0, length);
+        while (i < end) {
+            byte b = source[i];
+            if (b == '+' && plusIsSpace) {
+                decoded[length++] = ' ';
+                i++;
+                continue;
+            }
+            if (b == '%' && i + 2 < end) {
+                int high = hexValue(source[i+1]);
+                int low = hexValue(source[i+2]);
+                if (high != -1 && low != -1) {
+                    decoded[length++] = (byte) (high << 4 | low);
+                    i += 3;
+                    continue;
+                }
+            }
+            decoded[length++] = b;
+            i++;
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param text Encoded text.
+     * @param plusIsSpace Whether a '+' stands for a space.
+     * @return The decoded text (the same String if it has no escapes).
+     */
+    static String decode(String text, boolean plusIsSpace) {
+        if (text.indexOf('%') == -1 && (!plusIsSpace || text.indexOf('+') == -1)) return text;
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return decode(bytes, 0, bytes.length, plusIsSpace);
+    }
+
+    /**
+     * @param b An ASCII character.
+     * @return The value of the character as a hex digit, or -1 if it is not one.
+     */
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+}
@@ -5,9 +5,11 @@ package com.bencullivan.blizzard.http.exceptions;
  * @author Ben Cullivan (2020)
  */
 public enum BadRequest {
+    BODY_TOO_LARGE,
     CONTENT_LENGTH_MISSING,
     HEADERS_TOO_LARGE,
     ILLEGAL_CHAR,
+    INVALID_CHUNK,
     INVALID_HEADER,
     NO_MESSAGE,
     REQUEST_LINE,
@@ -0,0 +1,16 @@
+package com.bencullivan.blizzard.http.exceptions;
+
+/**
+ * Thrown to a route callback when the body of its request cannot be decoded into the type that it asked for. The
+ * request is answered with a 400 unless the callback catches it.
+ * @author Ben Cullivan (2020)
+ */
+public class BodyDecodeException extends RuntimeException {
+    /**
+     * @param message The message passed along with this exception.
+     * @param cause The exception that caused this one (or null if there is none).
+     */
+    public BodyDecodeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
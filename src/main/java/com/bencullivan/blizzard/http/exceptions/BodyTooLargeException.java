@@ -0,0 +1,11 @@
+package com.bencullivan.blizzard.http.exceptions;
+
+/**
+ * Thrown when a request announces a body that is larger than the max body size.
+ * @author Ben Cullivan (2020)
+ */
+public class BodyTooLargeException extends BadRequestException {
+    public BodyTooLargeException() {
+        super("The body exceeds the max body size", BadRequest.BODY_TOO_LARGE);
+    }
+}
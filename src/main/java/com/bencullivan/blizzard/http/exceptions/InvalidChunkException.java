@@ -0,0 +1,11 @@
+package com.bencullivan.blizzard.http.exceptions;
+
+/**
+ * Thrown when a chunk of a chunked request body is not framed correctly.
+ * @author Ben Cullivan (2020)
+ */
+public class InvalidChunkException extends BadRequestException {
+    public InvalidChunkException() {
+        super("A chunk of the body is not framed correctly", BadRequest.INVALID_CHUNK);
+    }
+}
@@ -0,0 +1,181 @@
+package com.bencullivan.blizzard.json;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Describes how a record or plain object is bound to a JSON object: the names and types of its properties and how to
+ * create it and read or write each property. A record's properties are its components, and a plain object's are its
+ * non-static, non-transient fields (including inherited ones). Bindings are created once per class and cached.
+ * Records are found through reflection, so that the server still runs on versions of Java that do not have them.
+ * @author Ben Cullivan (2020)
+ */
+final class JsonBinding {
+
+    private static final ClassValue<JsonBinding> BINDINGS = new ClassValue<>() {
+        @Override
+        protected JsonBinding computeValue(Class<?> type) {
+            return new JsonBinding(type);
+        }
+    };
+
+    // the record methods of Class and RecordComponent (null if this version of Java does not have records)
+    private static final Method IS_RECORD;
+    private static final Method GET_RECORD_COMPONENTS;
+    private static final Method COMPONENT_NAME;
+    private static final Method COMPONENT_GENERIC_TYPE;
+    private static final Method COMPONENT_ACCESSOR;
+
+    static {
+        Method isRecord = null, getRecordComponents = null, name = null, genericType = null, accessor = null;
+        try {
+            isRecord = Class.class.getMethod("isRecord");
+            getRecordComponents = Class.class.getMethod("getRecordComponents");
+            Class<?> component = Class.forName("java.lang.reflect.RecordComponent");
+            name = component.getMethod("getName");
+            genericType = component.getMethod("getGenericType");
+            accessor = component.getMethod("getAccessor");
+        } catch (ReflectiveOperationException e) {
+            isRecord = null;
+        }
+        IS_RECORD = isRecord;
+        GET_RECORD_COMPONENTS = getRecordComponents;
+        COMPONENT_NAME = name;
+        COMPONENT_GENERIC_TYPE = genericType;
+        COMPONENT_ACCESSOR = accessor;
+    }
+
+    final String[] names;  // the names of the properties
+    final byte[][] nameBytes;  // the names of the properties encoded as UTF-8 (to match JSON keys without decoding)
+    final Type[] types;  // the (generic) types of the properties
+    final boolean record;  // whether the class is a record
+    private final Field[] fields;  // the fields of a plain object (null for a record)
+    private final Method[] accessors;  // the accessors of a record's components (null for a plain object)
+    private final Constructor<?> constructor;  // the canonical constructor of a record or the no-arg constructor
+
+    /**
+     * @param type A record or plain object class.
+     * @throws IllegalArgumentException If the class cannot be bound.
+     */
+    private JsonBinding(Class<?> type) {
+        try {
+            record = isRecord(type);
+            if (record) {
+                Object[] components = (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+                names = new String[components.length];
+                types = new Type[components.length];
+                accessors = new Method[components.length];
+                Class<?>[] parameterTypes = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    names[i] = (String) COMPONENT_NAME.invoke(components[i]);
+                    types[i] = (Type) COMPONENT_GENERIC_TYPE.invoke(components[i]);
+                    accessors[i] = (Method) COMPONENT_ACCESSOR.invoke(components[i]);
+                    parameterTypes[i] = accessors[i].getReturnType();
+                }
+                fields = null;
+                constructor = type.getDeclaredConstructor(parameterTypes);
+                AccessibleObject.setAccessible(accessors, true);
+            } else {
+                ArrayList<Field> properties = new ArrayList<>();
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Field field: c.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                            continue;
+                        }
+                        properties.add(field);
+                    }
+                }
+                fields = properties.toArray(new Field[0]);
+                names = new String[fields.length];
+                types = new Type[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    names[i] = fields[i].getName();
+                    types[i] = fields[i].getGenericType();
+                }
+                accessors = null;
+                Constructor<?> noArgs = null;
+                try {
+                    noArgs = type.getDeclaredConstructor();
+                } catch (NoSuchMethodException e) {
+                    // the class can still be written, but not read
+                }
+                constructor = noArgs;
+                AccessibleObject.setAccessible(fields, true);
+            }
+            if (constructor != null) constructor.setAccessible(true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Unable to bind " + type.getName() + " to JSON.", e);
+        }
+        nameBytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) nameBytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param type A record or plain object class.
+     * @return The binding of the class.
+     * @throws IllegalArgumentException If the class cannot be bound.
+     */
+    static JsonBinding of(Class<?> type) {
+        return BINDINGS.get(type);
+    }
+
+    /**
+     * @param type A class.
+     * @return Whether the class is a record.
+     */
+    static boolean isRecord(Class<?> type) {
+        if (IS_RECORD == null) return false;
+        try {
+            return (boolean) IS_RECORD.invoke(type);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a plain object whose properties are then set one by one.
+     * @return The object.
+     * @throws ReflectiveOperationException If the object could not be created.
+     */
+    Object create() throws ReflectiveOperationException {
+        if (constructor == null) throw new NoSuchMethodException("A class bound from JSON needs a no-arg constructor.");
+        return constructor.newInstance();
+    }
+
+    /**
+     * Creates a record from the values of all of its components.
+     * @param values The values of the components, in order.
+     * @return The record.
+     * @throws ReflectiveOperationException If the record could not be created.
+     */
+    Object construct(Object[] values) throws ReflectiveOperationException {
+        return constructor.newInstance(values);
+    }
+
+    /**
+     * @param target A plain object.
+     * @param index The index of a property.
+     * @param value The value to set the property to.
+     * @throws ReflectiveOperationException If the property could not be set.
+     */
+    void set(Object target, int index, Object value) throws ReflectiveOperationException {
+        fields[index].set(target, value);
+    }
+
+    /**
+     * @param target A record or plain object.
+     * @param index The index of a property.
+     * @return The value of the property.
+     * @throws ReflectiveOperationException If the property could not be read.
+     */
+    Object get(Object target, int index) throws ReflectiveOperationException {
+        return record ? accessors[index].invoke(target) : fields[index].get(target);
+    }
+}
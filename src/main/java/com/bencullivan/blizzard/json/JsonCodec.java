@@ -0,0 +1,34 @@
+package com.bencullivan.blizzard.json;
+
+import com.bencullivan.blizzard.http.BlizzardBody;
+import com.bencullivan.blizzard.http.BodyCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes JSON bodies (application/json, any "+json" type, or bodies without a Content-Type) with a JsonReader, which
+ * binds the JSON straight to the requested type without building a tree of it first.
+ * @author Ben Cullivan (2020)
+ */
+public class JsonCodec implements BodyCodec {
+
+    @Override
+    public boolean accepts(String contentType) {
+        if (contentType == null) return true;
+        int end = contentType.indexOf(';');
+        String mediaType = (end == -1 ? contentType : contentType.substring(0, end)).trim();
+        return mediaType.equalsIgnoreCase("application/json")
+                || mediaType.regionMatches(true, mediaType.length() - 5, "+json", 0, 5);
+    }
+
+    @Override
+    public <T> T decode(BlizzardBody body, Class<T> type) throws IOException {
+        try (InputStream in = body.getInputStream()) {
+            JsonReader reader = new JsonReader(in);
+            T value = reader.read(type);
+            reader.endDocument();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.bencullivan.blizzard.json;
+
+import java.io.IOException;
+
+/**
+ * Subclass of IOException for when JSON is malformed or cannot be bound to the requested type.
+ * @author Ben Cullivan (2020)
+ */
+public class JsonException extends IOException {
+    /**
+     * @param message The message passed along with this exception.
+     */
+    public JsonException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message The message passed along with this exception.
+     * @param cause The exception that caused this one.
+     */
+    public JsonException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,919 @@
+package com.bencullivan.blizzard.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads JSON from an array or a stream, one token at a time, without building a tree of the whole document.
+ * The tokens can be read one by one (beginObject(), nextName(), nextString(), ...), or a whole value can be bound
+ * straight to a Java type with read(): records, plain objects (through their fields), maps, collections, arrays,
+ * enums, Strings, numbers and booleans. When a value is bound to a record or object, its keys are compared with the
+ * property names as raw bytes, so a key is never decoded into a String, and unknown keys are skipped without being
+ * decoded. Strings without escapes are decoded straight from the input.
+ * A stream is read through a fixed-size buffer, so the input never needs to be in memory as a whole.
+ * @author Ben Cullivan (2020)
+ */
+public class JsonReader {
+
+    private static final int BUFFER_SIZE = 8192;  // the size of the buffer that a stream is read into
+    private static final int MAX_DEPTH = 512;  // the most deeply that arrays and objects can be nested
+
+    // the tokens
+    private static final int NONE = 0;  // the next token has not been peeked
+    private static final int BEGIN_OBJECT = 1;
+    private static final int END_OBJECT = 2;
+    private static final int BEGIN_ARRAY = 3;
+    private static final int END_ARRAY = 4;
+    private static final int NAME = 5;  // (the opening quote has been consumed)
+    private static final int STRING = 6;  // (the opening quote has been consumed)
+    private static final int NUMBER = 7;
+    private static final int TRUE = 8;
+    private static final int FALSE = 9;
+    private static final int NULL = 10;
+    private static final int END_DOCUMENT = 11;
+
+    // the scopes (what may come next inside each array or object that has been begun)
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int DANGLING_NAME = 6;  // a name has been read and its value is next
+
+    private final InputStream in;  // the stream that the JSON is read from (null if it is all in the buffer)
+    private final byte[] buffer;  // holds the JSON (or the part of it that has been read from the stream)
+    private int position;  // the index in the buffer of the next byte
+    private int limit;  // the index in the buffer where the bytes that have been read end
+    private long offset;  // the number of bytes before the start of the buffer (for error messages)
+    private int[] scopes;  // the scope of each array or object that has been begun (and the document itself)
+    private int depth;  // the number of scopes
+    private int peeked;  // the next token (NONE if it has not been peeked)
+    private byte[] scratch;  // holds strings with escapes and numbers while they are decoded
+
+    /**
+     * Reads JSON from a stream.
+     * @param in The stream.
+     */
+    public JsonReader(InputStream in) {
+        this(in, new byte[BUFFER_SIZE], 0, 0);
+    }
+
+    /**
+     * Reads JSON from an array.
+     * @param bytes The array holding the JSON (as UTF-8).
+     * @param start The index in the array where the JSON starts.
+     * @param end The index in the array where the JSON ends (exclusive).
+     */
+    public JsonReader(byte[] bytes, int start, int end) {
+        this(null, bytes, start, end);
+    }
+
+    private JsonReader(InputStream in, byte[] buffer, int position, int limit) {
+        this.in = in;
+        this.buffer = buffer;
+        this.position = position;
+        this.limit = limit;
+        offset = -position;
+        scopes = new int[16];
+        depth = 1;
+        scratch = new byte[64];
+    }
+
+    // TOKENS
+
+    /**
+     * Consumes the start of an object.
+     * @throws IOException If the next token is not the start of an object or the input could not be read.
+     */
+    public void beginObject() throws IOException {
+        expect(BEGIN_OBJECT, "an object");
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the end of an object.
+     * @throws IOException If the next token is not the end of an object or the input could not be read.
+     */
+    public void endObject() throws IOException {
+        expect(END_OBJECT, "the end of an object");
+        depth--;
+    }
+
+    /**
+     * Consumes the start of an array.
+     * @throws IOException If the next token is not the start of an array or the input could not be read.
+     */
+    public void beginArray() throws IOException {
+        expect(BEGIN_ARRAY, "an array");
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the end of an array.
+     * @throws IOException If the next token is not the end of an array or the input could not be read.
+     */
+    public void endArray() throws IOException {
+        expect(END_ARRAY, "the end of an array");
+        depth--;
+    }
+
+    /**
+     * @return Whether the current array or object has another element.
+     * @throws IOException If the JSON is malformed or the input could not be read.
+     */
+    public boolean hasNext() throws IOException {
+        int token = peek();
+        return token != END_OBJECT && token != END_ARRAY && token != END_DOCUMENT;
+    }
+
+    /**
+     * @return Whether the next token is null.
+     * @throws IOException If the JSON is malformed or the input could not be read.
+     */
+    public boolean isNull() throws IOException {
+        return peek() == NULL;
+    }
+
+    /**
+     * @return The next name of the current object.
+     * @throws IOException If the next token is not a name or the input could not be read.
+     */
+    public String nextName() throws IOException {
+        expect(NAME, "a name");
+        return readString();
+    }
+
+    /**
+     * @return The next string.
+     * @throws IOException If the next token is not a string or the input could not be read.
+     */
+    public String nextString() throws IOException {
+        expect(STRING, "a string");
+        return readString();
+    }
+
+    /**
+     * @return The next boolean.
+     * @throws IOException If the next token is not a boolean or the input could not be read.
+     */
+    public boolean nextBoolean() throws IOException {
+        int token = peek();
+        if (token != TRUE && token != FALSE) throw syntaxError("Expected a boolean");
+        peeked = NONE;
+        return token == TRUE;
+    }
+
+    /**
+     * Consumes a null.
+     * @throws IOException If the next token is not null or the input could not be read.
+     */
+    public void nextNull() throws IOException {
+        expect(NULL, "null");
+    }
+
+    /**
+     * @return The next number (which must be an integer that fits in a long).
+     * @throws IOException If the next token is not such a number or the input could not be read.
+     */
+    public long nextLong() throws IOException {
+        expect(NUMBER, "a number");
+        int length = readNumber();
+        // numbers of up to 18 digits cannot overflow, so they are accumulated directly
+        boolean negative = scratch[0] == '-';
+        int i = negative ? 1 : 0;
+        if (length - i > 0 && length - i <= 18) {
+            long value = 0;
+            while (i < length && scratch[i] >= '0' && scratch[i] <= '9') value = value * 10 + (scratch[i++] - '0');
+            if (i == length) return negative ? -value : value;
+        }
+        try {
+            return new BigDecimal(new String(scratch, 0, length, StandardCharsets.US_ASCII)).longValueExact();
+        } catch (ArithmeticException e) {
+            throw syntaxError("Expected an integer that fits in a long");
+        }
+    }
+
+    /**
+     * @return The next number (which must be an integer that fits in an int).
+     * @throws IOException If the next token is not such a number or the input could not be read.
+     */
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) throw syntaxError("Expected an integer that fits in an int");
+        return (int) value;
+    }
+
+    /**
+     * @return The next number.
+     * @throws IOException If the next token is not a number or the input could not be read.
+     */
+    public double nextDouble() throws IOException {
+        expect(NUMBER, "a number");
+        return Double.parseDouble(new String(scratch, 0, readNumber(), StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return The text of the next number, exactly as it appears in the JSON.
+     * @throws IOException If the next token is not a number or the input could not be read.
+     */
+    public String nextNumber() throws IOException {
+        expect(NUMBER, "a number");
+        return new String(scratch, 0, readNumber(), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Skips the next value (including all of the elements of an array or object) without decoding it.
+     * @throws IOException If the JSON is malformed or the input could not be read.
+     */
+    public void skipValue() throws IOException {
+        int nested = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT -> {
+                    beginObject();
+                    nested++;
+                }
+                case BEGIN_ARRAY -> {
+                    beginArray();
+                    nested++;
+                }
+                case END_OBJECT -> {
+                    endObject();
+                    nested--;
+                }
+                case END_ARRAY -> {
+                    endArray();
+                    nested--;
+                }
+                case NAME, STRING -> {
+                    peeked = NONE;
+                    skipString();
+                }
+                case NUMBER -> {
+                    peeked = NONE;
+                    readNumber();
+                }
+                case TRUE, FALSE, NULL -> peeked = NONE;
+                default -> throw syntaxError("Expected a value");
+            }
+        } while (nested > 0);
+    }
+
+    /**
+     * Makes sure that nothing but whitespace follows the value that has been read.
+     * @throws IOException If there is more JSON or the input could not be read.
+     */
+    public void endDocument() throws IOException {
+        if (peek() != END_DOCUMENT) throw syntaxError("Expected the end of the document");
+    }
+
+    // BINDING
+
+    /**
+     * Reads the next value and binds it to a type.
+     * @param type The type. Object binds objects to Maps, arrays to Lists, and numbers to Longs (or Doubles if they are
+     *             not integers).
+     * @param <T> The type.
+     * @return The value.
+     * @throws IOException If the JSON is malformed, does not fit the type or the input could not be read.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T read(Class<T> type) throws IOException {
+        return (T) read((Type) type);
+    }
+
+    /**
+     * Reads the next value and binds it to a (possibly generic) type, e.g. List&lt;Order&gt;.
+     * @param type The type.
+     * @return The value.
+     * @throws IOException If the JSON is malformed, does not fit the type or the input could not be read.
+     */
+    public Object read(Type type) throws IOException {
+        Class<?> raw = rawType(type);
+        if (peek() == NULL) {
+            if (raw.isPrimitive()) throw syntaxError("Expected " + raw.getName() + " but was null");
+            nextNull();
+            return null;
+        }
+        if (raw == Object.class) return readNatural();
+        if (raw == String.class || raw == CharSequence.class) return nextString();
+        if (raw == int.class || raw == Integer.class) return nextInt();
+        if (raw == long.class || raw == Long.class) return nextLong();
+        if (raw == double.class || raw == Double.class) return nextDouble();
+        if (raw == boolean.class || raw == Boolean.class) return nextBoolean();
+        if (raw == float.class || raw == Float.class) return (float) nextDouble();
+        if (raw == short.class || raw == Short.class) {
+            return (short) narrow(nextLong(), Short.MIN_VALUE, Short.MAX_VALUE);
+        }
+        if (raw == byte.class || raw == Byte.class) return (byte) narrow(nextLong(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+        if (raw == char.class || raw == Character.class) {
+            String text = nextString();
+            if (text.length() != 1) throw syntaxError("Expected a single character");
+            return text.charAt(0);
+        }
+        if (raw == BigDecimal.class || raw == Number.class) return new BigDecimal(nextNumber());
+        if (raw == BigInteger.class) return new BigInteger(nextNumber());
+        if (raw.isEnum()) return readEnum(raw);
+        if (raw.isArray()) return readArray(type, raw);
+        if (Collection.class.isAssignableFrom(raw) || raw == Iterable.class) return readCollection(type, raw);
+        if (Map.class.isAssignableFrom(raw)) return readMap(type);
+        return readObject(raw);
+    }
+
+    /**
+     * @param value A number.
+     * @param min The smallest value of the type that it is being narrowed to.
+     * @param max The largest value of the type that it is being narrowed to.
+     * @return The number.
+     * @throws JsonException If the number does not fit the type.
+     */
+    private long narrow(long value, long min, long max) throws JsonException {
+        if (value < min || value > max) throw syntaxError("The number " + value + " is out of range");
+        return value;
+    }
+
+    /**
+     * @return The next value as a Map, List, String, Long, Double, Boolean or null.
+     * @throws IOException If the JSON is malformed or the input could not be read.
+     */
+    private Object readNatural() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT -> {
+                LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+                beginObject();
+                while (hasNext()) map.put(nextName(), readNatural());
+                endObject();
+                return map;
+            }
+            case BEGIN_ARRAY -> {
+                ArrayList<Object> list = new ArrayList<>();
+                beginArray();
+                while (hasNext()) list.add(readNatural());
+                endArray();
+                return list;
+            }
+            case STRING -> {
+                return nextString();
+            }
+            case NUMBER -> {
+                String number = nextNumber();
+                if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        return new BigInteger(number);
+                    }
+                }
+                return Double.parseDouble(number);
+            }
+            case TRUE, FALSE -> {
+                return nextBoolean();
+            }
+            case NULL -> {
+                nextNull();
+                return null;
+            }
+            default -> throw syntaxError("Expected a value");
+        }
+    }
+
+    /**
+     * @param raw An enum class.
+     * @return The constant whose name is the next string.
+     * @throws IOException If there is no such constant or the input could not be read.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnum(Class<?> raw) throws IOException {
+        String name = nextString();
+        try {
+            return Enum.valueOf((Class<? extends Enum>) raw, name);
+        } catch (IllegalArgumentException e) {
+            throw syntaxError("Unknown " + raw.getSimpleName() + " constant \"" + name + "\"");
+        }
+    }
+
+    /**
+     * @param type The array type.
+     * @param raw The array class.
+     * @return The next array.
+     * @throws IOException If the JSON is malformed, does not fit the type or the input could not be read.
+     */
+    private Object readArray(Type type, Class<?> raw) throws IOException {
+        Type componentType = type instanceof GenericArrayType
+                ? ((GenericArrayType) type).getGenericComponentType() : raw.getComponentType();
+        Object array = Array.newInstance(rawType(componentType), 8);
+        int length = 0;
+        beginArray();
+        while (hasNext()) {
+            if (length == Array.getLength(array)) array = grow(array, length * 2);
+            Array.set(array, length++, read(componentType));
+        }
+        endArray();
+        return length == Array.getLength(array) ? array : grow(array, length);
+    }
+
+    /**
+     * @param array An array.
+     * @param length The length of the copy.
+     * @return A copy of the array with the given length.
+     */
+    private static Object grow(Object array, int length) {
+        Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, copy, 0, Math.min(length, Array.getLength(array)));
+        return copy;
+    }
+
+    /**
+     * @param type The collection type.
+     * @param raw The collection class.
+     * @return The next array as a collection (an ArrayList, or a LinkedHashSet for sets).
+     * @throws IOException If the JSON is malformed, does not fit the type or the input could not be read.
+     */
+    @SuppressWarnings("unchecked")
+    private Object readCollection(Type type, Class<?> raw) throws IOException {
+        Type elementType = typeArgument(type, 0);
+        Collection<Object> collection;
+        if (raw.isInterface() || raw == ArrayList.class || raw == LinkedHashSet.class) {
+            collection = Set.class.isAssignableFrom(raw) ? new LinkedHashSet<>() : new ArrayList<>();
+        } else {
+            collection = (Collection<Object>) instantiate(raw);
+        }
+        beginArray();
+        while (hasNext()) collection.add(read(elementType));
+        endArray();
+        return collection;
+    }
+
+    /**
+     * @param type The map type. (Its keys are Strings.)
+     * @return The next object as a LinkedHashMap.
+     * @throws IOException If the JSON is malformed, does not fit the type or the input could not be read.
+     */
+    private Object readMap(Type type) throws IOException {
+        Type valueType = typeArgument(type, 1);
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        beginObject();
+        while (hasNext()) map.put(nextName(), read(valueType));
+        endObject();
+        return map;
+    }
+
+    /**
+     * @param raw A record or plain object class.
+     * @return The next object bound to the class. (Properties that are missing from the JSON keep their default
+     * values, and keys that do not match a property are skipped.)
+     * @throws IOException If the JSON is malformed, does not fit the class or the input could not be read.
+     */
+    private Object readObject(Class<?> raw) throws IOException {
+        JsonBinding binding;
+        try {
+            binding = JsonBinding.of(raw);
+        } catch (IllegalArgumentException e) {
+            throw new JsonException(e.getMessage(), e.getCause());
+        }
+        try {
+            Object target = binding.record ? null : binding.create();
+            Object[] values = binding.record ? defaults(binding) : null;
+            beginObject();
+            while (hasNext()) {
+                int property = nextName(binding.nameBytes);
+                if (property == -1) {
+                    skipValue();
+                    continue;
+                }
+                Object value = read(binding.types[property]);
+                if (binding.record) values[property] = value;
+                else binding.set(target, property, value);
+            }
+            endObject();
+            return binding.record ? binding.construct(values) : target;
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new JsonException("Unable to bind JSON to " + raw.getName() + ".", e);
+        }
+    }
+
+    /**
+     * @param binding The binding of a record.
+     * @return The values that the record's components have if they are missing from the JSON.
+     */
+    private static Object[] defaults(JsonBinding binding) {
+        Object[] values = new Object[binding.types.length];
+        for (int i = 0; i < values.length; i++) {
+            Class<?> raw = rawType(binding.types[i]);
+            if (raw.isPrimitive()) values[i] = Array.get(Array.newInstance(raw, 1), 0);
+        }
+        return values;
+    }
+
+    /**
+     * @param raw A class with a no-arg constructor.
+     * @return A new instance of the class.
+     * @throws JsonException If the class could not be instantiated.
+     */
+    private static Object instantiate(Class<?> raw) throws JsonException {
+        try {
+            return raw.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new JsonException("Unable to create a " + raw.getName() + ".", e);
+        }
+    }
+
+    /**
+     * @param type A type.
+     * @return The class of the type.
+     */
+    static Class<?> rawType(Type type) {
+        if (type instanceof Class) return (Class<?>) type;
+        if (type instanceof ParameterizedType) return rawType(((ParameterizedType) type).getRawType());
+        if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        }
+        if (type instanceof WildcardType) return rawType(((WildcardType) type).getUpperBounds()[0]);
+        // a type variable
+        return Object.class;
+    }
+
+    /**
+     * @param type A (possibly parameterized) type.
+     * @param index The index of a type argument.
+     * @return The type argument, or Object if the type is not parameterized.
+     */
+    private static Type typeArgument(Type type, int index) {
+        if (!(type instanceof ParameterizedType)) return Object.class;
+        Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+        return index < arguments.length ? arguments[index] : Object.class;
+    }
+
+    // SCANNING
+
+    /**
+     * @return The next token, without consuming it.
+     * @throws IOException If the JSON is malformed or the input could not be read.
+     */
+    private int peek() throws IOException {
+        if (peeked == NONE) peeked = doPeek();
+        return peeked;
+    }
+
+    /**
+     * Consumes the next token.
+     * @param token The token that must come next.
+     * @param description What the token is (for the error message).
+     * @throws IOException If the next token is a different one or the input could not be read.
+     */
+    private void expect(int token, String description) throws IOException {
+        if (peek() != token) throw syntaxError("Expected " + description);
+        peeked = NONE;
+    }
+
+    /**
+     * Finds the next token, consuming the separators before it (and the opening quote of a name or string).
+     * @return The token.
+     * @throws IOException If the JSON is malformed or the input could not be read.
+     */
+    private int doPeek() throws IOException {
+        int scope = scopes[depth-1];
+        int c;
+        switch (scope) {
+            case EMPTY_ARRAY, NONEMPTY_ARRAY -> {
+                c = nextNonSpace();
+                if (c == ']') return END_ARRAY;
+                if (scope == NONEMPTY_ARRAY) {
+                    if (c != ',') throw syntaxError("Expected ',' or ']'");
+                    c = nextNonSpace();
+                }
+                scopes[depth-1] = NONEMPTY_ARRAY;
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                c = nextNonSpace();
+                if (c == '}') return END_OBJECT;
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c != ',') throw syntaxError("Expected ',' or '}'");
+                    c = nextNonSpace();
+                }
+                if (c != '"') throw syntaxError("Expected a name");
+                scopes[depth-1] = DANGLING_NAME;
+                return NAME;
+            }
+            case DANGLING_NAME -> {
+                if (nextNonSpace() != ':') throw syntaxError("Expected ':'");
+                scopes[depth-1] = NONEMPTY_OBJECT;
+                c = nextNonSpace();
+            }
+            case EMPTY_DOCUMENT -> {
+                scopes[depth-1] = NONEMPTY_DOCUMENT;
+                c = nextNonSpace();
+            }
+            default -> {
+                c = nextNonSpace();
+                if (c == -1) return END_DOCUMENT;
+                throw syntaxError("Expected the end of the document");
+            }
+        }
+        return switch (c) {
+            case '{' -> BEGIN_OBJECT;
+            case '[' -> BEGIN_ARRAY;
+            case '"' -> STRING;
+            case 't' -> literal("rue", TRUE);
+            case 'f' -> literal("alse", FALSE);
+            case 'n' -> literal("ull", NULL);
+            case '-', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+                // the number is read once it is consumed
+                position--;
+                yield NUMBER;
+            }
+            case -1 -> throw syntaxError("Unexpected end of input");
+            default -> throw syntaxError("Unexpected character '" + (char) c + "'");
+        };
+    }
+
+    /**
+     * Consumes the rest of true, false or null.
+     * @param rest The characters after the first one.
+     * @param token The token.
+     * @return The token.
+     * @throws IOException If the characters do not match or the input could not be read.
+     */
+    private int literal(String rest, int token) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (nextByte() != rest.charAt(i)) throw syntaxError("Expected true, false or null");
+        }
+        return token;
+    }
+
+    /**
+     * @param scope The scope of an array or object that has been begun.
+     * @throws JsonException If the arrays and objects are nested too deeply.
+     */
+    private void push(int scope) throws JsonException {
+        if (depth == MAX_DEPTH) throw syntaxError("The JSON is nested too deeply");
+        if (depth == scopes.length) scopes = Arrays.copyOf(scopes, depth * 2);
+        scopes[depth++] = scope;
+    }
+
+    /**
+     * @return The next byte that is not whitespace, or -1 at the end of the input.
+     * @throws IOException If the input could not be read.
+     */
+    private int nextNonSpace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) return -1;
+            byte b = buffer[position++];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return b;
+        }
+    }
+
+    /**
+     * @return The next byte, or -1 at the end of the input.
+     * @throws IOException If the input could not be read.
+     */
+    private int nextByte() throws IOException {
+        if (position == limit && !fill()) return -1;
+        return buffer[position++];
+    }
+
+    /**
+     * Reads more of the stream into the buffer (once all of the buffered bytes have been consumed).
+     * @return Whether any bytes were read.
+     * @throws IOException If the stream could not be read.
+     */
+    private boolean fill() throws IOException {
+        if (in == null) return false;
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0) return false;
+        limit = count;
+        return true;
+    }
+
+    /**
+     * Reads the rest of a name or string (whose opening quote has been consumed).
+     * @return The decoded string.
+     * @throws IOException If the string is malformed or the input could not be read.
+     */
+    private String readString() throws IOException {
+        // strings without escapes that are already in the buffer are decoded in place
+        for (int i = position; i < limit; i++) {
+            byte b = buffer[i];
+            if (b == '"') {
+                String text = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                position = i + 1;
+                return text;
+            }
+            if (b == '\\' || (b >= 0 && b < 0x20)) break;
+        }
+        return new String(scratch, 0, readEscaped(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the rest of a name (whose opening quote has been consumed) and finds it among the given names.
+     * @param names Names encoded as UTF-8.
+     * @return The index of the name that matched, or -1 if none did.
+     * @throws IOException If the JSON is malformed or the input could not be read.
+     */
+    private int nextName(byte[][] names) throws IOException {
+        expect(NAME, "a name");
+        int start = position;
+        int end = -1;
+        for (int i = position; i < limit; i++) {
+            byte b = buffer[i];
+            if (b == '"') {
+                end = i;
+                break;
+            }
+            if (b == '\\' || (b >= 0 && b < 0x20)) break;
+        }
+        int length;
+        byte[] source;
+        if (end != -1) {
+            // the name is compared where it is, without being copied
+            position = end + 1;
+            source = buffer;
+            length = end - start;
+        } else {
+            length = readEscaped();
+            source = scratch;
+            start = 0;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (Arrays.equals(names[i], 0, names[i].length, source, start, start + length)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips the rest of a name or string (whose opening quote has been consumed) without decoding it.
+     * @throws IOException If the string is malformed or the input could not be read.
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            int b = nextByte();
+            if (b == '"') return;
+            if (b == -1) throw syntaxError("Unterminated string");
+            if (b == '\\' && nextByte() == -1) throw syntaxError("Unterminated string");
+        }
+    }
+
+    /**
+     * Copies the rest of a string (whose opening quote has been consumed) into the scratch array as UTF-8, decoding its
+     * escapes.
+     * @return The number of bytes in the scratch array.
+     * @throws IOException If the string is malformed or the input could not be read.
+     */
+    private int readEscaped() throws IOException {
+        int length = 0;
+        while (true) {
+            int b = nextByte();
+            if (b == '"') return length;
+            if (b == -1) throw syntaxError("Unterminated string");
+            if (b >= 0 && b < 0x20) throw syntaxError("Unescaped control character in string");
+            if (length + 4 > scratch.length) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            if (b != '\\') {
+                scratch[length++] = (byte) b;
+                continue;
+            }
+            int escaped = nextByte();
+            switch (escaped) {
+                case '"', '\\', '/' -> scratch[length++] = (byte) escaped;
+                case 'b' -> scratch[length++] = '\b';
+                case 'f' -> scratch[length++] = '\f';
+                case 'n' -> scratch[length++] = '\n';
+                case 'r' -> scratch[length++] = '\r';
+                case 't' -> scratch[length++] = '\t';
+                case 'u' -> {
+                    int codePoint = readHex();
+                    if (Character.isHighSurrogate((char) codePoint)) {
+                        // a pair of escapes encodes a character outside of the Basic Multilingual Plane
+                        if (nextByte() != '\\' || nextByte() != 'u') throw syntaxError("Unpaired surrogate escape");
+                        int low = readHex();
+                        if (!Character.isLowSurrogate((char) low)) throw syntaxError("Unpaired surrogate escape");
+                        codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                    } else if (Character.isLowSurrogate((char) codePoint)) {
+                        throw syntaxError("Unpaired surrogate escape");
+                    }
+                    length = encodeUtf8(codePoint, length);
+                }
+                default -> throw syntaxError("Invalid escape");
+            }
+        }
+    }
+
+    /**
+     * @return The value of the four hex digits that follow a \\u escape.
+     * @throws IOException If they are not hex digits or the input could not be read.
+     */
+    private int readHex() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(nextByte(), 16);
+            if (digit == -1) throw syntaxError("Invalid \\u escape");
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Encodes a character into the scratch array (which must have room for four bytes) as UTF-8.
+     * @param codePoint The character.
+     * @param length The number of bytes in the scratch array.
+     * @return The number of bytes in the scratch array.
+     */
+    private int encodeUtf8(int codePoint, int length) {
+        if (codePoint < 0x80) {
+            scratch[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            scratch[length++] = (byte) (0xC0 | codePoint >> 6);
+            scratch[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else if (codePoint < 0x10000) {
+            scratch[length++] = (byte) (0xE0 | codePoint >> 12);
+            scratch[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            scratch[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else {
+            scratch[length++] = (byte) (0xF0 | codePoint >> 18);
+            scratch[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+            scratch[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+            scratch[length++] = (byte) (0x80 | codePoint & 0x3F);
+        }
+        return length;
+    }
+
+    /**
+     * Copies a number into the scratch array, checking that it is valid JSON.
+     * @return The number of bytes in the scratch array.
+     * @throws IOException If the number is malformed or the input could not be read.
+     */
+    private int readNumber() throws IOException {
+        int length = 0;
+        while (true) {
+            if (position == limit && !fill()) break;
+            byte b = buffer[position];
+            if ((b < '0' || b > '9') && b != '-' && b != '+' && b != '.' && b != 'e' && b != 'E') break;
+            if (length == scratch.length) scratch = Arrays.copyOf(scratch, length * 2);
+            scratch[length++] = b;
+            position++;
+        }
+        if (!isValidNumber(length)) {
+            throw syntaxError("Invalid number \"" + new String(scratch, 0, length, StandardCharsets.US_ASCII) + "\"");
+        }
+        return length;
+    }
+
+    /**
+     * @param length The number of bytes of the number in the scratch array.
+     * @return Whether the number follows the JSON grammar: -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?
+     */
+    private boolean isValidNumber(int length) {
+        int i = 0;
+        if (i < length && scratch[i] == '-') i++;
+        if (i == length) return false;
+        if (scratch[i] == '0') i++;
+        else i = digits(i, length, 1);
+        if (i == -1) return false;
+        if (i < length && scratch[i] == '.') i = digits(i + 1, length, 1);
+        if (i == -1) return false;
+        if (i < length && (scratch[i] == 'e' || scratch[i] == 'E')) {
+            i++;
+            if (i < length && (scratch[i] == '+' || scratch[i] == '-')) i++;
+            i = digits(i, length, 1);
+        }
+        return i == length;
+    }
+
+    /**
+     * @param i The index in the scratch array where the digits start.
+     * @param length The number of bytes in the scratch array.
+     * @param min The least number of digits.
+     * @return The index after the digits, or -1 if there are fewer than min.
+     */
+    private int digits(int i, int length, int min) {
+        int start = i;
+        while (i < length && scratch[i] >= '0' && scratch[i] <= '9') i++;
+        return i - start < min ? -1 : i;
+    }
+
+    /**
+     * @param message What went wrong.
+     * @return An exception that says where in the input it went wrong.
+     */
+    private JsonException syntaxError(String message) {
+        return new JsonException(message + " at byte " + (offset + position) + " of the JSON.");
+    }
+}
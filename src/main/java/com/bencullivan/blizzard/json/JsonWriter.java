@@ -0,0 +1,418 @@
+package com.bencullivan.blizzard.json;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.BaseStream;
+
+/**
+ * Writes values as JSON, encoding them straight into UTF-8 bytes without building a String or a tree of the JSON.
+ * Records and plain objects (through their fields), maps, iterables, streams, arrays, enums, Strings, numbers and
+ * booleans can be written. Types from the JDK that are none of these (e.g. dates and UUIDs) are written as their
+ * toString().
+ * The bytes are written into a buffer that is borrowed from a pool shared by all writers, and are passed on to the
+ * output stream whenever it fills up. Iterables and streams are written one element at a time, so a large result set
+ * can be written to a streamed response without ever being in memory as a whole.
+ * @author Ben Cullivan (2020)
+ */
+public class JsonWriter implements Closeable, Flushable {
+
+    private static final int BUFFER_SIZE = 8192;  // the size of the pooled buffers
+    private static final int MAX_POOLED = 64;  // the most buffers kept in the pool
+    private static final int MAX_DEPTH = 512;  // the most deeply that values can be nested (this catches cycles)
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;  // the stream that the JSON is written to
+    private byte[] buffer;  // holds the bytes that have not been passed on to the stream yet (null once released)
+    private int count;  // the number of bytes in the buffer
+    private int depth;  // how deeply the value being written is nested
+
+    /**
+     * @param out The stream that the JSON is written to.
+     */
+    public JsonWriter(OutputStream out) {
+        this.out = out;
+        buffer = POOL.poll();
+        if (buffer == null) buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Writes a value to a stream and returns the writer's buffer to the pool. The stream is neither flushed nor closed.
+     * @param value The value.
+     * @param out The stream.
+     * @throws IOException If the value cannot be written as JSON or the stream could not be written to.
+     */
+    public static void write(Object value, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        try {
+            writer.value(value);
+            writer.drain();
+        } finally {
+            writer.release();
+        }
+    }
+
+    /**
+     * @param value A value.
+     * @return The value encoded as JSON (in UTF-8).
+     * @throws IOException If the value cannot be written as JSON.
+     */
+    public static byte[] toBytes(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(value, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a value.
+     * @param value The value.
+     * @return This JsonWriter.
+     * @throws IOException If the value cannot be written as JSON or the stream could not be written to.
+     */
+    public JsonWriter value(Object value) throws IOException {
+        if (buffer == null) throw new IOException("The writer is closed.");
+        if (value == null) {
+            put(NULL);
+        } else if (value instanceof CharSequence) {
+            string((CharSequence) value);
+        } else if (value instanceof Number) {
+            number((Number) value);
+        } else if (value instanceof Boolean) {
+            put((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Character) {
+            string(value.toString());
+        } else if (value instanceof Enum) {
+            string(((Enum<?>) value).name());
+        } else if (value instanceof Optional) {
+            value(((Optional<?>) value).orElse(null));
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            // org.json values only know how to write themselves as Strings
+            utf8(value.toString());
+        } else {
+            nested(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a map, iterable, stream, array, record or plain object.
+     * @param value The value.
+     * @throws IOException If the value cannot be written as JSON or the stream could not be written to.
+     */
+    private void nested(Object value) throws IOException {
+        if (depth == MAX_DEPTH) throw new JsonException("The value is nested too deeply (or contains a cycle).");
+        depth++;
+        if (value instanceof Map) {
+            putByte('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                if (!first) putByte(',');
+                first = false;
+                string(String.valueOf(entry.getKey()));
+                putByte(':');
+                value(entry.getValue());
+            }
+            putByte('}');
+        } else if (value instanceof Iterable) {
+            elements(((Iterable<?>) value).iterator());
+        } else if (value instanceof Iterator) {
+            elements((Iterator<?>) value);
+        } else if (value instanceof BaseStream) {
+            elements(((BaseStream<?, ?>) value).iterator());
+        } else if (value.getClass().isArray()) {
+            array(value);
+        } else if (value.getClass().getName().startsWith("java.")) {
+            // e.g. an Instant or a UUID
+            string(value.toString());
+        } else {
+            object(value);
+        }
+        depth--;
+    }
+
+    /**
+     * @param elements The elements of an array.
+     * @throws IOException If an element cannot be written as JSON or the stream could not be written to.
+     */
+    private void elements(Iterator<?> elements) throws IOException {
+        putByte('[');
+        boolean first = true;
+        while (elements.hasNext()) {
+            if (!first) putByte(',');
+            first = false;
+            value(elements.next());
+        }
+        putByte(']');
+    }
+
+    /**
+     * @param array An array (of objects or of primitives).
+     * @throws IOException If an element cannot be written as JSON or the stream could not be written to.
+     */
+    private void array(Object array) throws IOException {
+        putByte('[');
+        if (array instanceof int[]) {
+            int[] ints = (int[]) array;
+            for (int i = 0; i < ints.length; i++) {
+                if (i > 0) putByte(',');
+                integer(ints[i]);
+            }
+        } else if (array instanceof long[]) {
+            long[] longs = (long[]) array;
+            for (int i = 0; i < longs.length; i++) {
+                if (i > 0) putByte(',');
+                integer(longs[i]);
+            }
+        } else {
+            int length = Array.getLength(array);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) putByte(',');
+                value(Array.get(array, i));
+            }
+        }
+        putByte(']');
+    }
+
+    /**
+     * @param value A record or plain object.
+     * @throws IOException If the object cannot be written as JSON or the stream could not be written to.
+     */
+    private void object(Object value) throws IOException {
+        JsonBinding binding;
+        try {
+            binding = JsonBinding.of(value.getClass());
+        } catch (IllegalArgumentException e) {
+            throw new JsonException(e.getMessage(), e.getCause());
+        }
+        putByte('{');
+        for (int i = 0; i < binding.nameBytes.length; i++) {
+            if (i > 0) putByte(',');
+            // property names are Java identifiers, so they never need to be escaped
+            putByte('"');
+            put(binding.nameBytes[i]);
+            putByte('"');
+            putByte(':');
+            try {
+                value(binding.get(value, i));
+            } catch (ReflectiveOperationException e) {
+                throw new JsonException("Unable to read " + binding.names[i] + " of " + value.getClass().getName(), e);
+            }
+        }
+        putByte('}');
+    }
+
+    /**
+     * @param number A number.
+     * @throws IOException If the number is not finite or the stream could not be written to.
+     */
+    private void number(Number number) throws IOException {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte
+                || number instanceof AtomicInteger || number instanceof AtomicLong) {
+            integer(number.longValue());
+            return;
+        }
+        if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) throw new JsonException(d + " cannot be written as JSON.");
+            utf8(number.toString());
+            return;
+        }
+        if (number instanceof BigDecimal || number instanceof BigInteger) {
+            utf8(number.toString());
+            return;
+        }
+        // other numbers are written as the closest double
+        number(number.doubleValue());
+    }
+
+    /**
+     * Writes an integer's digits straight into the buffer.
+     * @param value The integer.
+     * @throws IOException If the stream could not be written to.
+     */
+    private void integer(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            put(MIN_LONG);
+            return;
+        }
+        require(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    /**
+     * Writes a string, escaping the characters that JSON requires to be escaped.
+     * @param text The string.
+     * @throws IOException If the stream could not be written to.
+     */
+    private void string(CharSequence text) throws IOException {
+        putByte('"');
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            // the longest encoding of a character is a \\u escape
+            require(12);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[count++] = (byte) c;
+                } else {
+                    escape(c);
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | c >> 6);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[count++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate cannot be encoded as UTF-8
+                escape(c);
+            } else {
+                buffer[count++] = (byte) (0xE0 | c >> 12);
+                buffer[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        putByte('"');
+    }
+
+    /**
+     * Writes an escaped character into the buffer (which must have room for six bytes).
+     * @param c The character.
+     */
+    private void escape(char c) {
+        buffer[count++] = '\\';
+        switch (c) {
+            case '"', '\\' -> buffer[count++] = (byte) c;
+            case '\n' -> buffer[count++] = 'n';
+            case '\r' -> buffer[count++] = 'r';
+            case '\t' -> buffer[count++] = 't';
+            case '\b' -> buffer[count++] = 'b';
+            case '\f' -> buffer[count++] = 'f';
+            default -> {
+                buffer[count++] = 'u';
+                buffer[count++] = HEX[c >> 12 & 0xF];
+                buffer[count++] = HEX[c >> 8 & 0xF];
+                buffer[count++] = HEX[c >> 4 & 0xF];
+                buffer[count++] = HEX[c & 0xF];
+            }
+        }
+    }
+
+    /**
+     * Writes text that is already JSON, encoded as UTF-8.
+     * @param json The text.
+     * @throws IOException If the stream could not be written to.
+     */
+    private void utf8(String json) throws IOException {
+        put(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param b A byte to write.
+     * @throws IOException If the stream could not be written to.
+     */
+    private void putByte(int b) throws IOException {
+        require(1);
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * @param bytes Bytes to write.
+     * @throws IOException If the stream could not be written to.
+     */
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            drain();
+            out.write(bytes);
+            return;
+        }
+        require(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Makes sure that the buffer has room for some bytes, passing the buffered bytes on to the stream if it does not.
+     * @param length The number of bytes.
+     * @throws IOException If the stream could not be written to.
+     */
+    private void require(int length) throws IOException {
+        if (count + length > buffer.length) drain();
+    }
+
+    /**
+     * Passes the buffered bytes on to the stream.
+     * @throws IOException If the stream could not be written to.
+     */
+    private void drain() throws IOException {
+        if (count == 0) return;
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Returns the buffer to the pool.
+     */
+    private void release() {
+        if (buffer == null) return;
+        POOL.offer(buffer);
+        buffer = null;
+    }
+
+    /**
+     * Passes the buffered bytes on to the stream and flushes it. (Flushing a BlizzardStream sends a chunk.)
+     * @throws IOException If the stream could not be written to.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (buffer != null) drain();
+        out.flush();
+    }
+
+    /**
+     * Passes the buffered bytes on to the stream, returns the buffer to the pool and closes the stream.
+     * @throws IOException If the stream could not be written to.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (buffer != null) drain();
+        } finally {
+            release();
+        }
+        out.close();
+    }
+}
@@ -1,12 +1,18 @@
 package com.bencullivan.blizzard.util;
 
+import com.bencullivan.blizzard.events.BodyMode;
 import com.bencullivan.blizzard.events.Event;
 import com.bencullivan.blizzard.events.RouteCallback;
 import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.BodyCodec;
+import com.bencullivan.blizzard.json.JsonCodec;
 
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Stores data that must be accessible to all threads.
@@ -14,33 +20,86 @@ import java.util.concurrent.ArrayBlockingQueue;
  */
 public class BlizzardStore {
 
-    private final ArrayBlockingQueue<SocketChannel> acceptedChannelQueue;
-    private final ArrayBlockingQueue<Event> eventQueue;
-    private final ArrayBlockingQueue<BlizzardRequest> requestQueue;
+    private final int ACCEPTED_CHANNEL_QUEUE_SIZE;  // the size of each event loop's queue of accepted channels
+    private final int EVENT_QUEUE_SIZE;  // the size of the queue of events
+    private final int REQUEST_QUEUE_SIZE;  // the size of the queue of requests
+    private QueueType queueType;  // the kind of queues that are used to hand work between threads
+    private BlockingQueue<Event> eventQueue;
+    private BlockingQueue<BlizzardRequest> requestQueue;
     private final HashMap<Integer, String> reasonPhrases;
-    private final PathNode postRoot;  // the root of the trie that will hold POST routes and their callbacks
-    private final PathNode getRoot;  // the root of the trie that will hold GET routes and their callbacks
-    private final PathNode putRoot;  // the root of the trie that will hold PUT routes and their callbacks
-    private final PathNode patchRoot;  // the root of the trie that will hold PATCH routes and their callbacks
-    private final PathNode deleteRoot;  // the root of the trie that will hold DELETE routes and their callbacks
+    private final Router postRouter;  // matches POST requests to their routes
+    private final Router getRouter;  // matches GET requests to their routes
+    private final Router putRouter;  // matches PUT requests to their routes
+    private final Router patchRouter;  // matches PATCH requests to their routes
+    private final Router deleteRouter;  // matches DELETE requests to their routes
+    private final ArrayList<StaticDirectory> staticDirectories;  // the directories that GET requests can be served from
+    private final ArrayList<BodyCodec> bodyCodecs;  // the codecs that request bodies can be decoded with (in order)
+    private int compressionThreshold;  // bodies smaller than this are not compressed (-1 if compression is disabled)
+    private long maxBodySize;  // the largest request body (in bytes) that is accepted
+    private int bodySpillThreshold;  // request bodies larger than this (in bytes) are written to a temporary file
+    private ResponseCache responseCache;  // keeps the responses of the GET routes that have a cache policy
+    private final SingleFlight singleFlight;  // the flights of the single-flight routes' requests
+    private boolean cachedRoutes;  // whether any route has a cache policy
 
     /**
-     * @param acceptedChannelQueueSize The size of the queue that will hold newly accepted SocketChannels.
+     * @param acceptedChannelQueueSize The size of the queue (one per event loop) that will hold newly accepted
+     *                                 SocketChannels.
      * @param eventQueueSize The size of the queue that will hold Events waiting to be processed.
      * @param requestQueueSize The size of the queue that will hold BlizzardRequests waiting to be processed. (This
      *                         will also be used as the size of the response queue.)
      */
     public BlizzardStore(int acceptedChannelQueueSize, int eventQueueSize, int requestQueueSize) {
-        acceptedChannelQueue = new ArrayBlockingQueue<>(acceptedChannelQueueSize);
-        eventQueue = new ArrayBlockingQueue<>(eventQueueSize);
-        requestQueue = new ArrayBlockingQueue<>(requestQueueSize);
+        ACCEPTED_CHANNEL_QUEUE_SIZE = acceptedChannelQueueSize;
+        EVENT_QUEUE_SIZE = eventQueueSize;
+        REQUEST_QUEUE_SIZE = requestQueueSize;
+        setQueueType(QueueType.RING_BUFFER);
         reasonPhrases = new HashMap<>();
         initReasonPhrases();
-        postRoot = new PathNode();
-        getRoot = new PathNode();
-        putRoot = new PathNode();
-        patchRoot = new PathNode();
-        deleteRoot = new PathNode();
+        postRouter = new Router();
+        getRouter = new Router();
+        putRouter = new Router();
+        patchRouter = new Router();
+        deleteRouter = new Router();
+        staticDirectories = new ArrayList<>();
+        bodyCodecs = new ArrayList<>();
+        bodyCodecs.add(new JsonCodec());
+        compressionThreshold = 1024;
+        maxBodySize = 16 * 1024 * 1024;
+        bodySpillThreshold = 1024 * 1024;
+        responseCache = new ResponseCache(64 * 1024 * 1024);
+        singleFlight = new SingleFlight();
+    }
+
+    /**
+     * Sets the kind of queues that are used to hand work between threads and creates the event and request queues.
+     * (This must be called before the queues are handed to the event loops and the processor pool.)
+     * @param queueType The kind of queues.
+     */
+    public void setQueueType(QueueType queueType) {
+        this.queueType = queueType;
+        // the event queue is filled by every event loop and drained by every processor thread, and the request
+        // queue is filled by every processor thread and drained by every event loop
+        eventQueue = newQueue(EVENT_QUEUE_SIZE, false);
+        requestQueue = newQueue(REQUEST_QUEUE_SIZE, false);
+    }
+
+    /**
+     * @return The kind of queues that are used to hand work between threads.
+     */
+    public QueueType getQueueType() {
+        return queueType;
+    }
+
+    /**
+     * Creates a queue of the current queue type.
+     * @param size The capacity of the queue.
+     * @param singleProducerConsumer Whether the queue will only ever have one producer thread and one consumer thread.
+     * @param <E> The type of the elements in the queue.
+     * @return The queue.
+     */
+    private <E> BlockingQueue<E> newQueue(int size, boolean singleProducerConsumer) {
+        if (queueType == QueueType.ARRAY_BLOCKING) return new ArrayBlockingQueue<>(size);
+        return singleProducerConsumer ? new SpscRingBuffer<>(size) : new MpmcRingBuffer<>(size);
     }
 
     /**
@@ -101,12 +160,18 @@ public class BlizzardStore {
      * @param path The url path.
      * @param callback The function to be executed when a request hits this route.
      */
-    public void insertPostRoute(String[] path, RouteCallback callback) {
-        if (path.length == 0) {
-            postRoot.setCallback(callback);
-            return;
-        }
-        insertRoute(path, callback, 1);
+    public void insertPostRoute(String path, RouteCallback callback) {
+        postRouter.insert(path, callback, BodyMode.BUFFERED);
+    }
+
+    /**
+     * Registers a POST route with the server.
+     * @param path The url path.
+     * @param callback The function to be executed when a request hits this route.
+     * @param bodyMode How the route receives request bodies.
+     */
+    public void insertPostRoute(String path, RouteCallback callback, BodyMode bodyMode) {
+        postRouter.insert(path, callback, bodyMode);
     }
 
     /**
@@ -114,111 +179,99 @@ public class BlizzardStore {
      * @param path The url path.
      * @param callback The function to be executed when a request hits this route.
      */
-    public void insertGetRoute(String[] path, RouteCallback callback) {
-        if (path.length == 0) {
-            getRoot.setCallback(callback);
-            return;
-        }
-        insertRoute(path, callback, 2);
+    public void insertGetRoute(String path, RouteCallback callback) {
+        getRouter.insert(path, callback, BodyMode.BUFFERED);
     }
 
     /**
-     * Registers a PUT route with the server.
+     * Registers a GET route whose responses are cached or shared by identical requests.
      * @param path The url path.
      * @param callback The function to be executed when a request hits this route.
+     * @param cachePolicy How the responses of the route are cached and shared.
      */
-    public void insertPutRoute(String[] path, RouteCallback callback) {
-        if (path.length == 0) {
-            putRoot.setCallback(callback);
-            return;
-        }
-        insertRoute(path, callback, 3);
+    public void insertGetRoute(String path, RouteCallback callback, CachePolicy cachePolicy) {
+        getRouter.insert(path, callback, BodyMode.BUFFERED, cachePolicy);
+        if (cachePolicy != null) cachedRoutes = true;
     }
 
     /**
-     * Registers a PATCH route with the server.
+     * Registers a PUT route with the server.
      * @param path The url path.
      * @param callback The function to be executed when a request hits this route.
      */
-    public void insertPatchRoute(String[] path, RouteCallback callback) {
-        if (path.length == 0) {
-            patchRoot.setCallback(callback);
-            return;
-        }
-        insertRoute(path, callback, 4);
+    public void insertPutRoute(String path, RouteCallback callback) {
+        putRouter.insert(path, callback, BodyMode.BUFFERED);
     }
 
     /**
-     * Registers a DELETE route with the server.
+     * Registers a PUT route with the server.
      * @param path The url path.
      * @param callback The function to be executed when a request hits this route.
+     * @param bodyMode How the route receives request bodies.
      */
-    public void insertDeleteRoute(String[] path, RouteCallback callback) {
-        if (path.length == 0) {
-            deleteRoot.setCallback(callback);
-            return;
-        }
-        insertRoute(path, callback, 5);
+    public void insertPutRoute(String path, RouteCallback callback, BodyMode bodyMode) {
+        putRouter.insert(path, callback, bodyMode);
     }
 
     /**
-     * Inserts a route into the trie corresponding to its method.
+     * Registers a PATCH route with the server.
      * @param path The url path.
      * @param callback The function to be executed when a request hits this route.
-     * @param method The http method of this route.
-     */
-    private void insertRoute(String[] path, RouteCallback callback, int method) {
-        // determine whether the route has parameters
-        boolean hasParams = path[path.length-1].charAt(0) == ':';
-        int end = hasParams ? path.length-1 : path.length;
-
-        // get a reference to the appropriate root based on which method is being used
-        PathNode curr = switch(method) {
-            case 1 -> postRoot;
-            case 2 -> getRoot;
-            case 3 -> putRoot;
-            case 4 -> patchRoot;
-            default -> deleteRoot;
-        };
+     */
+    public void insertPatchRoute(String path, RouteCallback callback) {
+        patchRouter.insert(path, callback, BodyMode.BUFFERED);
+    }
 
-        // insert this route into the trie
-        for (int i = 0; i < end; i++) {
-            if (curr.getChild(path[i]) == null) curr.addChild(path[i]);
-            curr = curr.getChild(path[i]);
-        }
+    /**
+     * Registers a PATCH route with the server.
+     * @param path The url path.
+     * @param callback The function to be executed when a request hits this route.
+     * @param bodyMode How the route receives request bodies.
+     */
+    public void insertPatchRoute(String path, RouteCallback callback, BodyMode bodyMode) {
+        patchRouter.insert(path, callback, bodyMode);
+    }
 
-        // add the param node if necessary
-        if (hasParams) {
-            curr.setHasParams(true);
-            PathNode paramNode = new PathNode();
-            paramNode.setHasParams(true);
-            curr.setParamNode(paramNode);
-            curr = curr.getChild("");
-            if (path[path.length-1].length() > 1) curr.setParamName(path[path.length-1].substring(1));
-        }
+    /**
+     * Registers a DELETE route with the server.
+     * @param path The url path.
+     * @param callback The function to be executed when a request hits this route.
+     */
+    public void insertDeleteRoute(String path, RouteCallback callback) {
+        deleteRouter.insert(path, callback, BodyMode.BUFFERED);
+    }
 
-        // set the callback
-        curr.setCallback(callback);
+    /**
+     * Freezes the routers so that they can be shared by the processor threads. This is called when the server starts
+     * listening.
+     */
+    public void freezeRoutes() {
+        postRouter.freeze();
+        getRouter.freeze();
+        putRouter.freeze();
+        patchRouter.freeze();
+        deleteRouter.freeze();
     }
 
     /**
-     * @return The queue containing newly accepted SocketChannels.
+     * @return A new queue that will hold newly accepted SocketChannels until they are registered with an event loop.
      */
-    public ArrayBlockingQueue<SocketChannel> getAcceptedChannelQueue() {
-        return acceptedChannelQueue;
+    public BlockingQueue<SocketChannel> newAcceptedChannelQueue() {
+        // the listener is the only producer and the event loop is the only consumer
+        return newQueue(ACCEPTED_CHANNEL_QUEUE_SIZE, true);
     }
 
     /**
      * @return The queue containing events that are waiting to be executed.
      */
-    public ArrayBlockingQueue<Event> getEventQueue() {
+    public BlockingQueue<Event> getEventQueue() {
         return eventQueue;
     }
 
     /**
      * @return The queue containing BlizzardRequests that are waiting to be processed.
      */
-    public ArrayBlockingQueue<BlizzardRequest> getRequestQueue() {
+    public BlockingQueue<BlizzardRequest> getRequestQueue() {
         return requestQueue;
     }
 
@@ -230,37 +283,120 @@ public class BlizzardStore {
     }
 
     /**
-     * @return The root of the trie that contains the POST routes.
+     * @param method An http method. e.g. "GET"
+     * @return The router that matches requests with the method to their routes.
+     */
+    public Router getRouter(String method) {
+        return switch (method) {
+            case "POST" -> postRouter;
+            case "GET" -> getRouter;
+            case "PUT" -> putRouter;
+            case "PATCH" -> patchRouter;
+            default -> deleteRouter;
+        };
+    }
+
+    /**
+     * Adds a directory that GET requests that do not match a route are served from.
+     * @param directory The directory.
+     */
+    public void addStaticDirectory(StaticDirectory directory) {
+        staticDirectories.add(directory);
+    }
+
+    /**
+     * @return The directories that GET requests that do not match a route are served from.
+     */
+    public ArrayList<StaticDirectory> getStaticDirectories() {
+        return staticDirectories;
+    }
+
+    /**
+     * Adds a codec that request bodies can be decoded with. Codecs are tried in the order they were added, before the
+     * JSON codec.
+     * @param codec The codec.
+     */
+    public void addBodyCodec(BodyCodec codec) {
+        bodyCodecs.add(bodyCodecs.size() - 1, codec);
+    }
+
+    /**
+     * @return The codecs that request bodies can be decoded with, in order of preference.
+     */
+    public List<BodyCodec> getBodyCodecs() {
+        return bodyCodecs;
+    }
+
+    /**
+     * Sets the size (in bytes) from which response bodies are compressed for clients that accept gzip or deflate.
+     * @param compressionThreshold The smallest body that is compressed. (-1 disables compression.)
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return The smallest body (in bytes) that is compressed. (-1 if compression is disabled.)
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param maxBodySize The largest request body (in bytes) that is accepted.
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * @return The largest request body (in bytes) that is accepted.
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * @param bodySpillThreshold The size (in bytes) above which request bodies are written to a temporary file.
+     */
+    public void setBodySpillThreshold(int bodySpillThreshold) {
+        this.bodySpillThreshold = bodySpillThreshold;
+    }
+
+    /**
+     * @return The size (in bytes) above which request bodies are written to a temporary file.
      */
-    public PathNode getPostRoot() {
-        return postRoot;
+    public int getBodySpillThreshold() {
+        return bodySpillThreshold;
     }
 
     /**
-     * @return The root of the trie that contains the GET routes.
+     * Replaces the response cache with an empty one of a different size. (This must be called before the server
+     * starts listening.)
+     * @param maxSize The most bytes of responses that are cached. (0 disables the cache.)
      */
-    public PathNode getGetRoot() {
-        return getRoot;
+    public void setResponseCacheSize(long maxSize) {
+        responseCache = new ResponseCache(maxSize);
     }
 
     /**
-     * @return The root of the trie that contains the PUT routes.
+     * @return The cache that keeps the responses of the GET routes that have a cache policy.
      */
-    public PathNode getPutRoot() {
-        return putRoot;
+    public ResponseCache getResponseCache() {
+        return responseCache;
     }
 
     /**
-     * @return The root of the trie that contains the PATCH routes.
+     * @return The flights of the requests to the single-flight routes.
      */
-    public PathNode getPatchRoot() {
-        return patchRoot;
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
     }
 
     /**
-     * @return The root of the trie that contains the DELETE routes.
+     * @return Whether any route has a cache policy. (If none has, requests are not looked up in the response cache.)
      */
-    public PathNode getDeleteRoot() {
-        return deleteRoot;
+    public boolean hasCachedRoutes() {
+        return cachedRoutes;
     }
 }
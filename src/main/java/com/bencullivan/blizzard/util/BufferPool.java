@@ -0,0 +1,129 @@
+package com.bencullivan.blizzard.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of fixed-size ByteBuffers that SocketChannels are read into.
+ * The event loop borrows a buffer when a SocketChannel is ready to be read from and the processor pool returns it once
+ * its bytes have been parsed, so a connection only holds a buffer while it actually has input to process.
+ * @author Ben Cullivan (2020)
+ */
+public class BufferPool {
+
+    private final int BUFFER_SIZE;  // the capacity of every buffer in this pool
+    private final boolean DIRECT;  // whether the buffers are allocated outside of the java heap
+    private final boolean RECORD_STATS;  // whether hits, misses and discards are counted
+    private final ArrayBlockingQueue<ByteBuffer> buffers;  // the buffers that are available to be borrowed
+    private final AtomicLong hits;  // the number of times a pooled buffer was borrowed
+    private final AtomicLong misses;  // the number of times a buffer had to be allocated because the pool was empty
+    private final AtomicLong discards;  // the number of returned buffers that were dropped because the pool was full
+
+    /**
+     * @param bufferSize The capacity (in bytes) of every buffer in the pool.
+     * @param preallocatedCount The number of buffers that are allocated up front. (These are sliced out of large
+     *                          slabs so that they do not each need their own allocation.)
+     * @param maxPooledCount The maximum number of idle buffers that the pool will hold on to. Buffers that are
+     *                       returned when the pool is full are left to the garbage collector.
+     * @param direct Whether the buffers are direct buffers. (SocketChannels can read into direct buffers without
+     *               an extra copy.)
+     * @param recordStats Whether the pool counts its hits, misses and discards.
+     */
+    public BufferPool(int bufferSize, int preallocatedCount, int maxPooledCount, boolean direct, boolean recordStats) {
+        if (bufferSize < 1) throw new IllegalArgumentException("The buffer size must be positive.");
+        BUFFER_SIZE = bufferSize;
+        DIRECT = direct;
+        RECORD_STATS = recordStats;
+        buffers = new ArrayBlockingQueue<>(Math.max(1, maxPooledCount));
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        discards = new AtomicLong();
+        preallocate(Math.min(preallocatedCount, maxPooledCount));
+    }
+
+    /**
+     * Allocates buffers up front by slicing them out of slabs of at most 1024 buffers.
+     * @param count The number of buffers to allocate.
+     */
+    private void preallocate(int count) {
+        while (count > 0) {
+            int slabCount = Math.min(count, 1024);
+            ByteBuffer slab = allocate(BUFFER_SIZE * slabCount);
+            for (int i = 0; i < slabCount; i++) {
+                slab.limit((i + 1) * BUFFER_SIZE).position(i * BUFFER_SIZE);
+                buffers.offer(slab.slice());
+            }
+            count -= slabCount;
+        }
+    }
+
+    /**
+     * @param capacity The capacity of the buffer.
+     * @return A newly allocated buffer.
+     */
+    private ByteBuffer allocate(int capacity) {
+        return DIRECT ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Borrows a buffer from the pool, allocating a new one if the pool is empty.
+     * @return A cleared buffer with a capacity of getBufferSize() bytes.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            if (RECORD_STATS) misses.incrementAndGet();
+            return allocate(BUFFER_SIZE);
+        }
+        if (RECORD_STATS) hits.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller afterwards.
+     * @param buffer The buffer being returned. (Buffers that did not come from this pool are ignored.)
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != BUFFER_SIZE || buffer.isDirect() != DIRECT) return;
+        buffer.clear();
+        if (!buffers.offer(buffer) && RECORD_STATS) discards.incrementAndGet();
+    }
+
+    /**
+     * @return The capacity (in bytes) of every buffer in the pool.
+     */
+    public int getBufferSize() {
+        return BUFFER_SIZE;
+    }
+
+    /**
+     * @return The number of idle buffers currently held by the pool.
+     */
+    public int getPooledCount() {
+        return buffers.size();
+    }
+
+    /**
+     * @return The number of times a pooled buffer was borrowed. (Always 0 if stats are not being recorded.)
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of times a buffer had to be allocated because the pool was empty. (Always 0 if stats are not
+     * being recorded.)
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of returned buffers that were dropped because the pool was full. (Always 0 if stats are not
+     * being recorded.)
+     */
+    public long getDiscardCount() {
+        return discards.get();
+    }
+}
@@ -0,0 +1,93 @@
+package com.bencullivan.blizzard.util;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the responses of a GET route are cached and shared.
+ * e.g. app.get("/products", callback, CachePolicy.ttl(5, TimeUnit.MINUTES).withSingleFlight())
+ * A cached response is sent again, for as long as its time to live, to every request with the same uri (path and
+ * query string). A response that depends on a request header (e.g. Accept-Language) must name the header with
+ * varyBy(), so that a different response is kept for each value of the header. Only 200 OK responses that are not
+ * streamed and do not have a file body are cached. (See ResponseCache.)
+ * A single-flight route only calls its callback once for all the identical requests that arrive while it is running,
+ * and sends each of them the same response (whatever its status). This keeps a burst of requests for a response that
+ * is not cached (or has just gone out of date) from all running the callback at once. (See SingleFlight.)
+ * @author Ben Cullivan (2020)
+ */
+public final class CachePolicy {
+
+    private final long TTL;  // how long (in ms) a response is kept
+    private final String[] VARY_HEADERS;  // the (lower case) names of the request headers that the response depends on
+    private final boolean SINGLE_FLIGHT;  // whether identical requests share the response of one call to the callback
+
+    /**
+     * @param ttl How long (in ms) a response is kept.
+     * @param varyHeaders The (lower case) names of the request headers that the response depends on.
+     * @param singleFlight Whether identical requests share the response of one call to the callback.
+     */
+    private CachePolicy(long ttl, String[] varyHeaders, boolean singleFlight) {
+        TTL = ttl;
+        VARY_HEADERS = varyHeaders;
+        SINGLE_FLIGHT = singleFlight;
+    }
+
+    /**
+     * @param duration How long a response is kept.
+     * @param unit The unit of the duration.
+     * @return A policy that keeps each response for the duration.
+     * @throws IllegalArgumentException If the duration is not positive.
+     */
+    public static CachePolicy ttl(long duration, TimeUnit unit) {
+        if (duration <= 0) throw new IllegalArgumentException("A cached response must be kept for some time.");
+        return new CachePolicy(unit.toMillis(duration), new String[0], false);
+    }
+
+    /**
+     * @return A policy that keeps no responses, but lets the identical requests that arrive while the callback is
+     * running share its response.
+     */
+    public static CachePolicy singleFlight() {
+        return new CachePolicy(0, new String[0], true);
+    }
+
+    /**
+     * @return A copy of this policy that also lets the identical requests that arrive while the callback is running
+     * share its response.
+     */
+    public CachePolicy withSingleFlight() {
+        return new CachePolicy(TTL, VARY_HEADERS, true);
+    }
+
+    /**
+     * @param headers The names of the request headers that the response depends on.
+     * @return A copy of this policy that keeps a different response for each combination of the headers' values.
+     */
+    public CachePolicy varyBy(String... headers) {
+        String[] varyHeaders = new String[headers.length];
+        for (int i = 0; i < headers.length; i++) varyHeaders[i] = headers[i].toLowerCase(Locale.US);
+        return new CachePolicy(TTL, varyHeaders, SINGLE_FLIGHT);
+    }
+
+    /**
+     * @return How long (in ms) a response is kept. (0 if responses are not kept.)
+     */
+    public long getTtl() {
+        return TTL;
+    }
+
+    /**
+     * @return The (lower case) names of the request headers that the response depends on. (The array must not be
+     * modified.)
+     */
+    public String[] getVaryHeaders() {
+        return VARY_HEADERS;
+    }
+
+    /**
+     * @return Whether identical requests share the response of one call to the callback.
+     */
+    public boolean isSingleFlight() {
+        return SINGLE_FLIGHT;
+    }
+}
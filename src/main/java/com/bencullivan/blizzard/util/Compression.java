@@ -0,0 +1,166 @@
+package com.bencullivan.blizzard.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Negotiates and applies gzip and deflate content encodings.
+ * Deflaters hold native memory and are expensive to create, so they are pooled: a thread borrows one (along with its
+ * output buffer) for the duration of a single compression and returns it afterwards. (A ThreadLocal would give every
+ * virtual thread a Deflater of its own.)
+ * @author Ben Cullivan (2020)
+ */
+public class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int LEVEL = 6;  // the compression level (zlib's default trade-off between speed and size)
+    private static final int POOL_SIZE = 64;  // the most idle encoders kept for each encoding
+    private static final int MAX_POOLED_BUFFER = 1 << 20;  // larger output buffers are not kept by the pool
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final ArrayBlockingQueue<Encoder> gzipEncoders = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Encoder> deflateEncoders = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * A Deflater and the buffer that it compresses into.
+     */
+    private static class Encoder {
+        private final Deflater deflater;
+        private byte[] buffer;
+
+        private Encoder(boolean gzip) {
+            // gzip wraps raw deflate data in its own header and trailer, while deflate uses the zlib format
+            deflater = new Deflater(LEVEL, gzip);
+            buffer = new byte[8192];
+        }
+    }
+
+    /**
+     * Chooses the encoding of a response body from the Accept-Encoding header of the request. gzip is preferred over
+     * deflate when the client gives them the same quality.
+     * @param acceptEncoding The value of the Accept-Encoding header (may be null).
+     * @return GZIP, DEFLATE or null if the body should not be encoded.
+     */
+    public static String negotiate(String acceptEncoding) {
+        double gzip = quality(acceptEncoding, GZIP);
+        double deflate = quality(acceptEncoding, DEFLATE);
+        if (gzip <= 0 && deflate <= 0) return null;
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /**
+     * @param acceptEncoding The value of the Accept-Encoding header (may be null).
+     * @param encoding The encoding.
+     * @return Whether the client accepts the encoding.
+     */
+    public static boolean accepts(String acceptEncoding, String encoding) {
+        return quality(acceptEncoding, encoding) > 0;
+    }
+
+    /**
+     * Finds the quality that an Accept-Encoding header gives to an encoding. e.g. "gzip;q=0.8, *;q=0.1"
+     * @param acceptEncoding The value of the Accept-Encoding header (may be null).
+     * @param encoding The encoding.
+     * @return The quality (0 if the encoding is not acceptable).
+     */
+    private static double quality(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null) return 0;
+        double wildcard = 0;
+        for (String part: acceptEncoding.split(",")) {
+            int semicolon = part.indexOf(';');
+            String coding = (semicolon == -1 ? part : part.substring(0, semicolon)).trim();
+            double q = 1;
+            if (semicolon != -1) {
+                String parameter = part.substring(semicolon + 1).trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equalsIgnoreCase(encoding) || (encoding.equals(GZIP) && coding.equalsIgnoreCase("x-gzip"))) {
+                return q;
+            }
+            if (coding.equals("*")) wildcard = q;
+        }
+        return wildcard;
+    }
+
+    /**
+     * @param contentType The content type of a body (may include parameters).
+     * @return Whether bodies of this type are worth compressing. (Images, video and archives already are compressed.)
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null || contentType.isEmpty()) return false;
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon == -1 ? contentType : contentType.substring(0, semicolon)).trim()
+                .toLowerCase(Locale.US);
+        return type.startsWith("text/") || type.endsWith("+json") || type.endsWith("+xml") || switch (type) {
+            case "application/json", "application/javascript", "application/xml", "image/svg+xml",
+                    "application/x-www-form-urlencoded" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Compresses part of an array.
+     * @param data The array.
+     * @param offset The index of the first byte to compress.
+     * @param length The number of bytes to compress.
+     * @param encoding GZIP or DEFLATE.
+     * @return The compressed bytes or null if compressing would not make the data smaller.
+     */
+    public static byte[] compress(byte[] data, int offset, int length, String encoding) {
+        boolean gzip = encoding.equals(GZIP);
+        ArrayBlockingQueue<Encoder> pool = gzip ? gzipEncoders : deflateEncoders;
+        Encoder encoder = pool.poll();
+        if (encoder == null) encoder = new Encoder(gzip);
+        try {
+            Deflater deflater = encoder.deflater;
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] out = encoder.buffer;
+            int position = gzip ? GZIP_HEADER.length : 0;
+            // leave room for the gzip trailer
+            int limit = length - (gzip ? 8 : 0);
+            while (!deflater.finished()) {
+                // give up as soon as the output is not smaller than the input
+                if (position >= limit) return null;
+                if (position == out.length) out = Arrays.copyOf(out, out.length * 2);
+                position += deflater.deflate(out, position, Math.min(out.length, limit) - position);
+            }
+            if (gzip) {
+                if (out.length < position + 8) out = Arrays.copyOf(out, position + 8);
+                System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+                CRC32 crc = new CRC32();
+                crc.update(data, offset, length);
+                position = writeIntLE(out, position, (int) crc.getValue());
+                position = writeIntLE(out, position, length);
+            }
+            encoder.buffer = out.length <= MAX_POOLED_BUFFER ? out : new byte[8192];
+            return Arrays.copyOf(out, position);
+        } finally {
+            encoder.deflater.reset();
+            if (!pool.offer(encoder)) encoder.deflater.end();
+        }
+    }
+
+    /**
+     * Writes an int in little-endian order (as gzip requires).
+     * @param out The array to write to.
+     * @param position The index to write at.
+     * @param value The int.
+     * @return The index after the int.
+     */
+    private static int writeIntLE(byte[] out, int position, int value) {
+        for (int i = 0; i < 4; i++) out[position++] = (byte) (value >>> (8 * i));
+        return position;
+    }
+}
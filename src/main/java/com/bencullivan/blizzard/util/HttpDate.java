@@ -0,0 +1,66 @@
+package com.bencullivan.blizzard.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Formats http dates. e.g. "Sun, 06 Nov 1994 08:49:37 GMT"
+ * The current date only changes once a second, so a single daemon ticker thread formats it once a second and every
+ * response shares the encoded bytes instead of formatting the date itself.
+ * @author Ben Cullivan (2020)
+ */
+public class HttpDate {
+
+    // the format of http dates (RFC_1123_DATE_TIME does not pad the day of the month, but it can parse either)
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+            Locale.US);
+
+    private static volatile byte[] current = encode(System.currentTimeMillis() / 1000);  // the current date (ASCII)
+
+    static {
+        Thread ticker = new Thread(HttpDate::tick, "blizzard-date-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * @param epochSeconds A time (in seconds since the epoch).
+     * @return The time as an http date.
+     */
+    public static String format(long epochSeconds) {
+        return FORMAT.format(Instant.ofEpochSecond(epochSeconds).atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * @return The current time as the ASCII bytes of an http date. (The array is shared, so it must not be modified.)
+     */
+    public static byte[] current() {
+        return current;
+    }
+
+    /**
+     * @param epochSeconds A time (in seconds since the epoch).
+     * @return The time as the ASCII bytes of an http date.
+     */
+    private static byte[] encode(long epochSeconds) {
+        return format(epochSeconds).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Updates the current date at the start of every second. (Runs on the ticker thread.)
+     */
+    private static void tick() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            current = encode(System.currentTimeMillis() / 1000);
+        }
+    }
+}
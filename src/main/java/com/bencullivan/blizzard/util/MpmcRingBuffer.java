@@ -0,0 +1,166 @@
+package com.bencullivan.blizzard.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, bounded queue that can be used by any number of producer and consumer threads.
+ * Each slot of the ring has a sequence number that tells producers and consumers whether the slot is ready for them,
+ * so a thread only has to win a single compare-and-set on the tail (or head) to claim a slot.
+ * @param <E> The type of the elements in the queue.
+ * @author Ben Cullivan (2020)
+ */
+public class MpmcRingBuffer<E> extends RingBufferQueue<E> {
+
+    private final AtomicLongArray sequences;  // the sequence number of each slot
+    private final AtomicLong tail;  // the position of the next slot to insert into
+    private final AtomicLong head;  // the position of the next slot to remove from
+
+    /**
+     * @param capacity The capacity of the queue.
+     */
+    public MpmcRingBuffer(int capacity) {
+        super(capacity);
+        sequences = new AtomicLongArray(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) sequences.set(i, i);
+        tail = new AtomicLong();
+        head = new AtomicLong();
+    }
+
+    @Override
+    protected boolean enqueue(E e) {
+        long pos = tail.get();
+        int index;
+        while (true) {
+            index = (int) (pos & MASK);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                // the ring has more slots than the queue may hold elements (unless its capacity is a power of two)
+                if (LIMIT != CAPACITY && pos - head.get() >= LIMIT) return false;
+                // the slot is free, so try to claim it
+                if (tail.compareAndSet(pos, pos + 1)) break;
+                pos = tail.get();
+            } else if (diff < 0) {
+                // the slot still holds the element from one lap ago, so the queue is full
+                return false;
+            } else {
+                // another producer claimed the slot first
+                pos = tail.get();
+            }
+        }
+        elements.lazySet(index, e);
+        // publish the element to the consumers
+        sequences.set(index, pos + 1);
+        return true;
+    }
+
+    @Override
+    protected E dequeue() {
+        E e;
+        // the slots of elements that were removed out of order are skipped
+        do {
+            e = dequeueSlot();
+        } while (e == REMOVED);
+        return e;
+    }
+
+    /**
+     * Claims the slot at the head.
+     * @return The element in the slot (REMOVED if it was removed out of order) or null if the queue was empty.
+     */
+    private E dequeueSlot() {
+        long pos = head.get();
+        int index;
+        while (true) {
+            index = (int) (pos & MASK);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                // the slot has been filled, so try to claim it
+                if (head.compareAndSet(pos, pos + 1)) break;
+                pos = head.get();
+            } else if (diff < 0) {
+                // the slot has not been filled yet, so the queue is empty
+                return null;
+            } else {
+                // another consumer claimed the slot first
+                pos = head.get();
+            }
+        }
+        return take(index, pos);
+    }
+
+    @Override
+    protected int dequeueBatch(Collection<? super E> c, int maxElements) {
+        while (true) {
+            long pos = head.get();
+            // count the filled slots starting at the head
+            int count = 0;
+            while (count < maxElements && count < CAPACITY &&
+                    sequences.get((int) ((pos + count) & MASK)) == pos + count + 1) {
+                count++;
+            }
+            if (count == 0) return 0;
+            // claim all of them with a single compare-and-set
+            if (!head.compareAndSet(pos, pos + count)) continue;
+            int added = 0;
+            for (int i = 0; i < count; i++) {
+                E e = take((int) ((pos + i) & MASK), pos + i);
+                if (e == REMOVED) continue;
+                c.add(e);
+                added++;
+            }
+            // keep going if every claimed slot was removed out of order
+            if (added > 0) return added;
+        }
+    }
+
+    /**
+     * Removes the element from a slot that has been claimed and frees the slot for the producers of the next lap.
+     * @param index The index of the slot.
+     * @param pos The position that the slot was claimed at.
+     * @return The element.
+     */
+    private E take(int index, long pos) {
+        // swapped rather than read, so that the element cannot also be removed out of order
+        E e = elements.getAndSet(index, null);
+        sequences.set(index, pos + CAPACITY);
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long pos = head.get();
+            E e = null;
+            // skip the slots of elements that were removed out of order
+            for (long p = pos; p < pos + CAPACITY; p++) {
+                int index = (int) (p & MASK);
+                if (sequences.get(index) != p + 1) return null;
+                e = elements.get(index);
+                if (e != REMOVED) break;
+            }
+            // make sure the slot was not consumed (and refilled) while it was being read
+            if (head.get() != pos || e == null) continue;
+            return e == REMOVED ? null : e;
+        }
+    }
+
+    @Override
+    public int size() {
+        // read the head first so that the size is never negative
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(LIMIT, t - h));
+    }
+
+    @Override
+    protected long getHead() {
+        return head.get();
+    }
+
+    @Override
+    protected long getTail() {
+        return tail.get();
+    }
+}
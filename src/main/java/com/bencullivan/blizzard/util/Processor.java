@@ -2,7 +2,7 @@ package com.bencullivan.blizzard.util;
 
 import com.bencullivan.blizzard.events.Event;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Runs on a worker thread, processing events one after another.
@@ -10,12 +10,12 @@ import java.util.concurrent.ArrayBlockingQueue;
  */
 public class Processor implements Runnable {
 
-    private final ArrayBlockingQueue<Event> eventQueue;
+    private final BlockingQueue<Event> eventQueue;
 
     /**
      * @param eventQueue The queue that the events are taken from.
      */
-    public Processor(ArrayBlockingQueue<Event> eventQueue) {
+    public Processor(BlockingQueue<Event> eventQueue) {
         this.eventQueue = eventQueue;
     }
 
@@ -28,6 +28,9 @@ public class Processor implements Runnable {
                 event.execute();
             } catch (InterruptedException e) {
                 e.printStackTrace();
+            } catch (RuntimeException e) {
+                // an event that fails must not stop this thread from processing the next one
+                e.printStackTrace();
             }
         }
     }
@@ -0,0 +1,10 @@
+package com.bencullivan.blizzard.util;
+
+/**
+ * The kind of queue that the server uses to hand work between its threads.
+ * @author Ben Cullivan (2020)
+ */
+public enum QueueType {
+    ARRAY_BLOCKING,  // java.util.concurrent.ArrayBlockingQueue (every operation takes the queue's lock)
+    RING_BUFFER  // lock-free ring buffers (single producer, single consumer where possible)
+}
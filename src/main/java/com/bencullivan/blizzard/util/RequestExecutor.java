@@ -0,0 +1,81 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.events.Event;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs request events (which call the user-defined route callbacks) on an ExecutorService instead of the processor
+ * pool, so that callbacks that block (e.g. on a database call) do not tie up the threads that parse input.
+ * The number of requests in flight is capped so that a slow backend cannot make the server queue up an unbounded
+ * amount of work. Once the cap is reached, the event loops apply their OverloadPolicy.
+ * @author Ben Cullivan (2020)
+ */
+public class RequestExecutor {
+
+    private final ExecutorService executor;  // runs the request events
+    private final int MAX_IN_FLIGHT;  // the maximum number of requests that can be running or waiting to run
+    private final AtomicInteger inFlight;  // the number of requests that are running or waiting to run
+
+    /**
+     * @param executor The ExecutorService that runs the request events.
+     * @param maxInFlight The maximum number of requests that can be running or waiting to run at once.
+     */
+    public RequestExecutor(ExecutorService executor, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("At least one request must be allowed in flight.");
+        this.executor = executor;
+        MAX_IN_FLIGHT = maxInFlight;
+        inFlight = new AtomicInteger();
+    }
+
+    /**
+     * Creates an ExecutorService that starts a new virtual thread for each task. (The method is looked up reflectively
+     * so that the server still compiles and runs on JVMs without virtual threads.)
+     * @return The executor.
+     * @throws UnsupportedOperationException If this JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM " +
+                    "(Java 21 or later is required).", e);
+        }
+    }
+
+    /**
+     * Hands an event to the executor without blocking.
+     * @param event The event to run.
+     * @return Whether the event was accepted. (False if the cap on requests in flight has been reached or the executor
+     * rejected it.)
+     */
+    public boolean offer(Event event) {
+        if (inFlight.incrementAndGet() > MAX_IN_FLIGHT) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    event.execute();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @return The number of requests that are running or waiting to run.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,180 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.CachedResponse;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps the responses of the GET routes that were registered with a CachePolicy.
+ * A response is kept as the bytes that were sent (see CachedResponse), under a key made of the request's uri (its path,
+ * url parameters and query string), the http version and connection handling that shape the headers, the encoding
+ * negotiated from its Accept-Encoding header and the values of the headers that the policy varies by. The event loops
+ * look up every request to a cached route before it is handed to the processor pool, and a hit is answered on the
+ * event loop, without calling the route callback. A miss is answered by the callback as usual, and its response is put
+ * in the cache on the way out.
+ * The cache holds at most a fixed number of bytes. Once it is full, the least recently used responses are evicted, and
+ * an expired response is removed when it is next looked up. The cache is shared by every event loop and processor
+ * thread.
+ * @author Ben Cullivan (2020)
+ */
+public class ResponseCache {
+
+    private final long MAX_SIZE;  // the most bytes of responses (and keys) kept in the cache
+    private final LinkedHashMap<String, Entry> entries;  // the cached responses in least recently used order
+    private long size;  // the number of bytes in the cache
+    private long hits;  // the number of lookups that found a fresh response
+    private long misses;  // the number of lookups that did not
+    private long evictions;  // the number of responses evicted to make room for others
+    private long expirations;  // the number of responses removed because they were out of date
+
+    /**
+     * A cached response and when it goes out of date.
+     */
+    private static class Entry {
+        private final CachedResponse response;
+        private final long expiresAt;  // the System.nanoTime() after which the response is out of date
+        private final long size;  // the number of bytes that the entry takes up in the cache
+
+        private Entry(String key, CachedResponse response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+            size = response.getSize() + 2L * key.length();
+        }
+    }
+
+    /**
+     * @param maxSize The most bytes of responses kept in the cache. (0 disables the cache.)
+     */
+    public ResponseCache(long maxSize) {
+        MAX_SIZE = maxSize;
+        entries = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    /**
+     * @param request A GET request to a route with a cache policy.
+     * @param policy The cache policy of the route.
+     * @param compressionThreshold The smallest body (in bytes) that is compressed. (-1 if compression is disabled.)
+     * @return The key that the response to the request is cached under.
+     */
+    public static String keyOf(BlizzardRequest request, CachePolicy policy, int compressionThreshold) {
+        StringBuilder key = new StringBuilder(64)
+                .append(request.getUri()).append('\n')
+                .append(request.getVersion()).append(request.isKeepAlive() ? " keep-alive" : " close");
+        if (compressionThreshold >= 0) {
+            key.append('\n').append(Compression.negotiate(request.getHeader("accept-encoding")));
+        }
+        for (String header: policy.getVaryHeaders()) key.append('\n').append(request.getHeader(header));
+        return key.toString();
+    }
+
+    /**
+     * @param key The key of a response.
+     * @return The response, or null if it is not in the cache or is out of date.
+     */
+    public CachedResponse get(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                size -= entry.size;
+                expirations++;
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.response;
+        }
+    }
+
+    /**
+     * Puts a response in the cache, evicting the least recently used responses if the cache is full. (A response that
+     * is larger than the whole cache is not kept.)
+     * @param key The key of the response.
+     * @param response The response.
+     * @param ttl How long (in ms) the response is kept.
+     */
+    public void put(String key, CachedResponse response, long ttl) {
+        Entry entry = new Entry(key, response, System.nanoTime() + ttl * 1000000);
+        if (entry.size > MAX_SIZE) return;
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) size -= previous.size;
+            size += entry.size;
+            Iterator<Entry> lru = entries.values().iterator();
+            while (size > MAX_SIZE && lru.hasNext()) {
+                size -= lru.next().size;
+                lru.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Removes every response from the cache (e.g. after the data behind the cached routes has changed).
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @return The number of lookups that found a fresh response.
+     */
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return The number of lookups that did not find a fresh response.
+     */
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return The number of responses that were evicted to make room for others.
+     */
+    public long getEvictions() {
+        synchronized (entries) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return The number of responses that were removed because they were out of date.
+     */
+    public long getExpirations() {
+        synchronized (entries) {
+            return expirations;
+        }
+    }
+
+    /**
+     * @return The number of responses in the cache.
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return The number of bytes in the cache.
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.bencullivan.blizzard.util;
+
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The base of the lock-free, bounded ring buffer queues.
+ * Subclasses provide the non-blocking operations (offer, poll, peek and a batched drain). This class builds the
+ * blocking operations on top of them: a thread that has to wait spins briefly, then yields, and finally parks until an
+ * opposing operation unparks it, so idle processor threads do not burn CPU.
+ * An element can also be removed from the middle of the queue (with remove(Object) or an iterator): its slot is marked
+ * as removed, and the consumers skip the slot when they reach it. (Until then, the slot still counts towards the size.)
+ * @param <E> The type of the elements in the queue.
+ * @author Ben Cullivan (2020)
+ */
+public abstract class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    private static final int SPINS = 64;  // the number of times a waiting thread spins before yielding
+    private static final int YIELDS = 16;  // the number of times a waiting thread yields before parking
+
+    protected static final Object REMOVED = new Object();  // marks a slot whose element was removed out of order
+
+    protected final int CAPACITY;  // the number of slots in the ring (a power of two)
+    protected final int LIMIT;  // the most elements the queue holds (the capacity it was created with)
+    protected final int MASK;  // used to turn a position into an index in the ring
+    protected final AtomicReferenceArray<E> elements;  // the slots of the ring
+    private final ConcurrentLinkedQueue<Thread> waitingTakers;  // threads parked because the queue was empty
+    private final ConcurrentLinkedQueue<Thread> waitingPutters;  // threads parked because the queue was full
+
+    /**
+     * @param capacity The capacity of the queue. (The ring is rounded up to a power of two slots, but it never holds
+     *                 more elements than this.)
+     */
+    protected RingBufferQueue(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("The capacity must be positive.");
+        CAPACITY = capacity == 1 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        LIMIT = capacity;
+        MASK = CAPACITY - 1;
+        elements = new AtomicReferenceArray<>(CAPACITY);
+        waitingTakers = new ConcurrentLinkedQueue<>();
+        waitingPutters = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Inserts an element without signalling waiting threads.
+     * @param e The element (never null).
+     * @return Whether there was room for the element.
+     */
+    protected abstract boolean enqueue(E e);
+
+    /**
+     * Removes an element without signalling waiting threads.
+     * @return The element or null if the queue was empty.
+     */
+    protected abstract E dequeue();
+
+    /**
+     * Removes up to maxElements elements in one operation and adds them to a collection without signalling waiting
+     * threads.
+     * @param c The collection to add the elements to.
+     * @param maxElements The maximum number of elements to remove.
+     * @return The number of elements that were removed.
+     */
+    protected abstract int dequeueBatch(Collection<? super E> c, int maxElements);
+
+    /**
+     * @return The position of the next slot to remove from.
+     */
+    protected abstract long getHead();
+
+    /**
+     * @return The position of the next slot to insert into.
+     */
+    protected abstract long getTail();
+
+    /**
+     * Unparks one thread from a queue of waiting threads (if there is one).
+     * @param waiting The queue of waiting threads.
+     */
+    private static void signal(ConcurrentLinkedQueue<Thread> waiting) {
+        // make sure the insertion or removal is visible before checking for waiting threads
+        VarHandle.fullFence();
+        if (waiting.isEmpty()) return;
+        Thread thread = waiting.poll();
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        if (!enqueue(e)) return false;
+        signal(waitingTakers);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        E e = dequeue();
+        if (e != null) signal(waitingPutters);
+        return e;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) throw new IllegalArgumentException();
+        if (maxElements <= 0) return 0;
+        int count = dequeueBatch(c, maxElements);
+        if (count > 0) signal(waitingPutters);
+        return count;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        Objects.requireNonNull(e);
+        for (int i = 0; !offer(e); i++) await(waitingPutters, i, 0, true);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(e);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int i = 0; !offer(e); i++) {
+            if (!await(waitingPutters, i, deadline, false)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        for (int i = 0; (e = poll()) == null; i++) await(waitingTakers, i, 0, true);
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int i = 0; (e = poll()) == null; i++) {
+            if (!await(waitingTakers, i, deadline, false)) return null;
+        }
+        return e;
+    }
+
+    /**
+     * Waits a little before a blocked operation is retried. The first attempts spin, the next ones yield and after that
+     * the thread parks until it is signalled (or the deadline passes).
+     * @param waiting The queue of threads waiting for the same condition.
+     * @param attempt The number of times the operation has already been attempted.
+     * @param deadline The time (from System.nanoTime()) at which to give up. Ignored if forever is true.
+     * @param forever Whether the thread should wait without a deadline.
+     * @return Whether the operation should be attempted again (false if the deadline has passed).
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    private boolean await(ConcurrentLinkedQueue<Thread> waiting, int attempt, long deadline, boolean forever)
+            throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        long remaining = forever ? Long.MAX_VALUE : deadline - System.nanoTime();
+        if (remaining <= 0) return false;
+        if (attempt < SPINS) {
+            Thread.onSpinWait();
+            return true;
+        }
+        if (attempt < SPINS + YIELDS) {
+            Thread.yield();
+            return true;
+        }
+        Thread thread = Thread.currentThread();
+        waiting.offer(thread);
+        // the condition may have changed before this thread was added to the queue of waiting threads
+        VarHandle.fullFence();
+        if (waiting == waitingTakers ? isEmpty() : remainingCapacity() == 0) {
+            if (forever) LockSupport.park(this);
+            else LockSupport.parkNanos(this, remaining);
+        }
+        waiting.remove(thread);
+        return true;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return LIMIT - size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o != null && removeElement(o, false);
+    }
+
+    /**
+     * Marks the slot of an element as removed. The consumers take the element from its slot with an atomic swap, so
+     * an element is either removed here or taken by a consumer, never both.
+     * @param o The element.
+     * @param same Whether the element has to be the same object (rather than an equal one).
+     * @return Whether the element was removed.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean removeElement(Object o, boolean same) {
+        // read the head first so that no position is skipped
+        long h = getHead();
+        long t = getTail();
+        for (long pos = h; pos < t && pos < h + CAPACITY; pos++) {
+            int index = (int) (pos & MASK);
+            E e = elements.get(index);
+            if (e == null || e == REMOVED || (same ? e != o : !o.equals(e))) continue;
+            if (elements.compareAndSet(index, e, (E) REMOVED)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Iterates over a snapshot of the elements that are in the queue when the iterator is created. The iterator is
+     * weakly consistent: it never throws ConcurrentModificationException, and it may still return elements that have
+     * been removed since it was created.
+     * @return The iterator.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        ArrayList<E> snapshot = new ArrayList<>();
+        long h = getHead();
+        long t = getTail();
+        for (long pos = h; pos < t && pos < h + CAPACITY; pos++) {
+            E e = elements.get((int) (pos & MASK));
+            if (e != null && e != REMOVED) snapshot.add(e);
+        }
+        return new Iterator<>() {
+            private int next;  // the index in the snapshot of the next element
+            private E last;  // the element returned by the last call to next() (null if it has been removed)
+
+            @Override
+            public boolean hasNext() {
+                return next < snapshot.size();
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                last = snapshot.get(next++);
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) throw new IllegalStateException();
+                removeElement(last, true);
+                last = null;
+            }
+        };
+    }
+}
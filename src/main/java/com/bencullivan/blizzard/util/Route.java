@@ -0,0 +1,69 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.events.BodyMode;
+import com.bencullivan.blizzard.events.RouteCallback;
+
+/**
+ * A registered route: its callback, how it receives request bodies, how its responses are cached and the names of its
+ * url parameters.
+ * @author Ben Cullivan (2020)
+ */
+public class Route {
+
+    private final String path;  // the path that the route was registered with
+    private final RouteCallback callback;  // the callback that handles requests to the route
+    private final BodyMode bodyMode;  // how the route receives request bodies
+    private final CachePolicy cachePolicy;  // how the responses of the route are cached (null if they are not)
+    private final String[] paramNames;  // the names of the url parameters, in the order they appear in the path
+
+    /**
+     * @param path The path that the route was registered with.
+     * @param callback The callback that handles requests to the route.
+     * @param bodyMode How the route receives request bodies.
+     * @param cachePolicy How the responses of the route are cached (null if they are not).
+     * @param paramNames The names of the url parameters, in the order they appear in the path.
+     */
+    Route(String path, RouteCallback callback, BodyMode bodyMode, CachePolicy cachePolicy, String[] paramNames) {
+        this.path = path;
+        this.callback = callback;
+        this.bodyMode = bodyMode;
+        this.cachePolicy = cachePolicy;
+        this.paramNames = paramNames;
+    }
+
+    /**
+     * @return The path that the route was registered with. e.g. "/users/:id"
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The callback that handles requests to the route.
+     */
+    public RouteCallback getCallback() {
+        return callback;
+    }
+
+    /**
+     * @return How the route receives request bodies.
+     */
+    public BodyMode getBodyMode() {
+        return bodyMode;
+    }
+
+    /**
+     * @return How the responses of the route are cached (null if they are not).
+     */
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    /**
+     * @return The names of the url parameters, in the order they appear in the path. (The array must not be
+     * modified.)
+     */
+    public String[] getParamNames() {
+        return paramNames;
+    }
+}
@@ -0,0 +1,245 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.events.BodyMode;
+import com.bencullivan.blizzard.events.RouteCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Matches request paths to the routes of one http method.
+ * The routes are stored in a radix tree: runs of static characters that several routes share are stored once, in a
+ * single node, and a request path is matched by comparing its characters with each node in turn, so it is never split
+ * or copied. A path segment can be a named parameter (e.g. "/users/:id/posts/:postId") and the last segment can be a
+ * wildcard that matches the rest of the path (e.g. "/files/*path").
+ * When several routes could match a path, static segments are preferred over parameters and parameters over
+ * wildcards. (If the preferred branch does not lead to a route, the next one is tried.)
+ * Routes are added before the server starts. The router is frozen when the server starts listening, after which it is
+ * only read, so the processor threads can share it without locking.
+ * @author Ben Cullivan (2020)
+ */
+public class Router {
+
+    private final Node root;  // the node that the paths start at
+    private int maxParams;  // the most url parameters of any route (including its wildcard)
+    private boolean frozen;  // whether routes can no longer be added
+
+    /**
+     * A node of the radix tree.
+     */
+    private static class Node {
+        private String prefix;  // the static characters that this node matches
+        private char[] indices;  // the first character of the prefix of each static child
+        private Node[] children;  // the static children
+        private Node paramChild;  // the child that matches a parameter segment (null if there is none)
+        private Route wildcard;  // the route that matches the rest of the path from here (null if there is none)
+        private Route route;  // the route that ends at this node (null if there is none)
+
+        private Node(String prefix) {
+            this.prefix = prefix;
+            indices = new char[0];
+            children = new Node[0];
+        }
+
+        /**
+         * @param c A character.
+         * @return The static child whose prefix starts with the character, or null if there is none.
+         */
+        private Node getChild(char c) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        /**
+         * @param child A static child to add.
+         */
+        private void addChild(Node child) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            indices[indices.length - 1] = child.prefix.charAt(0);
+            children[children.length - 1] = child;
+        }
+
+        /**
+         * @param child A static child to put in place of the child with the same first character.
+         */
+        private void replaceChild(Node child) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == child.prefix.charAt(0)) children[i] = child;
+            }
+        }
+    }
+
+    public Router() {
+        root = new Node("");
+    }
+
+    /**
+     * Adds a route. Adding a route with the same path as an existing one replaces it.
+     * @param path The path of the route. e.g. "/posts/:id" (A trailing slash is ignored.)
+     * @param callback The callback that handles requests to the route.
+     * @param bodyMode How the route receives request bodies.
+     * @throws IllegalStateException If the router has been frozen.
+     * @throws IllegalArgumentException If a wildcard is not the last segment of the path.
+     */
+    public void insert(String path, RouteCallback callback, BodyMode bodyMode) {
+        insert(path, callback, bodyMode, null);
+    }
+
+    /**
+     * Adds a route. Adding a route with the same path as an existing one replaces it.
+     * @param path The path of the route. e.g. "/posts/:id" (A trailing slash is ignored.)
+     * @param callback The callback that handles requests to the route.
+     * @param bodyMode How the route receives request bodies.
+     * @param cachePolicy How the responses of the route are cached (null if they are not).
+     * @throws IllegalStateException If the router has been frozen.
+     * @throws IllegalArgumentException If a wildcard is not the last segment of the path.
+     */
+    public void insert(String path, RouteCallback callback, BodyMode bodyMode, CachePolicy cachePolicy) {
+        if (frozen) throw new IllegalStateException("Routes cannot be added once the server is listening.");
+        path = normalize(path);
+        ArrayList<String> paramNames = new ArrayList<>();
+        Node node = root;
+        int staticStart = 0;
+        // (the path starts with a slash, so a segment cannot start at index 0)
+        int i = 1;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if ((c != ':' && c != '*') || path.charAt(i - 1) != '/') {
+                i++;
+                continue;
+            }
+            // the segment is a parameter or a wildcard, so add the static characters before it
+            node = insertStatic(node, path.substring(staticStart, i));
+            int end = path.indexOf('/', i);
+            if (end == -1) end = path.length();
+            paramNames.add(path.substring(i + 1, end));
+            if (c == '*') {
+                if (end != path.length()) throw new IllegalArgumentException("A wildcard must end the path: " + path);
+                node.wildcard = new Route(path, callback, bodyMode, cachePolicy, paramNames.toArray(new String[0]));
+                maxParams = Math.max(maxParams, paramNames.size());
+                return;
+            }
+            if (node.paramChild == null) node.paramChild = new Node("");
+            node = node.paramChild;
+            staticStart = end;
+            i = end;
+        }
+        node = insertStatic(node, path.substring(staticStart));
+        node.route = new Route(path, callback, bodyMode, cachePolicy, paramNames.toArray(new String[0]));
+        maxParams = Math.max(maxParams, paramNames.size());
+    }
+
+    /**
+     * Adds a run of static characters below a node, splitting the nodes that only share part of it.
+     * @param node The node.
+     * @param text The static characters.
+     * @return The node that the characters end at.
+     */
+    private static Node insertStatic(Node node, String text) {
+        while (!text.isEmpty()) {
+            Node child = node.getChild(text.charAt(0));
+            if (child == null) {
+                child = new Node(text);
+                node.addChild(child);
+                return child;
+            }
+            // find the length of the prefix that the child and the text share
+            int common = 0;
+            int max = Math.min(child.prefix.length(), text.length());
+            while (common < max && child.prefix.charAt(common) == text.charAt(common)) common++;
+            if (common < child.prefix.length()) {
+                // split the child into the shared part and the rest
+                Node shared = new Node(child.prefix.substring(0, common));
+                child.prefix = child.prefix.substring(common);
+                shared.addChild(child);
+                node.replaceChild(shared);
+                child = shared;
+            }
+            node = child;
+            text = text.substring(common);
+        }
+        return node;
+    }
+
+    /**
+     * @param path A route path.
+     * @return The path with a leading slash and without a trailing slash.
+     */
+    private static String normalize(String path) {
+        if (!path.startsWith("/")) path = "/" + path;
+        if (path.length() > 1 && path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    /**
+     * Stops routes from being added. This is called when the server starts listening.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * @return The most url parameters of any route. (This is the number of parameters that match() can capture.)
+     */
+    public int getMaxParams() {
+        return maxParams;
+    }
+
+    /**
+     * Finds the route that matches a request path.
+     * @param path The request path. (A trailing slash is ignored.)
+     * @param params An array of at least twice getMaxParams() ints. The start and end index in the path of each url
+     *               parameter of the matched route are stored in it, in order.
+     * @return The route, or null if no route matches the path.
+     */
+    public Route match(String path, int[] params) {
+        int end = path.length();
+        if (end > 1 && path.charAt(end - 1) == '/') end--;
+        if (end == 0 || path.charAt(0) != '/') return null;
+        return match(root, path, 0, end, params, 0);
+    }
+
+    /**
+     * Matches the rest of a path below a node (whose prefix has already been matched).
+     * @param node The node.
+     * @param path The request path.
+     * @param position The index in the path of the next character to match.
+     * @param end The index in the path where the matched part ends.
+     * @param params The array that the bounds of the url parameters are stored in.
+     * @param paramCount The number of url parameters that have been captured so far.
+     * @return The route, or null if no route matches the rest of the path.
+     */
+    private static Route match(Node node, String path, int position, int end, int[] params, int paramCount) {
+        if (position == end) return node.route;
+        // static characters are preferred
+        Node child = node.getChild(path.charAt(position));
+        if (child != null) {
+            int length = child.prefix.length();
+            if (end - position >= length && path.regionMatches(position, child.prefix, 0, length)) {
+                Route route = match(child, path, position + length, end, params, paramCount);
+                if (route != null) return route;
+            }
+        }
+        // then a parameter, which matches up to the end of the segment
+        if (node.paramChild != null && path.charAt(position) != '/') {
+            int segmentEnd = position + 1;
+            while (segmentEnd < end && path.charAt(segmentEnd) != '/') segmentEnd++;
+            Route route = match(node.paramChild, path, segmentEnd, end, params, paramCount + 1);
+            if (route != null) {
+                params[2*paramCount] = position;
+                params[2*paramCount+1] = segmentEnd;
+                return route;
+            }
+        }
+        // and finally a wildcard, which matches the rest of the path
+        if (node.wildcard != null) {
+            params[2*paramCount] = position;
+            params[2*paramCount+1] = end;
+            return node.wildcard;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.http.BlizzardRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical requests to the GET routes whose CachePolicy is single-flight. The first request with a key
+ * leads a flight: its callback is called as usual. Every request with the same key that arrives while the callback is
+ * running joins the flight instead of being processed, and once the leader's response is finished it is sent to all
+ * of them (see BlizzardResponse.fromCached()), so the callback runs once however many clients asked at the same time.
+ * No thread ever waits for a flight: a request that joins one is only parked in its list of waiters, and it is
+ * answered by whichever thread finishes the flight.
+ * The flights are shared by every event loop and processor thread.
+ * @author Ben Cullivan (2020)
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, Flight> flights;  // the flights in progress by their keys
+    private final AtomicLong coalesced;  // the number of requests that joined a flight
+
+    /**
+     * The requests that are waiting for the response to the request that leads the flight.
+     */
+    public class Flight {
+        private final String key;  // the key that the requests share
+        private ArrayList<BlizzardRequest> waiters;  // the requests that joined the flight (null until one does)
+        private boolean landed;  // whether the flight has been removed (guarded by the map's lock for the key)
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return The key that the requests of the flight share.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Ends the flight, so that the next request with its key leads a new one. This is called once the leader's
+         * response is finished (or could not be finished). Calling it again has no effect.
+         * @return The requests that joined the flight and have to be answered (empty if none did or the flight has
+         * already ended).
+         */
+        public List<BlizzardRequest> land() {
+            flights.computeIfPresent(key, (k, flight) -> {
+                if (flight != this) return flight;
+                landed = true;
+                return null;
+            });
+            // requests can only join a flight while it is in the map, so the waiters no longer change
+            if (!landed || waiters == null) return List.of();
+            List<BlizzardRequest> joined = waiters;
+            waiters = null;
+            return joined;
+        }
+    }
+
+    public SingleFlight() {
+        flights = new ConcurrentHashMap<>();
+        coalesced = new AtomicLong();
+    }
+
+    /**
+     * Makes a request lead a new flight, or join the flight in progress with the same key.
+     * @param key The key of the request (see ResponseCache.keyOf()).
+     * @param request The request.
+     * @return The new flight if the request leads it, or null if the request joined a flight in progress (and must not
+     * be processed).
+     */
+    public Flight join(String key, BlizzardRequest request) {
+        Flight[] led = new Flight[1];
+        flights.compute(key, (k, flight) -> {
+            if (flight == null) {
+                led[0] = new Flight(k);
+                return led[0];
+            }
+            if (flight.waiters == null) flight.waiters = new ArrayList<>(4);
+            flight.waiters.add(request);
+            return flight;
+        });
+        if (led[0] == null) coalesced.incrementAndGet();
+        return led[0];
+    }
+
+    /**
+     * @return The number of flights in progress.
+     */
+    public int getFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * @return The number of requests that joined a flight instead of being processed straight away.
+     */
+    public long getCoalescedRequests() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,109 @@
+package com.bencullivan.blizzard.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free, bounded queue for exactly one producer thread and one consumer thread. (e.g. the listener handing
+ * SocketChannels to one event loop)
+ * Neither side ever has to compare-and-set: each side owns its own index and only publishes it with an ordered write.
+ * Each side also caches the other side's index so that it only has to read it when the queue looks full (or empty).
+ * @param <E> The type of the elements in the queue.
+ * @author Ben Cullivan (2020)
+ */
+public class SpscRingBuffer<E> extends RingBufferQueue<E> {
+
+    private final AtomicLong tail;  // the position of the next slot to insert into (only written by the producer)
+    private final AtomicLong head;  // the position of the next slot to remove from (only written by the consumer)
+    private long headCache;  // the producer's last view of the head
+    private long tailCache;  // the consumer's last view of the tail
+
+    /**
+     * @param capacity The capacity of the queue.
+     */
+    public SpscRingBuffer(int capacity) {
+        super(capacity);
+        tail = new AtomicLong();
+        head = new AtomicLong();
+    }
+
+    @Override
+    protected boolean enqueue(E e) {
+        long t = tail.get();
+        if (t - headCache >= LIMIT) {
+            headCache = head.get();
+            if (t - headCache >= LIMIT) return false;
+        }
+        elements.lazySet((int) (t & MASK), e);
+        // publish the element to the consumer
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    @Override
+    protected E dequeue() {
+        while (true) {
+            long h = head.get();
+            if (h >= tailCache) {
+                tailCache = tail.get();
+                if (h >= tailCache) return null;
+            }
+            // swapped rather than read, so that the element cannot also be removed out of order
+            E e = elements.getAndSet((int) (h & MASK), null);
+            // free the slot for the producer
+            head.lazySet(h + 1);
+            // the slots of elements that were removed out of order are skipped
+            if (e != REMOVED) return e;
+        }
+    }
+
+    @Override
+    protected int dequeueBatch(Collection<? super E> c, int maxElements) {
+        while (true) {
+            long h = head.get();
+            if (h >= tailCache) tailCache = tail.get();
+            int count = (int) Math.min(maxElements, tailCache - h);
+            if (count <= 0) return 0;
+            int added = 0;
+            for (int i = 0; i < count; i++) {
+                E e = elements.getAndSet((int) ((h + i) & MASK), null);
+                if (e == REMOVED) continue;
+                c.add(e);
+                added++;
+            }
+            // free all of the slots at once
+            head.lazySet(h + count);
+            // keep going if every slot was removed out of order
+            if (added > 0) return added;
+        }
+    }
+
+    @Override
+    public E peek() {
+        long t = tail.get();
+        // skip the slots of elements that were removed out of order
+        for (long h = head.get(); h < t; h++) {
+            E e = elements.get((int) (h & MASK));
+            if (e != REMOVED) return e;
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        // read the head first so that the size is never negative
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(LIMIT, t - h));
+    }
+
+    @Override
+    protected long getHead() {
+        return head.get();
+    }
+
+    @Override
+    protected long getTail() {
+        return tail.get();
+    }
+}
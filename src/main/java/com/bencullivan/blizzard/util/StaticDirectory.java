@@ -0,0 +1,403 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.BlizzardResponse;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves the files of a directory under a url prefix (e.g. "/assets/app.js" from "public/app.js").
+ * Small files are kept in a size-bounded LRU cache together with their validators, so a cached file is answered
+ * without touching the disk: its bytes are sent straight from the cache, and a request whose If-None-Match or
+ * If-Modified-Since header shows that the client already has it is answered with a 304. A WatchService thread removes
+ * files from the cache as soon as they change on disk. Files that are too large to be cached are streamed with
+ * sendFile().
+ * Clients that accept gzip are sent a pre-compressed copy of a file if there is one next to it (e.g. "app.js.gz" next
+ * to "app.js"). Otherwise, compressible files are compressed once when they are cached, rather than on every request.
+ * This class is used by every processor thread at once.
+ * @author Ben Cullivan (2020)
+ */
+public class StaticDirectory {
+
+    private static final int MIN_COMPRESSED_SIZE = 256;  // smaller cached files are not compressed
+
+    private final String PREFIX;  // the url prefix that this directory is served under (without a trailing slash)
+    private final Path root;  // the absolute, normalized path of the directory
+    private final long MAX_CACHE_SIZE;  // the most bytes of file content kept in the cache
+    private final long MAX_CACHED_FILE_SIZE;  // files larger than this are streamed instead of cached
+    private final LinkedHashMap<Path, CachedFile> cache;  // the cached files in least recently used order
+    private long cacheSize;  // the number of bytes of file content in the cache
+    private long generation;  // incremented whenever files are invalidated (guarded by the cache's lock)
+
+    /**
+     * Holds the bytes and validators of a cached file.
+     */
+    private static class CachedFile {
+        private final byte[] bytes;  // the contents of the file
+        private final String contentType;
+        private final String etag;  // the entity tag of this version of the file
+        private final String lastModified;  // the modification time of the file (as an http date)
+        private final long lastModifiedSeconds;  // the modification time of the file (in seconds since the epoch)
+        private CachedFile gzip;  // the gzip-encoded version of the file (null if there is none)
+        private boolean precompressed;  // whether the gzip-encoded version was read from a ".gz" file
+
+        private CachedFile(byte[] bytes, String contentType, long modifiedMillis) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+            etag = etag(bytes.length, modifiedMillis);
+            lastModifiedSeconds = modifiedMillis / 1000;
+            lastModified = HttpDate.format(lastModifiedSeconds);
+        }
+
+        /**
+         * @return The number of bytes that this file takes up in the cache (including its gzip-encoded version).
+         */
+        private long size() {
+            return bytes.length + (gzip == null ? 0 : gzip.bytes.length);
+        }
+    }
+
+    /**
+     * @param prefix The url prefix that the directory is served under. e.g. "/assets"
+     * @param directory The path of the directory.
+     * @param maxCacheSize The most bytes of file content kept in the cache. (0 disables the cache.)
+     * @param maxCachedFileSize Files larger than this (in bytes) are streamed from disk instead of being cached.
+     * @throws IOException If the directory cannot be watched for changes.
+     */
+    public StaticDirectory(String prefix, String directory, long maxCacheSize, long maxCachedFileSize)
+            throws IOException {
+        while (prefix.endsWith("/")) prefix = prefix.substring(0, prefix.length() - 1);
+        PREFIX = prefix;
+        root = Paths.get(directory).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) throw new IOException(directory + " is not a directory.");
+        MAX_CACHE_SIZE = maxCacheSize;
+        MAX_CACHED_FILE_SIZE = Math.min(maxCachedFileSize, maxCacheSize);
+        cache = new LinkedHashMap<>(64, 0.75f, true);
+        if (MAX_CACHE_SIZE > 0) startWatching();
+    }
+
+    /**
+     * Answers a GET request if its uri is under this directory's prefix and names a readable file.
+     * The response is filled in but not finished.
+     * @param request The request.
+     * @param response The response to the request.
+     * @return Whether the request was answered. (False if the uri does not name a file in this directory.)
+     */
+    public boolean serve(BlizzardRequest request, BlizzardResponse response) {
+        Path file = resolve(request.getUri());
+        if (file == null) return false;
+        CachedFile cached = get(file);
+        if (cached == null) cached = load(file);
+        String acceptEncoding = request.getHeader("accept-encoding");
+        if (cached != null) {
+            CachedFile version = cached;
+            if (cached.gzip != null && (cached.precompressed || response.isCompressionEnabled())) {
+                // the response depends on the Accept-Encoding header even if the client only accepts identity
+                if (Compression.accepts(acceptEncoding, Compression.GZIP)) version = cached.gzip;
+                response.setContentEncoding(version == cached ? null : Compression.GZIP);
+            }
+            respond(request, response, version.etag, version.lastModified, version.lastModifiedSeconds);
+            if (!isNotModified(response)) response.sendBytes(version.bytes, cached.contentType);
+            return true;
+        }
+        // the file is too large to be cached (or the cache is disabled), so it is streamed from disk
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) return false;
+            String contentType = BlizzardResponse.contentTypeOf(file.getFileName().toString());
+            Path sent = file;
+            Path compressed = gzipSibling(file, attributes);
+            if (compressed != null) {
+                if (Compression.accepts(acceptEncoding, Compression.GZIP)) {
+                    sent = compressed;
+                    attributes = Files.readAttributes(compressed, BasicFileAttributes.class);
+                }
+                response.setContentEncoding(sent == file ? null : Compression.GZIP);
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            respond(request, response, etag(attributes.size(), modified), HttpDate.format(modified / 1000),
+                    modified / 1000);
+            if (!isNotModified(response)) {
+                // (the content type is that of the original file, not of the ".gz" file)
+                response.sendFile(sent.toString()).setContentType(contentType);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the status and validators of a response, answering with a 304 if the client already has this version of
+     * the file.
+     * @param request The request.
+     * @param response The response to the request.
+     * @param etag The entity tag of the current version of the file.
+     * @param lastModified The modification time of the file (as an http date).
+     * @param lastModifiedSeconds The modification time of the file (in seconds since the epoch).
+     */
+    private void respond(BlizzardRequest request, BlizzardResponse response, String etag, String lastModified,
+                         long lastModifiedSeconds) {
+        response.setHeader("ETag", etag).setHeader("Last-Modified", lastModified);
+        response.sendStatus(notModified(request, etag, lastModifiedSeconds) ? 304 : 200);
+    }
+
+    /**
+     * @param response A response whose status has been set by respond().
+     * @return Whether the response is a 304.
+     */
+    private static boolean isNotModified(BlizzardResponse response) {
+        return response.getStatusCode() == 304;
+    }
+
+    /**
+     * Checks the conditional headers of a request. If-None-Match takes precedence over If-Modified-Since.
+     * @param request The request.
+     * @param etag The entity tag of the current version of the file.
+     * @param lastModifiedSeconds The modification time of the file (in seconds since the epoch).
+     * @return Whether the client already has the current version of the file.
+     */
+    static boolean notModified(BlizzardRequest request, String etag, long lastModifiedSeconds) {
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String tag: ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // weak comparison is used for GET requests
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(etag)) return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader("if-modified-since");
+        if (ifModifiedSince == null) return false;
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return lastModifiedSeconds <= since.toEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps a request uri to a file in this directory.
+     * @param uri The request uri.
+     * @return The path of the file or null if the uri is not under the prefix or would escape the directory.
+     */
+    Path resolve(String uri) {
+        int query = uri.indexOf('?');
+        if (query != -1) uri = uri.substring(0, query);
+        if (!uri.startsWith(PREFIX) || (uri.length() > PREFIX.length() && uri.charAt(PREFIX.length()) != '/')) {
+            return null;
+        }
+        String relative;
+        try {
+            // (a '+' in a path is not a space)
+            relative = URLDecoder.decode(uri.substring(PREFIX.length()).replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        while (relative.startsWith("/")) relative = relative.substring(1);
+        if (relative.indexOf('\0') != -1) return null;
+        Path file;
+        try {
+            file = root.resolve(relative).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        // never serve anything outside of the directory (e.g. "/assets/../../etc/passwd")
+        if (!file.startsWith(root)) return null;
+        if (relative.isEmpty() || relative.endsWith("/")) file = file.resolve("index.html");
+        return file;
+    }
+
+    /**
+     * @param file The path of a file.
+     * @return The cached file or null if it is not in the cache.
+     */
+    private CachedFile get(Path file) {
+        synchronized (cache) {
+            return cache.get(file);
+        }
+    }
+
+    /**
+     * Reads a file into the cache, evicting the least recently used files if the cache is full.
+     * @param file The path of the file.
+     * @return The cached file or null if the file is too large to be cached or cannot be read.
+     */
+    private CachedFile load(Path file) {
+        if (MAX_CACHE_SIZE == 0) return null;
+        long startGeneration;
+        synchronized (cache) {
+            startGeneration = generation;
+        }
+        CachedFile cached;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.size() > MAX_CACHED_FILE_SIZE) return null;
+            cached = new CachedFile(Files.readAllBytes(file),
+                    BlizzardResponse.contentTypeOf(file.getFileName().toString()),
+                    attributes.lastModifiedTime().toMillis());
+            Path compressed = gzipSibling(file, attributes);
+            if (compressed != null) {
+                // a ".gz" file too large to be cached is ignored rather than streamed next to a cached original
+                BasicFileAttributes gzipAttributes = Files.readAttributes(compressed, BasicFileAttributes.class);
+                if (gzipAttributes.size() <= MAX_CACHED_FILE_SIZE) {
+                    cached.gzip = new CachedFile(Files.readAllBytes(compressed), cached.contentType,
+                            gzipAttributes.lastModifiedTime().toMillis());
+                    cached.precompressed = true;
+                }
+            } else if (cached.bytes.length >= MIN_COMPRESSED_SIZE && Compression.isCompressible(cached.contentType)) {
+                byte[] bytes = Compression.compress(cached.bytes, 0, cached.bytes.length, Compression.GZIP);
+                if (bytes != null) {
+                    cached.gzip = new CachedFile(bytes, cached.contentType, attributes.lastModifiedTime().toMillis());
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        synchronized (cache) {
+            // if files were invalidated while this one was being read, it may already be out of date
+            if (generation != startGeneration) return cached;
+            CachedFile previous = cache.put(file, cached);
+            if (previous != null) cacheSize -= previous.size();
+            cacheSize += cached.size();
+            Iterator<CachedFile> lru = cache.values().iterator();
+            while (cacheSize > MAX_CACHE_SIZE && lru.hasNext()) {
+                cacheSize -= lru.next().size();
+                lru.remove();
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Removes a path (and everything under it, if it is a directory) from the cache.
+     * @param path The path that changed, or null if everything should be removed.
+     */
+    void invalidate(Path path) {
+        synchronized (cache) {
+            generation++;
+            Iterator<Map.Entry<Path, CachedFile>> entries = cache.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Path, CachedFile> entry = entries.next();
+                if (path != null && !entry.getKey().startsWith(path)) continue;
+                cacheSize -= entry.getValue().size();
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Finds the pre-compressed copy of a file. A copy that is older than the file is out of date and is ignored.
+     * @param file The path of the file.
+     * @param attributes The attributes of the file.
+     * @return The path of the ".gz" file next to the file or null if there is no up-to-date one.
+     */
+    private static Path gzipSibling(Path file, BasicFileAttributes attributes) {
+        Path sibling = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            BasicFileAttributes siblingAttributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+            if (!siblingAttributes.isRegularFile()) return null;
+            if (siblingAttributes.lastModifiedTime().compareTo(attributes.lastModifiedTime()) < 0) return null;
+            return sibling;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of bytes of file content in the cache (including compressed copies).
+     */
+    public long getCacheSize() {
+        synchronized (cache) {
+            return cacheSize;
+        }
+    }
+
+    /**
+     * Starts a daemon thread that invalidates cached files when they are modified, deleted or replaced.
+     * @throws IOException If the WatchService cannot be created.
+     */
+    private void startWatching() throws IOException {
+        WatchService watcher = root.getFileSystem().newWatchService();
+        register(watcher, root);
+        Thread thread = new Thread(() -> watch(watcher), "blizzard-static-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers a directory and all of its subdirectories with the WatchService.
+     * @param watcher The WatchService.
+     * @param directory The directory.
+     */
+    private static void register(WatchService watcher, Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                    dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Unable to watch " + directory + " for changes:");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Invalidates cached files as changes are reported by the WatchService. (Runs on the watcher thread.)
+     * @param watcher The WatchService.
+     */
+    private void watch(WatchService watcher) {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event: key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // some events were lost, so nothing in the cache can be trusted
+                    invalidate(null);
+                    continue;
+                }
+                Path changed = directory.resolve((Path) event.context());
+                invalidate(changed);
+                // the cached version of "app.js" includes "app.js.gz"
+                String name = changed.getFileName().toString();
+                if (name.endsWith(".gz")) invalidate(changed.resolveSibling(name.substring(0, name.length() - 3)));
+                // new directories have to be watched as well
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                    register(watcher, changed);
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /**
+     * @param length The length of a file.
+     * @param modifiedMillis The modification time of the file (in ms since the epoch).
+     * @return The entity tag of the file.
+     */
+    private static String etag(long length, long modifiedMillis) {
+        return "\"" + Long.toHexString(modifiedMillis) + "-" + Long.toHexString(length) + "\"";
+    }
+}
@@ -1,7 +1,11 @@
 package com.bencullivan.blizzard;
 
+import com.bencullivan.blizzard.eventloop.BlizzardAcceptorTest;
+import com.bencullivan.blizzard.eventloop.BlizzardBackpressureTest;
 import com.bencullivan.blizzard.events.*;
 import com.bencullivan.blizzard.http.*;
+import com.bencullivan.blizzard.json.JsonReaderTest;
+import com.bencullivan.blizzard.json.JsonWriterTest;
 import com.bencullivan.blizzard.util.*;
 import org.junit.platform.engine.DiscoverySelector;
 import org.junit.platform.engine.discovery.DiscoverySelectors;
@@ -28,7 +32,19 @@ public class BlizzardTestRunner {
                 DiscoverySelectors.selectClass(BlizzardMessageTest.class),
                 DiscoverySelectors.selectClass(BlizzardRequestTest.class),
                 DiscoverySelectors.selectClass(BlizzardResponseTest.class),
-                DiscoverySelectors.selectClass(BlizzardStoreTest.class)
+                DiscoverySelectors.selectClass(JsonReaderTest.class),
+                DiscoverySelectors.selectClass(JsonWriterTest.class),
+                DiscoverySelectors.selectClass(BlizzardOutgoingMessageTest.class),
+                DiscoverySelectors.selectClass(BlizzardStoreTest.class),
+                DiscoverySelectors.selectClass(BufferPoolTest.class),
+                DiscoverySelectors.selectClass(RingBufferQueueTest.class),
+                DiscoverySelectors.selectClass(ResponseCacheTest.class),
+                DiscoverySelectors.selectClass(RouterTest.class),
+                DiscoverySelectors.selectClass(SingleFlightTest.class),
+                DiscoverySelectors.selectClass(StaticDirectoryTest.class),
+                DiscoverySelectors.selectClass(ProcessRequestEventTest.class),
+                DiscoverySelectors.selectClass(BlizzardAcceptorTest.class),
+                DiscoverySelectors.selectClass(BlizzardBackpressureTest.class)
         ));
         SummaryGeneratingListener listener = new SummaryGeneratingListener();
         LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder.request().selectors(tests).build();
@@ -0,0 +1,33 @@
+package com.bencullivan.blizzard.eventloop;
+
+import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.BufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlizzardAcceptorTest {
+
+    @Test
+    public void failedRegistrationTest() throws IOException, InterruptedException {
+        try (Selector selector = Selector.open()) {
+            BlizzardAcceptor acceptor = new BlizzardAcceptor(selector, new ConcurrentLinkedQueue<>(),
+                    new BlizzardStore(10, 10, 10), new BufferPool(1024, 0, 4, false, false), new IdleTimer(1000), 0);
+            // a channel that was closed before it could be configured
+            SocketChannel channel = SocketChannel.open();
+            channel.close();
+            acceptor.queueChannel(channel);
+            assertEquals(1, acceptor.getConnectionCount());
+            acceptor.accept();
+            // the connection is no longer counted, so least-connections balancing is not skewed
+            assertEquals(0, acceptor.getConnectionCount());
+            assertFalse(acceptor.hasQueuedChannels());
+            assertTrue(selector.keys().isEmpty());
+        }
+    }
+}
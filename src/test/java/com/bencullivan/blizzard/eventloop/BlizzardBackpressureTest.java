@@ -0,0 +1,187 @@
+package com.bencullivan.blizzard.eventloop;
+
+import com.bencullivan.blizzard.events.Event;
+import com.bencullivan.blizzard.http.BlizzardAttachment;
+import com.bencullivan.blizzard.http.BlizzardOutgoingMessage;
+import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.exceptions.BadRequest;
+import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.Processor;
+import com.bencullivan.blizzard.util.QueueType;
+import com.bencullivan.blizzard.util.RequestExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlizzardBackpressureTest {
+
+    private BlizzardStore store = newStore();
+    private OverloadStats stats = new OverloadStats();
+
+    @AfterEach
+    public void reset() {
+        store = newStore();
+        stats = new OverloadStats();
+    }
+
+    private static BlizzardStore newStore() {
+        // an event queue with room for a single event
+        BlizzardStore store = new BlizzardStore(10, 1, 10);
+        store.setQueueType(QueueType.ARRAY_BLOCKING);
+        return store;
+    }
+
+    private static BlizzardRequest newRequest() {
+        BlizzardAttachment attachment = new BlizzardAttachment();
+        attachment.setOutMessage(new BlizzardOutgoingMessage(attachment));
+        return new BlizzardRequest(attachment);
+    }
+
+    private static final Event NO_OP = () -> {};
+
+    @Test
+    public void pauseReadsTest() {
+        BlizzardBackpressure backpressure = new BlizzardBackpressure(store, OverloadPolicy.PAUSE_READS, 0, stats, null);
+        backpressure.submitRequest(NO_OP, newRequest());
+        assertFalse(backpressure.isPaused());
+        backpressure.submitRequest(NO_OP, newRequest());
+        assertTrue(backpressure.isPaused());
+        assertTrue(backpressure.hasHeldEvents());
+        // nothing changes until the processor pool takes an event
+        backpressure.flush();
+        assertTrue(backpressure.isPaused());
+        store.getEventQueue().poll();
+        backpressure.flush();
+        assertFalse(backpressure.isPaused());
+        assertFalse(backpressure.hasHeldEvents());
+        assertEquals(1, stats.getReadPauses());
+        assertEquals(1, stats.getBackloggedEvents());
+        assertEquals(0, stats.getShedRequests());
+    }
+
+    @Test
+    public void shedTest() throws IOException {
+        BlizzardBackpressure backpressure = new BlizzardBackpressure(store, OverloadPolicy.SHED, 0, stats, null);
+        assertTrue(backpressure.submitRequest(NO_OP, newRequest()));
+        BlizzardRequest shed = newRequest();
+        assertFalse(backpressure.submitRequest(NO_OP, shed));
+        assertFalse(backpressure.isPaused());
+        assertEquals(1, stats.getShedRequests());
+        Pipe pipe = Pipe.open();
+        shed.getAttachment().getOutMessage().write(pipe.sink(), new ByteBuffer[2]);
+        ByteBuffer written = ByteBuffer.allocate(256);
+        pipe.source().read(written);
+        String response = new String(written.array(), 0, written.position(), StandardCharsets.UTF_8);
+        assertTrue(response.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+    }
+
+    @Test
+    public void spillTest() {
+        BlizzardBackpressure backpressure = new BlizzardBackpressure(store, OverloadPolicy.SPILL, 1, stats, null);
+        backpressure.submitRequest(NO_OP, newRequest());
+        backpressure.submitRequest(NO_OP, newRequest());
+        backpressure.submitRequest(NO_OP, newRequest());
+        assertEquals(1, stats.getSpilledEvents());
+        assertEquals(1, stats.getShedRequests());
+        assertTrue(backpressure.hasHeldEvents());
+        store.getEventQueue().poll();
+        backpressure.flush();
+        assertFalse(backpressure.hasHeldEvents());
+        assertEquals(1, store.getEventQueue().size());
+    }
+
+    @Test
+    public void messagesAreNeverDroppedTest() {
+        BlizzardBackpressure backpressure = new BlizzardBackpressure(store, OverloadPolicy.SHED, 0, stats, null);
+        backpressure.submitMessage(NO_OP);
+        backpressure.submitMessage(NO_OP);
+        assertTrue(backpressure.isPaused());
+        assertEquals(0, stats.getShedRequests());
+    }
+
+    @Test
+    public void requestExecutorTest() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch ran = new CountDownLatch(2);
+        RequestExecutor requestExecutor = new RequestExecutor(executor, 1);
+        BlizzardBackpressure backpressure = new BlizzardBackpressure(store, OverloadPolicy.PAUSE_READS, 0, stats,
+                requestExecutor);
+        // the first request blocks its thread but the event queue stays free for parsing
+        backpressure.submitRequest(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            ran.countDown();
+        }, newRequest());
+        assertTrue(store.getEventQueue().isEmpty());
+        // the second one goes over the cap, so it is held
+        backpressure.submitRequest(ran::countDown, newRequest());
+        assertTrue(backpressure.isPaused());
+        release.countDown();
+        while (requestExecutor.getInFlight() > 0) Thread.sleep(1);
+        backpressure.flush();
+        assertFalse(backpressure.isPaused());
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void pausedLoopDrainsRequestsTest() throws InterruptedException {
+        // a request queue with room for a single request as well
+        BlizzardStore store = new BlizzardStore(10, 1, 1);
+        store.setQueueType(QueueType.ARRAY_BLOCKING);
+        store.freezeRoutes();
+        BlizzardBackpressure backpressure = new BlizzardBackpressure(store, OverloadPolicy.PAUSE_READS, 0, stats, null);
+        BlizzardProcessor processor = new BlizzardProcessor(store, backpressure);
+        BlockingQueue<BlizzardRequest> requestQueue = store.getRequestQueue();
+        requestQueue.offer(newBadRequest());
+        // the only processor thread parses a request and blocks because the request queue is full
+        CountDownLatch parsing = new CountDownLatch(1);
+        store.getEventQueue().offer(() -> {
+            parsing.countDown();
+            try {
+                requestQueue.put(newBadRequest());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread processorThread = new Thread(new Processor(store.getEventQueue()));
+        processorThread.setDaemon(true);
+        processorThread.start();
+        assertTrue(parsing.await(5, TimeUnit.SECONDS));
+        // then the event queue fills up as well and the event loop stops reading
+        store.getEventQueue().offer(NO_OP);
+        backpressure.submitMessage(NO_OP);
+        assertTrue(backpressure.isPaused());
+        // the event loop keeps draining the request queue, which unblocks the processor thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (backpressure.isPaused() && System.currentTimeMillis() < deadline) {
+            processor.process();
+            backpressure.flush();
+            Thread.sleep(1);
+        }
+        assertFalse(backpressure.isPaused());
+        processorThread.interrupt();
+    }
+
+    private static BlizzardRequest newBadRequest() {
+        BlizzardRequest request = newRequest();
+        request.setBadRequest(true);
+        request.setBadRequestType(BadRequest.INVALID_HEADER);
+        return request;
+    }
+}
@@ -9,17 +9,18 @@ import org.junit.jupiter.api.Test;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ProcessMessageEventTest {
 
     private BlizzardMessage message = new BlizzardMessage(new BlizzardAttachment(),
-            2048, 4);
+            2048);
 
     @AfterEach
     public void resetMessage() {
         message = new BlizzardMessage(new BlizzardAttachment(),
-                2048, 4);
+                2048);
     }
 
     @Test
@@ -105,4 +106,17 @@ public class ProcessMessageEventTest {
         assertTrue(r.isBadRequest());
         assertEquals(BadRequest.REQUEST_LINE, r.getBadRequestType());
     }
+
+    @Test
+    public void testClaimedMessage() {
+        ArrayBlockingQueue<BlizzardRequest> rq = new ArrayBlockingQueue<>(4);
+        message.getCurrent().put(Requests.getB());
+        assertTrue(message.claim());
+        // the message is already being processed, so the event returns without waiting
+        new ProcessMessageEvent(message, rq).execute();
+        assertTrue(rq.isEmpty());
+        // input that is still queued when the claim is released keeps the message claimed
+        assertTrue(message.release());
+        assertFalse(message.claim());
+    }
 }
@@ -1,4 +1,152 @@
 package com.bencullivan.blizzard.events;
 
+import com.bencullivan.blizzard.http.BlizzardOutgoingMessage;
+import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.Requests;
+import com.bencullivan.blizzard.http.exceptions.BadRequestException;
+import com.bencullivan.blizzard.util.BlizzardStore;
+import com.bencullivan.blizzard.util.CachePolicy;
+import com.bencullivan.blizzard.util.SingleFlight;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 public class ProcessRequestEventTest {
+
+    private BlizzardStore store = new BlizzardStore(10, 10, 10);
+
+    @AfterEach
+    public void resetStore() {
+        store = new BlizzardStore(10, 10, 10);
+    }
+
+    /**
+     * @return A parsed request that can be answered.
+     */
+    private BlizzardRequest request(String head) throws BadRequestException {
+        return Requests.parse(Requests.connection(), head)[0];
+    }
+
+    /**
+     * @return The bytes of the responses that are ready to be written for a request.
+     */
+    private String written(BlizzardRequest request) throws IOException {
+        Pipe pipe = Pipe.open();
+        request.getAttachment().getOutMessage().write(pipe.sink(), new ByteBuffer[4]);
+        pipe.sink().close();
+        ByteBuffer written = ByteBuffer.allocate(1024);
+        while (pipe.source().read(written) > 0) continue;
+        return new String(written.array(), 0, written.position(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void callbackFailureTest() throws BadRequestException, IOException {
+        store.insertGetRoute("/fail", (req, res) -> {
+            res.sendText("partial");
+            throw new IllegalStateException("the callback failed");
+        });
+        store.insertGetRoute("/ok", (req, res) -> res.sendText("ok").sendStatus(200));
+        store.freezeRoutes();
+        BlizzardRequest[] requests = Requests.parse(Requests.connection(), "GET /fail HTTP/1.1\r\n",
+                "GET /ok HTTP/1.1\r\n");
+        BlizzardRequest failing = requests[0];
+        BlizzardRequest next = requests[1];
+        // the failing request is still answered, so the response to the pipelined request after it is not held back
+        new ProcessRequestEvent(failing, store).execute();
+        new ProcessRequestEvent(next, store).execute();
+        String written = written(failing);
+        assertTrue(written.startsWith("HTTP/1.1 500 "));
+        assertFalse(written.contains("partial"));
+        assertTrue(written.endsWith("\r\n\r\nok"));
+    }
+
+    @Test
+    public void bodyDecodeFailureTest() throws BadRequestException, IOException {
+        store.insertPostRoute("/items", (req, res) -> {
+            res.setHeader("X-Trace", "1").sendText("partial");
+            req.getBody(Map.class);
+        });
+        store.freezeRoutes();
+        // (the line break that ends the request is the rest of the body)
+        BlizzardRequest request = request("POST /items HTTP/1.1\r\nContent-Type: application/json\r\n" +
+                "Content-Length: 5\r\n\r\n[1,");
+        new ProcessRequestEvent(request, store).execute();
+        // nothing that the callback put in the response is sent with the 400
+        String written = written(request);
+        assertTrue(written.startsWith("HTTP/1.1 400 "));
+        assertFalse(written.contains("X-Trace"));
+        assertFalse(written.contains("partial"));
+    }
+
+    @Test
+    public void streamFailureTest() throws BadRequestException, IOException {
+        store.insertGetRoute("/stream", (req, res) -> {
+            res.sendStatus(200);
+            try {
+                res.stream().write("partial");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            throw new IllegalStateException("the callback failed");
+        });
+        store.freezeRoutes();
+        BlizzardRequest request = request("GET /stream HTTP/1.1\r\n");
+        new ProcessRequestEvent(request, store).execute();
+        // the head of the response has already been sent, so the connection has to be closed to end the body
+        BlizzardOutgoingMessage outMessage = request.getAttachment().getOutMessage();
+        assertTrue(outMessage.canWrite());
+        Pipe pipe = Pipe.open();
+        assertTrue(outMessage.write(pipe.sink(), new ByteBuffer[4]));
+    }
+
+    @Test
+    public void singleFlightTest() throws BadRequestException, IOException {
+        AtomicInteger calls = new AtomicInteger();
+        store.insertGetRoute("/report", (req, res) -> res.sendText("call " + calls.incrementAndGet()).sendStatus(200),
+                CachePolicy.singleFlight());
+        store.freezeRoutes();
+        BlizzardRequest leader = request("GET /report HTTP/1.1\r\n");
+        BlizzardRequest waiter = request("GET /report HTTP/1.1\r\n");
+        SingleFlight.Flight flight = store.getSingleFlight().join("/report", leader);
+        assertNull(store.getSingleFlight().join("/report", waiter));
+        new ProcessRequestEvent(leader, store, flight).execute();
+        // the callback ran once, and both requests were answered with its response
+        assertEquals(1, calls.get());
+        assertTrue(written(leader).endsWith("\r\n\r\ncall 1"));
+        assertTrue(written(waiter).endsWith("\r\n\r\ncall 1"));
+        assertEquals(0, store.getSingleFlight().getFlightCount());
+        // nothing is cached without a time to live
+        assertEquals(0, store.getResponseCache().getEntryCount());
+    }
+
+    @Test
+    public void singleFlightFailureTest() throws BadRequestException, IOException {
+        store.insertGetRoute("/report", (req, res) -> {
+            throw new IllegalStateException("the database is down");
+        }, CachePolicy.ttl(1, TimeUnit.MINUTES).withSingleFlight());
+        store.freezeRoutes();
+        BlizzardRequest leader = request("GET /report HTTP/1.1\r\n");
+        BlizzardRequest waiter = request("GET /report HTTP/1.1\r\n");
+        SingleFlight.Flight flight = store.getSingleFlight().join("/report", leader);
+        assertNull(store.getSingleFlight().join("/report", waiter));
+        new ProcessRequestEvent(leader, store, flight).execute();
+        // the leader is answered with an error, which is neither cached nor shared
+        assertTrue(written(leader).startsWith("HTTP/1.1 500 "));
+        assertEquals(0, store.getResponseCache().getEntryCount());
+        assertEquals("", written(waiter));
+        // the waiting request is handed back to be processed on its own instead of waiting forever
+        assertSame(waiter, store.getRequestQueue().poll());
+        assertFalse(waiter.isSingleFlight());
+        assertEquals(0, store.getSingleFlight().getFlightCount());
+    }
 }
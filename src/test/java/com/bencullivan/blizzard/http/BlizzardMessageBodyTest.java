@@ -3,7 +3,10 @@ package com.bencullivan.blizzard.http;
 import com.bencullivan.blizzard.http.exceptions.*;
 import org.junit.jupiter.api.*;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -11,22 +14,18 @@ import static org.junit.jupiter.api.Assertions.*;
 public class BlizzardMessageBodyTest {
 
     private BlizzardMessage message = new BlizzardMessage(new BlizzardAttachment(),
-            2048, 20);
+            2048);
 
     @AfterEach
     public void resetMessage() {
         message = new BlizzardMessage(new BlizzardAttachment(),
-                2048, 20);
+                2048);
     }
 
     @Test
     public void testHeaderIntoBody1() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" COOKIE: yum yum tasty cookies \r\n Content-length: 23\r\nOther-header:yay " +
-                "\r\n\r\nThis is the body, bitch");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {0,0});
-        assertTrue(testHeaderIntoBody(true));
+        assertTrue(testHeaderIntoBody(true, " COOKIE: yum yum tasty cookies \r\n Content-length: 23\r\n" +
+                "Other-header:yay \r\n\r\nThis is the body, bitch"));
         assertEquals("yum yum tasty cookies", message.getRequest().getHeader("cookie"));
         assertEquals("23", message.getRequest().getHeader("content-length"));
         assertEquals("yay", message.getRequest().getHeader("other-header"));
@@ -35,109 +34,151 @@ public class BlizzardMessageBodyTest {
 
     @Test
     public void testHeaderIntoBody2() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" header: this header is irrelevant\r\n\r");
-        reqStrings.add("\nThis is the body.");
-        message.setReqStrings(reqStrings);
         message.setRemainingByteCount(17);
-        message.setStartIndexes(new int[] {0,0});
-        assertTrue(testHeaderIntoBody(true));
+        assertTrue(testHeaderIntoBody(true, " header: this header is irrelevant\r\n\r", "\nThis is the body."));
         assertEquals("This is the body.", message.getRequest().getBody());
     }
 
     @Test
     public void testHeaderIntoBody3() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" header: this header is irrelevant\r\n");
-        reqStrings.add("\r\nThis is the body.");
-        message.setReqStrings(reqStrings);
         message.setRemainingByteCount(17);
-        message.setStartIndexes(new int[] {0,0});
-        assertTrue(testHeaderIntoBody(true));
+        assertTrue(testHeaderIntoBody(true, " header: this header is irrelevant\r\n", "\r\nThis is the body."));
         assertEquals("This is the body.", message.getRequest().getBody());
     }
 
     @Test
     public void testHeaderIntoBody4() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" header: this header is irrelevant\r");
-        reqStrings.add("\n\r\nThis is the body. yooo");
-        message.setReqStrings(reqStrings);
         message.setRemainingByteCount(22);
-        message.setStartIndexes(new int[] {0,0});
-        assertTrue(testHeaderIntoBody(true));
+        assertTrue(testHeaderIntoBody(true, " header: this header is irrelevant\r",
+                "\n\r\nThis is the body. yooo"));
         assertEquals("This is the body. yooo", message.getRequest().getBody());
         assertEquals("this header is irrelevant", message.getRequest().getHeader("header"));
     }
 
     @Test
     public void testHeaderIntoBody5() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" header: this header is irrelevant\r");
-        reqStrings.add("\n");
-        reqStrings.add("\r");
-        reqStrings.add("\nThis is the body.");
-        message.setReqStrings(reqStrings);
         message.setRemainingByteCount(17);
-        message.setStartIndexes(new int[] {0,0});
-        assertTrue(testHeaderIntoBody(true));
+        assertTrue(testHeaderIntoBody(true, " header: this header is irrelevant\r", "\n", "\r",
+                "\nThis is the body."));
         assertEquals("This is the body.", message.getRequest().getBody());
     }
 
     @Test
     public void testHeaderIntoBody6() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" header: this header is irrelevant\r");
-        reqStrings.add("\n");
-        reqStrings.add("\r\nThis is the body.");
-        message.setReqStrings(reqStrings);
         message.setRemainingByteCount(17);
-        message.setStartIndexes(new int[] {0,0});
-        assertTrue(testHeaderIntoBody(true));
+        assertTrue(testHeaderIntoBody(true, " header: this header is irrelevant\r", "\n",
+                "\r\nThis is the body."));
         assertEquals("This is the body.", message.getRequest().getBody());
     }
 
     @Test
     public void testHeaderIntoBody7() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" header: this header is irrelevant\r");
-        reqStrings.add("\n");
-        reqStrings.add("\r\n");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {0,0});
-        assertTrue(testHeaderIntoBody(true));
+        assertTrue(testHeaderIntoBody(true, " header: this header is irrelevant\r", "\n", "\r\n"));
         assertEquals("", message.getRequest().getBody());
     }
 
-    public boolean testHeaderIntoBody(boolean rSet) throws BadRequestException {
+    @Test
+    public void testHeaderIntoBody8() throws BadRequestException {
+        // a multi-byte character split across two reads
+        byte[] bytes = "Content-length: 4\r\n\r\n\u00e9\u00e9".getBytes(StandardCharsets.UTF_8);
+        message.getRequest().setRequestLine(new String[] {"GET", "/", "1.1"});
+        assertFalse(message.parse(ByteBuffer.wrap(bytes, 0, bytes.length-1)));
+        assertTrue(message.parse(ByteBuffer.wrap(bytes, bytes.length-1, 1)));
+        assertEquals("\u00e9\u00e9", message.getRequest().getBody());
+    }
+
+    @Test
+    public void bodyTooLargeTest() {
+        message.setBodyLimits(10, 1024);
+        BadRequestException thrown = assertThrows(BadRequestException.class,
+                () -> testHeaderIntoBody(true, "Content-length: 11\r\n", "\r\n"));
+        assertEquals(BadRequest.BODY_TOO_LARGE, thrown.getType());
+    }
+
+    @Test
+    public void spillTest() throws IOException {
+        // a body larger than the spill threshold is written to a temporary file as it arrives
+        message.setBodyLimits(1024, 32);
+        assertFalse(testHeaderIntoBody(true, "Content-length: 39\r\n\r\nThis is the first half, "));
+        assertTrue(testHeaderIntoBody(false, "and the second."));
+        BlizzardRequest request = message.getRequest();
+        assertEquals(39, (int) request.getBodySize());
+        ByteBuffer mapped = request.mapBody();
+        assertTrue(mapped instanceof MappedByteBuffer);
+        byte[] bytes = new byte[mapped.remaining()];
+        mapped.get(bytes);
+        assertEquals("This is the first half, and the second.", new String(bytes, StandardCharsets.UTF_8));
+        assertEquals("This is the first half, and the second.",
+                new String(request.getBodyStream().readAllBytes(), StandardCharsets.UTF_8));
+        assertEquals("This is the first half, and the second.", request.getBody());
+        request.releaseBody();
+        assertEquals(0, (int) request.getBodySize());
+    }
+
+    @Test
+    public void chunkedTest() throws BadRequestException {
+        // every byte arrives in a read of its own
+        String request = "Transfer-Encoding: chunked\r\n\r\n7\r\nThis is\r\n1a;name=value\r\n" +
+                " the body, split in chunks\r\n0\r\n\r\n";
+        String[] fragments = request.split("");
+        assertTrue(testHeaderIntoBody(true, fragments));
+        assertEquals("This is the body, split in chunks", message.getRequest().getBody());
+    }
+
+    @Test
+    public void chunkedTrailerTest() throws BadRequestException {
+        assertFalse(testHeaderIntoBody(true, "Transfer-Encoding: gzip, Chunked\r\n\r\n5\r\nhel",
+                "lo\r\n0\r\nChecksum: abc\r\n"));
+        assertTrue(testHeaderIntoBody(false, "\r\n"));
+        assertEquals("hello", message.getRequest().getBody());
+        assertEquals("abc", message.getRequest().getHeader("checksum"));
+    }
+
+    @Test
+    public void chunkedExceptTest() {
+        assertThrows(InvalidChunkException.class,
+                () -> testHeaderIntoBody(true, "Transfer-Encoding: chunked\r\n\r\nxyz\r\n"));
+        resetMessage();
+        assertThrows(InvalidChunkException.class,
+                () -> testHeaderIntoBody(true, "Transfer-Encoding: chunked\r\n\r\n2\r\nabc\r\n"));
+        resetMessage();
+        // a body that is framed twice is rejected
+        assertThrows(InvalidHeaderException.class,
+                () -> testHeaderIntoBody(true, "Transfer-Encoding: chunked\r\nContent-Length: 2\r\n\r\n"));
+        resetMessage();
+        message.setBodyLimits(10, 1024);
+        BadRequestException thrown = assertThrows(BadRequestException.class,
+                () -> testHeaderIntoBody(true, "Transfer-Encoding: chunked\r\n\r\n6\r\nabcdef\r\n5\r\n"));
+        assertEquals(BadRequest.BODY_TOO_LARGE, thrown.getType());
+    }
+
+    public boolean testHeaderIntoBody(boolean rSet, String... fragments) throws BadRequestException {
         if (rSet) message.getRequest().setRequestLine(new String[] {"GET", "/", "1.1"});
-        return message.parseHeader();
+        boolean done = false;
+        for (String fragment: fragments) {
+            done = message.parse(ByteBuffer.wrap(fragment.getBytes(StandardCharsets.UTF_8)));
+        }
+        return done;
     }
 
     @Test
     public void testHeaderIntoBodyExcept1() {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" header: this header is irrelevant\r");
-        reqStrings.add("\n\r\nThis is the body. yooo");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {0,0});
-        testHeaderIntoBodyExcept("Content length is not specified but there is a body.");
+        testHeaderIntoBodyExcept("Content length is not specified but there is a body.",
+                " header: this header is irrelevant\r", "\n\r\nThis is the body. yooo");
     }
 
     @Test
     public void testHeaderIntoBodyExcept2() {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add("headerOne: this is a header \r\n headerTwo: this is another header \r\n\r\n a");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {0,0});
-        testHeaderIntoBodyExcept("Content length is not specified but there is a body.");
+        testHeaderIntoBodyExcept("Content length is not specified but there is a body.",
+                "headerOne: this is a header \r\n headerTwo: this is another header \r\n\r\n a");
     }
 
-    public void testHeaderIntoBodyExcept(String msg) {
-        message.getRequest().setRequestLine(new String[] {"GET", "/", "1.1"});
+    public void testHeaderIntoBodyExcept(String msg, String... fragments) {
+        // (the bytes after a GET without a content length would be the next pipelined request)
+        message.getRequest().setRequestLine(new String[] {"POST", "/", "1.1"});
         BadRequestException thrown = assertThrows(
                 BadRequestException.class,
-                () -> message.parseHeader()
+                () -> testHeaderIntoBody(false, fragments)
         );
         assertEquals(msg, thrown.getMessage());
     }
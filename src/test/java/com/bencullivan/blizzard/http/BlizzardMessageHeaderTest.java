@@ -3,19 +3,28 @@ package com.bencullivan.blizzard.http;
 import com.bencullivan.blizzard.http.exceptions.*;
 import org.junit.jupiter.api.*;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class BlizzardMessageHeaderTest {
 
     private BlizzardMessage message = new BlizzardMessage(new BlizzardAttachment(),
-            2048, 20);
+            2048);
 
     @AfterEach
     public void resetMessage() {
         message = new BlizzardMessage(new BlizzardAttachment(),
-                2048, 20);
+                2048);
+    }
+
+    public boolean parse(String... fragments) throws BadRequestException {
+        boolean done = false;
+        for (String fragment: fragments) {
+            done = message.parse(ByteBuffer.wrap(fragment.getBytes(StandardCharsets.UTF_8)));
+        }
+        return done;
     }
 
     @Test
@@ -30,7 +39,7 @@ public class BlizzardMessageHeaderTest {
     }
 
     public void splitReqLineGoodInput(String reqLine, String[] expected) throws BadRequestException {
-        message.splitReqLine(reqLine);
+        assertFalse(parse(reqLine + "\r\n"));
         String[] actual = {message.getRequest().getMethod(), message.getRequest().getUri(),
                 message.getRequest().getVersion()};
         assertArrayEquals(expected, actual);
@@ -49,113 +58,95 @@ public class BlizzardMessageHeaderTest {
     public void splitReqLineExcept(String reqLine) {
         BadRequestException thrown = assertThrows(
                 RequestLineException.class,
-                () -> message.splitReqLine(reqLine)
+                () -> parse(reqLine + "\r\n")
         );
         assertEquals("Invalid request line format.", thrown.getMessage());
     }
 
     @Test
     public void parseReqLineTestGoodInput1() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add("GET /posts/all HTTP/1.1  \r");
-        reqStrings.add("\n");
-        message.setReqStrings(reqStrings);
-        parseReqLineGoodInput(new String[] {"GET", "/posts/all", "HTTP/1.1"}, 1);
+        parseReqLineGoodInput(new String[] {"GET", "/posts/all", "HTTP/1.1"},
+                "GET /posts/all HTTP/1.1  \r", "\n");
     }
 
     @Test
     public void parseReqLineTestGoodInput2() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add("POST /posts/");
-        reqStrings.add("all    HTTP");
-        reqStrings.add("/");
-        reqStrings.add("2\r\n");
-        message.setReqStrings(reqStrings);
-        parseReqLineGoodInput(new String[] {"POST", "/posts/all", "HTTP/2"}, 3);
+        parseReqLineGoodInput(new String[] {"POST", "/posts/all", "HTTP/2"},
+                "POST /posts/", "all    HTTP", "/", "2\r\n");
     }
 
-    public void parseReqLineGoodInput(String[] expected, int i)
+    public void parseReqLineGoodInput(String[] expected, String... fragments)
             throws BadRequestException {
-        int index = message.parseReqLine();
+        assertFalse(parse(fragments));
         String[] actual = {message.getRequest().getMethod(), message.getRequest().getUri(),
                 message.getRequest().getVersion()};
         assertArrayEquals(expected, actual);
-        assertEquals(i, index);
     }
 
     @Test
     public void parseReqLineTestExcept1() {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add("\n");
-        message.setReqStrings(reqStrings);
-        parseReqLineExcept("Illegal character present in request line.");
+        parseReqLineExcept("Illegal character present in request line.", "\n");
     }
 
     @Test
     public void parseReqLineTestExcept2() {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add("/posts/");
-        reqStrings.add("all    HTTP");
-        reqStrings.add("/");
-        reqStrings.add("2\r\n");
-        message.setReqStrings(reqStrings);
-        parseReqLineExcept("Invalid request line format.");
+        parseReqLineExcept("Invalid request line format.", "/posts/", "all    HTTP", "/", "2\r\n");
     }
 
-    public void parseReqLineExcept(String msg) {
+    public void parseReqLineExcept(String msg, String... fragments) {
         BadRequestException thrown = assertThrows(
                 BadRequestException.class,
-                () -> message.parseReqLine()
+                () -> parse(fragments)
         );
         assertEquals(msg, thrown.getMessage());
     }
 
     @Test
     public void splitHeaderTestGoodInput1() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add("\r\n Content-leng");
-        reqStrings.add("th: ");
-        reqStrings.add(" 1568 \r\n Other-header: yay \r\n");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {0, 2});
-        splitHeaderGoodInput(0, 6);
+        message.getRequest().setRequestLine(new String[] {"GET", "/", "HTTP/1.1"});
+        assertFalse(parse(" Content-leng", "th: ", " 1568 \r\n Other-header: yay \r\n"));
         assertEquals("1568", message.getRequest().getHeader("content-length"));
     }
 
     @Test
     public void splitHeaderTestGoodInput2() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add("\r\n COOKIE: yum yum tasty cookies \r\n Other-header: yay \r\n");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {0, 2});
-        splitHeaderGoodInput(2, 33);
+        message.getRequest().setRequestLine(new String[] {"GET", "/", "HTTP/1.1"});
+        assertFalse(parse(" COOKIE: yum yum tasty cookies \r\n Other-header: yay \r\n"));
         assertEquals("yum yum tasty cookies", message.getRequest().getHeader("cookie"));
     }
 
-    public void splitHeaderGoodInput(int start, int i) throws BadRequestException {
-        message.splitHeader(start, i);
+    @Test
+    public void wellKnownHeaderTest() throws BadRequestException {
+        message.getRequest().setRequestLine(new String[] {"POST", "/", "HTTP/1.1"});
+        assertFalse(parse("HOST: example.com\r\nContent-Type: text/plain\r\nConnection: Upgrade, Close\r\n" +
+                "Content-Length: 5\r\nX-Custom: a\r\nx-custom: b\r\n\r\n"));
+        BlizzardRequest request = message.getRequest();
+        assertEquals("example.com", request.getHost());
+        assertEquals("text/plain", request.getContentType());
+        assertEquals(5, (int) request.getContentLength());
+        // header names are compared without regard to case, and the last repeated header wins
+        assertEquals("Upgrade, Close", request.getHeader("connection"));
+        assertEquals("b", request.getHeader("X-CUSTOM"));
+        assertNull(request.getHeader("x-other"));
+    }
+
+    @Test
+    public void splitHeaderTestExcept() {
+        message.getRequest().setRequestLine(new String[] {"GET", "/", "HTTP/1.1"});
+        assertThrows(InvalidHeaderException.class, () -> parse(" : no field\r\n"));
     }
 
     @Test
     public void parseHeaderTestGoodInput1() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" COOKIE: yum yum tasty cookies \r\n Other-header:yay \r\n   ");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {0,0});
-        assertFalse(parseHeaderGoodInput(new int[] {0, 53}, true));
+        assertFalse(parseHeaderGoodInput(true, " COOKIE: yum yum tasty cookies \r\n Other-header:yay \r\n   "));
         assertEquals("yay", message.getRequest().getHeader("other-header"));
         assertEquals("yum yum tasty cookies", message.getRequest().getHeader("cookie"));
     }
 
     @Test
     public void parseHeaderTestGoodInput2() throws BadRequestException {
-        ArrayList<String> reqStrings = new ArrayList<>();
-        reqStrings.add(" GET / H");
-        reqStrings.add("TTP/2  \r");
-        reqStrings.add("\n  First-header:  first val \r\n second-header:second val \r\n");
-        message.setReqStrings(reqStrings);
-        message.setStartIndexes(new int[] {2, 1});
-        assertFalse(parseHeaderGoodInput(new int[] {2, 58}, false));
+        assertFalse(parseHeaderGoodInput(false, " GET / H", "TTP/2  \r",
+                "\n  First-header:  first val \r\n second-header:second val \r\n"));
         assertEquals("GET", message.getRequest().getMethod());
         assertEquals("/", message.getRequest().getUri());
         assertEquals("HTTP/2", message.getRequest().getVersion());
@@ -163,11 +154,9 @@ public class BlizzardMessageHeaderTest {
         assertEquals("second val", message.getRequest().getHeader("second-header"));
     }
 
-    public boolean parseHeaderGoodInput(int[] sExpected, boolean rSet)
+    public boolean parseHeaderGoodInput(boolean rSet, String... fragments)
             throws BadRequestException {
         if (rSet) message.getRequest().setRequestLine(new String[] {"GET", "/", "HTTP/1.1"});
-        boolean val = message.parseHeader();
-        assertArrayEquals(sExpected, message.getStartIndexes());
-        return val;
+        return parse(fragments);
     }
 }
@@ -1,8 +1,10 @@
 package com.bencullivan.blizzard.http;
 
 import com.bencullivan.blizzard.http.exceptions.*;
+import com.bencullivan.blizzard.util.BufferPool;
 import org.junit.jupiter.api.*;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -10,12 +12,12 @@ import static org.junit.jupiter.api.Assertions.*;
 public class BlizzardMessageTest {
 
     private BlizzardMessage message = new BlizzardMessage(new BlizzardAttachment(),
-            2048, 20);
+            2048);
 
     @AfterEach
     public void resetMessage() {
         message = new BlizzardMessage(new BlizzardAttachment(),
-                2048, 20);
+                2048);
     }
 
     @Test
@@ -123,6 +125,102 @@ public class BlizzardMessageTest {
         assertEquals("username=zurfyx&pass=password", r.getBody());
     }
 
+    @Test
+    public void messageQueryTest() throws BadRequestException {
+        message.getCurrent().put(("POST /items/caf%C3%A9?page=2&tag=a+b&tag=c%26d HTTP/1.1\r\n" +
+                "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: 13\r\n\r\n" +
+                "tag=e&empty=&").getBytes(StandardCharsets.UTF_8));
+        assertTrue(message.isDoneProcessing());
+        BlizzardRequest r = message.getRequest();
+        assertEquals("/items/caf%C3%A9?page=2&tag=a+b&tag=c%26d", r.getUri());
+        assertEquals("/items/caf%C3%A9", r.getPath());
+        r.processBody();
+        assertEquals(5, r.getQueries().size());
+        assertEquals("2", r.getQueries().get("page"));
+        assertEquals(Arrays.asList("a b", "c&d", "e"), r.getQueries().getAll("tag"));
+        assertEquals("", r.getQueries().get("empty"));
+        assertNull(r.getQueries().get("missing"));
+    }
+
+    @Test
+    public void messagePipelineTest() throws BadRequestException {
+        message.getCurrent().put(("POST /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nhelloGET /b HTTP/1.1\r\n" +
+                "Host: x\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(message.isDoneProcessing());
+        assertEquals("/a", message.getRequest().getUri());
+        assertEquals("hello", message.getRequest().getBody());
+        message.restoreInitialValues();
+        assertTrue(message.isDoneProcessing());
+        assertEquals("/b", message.getRequest().getUri());
+        assertEquals("x", message.getRequest().getHeader("host"));
+        message.restoreInitialValues();
+        assertFalse(message.isDoneProcessing());
+    }
+
+    @Test
+    public void messageChunkedPipelineTest() throws BadRequestException {
+        message.getCurrent().put(("POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n" +
+                "GET /b HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(message.isDoneProcessing());
+        assertEquals("/a", message.getRequest().getUri());
+        assertEquals("hello", message.getRequest().getBody());
+        message.restoreInitialValues();
+        assertTrue(message.isDoneProcessing());
+        assertEquals("/b", message.getRequest().getUri());
+    }
+
+    @Test
+    public void messagePipelinedGetTest() throws BadRequestException {
+        message.getCurrent().put(("GET /a HTTP/1.1\r\n\r\n\r\nGET /b HTTP/1.1\r\nConnection: close\r\n\r\n" +
+                "GET /c HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(message.isDoneProcessing());
+        assertEquals("/a", message.getRequest().getUri());
+        assertEquals(0, message.getRequest().getSequence());
+        assertTrue(message.getRequest().isKeepAlive());
+        message.restoreInitialValues();
+        assertTrue(message.isDoneProcessing());
+        assertEquals("/b", message.getRequest().getUri());
+        assertEquals(1, message.getRequest().getSequence());
+        assertFalse(message.getRequest().isKeepAlive());
+        assertTrue(message.isClosing());
+        // the request after the last one is ignored
+        message.restoreInitialValues();
+        assertFalse(message.isDoneProcessing());
+        assertFalse(message.hasInput());
+        assertEquals(2, message.getRequestCount());
+    }
+
+    @Test
+    public void messageKeepAliveTest() throws BadRequestException {
+        message.getCurrent().put("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(message.isDoneProcessing());
+        assertTrue(message.getRequest().isKeepAlive());
+        message.restoreInitialValues();
+        message.getCurrent().put("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(message.isDoneProcessing());
+        assertFalse(message.getRequest().isKeepAlive());
+        assertTrue(message.isClosing());
+    }
+
+    @Test
+    public void messageMaxRequestsTest() throws BadRequestException {
+        message = new BlizzardMessage(new BlizzardAttachment(), new BufferPool(2048, 0, 1, false, false), 2);
+        message.getCurrent().put("GET / HTTP/1.1\r\n\r\nGET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(message.isDoneProcessing());
+        assertTrue(message.getRequest().isKeepAlive());
+        message.restoreInitialValues();
+        assertTrue(message.isDoneProcessing());
+        assertFalse(message.getRequest().isKeepAlive());
+    }
+
+    @Test
+    public void messageBadRequestClosesTest() {
+        message.getCurrent().put("GET / HTTP/1.1\r\nno colon\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(InvalidHeaderException.class, () -> message.isDoneProcessing());
+        assertFalse(message.getRequest().isKeepAlive());
+        assertTrue(message.isClosing());
+    }
+
     @Test
     public void messageHeaderTooLargeTest() throws BadRequestException {
         byte[] large = Requests.getHeaderTooLarge();
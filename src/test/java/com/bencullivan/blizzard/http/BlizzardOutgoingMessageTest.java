@@ -0,0 +1,208 @@
+package com.bencullivan.blizzard.http;
+
+import com.bencullivan.blizzard.util.BlizzardStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlizzardOutgoingMessageTest {
+
+    private BlizzardOutgoingMessage outMessage = new BlizzardOutgoingMessage(new BlizzardAttachment());
+    private TestChannel channel = new TestChannel(Integer.MAX_VALUE);
+    private final ByteBuffer[] buffers = new ByteBuffer[64];
+
+    @AfterEach
+    public void resetOutMessage() {
+        outMessage = new BlizzardOutgoingMessage(new BlizzardAttachment());
+        channel = new TestChannel(Integer.MAX_VALUE);
+    }
+
+    /**
+     * A channel that records what is written to it and takes at most a fixed number of bytes per write.
+     */
+    private static class TestChannel implements GatheringByteChannel {
+        private final int maxPerWrite;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int writeCount;
+
+        private TestChannel(int maxPerWrite) {
+            this.maxPerWrite = maxPerWrite;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writeCount++;
+            long written = 0;
+            for (int i = offset; i < offset + length && written < maxPerWrite; i++) {
+                while (srcs[i].hasRemaining() && written < maxPerWrite) {
+                    bytes.write(srcs[i].get());
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private String text() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private BlizzardResponse response(String text, boolean keepAlive) {
+        BlizzardResponse response = new BlizzardResponse(new BlizzardStore(1,1,1).getReasonPhrases());
+        response.sendText(text).sendStatus(200);
+        response.setKeepAlive(keepAlive);
+        response.finish();
+        return response;
+    }
+
+    @Test
+    public void outOfOrderTest() throws IOException {
+        outMessage.addResponse(response("third", true), 2);
+        outMessage.addResponse(response("second", true), 1);
+        // the responses to later requests wait for the response to the first one
+        assertFalse(outMessage.hasResponses());
+        assertFalse(outMessage.write(channel, buffers));
+        assertEquals("", channel.text());
+        outMessage.addResponse(response("first", true), 0);
+        // all three responses are written in order with one gathering write
+        assertFalse(outMessage.write(channel, buffers));
+        assertEquals(1, (int) channel.writeCount);
+        String text = channel.text();
+        assertTrue(text.indexOf("first") < text.indexOf("second") && text.indexOf("second") < text.indexOf("third"));
+        assertTrue(text.endsWith("third"));
+        assertFalse(outMessage.hasResponses());
+        assertEquals(3, outMessage.getSentCount());
+        for (ByteBuffer buffer: buffers) assertNull(buffer);
+    }
+
+    @Test
+    public void partialWriteTest() throws IOException {
+        channel = new TestChannel(7);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            BlizzardResponse response = response("response " + i, true);
+            expected.append(new String(response.getMessage().array(), StandardCharsets.UTF_8))
+                    .append("response ").append(i);
+            outMessage.addResponse(response, i);
+        }
+        while (outMessage.hasResponses()) assertFalse(outMessage.write(channel, buffers));
+        assertEquals(expected.toString(), channel.text());
+        assertEquals(5, outMessage.getSentCount());
+    }
+
+    @Test
+    public void closeTest() throws IOException {
+        channel = new TestChannel(10);
+        outMessage.addResponse(response("first", true), 0);
+        outMessage.addResponse(response("last", false), 1);
+        // the connection is only closed once the whole of the last response has been written
+        boolean last = false;
+        while (!last) {
+            assertTrue(outMessage.hasResponses());
+            last = outMessage.write(channel, buffers);
+        }
+        assertFalse(outMessage.hasResponses());
+        assertTrue(channel.text().contains("Connection:close\r\n"));
+        assertTrue(channel.text().endsWith("last"));
+    }
+
+    private BlizzardStream stream(long sequence) {
+        BlizzardResponse response = new BlizzardResponse(new BlizzardStore(1,1,1).getReasonPhrases());
+        response.sendStatus(200);
+        response.setOutput(outMessage, sequence);
+        return response.stream();
+    }
+
+    @Test
+    public void streamTest() throws IOException {
+        BlizzardStream stream = stream(0);
+        outMessage.addResponse(response("next", true), 1);
+        stream.write("hello ");
+        stream.flush();
+        assertFalse(outMessage.write(channel, buffers));
+        assertTrue(channel.text().contains("Transfer-Encoding:chunked\r\n"));
+        assertFalse(channel.text().contains("Content-Length"));
+        assertTrue(channel.text().endsWith("\r\n\r\n6\r\nhello \r\n"));
+        // the next response waits for the end of the streamed body
+        assertFalse(outMessage.canWrite());
+        assertTrue(outMessage.hasResponses());
+        stream.write("world");
+        stream.close();
+        while (outMessage.canWrite()) assertFalse(outMessage.write(channel, buffers));
+        String text = channel.text();
+        assertTrue(text.contains("6\r\nhello \r\n5\r\nworld\r\n0\r\n\r\nHTTP/1.1 200 OK\r\n"));
+        assertTrue(text.endsWith("next"));
+        assertEquals(2, outMessage.getSentCount());
+    }
+
+    @Test
+    public void streamFlowControlTest() throws Exception {
+        BlizzardStream stream = stream(0);
+        byte[] chunk = new byte[65536];
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 16; i++) stream.write(chunk);
+                stream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        producer.start();
+        // the producer waits once the client has fallen behind
+        Thread.sleep(200);
+        assertEquals(Thread.State.WAITING, producer.getState());
+        while (producer.isAlive() || outMessage.canWrite()) {
+            if (outMessage.write(channel, buffers)) break;
+        }
+        producer.join();
+        assertFalse(outMessage.hasResponses());
+        assertTrue(channel.text().endsWith("0\r\n\r\n"));
+    }
+
+    @Test
+    public void streamAbortTest() throws Exception {
+        BlizzardStream stream = stream(0);
+        byte[] chunk = new byte[65536];
+        IOException[] thrown = new IOException[1];
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 16; i++) stream.write(chunk);
+            } catch (IOException e) {
+                thrown[0] = e;
+            }
+        });
+        producer.start();
+        Thread.sleep(200);
+        // closing the connection wakes the waiting producer
+        outMessage.close();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertNotNull(thrown[0]);
+    }
+}
@@ -1,11 +1,17 @@
 package com.bencullivan.blizzard.http;
 
+import com.bencullivan.blizzard.http.exceptions.BodyDecodeException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BlizzardRequestTest {
 
@@ -25,6 +31,29 @@ public class BlizzardRequestTest {
         assertEquals("value3", request.getQueries().get("query3"));
     }
 
+    @Test
+    public void uriQueryTest() {
+        request.setRequestLine(new String[] {"GET", "/search?q=%E2%9C%93&q=two+words&flag&=x", "HTTP/1.1"});
+        assertEquals("/search", request.getPath());
+        assertEquals(4, request.getQueries().size());
+        assertEquals("\u2713", request.getQueries().get("q"));
+        assertEquals("two words", request.getQueries().getValue(1));
+        assertEquals("", request.getQueries().get("flag"));
+        assertEquals("", request.getQueries().getKey(3));
+        assertTrue(request.getQueries().containsKey("flag"));
+    }
+
+    @Test
+    public void parameterTest() {
+        request.setRequestLine(new String[] {"GET", "/users/j%20doe/posts/a+b?x=1", "HTTP/1.1"});
+        // (the bounds are those that the router would match for "/users/:id/posts/:postId")
+        request.setParameters(new String[] {"id", "postId"}, new int[] {7, 14, 21, 24});
+        assertEquals("j doe", request.getParameter("id"));
+        assertEquals("a+b", request.getParameter("postId"));
+        assertEquals("a+b", request.getParameter());
+        assertNull(request.getParameter("other"));
+    }
+
     @Test
     public void processJSONTest() {
         request.appendToBody("{\"key\": \"value\", \"key2\": [\"a\", \"b\"]}");
@@ -41,4 +70,58 @@ public class BlizzardRequestTest {
         assertEquals(((JSONArray)comp.get("key2")).get(1),
                 ((JSONArray)((JSONObject)request.getBodyJSON()).get("key2")).get(1));
     }
+
+    static class Point {
+        int x;
+        int y;
+
+        Point() {}
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+    }
+
+    @Test
+    public void getBodyTest() {
+        request.appendToBody(" {\"x\": 3, \"y\": -4}");
+        request.processBody();
+        assertEquals(new Point(3, -4), request.getBody(Point.class));
+        assertEquals(3, ((JSONObject) request.getBodyJSON()).get("x"));
+        // a form body that is not JSON has no JSON
+        resetRequest();
+        request.appendToBody("x=3");
+        request.processBody();
+        assertNull(request.getBodyJSON());
+        assertThrows(BodyDecodeException.class, () -> request.getBody(Point.class));
+    }
+
+    @Test
+    public void bodyCodecTest() {
+        request.appendToBody("3,4");
+        request.setBodyCodecs(List.of(new BodyCodec() {
+            @Override
+            public boolean accepts(String contentType) {
+                return true;
+            }
+
+            @Override
+            public <T> T decode(BlizzardBody body, Class<T> type) {
+                String[] parts = body.getText().split(",");
+                return type.cast(new Point(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])));
+            }
+        }));
+        assertEquals(new Point(3, 4), request.getBody(Point.class));
+    }
 }
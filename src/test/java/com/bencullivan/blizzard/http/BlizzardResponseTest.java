@@ -7,10 +7,17 @@ import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class BlizzardResponseTest {
 
@@ -23,8 +30,20 @@ public class BlizzardResponseTest {
                 new BlizzardStore(1,1,1).getReasonPhrases());
     }
 
+    /**
+     * @return The encoded status line and headers of the response followed by its body.
+     */
+    private byte[] bytesOf(BlizzardResponse response) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(response.getMessage().array());
+        WritableByteChannel channel = Channels.newChannel(bytes);
+        long sent = 0;
+        while (sent < response.getBodyLength()) sent += response.writeBody(channel);
+        return bytes.toByteArray();
+    }
+
     @Test
-    public void resTextTest() {
+    public void resTextTest() throws IOException {
         response.sendText("This is a test").sendStatus(200);
         response.finish();
         String expected = "HTTP/1.1 200 OK\r\n" +
@@ -32,11 +51,11 @@ public class BlizzardResponseTest {
                 "Content-Type:text/plain; charset=UTF-8\r\n" +
                 "Content-Length:14\r\n" +
                 "\r\nThis is a test";
-        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), response.getMessage().array());
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytesOf(response));
     }
 
     @Test
-    public void resJSONObjectTest() {
+    public void resJSONObjectTest() throws IOException {
         JSONObject obj = new JSONObject();
         obj.put("key1", "val1");
         obj.put("key2", 5);
@@ -52,11 +71,11 @@ public class BlizzardResponseTest {
                 "Content-Type:application/json\r\n" +
                 "Content-Length:" + (obj.toString().getBytes(StandardCharsets.UTF_8).length) + "\r\n\r\n" +
                 obj.toString();
-        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), response.getMessage().array());
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytesOf(response));
     }
 
     @Test
-    public void resJSONArrayTest() {
+    public void resJSONArrayTest() throws IOException {
         JSONArray arr = new JSONArray();
         arr.put(5);
         arr.put(false);
@@ -68,7 +87,60 @@ public class BlizzardResponseTest {
                 "Content-Type:application/json\r\n" +
                 "Content-Length:" + (arr.toString().getBytes(StandardCharsets.UTF_8).length) + "\r\n\r\n" +
                 arr.toString();
-        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), response.getMessage().array());
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytesOf(response));
+    }
+
+    static class Point {
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    @Test
+    public void resWriteJsonTest() throws IOException {
+        response.sendText("replaced").writeJson(List.of(new Point(1, 2), new Point(-3, 4))).sendStatus(200);
+        response.finish();
+        String json = "[{\"x\":1,\"y\":2},{\"x\":-3,\"y\":4}]";
+        String expected = "HTTP/1.1 200 OK\r\n" +
+                "Date:" + response.getTime() + "\r\n" +
+                "Content-Type:application/json\r\n" +
+                "Content-Length:" + json.length() + "\r\n\r\n" +
+                json;
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytesOf(response));
+        // a value that cannot be written as JSON
+        resetResponse();
+        assertThrows(UncheckedIOException.class, () -> response.writeJson(Double.NaN));
+    }
+
+    @Test
+    public void resCachedTest() throws IOException {
+        response.sendText("This is a test").sendStatus(200);
+        response.finish();
+        CachedResponse cached = response.toCached();
+        String original = new String(bytesOf(response), StandardCharsets.UTF_8);
+        // the copy has the same bytes apart from its date, and the body is not used up by sending it
+        for (int i = 0; i < 2; i++) {
+            BlizzardResponse copy = BlizzardResponse.fromCached(cached);
+            assertEquals(200, copy.getStatusCode());
+            assertTrue(copy.isKeepAlive());
+            assertEquals(original.replace(response.getTime(), copy.getTime()),
+                    new String(bytesOf(copy), StandardCharsets.UTF_8));
+        }
+        assertEquals(original.length(), cached.getSize());
+        // the status is kept as well
+        resetResponse();
+        response.sendText("missing").sendStatus(404);
+        response.finish();
+        assertEquals(404, BlizzardResponse.fromCached(response.toCached()).getStatusCode());
+        // a file body is not kept
+        resetResponse();
+        response.sendFile(System.getProperty("user.dir") + "/src/test/resources/html-res-test.html").sendStatus(200);
+        response.finish();
+        assertNull(response.toCached());
     }
 
     @Test
@@ -78,11 +150,76 @@ public class BlizzardResponseTest {
         response.finish();
         String fileString = new FileReader(System.getProperty("user.dir") +
                 "/src/test/resources/html-res-test.html").readFile().getFileString();
+        // only the headers are encoded, the file is streamed when the response is written
         String expected = "HTTP/1.1 200 OK\r\n" +
                 "Date:" + response.getTime() + "\r\n" +
                 "Content-Type:text/html; charset=UTF-8\r\n" +
                 "Content-Length:" + fileString.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
-                "\r\n" + fileString;
+                "\r\n";
         assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), response.getMessage().array());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(body);
+        long sent = 0;
+        while (sent < response.getBodyLength()) sent += response.writeBody(channel);
+        assertArrayEquals(fileString.getBytes(StandardCharsets.UTF_8), body.toByteArray());
+    }
+
+    @Test
+    public void resCompressedTest() throws IOException {
+        String text = "compress me ".repeat(200);
+        response.setCompression("deflate;q=0.5, gzip", 1024);
+        response.sendText(text).sendStatus(200);
+        response.finish();
+        String head = new String(response.getMessage().array(), StandardCharsets.UTF_8);
+        assertTrue(head.contains("Vary:Accept-Encoding\r\n"));
+        assertTrue(head.contains("Content-Encoding:gzip\r\n"));
+        assertTrue(head.contains("Content-Length:" + response.getBodyLength() + "\r\n"));
+        assertTrue(response.getBodyLength() < text.length());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(body);
+        long sent = 0;
+        while (sent < response.getBodyLength()) sent += response.writeBody(channel);
+        byte[] decompressed = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())).readAllBytes();
+        assertEquals(text, new String(decompressed, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void resNotCompressedTest() throws IOException {
+        // bodies below the threshold are sent as they are (but still vary with the Accept-Encoding header)
+        response.setCompression("gzip", 1024);
+        response.sendText("This is a test").sendStatus(200);
+        response.finish();
+        String head = new String(bytesOf(response), StandardCharsets.UTF_8);
+        assertTrue(head.contains("Vary:Accept-Encoding\r\n"));
+        assertFalse(head.contains("Content-Encoding"));
+        assertTrue(head.endsWith("\r\n\r\nThis is a test"));
+        // clients that refuse every encoding get the body as it is
+        resetResponse();
+        response.setCompression("gzip;q=0, deflate;q=0", 0);
+        response.sendText("compress me ".repeat(200)).sendStatus(200);
+        response.finish();
+        assertFalse(new String(response.getMessage().array(), StandardCharsets.UTF_8).contains("Content-Encoding"));
+    }
+
+    @Test
+    public void resHeadTest() throws IOException {
+        // a head that does not fit in a pooled buffer is moved to a larger one
+        String value = "v".repeat(3000);
+        response.setHeader("X-Large", value).sendStatus(409);
+        response.setVersion("HTTP/1.0");
+        response.finish();
+        String expected = "HTTP/1.0 409 Conflict\r\n" +
+                "Date:" + response.getTime() + "\r\n" +
+                "Connection:keep-alive\r\n" +
+                "X-Large:" + value + "\r\n" +
+                "Content-Length:0\r\n" +
+                "\r\n";
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytesOf(response));
+        assertTrue(response.getTime().endsWith(" GMT"));
+        // the cached status line is only used with its own reason phrase
+        resetResponse();
+        response.sendStatus(200);
+        response.finish();
+        assertTrue(new String(bytesOf(response), StandardCharsets.UTF_8).startsWith("HTTP/1.1 200 OK\r\n"));
     }
 }
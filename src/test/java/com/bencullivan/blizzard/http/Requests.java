@@ -1,7 +1,11 @@
 package com.bencullivan.blizzard.http;
 
+import com.bencullivan.blizzard.http.exceptions.BadRequestException;
+
 import java.nio.charset.StandardCharsets;
 
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class Requests {
     private static final String a = "GET /posts/first HTTP/1.1 \r\n" +
             "Host:www.test101.com      \r\n " +
@@ -76,4 +80,39 @@ public class Requests {
     public static byte[] getBad() {
         return bad.getBytes(StandardCharsets.UTF_8);
     }
+
+    /**
+     * @param head The request line and headers of a request (without the empty line that ends them).
+     * @return The parsed request. (Its attachment has no outgoing message.)
+     */
+    public static BlizzardRequest parse(String head) throws BadRequestException {
+        return parse(new BlizzardAttachment(), head)[0];
+    }
+
+    /**
+     * Parses pipelined requests as if they had been read from one connection.
+     * @param attachment The attachment of the connection (see connection()).
+     * @param heads The request lines and headers of the requests (without the empty lines that end them).
+     * @return The parsed requests, in order.
+     */
+    public static BlizzardRequest[] parse(BlizzardAttachment attachment, String... heads) throws BadRequestException {
+        BlizzardMessage message = new BlizzardMessage(attachment, 2048);
+        for (String head: heads) message.getCurrent().put((head + "\r\n").getBytes(StandardCharsets.UTF_8));
+        BlizzardRequest[] requests = new BlizzardRequest[heads.length];
+        for (int i = 0; i < heads.length; i++) {
+            if (i > 0) message.restoreInitialValues();
+            assertTrue(message.isDoneProcessing());
+            requests[i] = message.getRequest();
+        }
+        return requests;
+    }
+
+    /**
+     * @return The attachment of a connection whose requests can be answered (it has an outgoing message).
+     */
+    public static BlizzardAttachment connection() {
+        BlizzardAttachment attachment = new BlizzardAttachment();
+        attachment.setOutMessage(new BlizzardOutgoingMessage(attachment));
+        return attachment;
+    }
 }
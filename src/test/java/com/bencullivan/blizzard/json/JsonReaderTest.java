@@ -0,0 +1,134 @@
+package com.bencullivan.blizzard.json;
+
+import com.bencullivan.blizzard.json.Orders.Item;
+import com.bencullivan.blizzard.json.Orders.Order;
+import com.bencullivan.blizzard.json.Orders.Status;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonReaderTest {
+
+    static class Base {
+        long created;
+    }
+
+    static class Account extends Base {
+        String name;
+        int[] scores;
+        Map<String, Integer> limits;
+        String note = "default";
+        transient String ignored = "kept";
+    }
+
+    private static JsonReader reader(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return new JsonReader(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return A stream that returns at most a few bytes from each read, so that tokens span buffer refills.
+     */
+    private static InputStream trickle(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+
+    @Test
+    public void tokenTest() throws IOException {
+        JsonReader reader = reader(" {\"a\": [1, -2.5e3, true, null], \"b\" : \"x\\\"y\"} ");
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertEquals(1, reader.nextInt());
+        assertEquals(-2500.0, reader.nextDouble());
+        assertTrue(reader.nextBoolean());
+        assertTrue(reader.isNull());
+        reader.nextNull();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        assertEquals("x\"y", reader.nextString());
+        reader.endObject();
+        reader.endDocument();
+    }
+
+    @Test
+    public void bindTest() throws IOException {
+        String json = "{\"id\": \"A-1\", \"unknown\": {\"nested\": [1, {\"deep\": \"\\u0041\"}]}, \"quantity\": 3, " +
+                "\"items\": [{\"sku\": \"caf\\u00e9\", \"price\": 2.5}, " +
+                "{\"price\": 10, \"sku\": \"\\ud83d\\ude00\"}], " +
+                "\"status\": \"SHIPPED\"}";
+        Order order = reader(json).read(Order.class);
+        assertEquals(new Order("A-1", 3, List.of(new Item("caf\u00e9", 2.5), new Item("\ud83d\ude00", 10)),
+                Status.SHIPPED, false), order);
+        assertEquals(order, new JsonReader(trickle(json)).read(Order.class));
+    }
+
+    @Test
+    public void objectTest() throws IOException {
+        Account account = new JsonReader(trickle("{\"created\": 1600000000000, \"name\": \"ann\", " +
+                "\"scores\": [3, 1, 2], \"limits\": {\"daily\": 5}, \"ignored\": \"no\"}")).read(Account.class);
+        assertEquals(1600000000000L, account.created);
+        assertEquals("ann", account.name);
+        assertArrayEquals(new int[] {3, 1, 2}, account.scores);
+        assertEquals(Map.of("daily", 5), account.limits);
+        assertEquals("default", account.note);
+        assertEquals("kept", account.ignored);
+    }
+
+    @Test
+    public void naturalTest() throws IOException {
+        Object value = reader("[{\"a\": 1}, 2.5, \"s\", false, null, 12345678901234567890]").read(Object.class);
+        assertEquals(Arrays.asList(Map.of("a", 1L), 2.5, "s", false, null,
+                new java.math.BigInteger("12345678901234567890")), value);
+    }
+
+    @Test
+    public void streamTest() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 10000; i++) json.append(i == 0 ? "" : ",").append("{\"sku\":\"s").append(i)
+                .append("\",\"price\":").append(i).append(".5}");
+        JsonReader reader = new JsonReader(trickle(json.append("]").toString()));
+        reader.beginArray();
+        int count = 0;
+        while (reader.hasNext()) {
+            Item item = reader.read(Item.class);
+            assertEquals("s" + count, item.sku);
+            assertEquals(count + 0.5, item.price);
+            count++;
+        }
+        reader.endArray();
+        reader.endDocument();
+        assertEquals(10000, count);
+    }
+
+    @Test
+    public void malformedTest() {
+        assertThrows(JsonException.class, () -> reader("[1, 2,]").read(Object.class));
+        assertThrows(JsonException.class, () -> reader("{\"a\" 1}").read(Object.class));
+        assertThrows(JsonException.class, () -> reader("[01]").read(Object.class));
+        assertThrows(JsonException.class, () -> reader("[1.]").read(Object.class));
+        assertThrows(JsonException.class, () -> reader("\"open").read(Object.class));
+        assertThrows(JsonException.class, () -> reader("tru").read(Object.class));
+        assertThrows(JsonException.class, () -> reader("{\"quantity\": 1.5}").read(Order.class));
+        assertThrows(JsonException.class, () -> reader("{\"status\": \"LOST\"}").read(Order.class));
+        assertThrows(JsonException.class, () -> {
+            JsonReader reader = reader("{} {}");
+            reader.read(Object.class);
+            reader.endDocument();
+        });
+    }
+}
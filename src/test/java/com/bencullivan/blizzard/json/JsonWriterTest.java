@@ -0,0 +1,107 @@
+package com.bencullivan.blizzard.json;
+
+import com.bencullivan.blizzard.json.Orders.Item;
+import com.bencullivan.blizzard.json.Orders.Order;
+import com.bencullivan.blizzard.json.Orders.Status;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonWriterTest {
+
+    static class Base {
+        long created;
+    }
+
+    static class Account extends Base {
+        String name;
+        int[] scores;
+        transient String ignored = "skipped";
+    }
+
+    private static String json(Object value) throws IOException {
+        return new String(JsonWriter.toBytes(value), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void valueTest() throws IOException {
+        assertEquals("null", json(null));
+        assertEquals("true", json(true));
+        assertEquals("-42", json(-42));
+        assertEquals("9223372036854775807", json(Long.MAX_VALUE));
+        assertEquals("-9223372036854775808", json(Long.MIN_VALUE));
+        assertEquals("2.5", json(2.5));
+        assertEquals("\"SHIPPED\"", json(Status.SHIPPED));
+        assertEquals("\"x\"", json(Optional.of("x")));
+        assertEquals("[1,2,3]", json(new int[] {1, 2, 3}));
+        assertEquals("[0,1,2]", json(IntStream.range(0, 3).boxed()));
+        assertThrows(JsonException.class, () -> json(Double.NaN));
+        assertThrows(JsonException.class, () -> json(Float.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void stringTest() throws IOException {
+        assertEquals("\"a\\\"b\\\\c\\n\\t\\u0001\"", json("a\"b\\c\n\t\u0001"));
+        // two and three byte characters and a surrogate pair are encoded as UTF-8
+        String text = "\u00e9\u20ac\uD83D\uDE00";
+        assertArrayEquals(("\"" + text + "\"").getBytes(StandardCharsets.UTF_8), JsonWriter.toBytes(text));
+        // an unpaired surrogate is escaped
+        assertEquals("\"\\ud83d\"", json("\uD83D"));
+    }
+
+    @Test
+    public void objectTest() throws IOException {
+        Order order = new Order("o-1", 2, List.of(new Item("a", 1.5), new Item("b", 2.0)), Status.OPEN, false);
+        assertEquals("{\"id\":\"o-1\",\"quantity\":2,\"items\":[{\"sku\":\"a\",\"price\":1.5}," +
+                "{\"sku\":\"b\",\"price\":2.0}],\"status\":\"OPEN\",\"gift\":false}", json(order));
+        Account account = new Account();
+        account.created = 7;
+        account.name = "ann";
+        account.scores = new int[] {3};
+        assertEquals("{\"name\":\"ann\",\"scores\":[3],\"created\":7}", json(account));
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("a", null);
+        map.put(1, List.of());
+        assertEquals("{\"a\":null,\"1\":[]}", json(map));
+        assertEquals("{\"k\":1}", json(new JSONObject().put("k", 1)));
+        // a cycle is caught instead of overflowing the stack
+        List<Object> cycle = new ArrayList<>();
+        cycle.add(cycle);
+        assertThrows(JsonException.class, () -> json(cycle));
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        ArrayList<Item> items = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) items.add(new Item("sku-" + i + "-\u00e9\"", i / 4.0));
+        Order order = new Order("big", items.size(), items, Status.SHIPPED, true);
+        byte[] bytes = JsonWriter.toBytes(order);
+        // the JSON is far larger than the writer's buffer, so it was passed on to the stream in pieces
+        assertTrue(bytes.length > 8192);
+        assertEquals(order, new JsonReader(bytes, 0, bytes.length).read(Order.class));
+    }
+
+    @Test
+    public void writerTest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out);
+        writer.value(1).value("x");
+        // the bytes stay in the writer's buffer until it is flushed
+        assertEquals(0, out.size());
+        writer.flush();
+        assertEquals("1\"x\"", out.toString(StandardCharsets.UTF_8));
+        writer.close();
+        assertThrows(IOException.class, () -> writer.value(2));
+    }
+}
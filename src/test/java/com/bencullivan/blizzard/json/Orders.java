@@ -0,0 +1,68 @@
+package com.bencullivan.blizzard.json;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The objects that JsonReaderTest and JsonWriterTest bind JSON to. (They are plain classes rather than records so that
+ * the tests compile on the same Java version as the rest of the project.)
+ */
+public class Orders {
+
+    enum Status { OPEN, SHIPPED }
+
+    static class Item {
+        String sku;
+        double price;
+
+        Item() {}
+
+        Item(String sku, double price) {
+            this.sku = sku;
+            this.price = price;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) return false;
+            Item item = (Item) o;
+            return Objects.equals(sku, item.sku) && Double.compare(price, item.price) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sku, price);
+        }
+    }
+
+    static class Order {
+        String id;
+        int quantity;
+        List<Item> items;
+        Status status;
+        boolean gift;
+
+        Order() {}
+
+        Order(String id, int quantity, List<Item> items, Status status, boolean gift) {
+            this.id = id;
+            this.quantity = quantity;
+            this.items = items;
+            this.status = status;
+            this.gift = gift;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Order)) return false;
+            Order order = (Order) o;
+            return Objects.equals(id, order.id) && quantity == order.quantity && Objects.equals(items, order.items)
+                    && status == order.status && gift == order.gift;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, quantity, items, status, gift);
+        }
+    }
+}
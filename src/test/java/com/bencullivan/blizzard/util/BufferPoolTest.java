@@ -0,0 +1,53 @@
+package com.bencullivan.blizzard.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void preallocatedBuffersAreReusedTest() {
+        BufferPool pool = new BufferPool(64, 2, 4, true, true);
+        assertEquals(2, pool.getPooledCount());
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        assertTrue(a.isDirect());
+        assertEquals(64, a.capacity());
+        assertEquals(64, b.remaining());
+        a.put((byte) 1);
+        pool.release(a);
+        ByteBuffer c = pool.acquire();
+        assertSame(a, c);
+        assertEquals(0, c.position());
+        assertEquals(3, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    @Test
+    public void missesAndDiscardsTest() {
+        BufferPool pool = new BufferPool(16, 0, 1, false, true);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        assertFalse(a.isDirect());
+        assertEquals(2, pool.getMissCount());
+        pool.release(a);
+        pool.release(b);
+        assertEquals(1, pool.getPooledCount());
+        assertEquals(1, pool.getDiscardCount());
+        // buffers that did not come from the pool are ignored
+        pool.release(ByteBuffer.allocate(32));
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    public void statsDisabledTest() {
+        BufferPool pool = new BufferPool(16, 1, 1, false, false);
+        pool.acquire();
+        pool.acquire();
+        assertEquals(0, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+}
@@ -0,0 +1,86 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.http.BlizzardResponse;
+import com.bencullivan.blizzard.http.CachedResponse;
+import com.bencullivan.blizzard.http.Requests;
+import com.bencullivan.blizzard.http.exceptions.BadRequestException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTest {
+
+    private static final CachePolicy POLICY = CachePolicy.ttl(1, TimeUnit.MINUTES);
+
+    private CachedResponse response(String text) {
+        BlizzardResponse response = new BlizzardResponse(new BlizzardStore(1,1,1).getReasonPhrases());
+        response.sendText(text).sendStatus(200);
+        response.finish();
+        return response.toCached();
+    }
+
+    @Test
+    public void keyTest() throws BadRequestException {
+        String key = ResponseCache.keyOf(Requests.parse("GET /products?page=2 HTTP/1.1\r\n"), POLICY, 1024);
+        // the query string is part of the key
+        assertNotEquals(key, ResponseCache.keyOf(Requests.parse("GET /products?page=3 HTTP/1.1\r\n"), POLICY, 1024));
+        // so is the negotiated encoding, but not the exact Accept-Encoding header
+        String gzip = ResponseCache.keyOf(Requests.parse("GET /products?page=2 HTTP/1.1\r\n" +
+                "Accept-Encoding: gzip\r\n"), POLICY, 1024);
+        assertNotEquals(key, gzip);
+        assertEquals(gzip, ResponseCache.keyOf(Requests.parse("GET /products?page=2 HTTP/1.1\r\n" +
+                "Accept-Encoding: gzip, br\r\n"), POLICY, 1024));
+        // the headers that the policy varies by are part of the key
+        CachePolicy language = POLICY.varyBy("Accept-Language");
+        assertNotEquals(
+                ResponseCache.keyOf(Requests.parse("GET /products HTTP/1.1\r\nAccept-Language: en\r\n"), language, -1),
+                ResponseCache.keyOf(Requests.parse("GET /products HTTP/1.1\r\nAccept-Language: fr\r\n"), language, -1));
+        // a request that closes the connection is answered with different headers
+        assertNotEquals(key, ResponseCache.keyOf(Requests.parse("GET /products?page=2 HTTP/1.1\r\n" +
+                "Connection: close\r\n"), POLICY, 1024));
+    }
+
+    @Test
+    public void getPutTest() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(1024 * 1024);
+        assertNull(cache.get("a"));
+        CachedResponse a = response("first");
+        cache.put("a", a, 60000);
+        assertSame(a, cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(a.getSize() + 2, cache.getSize());
+        // an out of date response is removed when it is looked up
+        cache.put("b", response("second"), 1);
+        Thread.sleep(5);
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(1, cache.getEntryCount());
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void evictionTest() {
+        CachedResponse response = response("x".repeat(100));
+        // there is room for two of the responses
+        ResponseCache cache = new ResponseCache(2 * (response.getSize() + 2));
+        cache.put("a", response, 60000);
+        cache.put("b", response, 60000);
+        // using a makes b the least recently used response
+        assertNotNull(cache.get("a"));
+        cache.put("c", response, 60000);
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        // a response that is larger than the whole cache is not kept
+        ResponseCache small = new ResponseCache(10);
+        small.put("d", response, 60000);
+        assertEquals(0, small.getEntryCount());
+    }
+}
@@ -0,0 +1,176 @@
+package com.bencullivan.blizzard.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingBufferQueueTest {
+
+    @Test
+    public void mpmcOrderAndCapacityTest() {
+        orderAndCapacity(new MpmcRingBuffer<>(6));
+    }
+
+    @Test
+    public void spscOrderAndCapacityTest() {
+        orderAndCapacity(new SpscRingBuffer<>(6));
+    }
+
+    public void orderAndCapacity(BlockingQueue<Integer> queue) {
+        // the ring has 8 slots, but the queue never holds more elements than its capacity
+        assertEquals(6, queue.remainingCapacity());
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 6; i++) assertTrue(queue.offer(i));
+            assertFalse(queue.offer(6));
+            assertEquals(6, queue.size());
+            assertEquals(0, (int) queue.peek());
+            for (int i = 0; i < 6; i++) assertEquals(i, (int) queue.poll());
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void mpmcDrainTest() {
+        drain(new MpmcRingBuffer<>(16));
+    }
+
+    @Test
+    public void spscDrainTest() {
+        drain(new SpscRingBuffer<>(16));
+    }
+
+    public void drain(BlockingQueue<Integer> queue) {
+        for (int i = 0; i < 11; i++) queue.offer(i);
+        ArrayList<Integer> batch = new ArrayList<>();
+        assertEquals(8, queue.drainTo(batch, 8));
+        assertEquals(3, queue.drainTo(batch, 8));
+        assertEquals(0, queue.drainTo(batch, 8));
+        for (int i = 0; i < 11; i++) assertEquals(i, (int) batch.get(i));
+    }
+
+    @Test
+    public void mpmcIterateAndRemoveTest() {
+        iterateAndRemove(new MpmcRingBuffer<>(8));
+    }
+
+    @Test
+    public void spscIterateAndRemoveTest() {
+        iterateAndRemove(new SpscRingBuffer<>(8));
+    }
+
+    public void iterateAndRemove(BlockingQueue<Integer> queue) {
+        for (int i = 0; i < 6; i++) queue.offer(i);
+        assertEquals("[0, 1, 2, 3, 4, 5]", queue.toString());
+        assertTrue(queue.contains(3));
+        assertFalse(queue.contains(6));
+        // removed elements are skipped by the consumers
+        assertTrue(queue.remove(0));
+        assertFalse(queue.remove(0));
+        assertEquals(1, (int) queue.peek());
+        Iterator<Integer> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() % 2 == 1) iterator.remove();
+        }
+        assertThrows(IllegalStateException.class, iterator::remove);
+        assertEquals("[2, 4]", queue.toString());
+        ArrayList<Integer> batch = new ArrayList<>();
+        assertEquals(1, queue.drainTo(batch, 1));
+        assertEquals(4, (int) queue.poll());
+        assertNull(queue.poll());
+        assertNull(queue.peek());
+        assertEquals(List.of(2), batch);
+        assertTrue(queue.addAll(List.of(7, 8)));
+        assertEquals("[7, 8]", queue.toString());
+    }
+
+    @Test
+    public void blockedTakeIsWokenTest() throws InterruptedException {
+        MpmcRingBuffer<Integer> queue = new MpmcRingBuffer<>(4);
+        Thread producer = new Thread(() -> {
+            try {
+                // give the consumer time to park
+                Thread.sleep(50);
+                queue.put(42);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        producer.start();
+        assertEquals(42, (int) queue.take());
+        producer.join();
+    }
+
+    @Test
+    public void mpmcConcurrentTest() throws InterruptedException {
+        MpmcRingBuffer<Long> queue = new MpmcRingBuffer<>(64);
+        int producers = 4, consumers = 4, perProducer = 20000;
+        AtomicLong sum = new AtomicLong();
+        Thread[] threads = new Thread[producers + consumers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(() -> {
+                try {
+                    for (long i = 1; i <= perProducer; i++) queue.put(i);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads[producers + c] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < perProducer; i++) sum.addAndGet(queue.take());
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        for (Thread thread: threads) thread.start();
+        for (Thread thread: threads) thread.join();
+        assertEquals((long) producers * perProducer * (perProducer + 1) / 2, sum.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void mpmcConcurrentRemoveTest() throws InterruptedException {
+        MpmcRingBuffer<Long> queue = new MpmcRingBuffer<>(64);
+        int perProducer = 20000;
+        AtomicLong taken = new AtomicLong();
+        AtomicLong removed = new AtomicLong();
+        Thread producer = new Thread(() -> {
+            try {
+                for (long i = 1; i <= perProducer; i++) queue.put(i);
+                // tells the consumer that there is nothing left to take
+                queue.put(-1L);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread consumer = new Thread(() -> {
+            try {
+                for (long e = queue.take(); e != -1; e = queue.take()) taken.addAndGet(e);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread remover = new Thread(() -> {
+            // an element is either taken or removed, never both
+            for (long i = 1; i <= perProducer; i += 3) {
+                if (queue.remove(i)) removed.addAndGet(i);
+            }
+        });
+        producer.start();
+        consumer.start();
+        remover.start();
+        producer.join();
+        consumer.join();
+        remover.join();
+        assertEquals((long) perProducer * (perProducer + 1) / 2, taken.get() + removed.get());
+    }
+}
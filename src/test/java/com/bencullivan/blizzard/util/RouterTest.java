@@ -0,0 +1,102 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.events.BodyMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RouterTest {
+
+    private Router router = new Router();
+
+    @AfterEach
+    public void resetRouter() {
+        router = new Router();
+    }
+
+    private void insert(String path) {
+        router.insert(path, (req, res) -> System.out.println("yay"), BodyMode.BUFFERED);
+    }
+
+    /**
+     * @return The values of the url parameters that the path matched.
+     */
+    private String[] params(String path) {
+        int[] bounds = new int[2*router.getMaxParams()];
+        Route route = router.match(path, bounds);
+        String[] values = new String[route.getParamNames().length];
+        for (int i = 0; i < values.length; i++) values[i] = path.substring(bounds[2*i], bounds[2*i+1]);
+        return values;
+    }
+
+    @Test
+    public void staticTest() {
+        insert("/");
+        insert("/posts");
+        insert("/posts/all");
+        insert("/postal");
+        insert("/pets");
+        int[] params = new int[0];
+        assertEquals("/", router.match("/", params).getPath());
+        assertEquals("/posts", router.match("/posts", params).getPath());
+        assertEquals("/posts/all", router.match("/posts/all/", params).getPath());
+        assertEquals("/postal", router.match("/postal", params).getPath());
+        assertEquals("/pets", router.match("/pets", params).getPath());
+        assertNull(router.match("/post", params));
+        assertNull(router.match("/posts/al", params));
+        assertNull(router.match("/posts/all/more", params));
+        assertNull(router.match("posts", params));
+    }
+
+    @Test
+    public void paramTest() {
+        insert("/users/:id");
+        insert("/users/:userId/posts/:postId");
+        insert("/teams/:team/members/:member/roles/:role");
+        assertEquals(3, router.getMaxParams());
+        assertArrayEquals(new String[] {"42"}, params("/users/42"));
+        assertArrayEquals(new String[] {"42", "7"}, params("/users/42/posts/7"));
+        assertArrayEquals(new String[] {"red", "ann", "admin"}, params("/teams/red/members/ann/roles/admin"));
+        assertArrayEquals(new String[] {"userId", "postId"},
+                router.match("/users/1/posts/2", new int[6]).getParamNames());
+        // a parameter cannot be empty or span several segments
+        assertNull(router.match("/users//posts/7", new int[6]));
+        assertNull(router.match("/users/42/7", new int[6]));
+    }
+
+    @Test
+    public void precedenceTest() {
+        insert("/users/:id");
+        insert("/users/me");
+        insert("/files/*path");
+        insert("/files/:name/info");
+        assertEquals("/users/me", router.match("/users/me", new int[4]).getPath());
+        assertEquals("/users/:id", router.match("/users/mel", new int[4]).getPath());
+        assertEquals("/files/:name/info", router.match("/files/a/info", new int[4]).getPath());
+        // the parameter branch does not lead to a route, so the wildcard is tried
+        assertEquals("/files/*path", router.match("/files/a/b/c", new int[4]).getPath());
+        assertArrayEquals(new String[] {"a/b/c"}, params("/files/a/b/c"));
+    }
+
+    @Test
+    public void backtrackTest() {
+        insert("/users/me/settings");
+        insert("/users/:id/profile");
+        // the static segment matches but does not lead to a route, so the parameter is tried
+        assertArrayEquals(new String[] {"me"}, params("/users/me/profile"));
+        assertEquals("/users/me/settings", router.match("/users/me/settings", new int[2]).getPath());
+    }
+
+    @Test
+    public void insertExceptTest() {
+        assertThrows(IllegalArgumentException.class, () -> insert("/files/*path/more"));
+        insert("/ok");
+        router.freeze();
+        assertThrows(IllegalStateException.class, () -> insert("/late"));
+        assertEquals("/ok", router.match("/ok", new int[0]).getPath());
+    }
+}
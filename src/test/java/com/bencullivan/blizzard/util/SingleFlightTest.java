@@ -0,0 +1,37 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.http.BlizzardAttachment;
+import com.bencullivan.blizzard.http.BlizzardRequest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void joinLandTest() {
+        SingleFlight singleFlight = new SingleFlight();
+        BlizzardRequest leader = new BlizzardRequest(new BlizzardAttachment());
+        BlizzardRequest first = new BlizzardRequest(new BlizzardAttachment());
+        BlizzardRequest second = new BlizzardRequest(new BlizzardAttachment());
+        SingleFlight.Flight flight = singleFlight.join("a", leader);
+        assertNotNull(flight);
+        assertEquals("a", flight.getKey());
+        // identical requests join the flight, and other keys get their own
+        assertNull(singleFlight.join("a", first));
+        assertNull(singleFlight.join("a", second));
+        SingleFlight.Flight other = singleFlight.join("b", first);
+        assertNotNull(other);
+        assertEquals(2, singleFlight.getFlightCount());
+        assertEquals(2, singleFlight.getCoalescedRequests());
+        assertEquals(List.of(first, second), flight.land());
+        // a flight only lands once
+        assertTrue(flight.land().isEmpty());
+        assertTrue(other.land().isEmpty());
+        assertEquals(0, singleFlight.getFlightCount());
+        // the next request with the key leads a new flight
+        assertNotNull(singleFlight.join("a", second));
+    }
+}
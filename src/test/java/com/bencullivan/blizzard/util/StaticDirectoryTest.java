@@ -0,0 +1,139 @@
+package com.bencullivan.blizzard.util;
+
+import com.bencullivan.blizzard.http.BlizzardRequest;
+import com.bencullivan.blizzard.http.BlizzardResponse;
+import com.bencullivan.blizzard.http.Requests;
+import com.bencullivan.blizzard.http.exceptions.BadRequestException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StaticDirectoryTest {
+
+    private Path directory = Files.createTempDirectory("blizzard-static");
+
+    public StaticDirectoryTest() throws IOException {
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        for (Path file: Files.list(directory).toArray(Path[]::new)) Files.delete(file);
+        Files.delete(directory);
+    }
+
+    private String serve(StaticDirectory staticDirectory, String head) throws BadRequestException {
+        BlizzardResponse response = new BlizzardResponse(new BlizzardStore(1,1,1).getReasonPhrases());
+        BlizzardRequest request = Requests.parse(head);
+        response.setCompression(request.getHeader("accept-encoding"), 1024);
+        if (!staticDirectory.serve(request, response)) return null;
+        response.finish();
+        return new String(response.getMessage().array(), StandardCharsets.UTF_8);
+    }
+
+    private static String etagOf(String head) {
+        int start = head.indexOf("ETag:") + 5;
+        return head.substring(start, head.indexOf("\r\n", start));
+    }
+
+    @Test
+    public void serveCachedFileTest() throws IOException, BadRequestException {
+        Files.write(directory.resolve("app.js"), "hello".getBytes(StandardCharsets.UTF_8));
+        StaticDirectory staticDirectory = new StaticDirectory("/assets/", directory.toString(), 1024, 1024);
+        String head = serve(staticDirectory, "GET /assets/app.js?v=1 HTTP/1.1\r\n");
+        assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(head.contains("Content-Type:text/javascript; charset=UTF-8\r\n"));
+        assertTrue(head.contains("Content-Length:5\r\n"));
+        assertTrue(head.contains("Last-Modified:"));
+        assertEquals(5, staticDirectory.getCacheSize());
+        assertNull(serve(staticDirectory, "GET /other/app.js HTTP/1.1\r\n"));
+        assertNull(serve(staticDirectory, "GET /assets/missing.js HTTP/1.1\r\n"));
+    }
+
+    @Test
+    public void notModifiedTest() throws IOException, BadRequestException {
+        Files.write(directory.resolve("index.html"), "<p>hi</p>".getBytes(StandardCharsets.UTF_8));
+        StaticDirectory staticDirectory = new StaticDirectory("/", directory.toString(), 1024, 1024);
+        String etag = etagOf(serve(staticDirectory, "GET / HTTP/1.1\r\n"));
+        String head = serve(staticDirectory, "GET /index.html HTTP/1.1\r\nIf-None-Match: \"x\", " + etag + "\r\n");
+        assertTrue(head.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertFalse(head.contains("Content-Length"));
+        assertTrue(head.endsWith("\r\n\r\n"));
+        head = serve(staticDirectory, "GET /index.html HTTP/1.1\r\nIf-None-Match: \"x\"\r\n");
+        assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"));
+        head = serve(staticDirectory, "GET /index.html HTTP/1.1\r\n" +
+                "If-Modified-Since: Fri, 01 Jan 2100 00:00:00 GMT\r\n");
+        assertTrue(head.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        head = serve(staticDirectory, "GET /index.html HTTP/1.1\r\n" +
+                "If-Modified-Since: Thu, 1 Jan 1970 00:00:00 GMT\r\n");
+        assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"));
+    }
+
+    @Test
+    public void invalidateTest() throws IOException, BadRequestException {
+        Path file = directory.resolve("data.json");
+        Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+        StaticDirectory staticDirectory = new StaticDirectory("/", directory.toString(), 1024, 1024);
+        assertTrue(serve(staticDirectory, "GET /data.json HTTP/1.1\r\n").contains("Content-Length:2\r\n"));
+        // (the watcher thread may invalidate the file as well)
+        Files.write(file, "[1,2]".getBytes(StandardCharsets.UTF_8));
+        staticDirectory.invalidate(file);
+        assertEquals(0, staticDirectory.getCacheSize());
+        assertTrue(serve(staticDirectory, "GET /data.json HTTP/1.1\r\n").contains("Content-Length:5\r\n"));
+    }
+
+    @Test
+    public void gzipTest() throws IOException, BadRequestException {
+        Files.write(directory.resolve("app.js"), "let a = 1;".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("app.js.gz"), new byte[4]);
+        Files.write(directory.resolve("data.json"), "[1,2,3]".repeat(100).getBytes(StandardCharsets.UTF_8));
+        StaticDirectory staticDirectory = new StaticDirectory("/", directory.toString(), 4096, 4096);
+        // the pre-compressed copy is sent to clients that accept gzip
+        String head = serve(staticDirectory, "GET /app.js HTTP/1.1\r\nAccept-Encoding: gzip, deflate\r\n");
+        assertTrue(head.contains("Content-Type:text/javascript; charset=UTF-8\r\n"));
+        assertTrue(head.contains("Content-Encoding:gzip\r\n"));
+        assertTrue(head.contains("Content-Length:4\r\n"));
+        assertTrue(head.contains("Vary:Accept-Encoding\r\n"));
+        String gzipEtag = etagOf(head);
+        head = serve(staticDirectory, "GET /app.js HTTP/1.1\r\n");
+        assertFalse(head.contains("Content-Encoding"));
+        assertTrue(head.contains("Content-Length:10\r\n"));
+        assertTrue(head.contains("Vary:Accept-Encoding\r\n"));
+        assertNotEquals(gzipEtag, etagOf(head));
+        assertEquals(14, staticDirectory.getCacheSize());
+        // other compressible files are compressed once, when they are cached
+        head = serve(staticDirectory, "GET /data.json HTTP/1.1\r\nAccept-Encoding: gzip\r\n");
+        assertTrue(head.contains("Content-Encoding:gzip\r\n"));
+        assertTrue(staticDirectory.getCacheSize() > 14 + 700);
+    }
+
+    @Test
+    public void evictionTest() throws IOException, BadRequestException {
+        Files.write(directory.resolve("a.txt"), new byte[6]);
+        Files.write(directory.resolve("b.txt"), new byte[6]);
+        Files.write(directory.resolve("big.txt"), new byte[20]);
+        StaticDirectory staticDirectory = new StaticDirectory("/", directory.toString(), 10, 10);
+        serve(staticDirectory, "GET /a.txt HTTP/1.1\r\n");
+        serve(staticDirectory, "GET /b.txt HTTP/1.1\r\n");
+        // the least recently used file was evicted
+        assertEquals(6, staticDirectory.getCacheSize());
+        // files that are too large are streamed instead of being cached
+        assertTrue(serve(staticDirectory, "GET /big.txt HTTP/1.1\r\n").contains("Content-Length:20\r\n"));
+        assertEquals(6, staticDirectory.getCacheSize());
+    }
+
+    @Test
+    public void resolveTest() throws IOException {
+        StaticDirectory staticDirectory = new StaticDirectory("/assets", directory.toString(), 1024, 1024);
+        assertEquals(directory.toAbsolutePath().resolve("a b.css"), staticDirectory.resolve("/assets/a%20b.css"));
+        assertEquals(directory.toAbsolutePath().resolve("index.html"), staticDirectory.resolve("/assets"));
+        assertNull(staticDirectory.resolve("/assets/../secret.txt"));
+        assertNull(staticDirectory.resolve("/assets/%2e%2e/secret.txt"));
+        assertNull(staticDirectory.resolve("/assetsx/a.css"));
+    }
+}